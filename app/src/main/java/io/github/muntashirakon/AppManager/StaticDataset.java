@@ -28,10 +28,14 @@ import io.github.muntashirakon.AppManager.debloat.SuggestionObject;
 import io.github.muntashirakon.AppManager.misc.VMRuntime;
 import io.github.muntashirakon.AppManager.utils.ContextUtils;
 import io.github.muntashirakon.AppManager.utils.FileUtils;
+import io.github.muntashirakon.AppManager.utils.MultiStringMatcher;
 
 public class StaticDataset {
     private static String[] sTrackerCodeSignatures;
     private static String[] sTrackerNames;
+    private static MultiStringMatcher sTrackerSignatureMatcher;
+    private static String[] sLibrarySignatures;
+    private static MultiStringMatcher sLibrarySignatureMatcher;
     private static List<DebloatObject> sDebloatObjects;
 
     public static final String ARMEABI_V7A = "armeabi_v7a";
@@ -89,6 +93,35 @@ public class StaticDataset {
         return sTrackerCodeSignatures;
     }
 
+    /**
+     * Matcher for {@link #getTrackerCodeSignatures()}
+     */
+    @NonNull
+    public static MultiStringMatcher getTrackerSignatureMatcher() {
+        if (sTrackerSignatureMatcher == null) {
+            sTrackerSignatureMatcher = new MultiStringMatcher(getTrackerCodeSignatures());
+        }
+        return sTrackerSignatureMatcher;
+    }
+
+    public static String[] getLibrarySignatures() {
+        if (sLibrarySignatures == null) {
+            sLibrarySignatures = ContextUtils.getContext().getResources().getStringArray(R.array.lib_signatures);
+        }
+        return sLibrarySignatures;
+    }
+
+    /**
+     * Matcher for {@link #getLibrarySignatures()}
+     */
+    @NonNull
+    public static MultiStringMatcher getLibrarySignatureMatcher() {
+        if (sLibrarySignatureMatcher == null) {
+            sLibrarySignatureMatcher = new MultiStringMatcher(getLibrarySignatures());
+        }
+        return sLibrarySignatureMatcher;
+    }
+
     public static String[] getTrackerNames() {
         if (sTrackerNames == null) {
             sTrackerNames = ContextUtils.getContext().getResources().getStringArray(R.array.tracker_names);
@@ -97,7 +130,7 @@ public class StaticDataset {
     }
 
     @WorkerThread
-    public static List<DebloatObject> getDebloatObjects() {
+    public static synchronized List<DebloatObject> getDebloatObjects() {
         if (sDebloatObjects == null) {
             sDebloatObjects = loadDebloatObjects(ContextUtils.getContext(), new Gson());
         }
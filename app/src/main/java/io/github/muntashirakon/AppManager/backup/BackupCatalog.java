@@ -0,0 +1,344 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.backup;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.io.Path;
+
+/**
+ * An append-only index of the metadata of all the backups in the backup volume, so that the metadata files do not have
+ * to be read one by one every time the backups are loaded. Every backup written or deleted by the app is recorded, so
+ * the catalog is trusted as long as it has the same backups as the directory listing of the backup volume. Otherwise,
+ * the backups were modified outside the app, and each backup is validated against the stamp recorded for it, i.e.
+ * the modification time and the size of its metadata file, which is written anew whenever a backup is replaced.
+ * Directories are not used for this purpose since their modification times are unreliable with SAF. Only the backups
+ * whose stamps do not match are read again.
+ * <p>
+ * Each line of the catalog is either {@code +\tkey\tlast_modified\tsize\tmetadata_json} when a backup is added, or
+ * {@code -\tkey} when a backup is deleted, where {@code key} is the path of the backup relative to the backup volume,
+ * e.g. {@code package/backup} or {@code uuid}. The last line for a key wins. Directories that are not backups are
+ * recorded with an empty {@code metadata_json} so that the directory listing still matches the catalog.
+ */
+final class BackupCatalog {
+    public static final String TAG = BackupCatalog.class.getSimpleName();
+
+    static final String CATALOG_FILE = "backup_catalog.am.tsv";
+
+    private static final char OP_PUT = '+';
+    private static final char OP_REMOVE = '-';
+    // Rewrite the catalog once it has this many obsolete lines
+    private static final int MAX_OBSOLETE_LINES = 256;
+
+    private static final Object sLock = new Object();
+
+    private static final class Entry {
+        static final Entry NOT_A_BACKUP = new Entry(0, 0, "");
+
+        final long lastModified;
+        final long size;
+        @NonNull
+        final String json;
+
+        Entry(long lastModified, long size, @NonNull String json) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.json = json;
+        }
+
+        Entry(@NonNull Path metadataFile, @NonNull String json) {
+            this(metadataFile.lastModified(), metadataFile.length(), json);
+        }
+
+        boolean matches(@NonNull Path metadataFile) {
+            return lastModified == metadataFile.lastModified() && size == metadataFile.length();
+        }
+
+        boolean isBackup() {
+            return !json.isEmpty();
+        }
+    }
+
+    /**
+     * Record a backup that has just been created or replaced.
+     */
+    @WorkerThread
+    static void put(@NonNull MetadataManager.Metadata metadata) {
+        put(BackupFiles.getBaseDirectory(), metadata);
+    }
+
+    @VisibleForTesting
+    static void put(@NonNull Path baseDirectory, @NonNull MetadataManager.Metadata metadata) {
+        synchronized (sLock) {
+            try {
+                Path backupPath = getBackupPath(baseDirectory, metadata);
+                Entry entry = new Entry(backupPath.findFile(MetadataManager.META_FILE),
+                        MetadataManager.toJson(metadata).toString());
+                append(baseDirectory, OP_PUT + "\t" + getKey(baseDirectory, backupPath) + "\t" + entry.lastModified
+                        + "\t" + entry.size + "\t" + entry.json + "\n");
+            } catch (IOException | JSONException e) {
+                // The backup will be read during the next validation
+                Log.w(TAG, "Could not add %s/%s to the catalog", e, metadata.packageName, metadata.backupName);
+            }
+        }
+    }
+
+    /**
+     * Record a backup that has just been deleted.
+     */
+    @WorkerThread
+    static void remove(@NonNull MetadataManager.Metadata metadata) {
+        remove(BackupFiles.getBaseDirectory(), metadata);
+    }
+
+    @VisibleForTesting
+    static void remove(@NonNull Path baseDirectory, @NonNull MetadataManager.Metadata metadata) {
+        synchronized (sLock) {
+            try {
+                Path backupPath = getBackupPath(baseDirectory, metadata);
+                append(baseDirectory, OP_REMOVE + "\t" + getKey(baseDirectory, backupPath) + "\n");
+            } catch (IOException e) {
+                Log.w(TAG, "Could not remove %s/%s from the catalog", e, metadata.packageName, metadata.backupName);
+            }
+        }
+    }
+
+    /**
+     * Retrieve the metadata of all the backups. If the catalog has exactly the given backups, the metadata is read from
+     * the catalog without accessing the backups. Otherwise, the metadata is read from the catalog except for the backups
+     * that are missing from the catalog or have been modified since they were recorded, and the catalog is rewritten.
+     *
+     * @param backupPaths All the backups in the backup volume
+     */
+    @WorkerThread
+    @NonNull
+    static List<MetadataManager.Metadata> getAllMetadata(@NonNull List<Path> backupPaths) {
+        return getAllMetadata(BackupFiles.getBaseDirectory(), backupPaths);
+    }
+
+    @VisibleForTesting
+    @NonNull
+    static List<MetadataManager.Metadata> getAllMetadata(@NonNull Path baseDirectory,
+                                                         @NonNull List<Path> backupPaths) {
+        synchronized (sLock) {
+            Map<String, Entry> catalog = new HashMap<>();
+            int lineCount = read(baseDirectory, catalog);
+            List<String> keys = new ArrayList<>(backupPaths.size());
+            boolean listingMatches = catalog.size() == backupPaths.size();
+            for (Path backupPath : backupPaths) {
+                String key = getKey(baseDirectory, backupPath);
+                keys.add(key);
+                listingMatches &= catalog.containsKey(key);
+            }
+            if (listingMatches) {
+                List<MetadataManager.Metadata> metadataList = getAllMetadata(catalog, keys, backupPaths);
+                if (metadataList != null) {
+                    if (lineCount - catalog.size() > MAX_OBSOLETE_LINES) {
+                        write(baseDirectory, catalog);
+                    }
+                    return metadataList;
+                }
+                // Fall back to validating the backups
+            }
+            Map<String, Entry> validatedCatalog = new LinkedHashMap<>(backupPaths.size());
+            List<MetadataManager.Metadata> metadataList = new ArrayList<>(backupPaths.size());
+            boolean modified = false;
+            for (int i = 0; i < backupPaths.size(); ++i) {
+                Path backupPath = backupPaths.get(i);
+                String key = keys.get(i);
+                Entry entry = catalog.remove(key);
+                Path metadataFile;
+                try {
+                    metadataFile = backupPath.findFile(MetadataManager.META_FILE);
+                } catch (FileNotFoundException e) {
+                    // Not a backup
+                    modified |= entry == null || entry.isBackup();
+                    validatedCatalog.put(key, Entry.NOT_A_BACKUP);
+                    continue;
+                }
+                MetadataManager.Metadata metadata = null;
+                if (entry != null && entry.matches(metadataFile)) {
+                    if (!entry.isBackup()) {
+                        validatedCatalog.put(key, entry);
+                        continue;
+                    }
+                    try {
+                        metadata = MetadataManager.fromJson(new JSONObject(entry.json),
+                                new BackupFiles.BackupFile(backupPath, false));
+                    } catch (IOException | JSONException e) {
+                        Log.w(TAG, "Invalid catalog entry for %s", e, key);
+                    }
+                }
+                if (metadata == null) {
+                    // Not in the catalog or modified since then
+                    modified = true;
+                    try {
+                        metadata = MetadataManager.getMetadata(backupPath);
+                        entry = new Entry(metadataFile, MetadataManager.toJson(metadata).toString());
+                    } catch (IOException | JSONException e) {
+                        // Not a backup until the metadata file is replaced
+                        Log.w(TAG, "Could not read the metadata of %s", e, key);
+                        validatedCatalog.put(key, new Entry(metadataFile, ""));
+                        continue;
+                    }
+                }
+                validatedCatalog.put(key, entry);
+                metadataList.add(metadata);
+            }
+            // The remaining backups no longer exist
+            modified |= !catalog.isEmpty();
+            if (modified || lineCount - validatedCatalog.size() > MAX_OBSOLETE_LINES) {
+                write(baseDirectory, validatedCatalog);
+            }
+            return metadataList;
+        }
+    }
+
+    /**
+     * Read the metadata of the given backups from the catalog alone.
+     *
+     * @return The metadata, or {@code null} if any of the entries is invalid
+     */
+    @Nullable
+    private static List<MetadataManager.Metadata> getAllMetadata(@NonNull Map<String, Entry> catalog,
+                                                                 @NonNull List<String> keys,
+                                                                 @NonNull List<Path> backupPaths) {
+        List<MetadataManager.Metadata> metadataList = new ArrayList<>(backupPaths.size());
+        for (int i = 0; i < backupPaths.size(); ++i) {
+            String key = keys.get(i);
+            Entry entry = Objects.requireNonNull(catalog.get(key));
+            if (!entry.isBackup()) {
+                continue;
+            }
+            try {
+                metadataList.add(MetadataManager.fromJson(new JSONObject(entry.json),
+                        new BackupFiles.BackupFile(backupPaths.get(i), false)));
+            } catch (IOException | JSONException e) {
+                Log.w(TAG, "Invalid catalog entry for %s", e, key);
+                return null;
+            }
+        }
+        return metadataList;
+    }
+
+    /**
+     * Get the location of a backup. Backups read from the backup volume may be UUID-based, but the new backups are
+     * always stored by their package names.
+     */
+    @NonNull
+    private static Path getBackupPath(@NonNull Path baseDirectory, @NonNull MetadataManager.Metadata metadata)
+            throws FileNotFoundException {
+        if (metadata.backupFile != null) {
+            return metadata.backupFile.getBackupPath();
+        }
+        return baseDirectory.findFile(metadata.packageName).findFile(metadata.backupName);
+    }
+
+    @VisibleForTesting
+    @NonNull
+    static String getKey(@NonNull Path baseDirectory, @NonNull Path backupPath) {
+        Path parent = backupPath.getParent();
+        if (parent == null || parent.equals(baseDirectory)) {
+            // UUID-based backup
+            return backupPath.getName();
+        }
+        return parent.getName() + "/" + backupPath.getName();
+    }
+
+    /**
+     * Read the catalog, and return the number of lines read.
+     */
+    private static int read(@NonNull Path baseDirectory, @NonNull Map<String, Entry> catalog) {
+        if (!baseDirectory.hasFile(CATALOG_FILE)) {
+            return 0;
+        }
+        int lineCount = 0;
+        try (InputStream is = baseDirectory.findFile(CATALOG_FILE).openInputStream()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                ++lineCount;
+                Map.Entry<String, Entry> record = parseLine(line);
+                if (record == null) {
+                    // e.g. an interrupted write, the backup will be read again
+                    continue;
+                }
+                if (record.getValue() != null) {
+                    catalog.put(record.getKey(), record.getValue());
+                } else catalog.remove(record.getKey());
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read the catalog", e);
+        }
+        return lineCount;
+    }
+
+    /**
+     * @return The key and the entry, where the entry is {@code null} if the backup was removed, or {@code null} if the
+     * line is malformed
+     */
+    @Nullable
+    private static Map.Entry<String, Entry> parseLine(@NonNull String line) {
+        String[] fields = line.split("\t", 5);
+        if (fields.length == 2 && fields[0].length() == 1 && fields[0].charAt(0) == OP_REMOVE) {
+            return new AbstractMap.SimpleEntry<>(fields[1], null);
+        }
+        if (fields.length == 5 && fields[0].length() == 1 && fields[0].charAt(0) == OP_PUT) {
+            try {
+                return new AbstractMap.SimpleEntry<>(fields[1], new Entry(Long.parseLong(fields[2]),
+                        Long.parseLong(fields[3]), fields[4]));
+            } catch (NumberFormatException ignore) {
+            }
+        }
+        return null;
+    }
+
+    private static void append(@NonNull Path baseDirectory, @NonNull String line) throws IOException {
+        Path catalogFile = baseDirectory.findOrCreateFile(CATALOG_FILE, null);
+        try (OutputStream os = catalogFile.openOutputStream(true)) {
+            os.write(line.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void write(@NonNull Path baseDirectory, @NonNull Map<String, Entry> catalog) {
+        try {
+            Path catalogFile = baseDirectory.findOrCreateFile(CATALOG_FILE, null);
+            try (OutputStream os = catalogFile.openOutputStream()) {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+                for (Map.Entry<String, Entry> record : catalog.entrySet()) {
+                    Entry entry = record.getValue();
+                    writer.write(OP_PUT + "\t" + record.getKey() + "\t" + entry.lastModified + "\t" + entry.size
+                            + "\t" + entry.json + "\n");
+                }
+                writer.flush();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write the catalog", e);
+        }
+    }
+}
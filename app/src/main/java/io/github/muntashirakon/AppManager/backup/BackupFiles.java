@@ -12,6 +12,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 
@@ -23,10 +24,12 @@ import io.github.muntashirakon.io.PathWriter;
 public class BackupFiles {
     static final String APK_SAVING_DIRECTORY = "apks";
     static final String TEMPORARY_DIRECTORY = ".tmp";
+    static final String CHUNK_STORE_DIRECTORY = ".chunks";
 
     static final String RULES_TSV = "rules.am.tsv";
     static final String MISC_TSV = "misc.am.tsv";
     static final String CHECKSUMS_TXT = "checksums.txt";
+    static final String SOURCE_CHUNKS_TSV = "source_chunks.am.tsv";
     static final String FREEZE = ".freeze";
     static final String NO_MEDIA = ".nomedia";
 
@@ -137,6 +140,16 @@ public class BackupFiles {
             } else return getBackupPath().findFile(RULES_TSV + CryptoUtils.getExtension(mode));
         }
 
+        /**
+         * List of the APK files stored in the {@link ChunkStore}. It is never encrypted, as the store is shared.
+         */
+        @NonNull
+        public Path getSourceChunksFile() throws IOException {
+            if (mIsTemporary) {
+                return getBackupPath().findOrCreateFile(SOURCE_CHUNKS_TSV, null);
+            } else return getBackupPath().findFile(SOURCE_CHUNKS_TSV);
+        }
+
         public void freeze() throws IOException {
             getBackupPath().createNewFile(FREEZE, null);
         }
@@ -154,6 +167,19 @@ public class BackupFiles {
             }
         }
 
+        /**
+         * Get the backup that is going to be replaced by this backup.
+         *
+         * @return The previous backup, or {@code null} if this isn't a temporary backup or there's no previous backup
+         */
+        @Nullable
+        public BackupFile getPreviousBackup() throws IOException {
+            if (mIsTemporary && mBackupPath.hasFile(MetadataManager.META_FILE)) {
+                return new BackupFile(mBackupPath, false);
+            }
+            return null;
+        }
+
         public void commit() throws IOException {
             if (mIsTemporary) {
                 if (!delete()) {
@@ -165,6 +191,41 @@ public class BackupFiles {
             }
         }
 
+        /**
+         * Same as {@link #commit()}, except that the given files are carried over from the previous backup (e.g. the
+         * data archives of an incremental backup). They are moved back if the commit fails.
+         *
+         * @param inheritedFiles Names of the files in the previous backup
+         * @see #getPreviousBackup()
+         */
+        public void commit(@NonNull Collection<String> inheritedFiles) throws IOException {
+            if (!mIsTemporary || inheritedFiles.isEmpty()) {
+                commit();
+                return;
+            }
+            List<String> movedFiles = new ArrayList<>(inheritedFiles.size());
+            try {
+                for (String name : inheritedFiles) {
+                    Path file = mBackupPath.findFile(name);
+                    if (!file.moveTo(mTempBackupPath, false)) {
+                        throw new IOException("Could not move " + file + " to " + mTempBackupPath);
+                    }
+                    movedFiles.add(name);
+                }
+                commit();
+            } catch (IOException e) {
+                if (mBackupPath.exists()) {
+                    for (String name : movedFiles) {
+                        try {
+                            mTempBackupPath.findFile(name).moveTo(mBackupPath, false);
+                        } catch (IOException ignore) {
+                        }
+                    }
+                }
+                throw e;
+            }
+        }
+
         public void cleanup() {
             if (mIsTemporary) {
                 mTempBackupPath.delete();
@@ -173,7 +234,15 @@ public class BackupFiles {
 
         public boolean delete() {
             if (mBackupPath.exists()) {
-                return mBackupPath.delete();
+                boolean deduplicated = mBackupPath.hasFile(SOURCE_CHUNKS_TSV);
+                if (!mBackupPath.delete()) {
+                    return false;
+                }
+                if (deduplicated) {
+                    // Some chunks may no longer be in use
+                    ChunkStore.markDirty();
+                }
+                return true;
             }
             return true;  // The backup path doesn't exist anyway
         }
@@ -27,6 +27,7 @@ public class BackupManager {
     static final String[] LIB_DIR = new String[]{"lib/"};
     public static final String SOURCE_PREFIX = "source";
     public static final String DATA_PREFIX = "data";
+    static final String DELTA_PREFIX = "delta";
     static final String KEYSTORE_PREFIX = "keystore";
     static final int KEYSTORE_PLACEHOLDER = -1000;
 
@@ -29,14 +29,23 @@ import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import androidx.core.content.pm.PermissionInfoCompat;
 
+import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
 import java.util.regex.Pattern;
 
 import io.github.muntashirakon.AppManager.compat.AppOpsManagerCompat;
@@ -65,6 +74,8 @@ import io.github.muntashirakon.AppManager.ssaid.SsaidSettings;
 import io.github.muntashirakon.AppManager.uri.UriManager;
 import io.github.muntashirakon.AppManager.utils.ArrayUtils;
 import io.github.muntashirakon.AppManager.utils.ContextUtils;
+import io.github.muntashirakon.AppManager.utils.DigestInputStream;
+import io.github.muntashirakon.AppManager.utils.DigestOutputStream;
 import io.github.muntashirakon.AppManager.utils.DigestUtils;
 import io.github.muntashirakon.AppManager.utils.ExUtils;
 import io.github.muntashirakon.AppManager.utils.FileUtils;
@@ -104,6 +115,22 @@ class BackupOp implements Closeable {
     private final Crypto mCrypto;
     @NonNull
     private final BackupFiles.Checksum mChecksum;
+    // Whether to archive, compress, encrypt and hash each file in a single pass
+    private final boolean mSinglePass;
+    // Number of workers used for compressing each archive
+    private final int mCompressionWorkers;
+    // Whether to store data manifests so that the next backups can be incremental
+    private final boolean mIncremental;
+    // The backup to be replaced, whose data is extended by this backup if it's incremental
+    @Nullable
+    private final MetadataManager.Metadata mBaseMetadata;
+    // Decrypts the files of the base backup
+    @Nullable
+    private final Crypto mBaseCrypto;
+    // Files to be carried over from the base backup
+    private final List<String> mInheritedFiles = new ArrayList<>();
+    // Whether to store the APK files in the shared chunk store, which is never encrypted
+    private final boolean mDeduplicateApks;
     // We don't need privileged package manager here
     @NonNull
     private final PackageManager mPm;
@@ -129,14 +156,31 @@ class BackupOp implements Closeable {
             mBackupFile.cleanup();
             throw new BackupException("Failed to setup metadata.", e);
         }
+        // Manifests of the previous backup have to be read back, which requires streaming
+        mIncremental = mBackupFlags.backupData() && Prefs.BackupRestore.backupDataIncrementally()
+                && !CryptoUtils.MODE_OPEN_PGP.equals(mMetadata.crypto);
+        mBaseMetadata = mIncremental ? getBaseMetadata() : null;
         try {
             // Setup crypto
             CryptoUtils.setupCrypto(mMetadata);
             mCrypto = CryptoUtils.getCrypto(mMetadata);
+            if (mBaseMetadata != null) {
+                mBaseCrypto = CryptoUtils.getCrypto(mBaseMetadata);
+                // The inherited archives remain encrypted using the IVs and keys of the backups that created them
+                mMetadata.deltaIvs = appendDeltaCrypto(mBaseMetadata.deltaIvs, mBaseMetadata.iv,
+                        mBaseMetadata.deltaCount);
+                mMetadata.deltaAes = appendDeltaCrypto(mBaseMetadata.deltaAes, mBaseMetadata.aes,
+                        mBaseMetadata.deltaCount);
+            } else mBaseCrypto = null;
         } catch (CryptoException e) {
             mBackupFile.cleanup();
             throw new BackupException("Failed to get crypto " + mMetadata.crypto, e);
         }
+        mSinglePass = Prefs.BackupRestore.backupInSinglePass() && mCrypto.supportsStreaming();
+        mDeduplicateApks = mBackupFlags.backupApkFiles() && Prefs.BackupRestore.deduplicateApkFiles()
+                && CryptoUtils.MODE_NO_ENCRYPTION.equals(mMetadata.crypto);
+        mMetadata.apkDeduplicated = mDeduplicateApks;
+        mCompressionWorkers = BackupUtils.getCompressionWorkerCount(ContextUtils.getContext());
         try {
             mChecksum = mBackupFile.getChecksum(CryptoUtils.MODE_NO_ENCRYPTION);
             String[] certChecksums = PackageUtils.getSigningCertChecksums(mMetadata.checksumAlgo, mPackageInfo, false);
@@ -152,6 +196,9 @@ class BackupOp implements Closeable {
     @Override
     public void close() {
         mCrypto.close();
+        if (mBaseCrypto != null) {
+            mBaseCrypto.close();
+        }
     }
 
     @NonNull
@@ -161,6 +208,11 @@ class BackupOp implements Closeable {
 
     void runBackup(@Nullable ProgressHandler progressHandler) throws BackupException {
         boolean backupSuccess = false;
+        // Chunks must not be garbage collected until the backup referencing them is committed
+        Lock chunkStoreLock = mDeduplicateApks ? ChunkStore.getBackupLock() : null;
+        if (chunkStoreLock != null) {
+            chunkStoreLock.lock();
+        }
         try {
             // Fail backup if the app has items in Android KeyStore and backup isn't enabled
             if (mBackupFlags.backupData() && mMetadata.keyStore && !Prefs.BackupRestore.backupAppsWithKeyStore()) {
@@ -217,7 +269,7 @@ class BackupOp implements Closeable {
             }
             // Replace current backup
             try {
-                mBackupFile.commit();
+                mBackupFile.commit(mInheritedFiles);
             } catch (IOException e) {
                 throw new BackupException("Could not finalise backup.", e);
             }
@@ -230,6 +282,9 @@ class BackupOp implements Closeable {
             if (!backupSuccess) {
                 mBackupFile.cleanup();
             }
+            if (chunkStoreLock != null) {
+                chunkStoreLock.unlock();
+            }
         }
     }
 
@@ -267,13 +322,30 @@ class BackupOp implements Closeable {
                 throw new BackupException(mMetadata.apkName + " not found at " + sourceDir);
             }
         }
+        if (mDeduplicateApks) {
+            backupApkFilesToChunkStore(sourceDir);
+            return;
+        }
         Path[] sourceFiles;
         try {
-            sourceFiles = TarUtils.create(mMetadata.tarType, sourceDir, mTempBackupPath, sourceBackupFilePrefix,
-                    /* language=regexp */ new String[]{".*\\.apk"}, null, null, false).toArray(new Path[0]);
+            if (mSinglePass) {
+                sourceFiles = createArchiveInSinglePass(sourceDir, sourceBackupFilePrefix,
+                        /* language=regexp */ new String[]{".*\\.apk"}, null);
+            } else {
+                sourceFiles = TarUtils.create(mMetadata.tarType, sourceDir, mTempBackupPath, sourceBackupFilePrefix,
+                        /* language=regexp */ new String[]{".*\\.apk"}, null, null, false, mCompressionWorkers)
+                        .toArray(new Path[0]);
+            }
         } catch (Throwable th) {
             throw new BackupException("APK files backup is requested but no source directory has been backed up.", th);
         }
+        if (sourceFiles.length == 0) {
+            throw new BackupException("APK files backup is requested but no source directory has been backed up.");
+        }
+        if (mSinglePass) {
+            // Already encrypted and hashed
+            return;
+        }
         try {
             sourceFiles = encrypt(sourceFiles);
         } catch (IOException e) {
@@ -284,6 +356,34 @@ class BackupOp implements Closeable {
         }
     }
 
+    private void backupApkFilesToChunkStore(@NonNull Path sourceDir) throws BackupException {
+        try {
+            ChunkStore chunkStore = ChunkStore.getInstance();
+            List<ChunkStore.FileEntry> entries = new ArrayList<>();
+            if (sourceDir.isFile()) {
+                entries.add(chunkStore.put(sourceDir.getName(), sourceDir));
+            } else {
+                for (Path file : Paths.getAll(sourceDir, sourceDir, /* language=regexp */ new String[]{".*\\.apk"},
+                        null, false)) {
+                    if (file.isFile()) {
+                        entries.add(chunkStore.put(Paths.relativePath(file, sourceDir), file));
+                    }
+                }
+            }
+            if (entries.isEmpty()) {
+                throw new FileNotFoundException("No APK files found at " + sourceDir);
+            }
+            Path sourceChunksFile = mBackupFile.getSourceChunksFile();
+            try (OutputStream os = sourceChunksFile.openOutputStream()) {
+                ChunkStore.writeChunkList(os, entries);
+            }
+            mChecksum.add(sourceChunksFile.getName(), DigestUtils.getHexDigest(mMetadata.checksumAlgo,
+                    sourceChunksFile));
+        } catch (Throwable th) {
+            throw new BackupException("APK files backup is requested but no source directory has been backed up.", th);
+        }
+    }
+
     private void backupData() throws BackupException {
         String sourceBackupFilePrefix;
         Path[] dataFiles;
@@ -296,16 +396,32 @@ class BackupOp implements Closeable {
                 AppsDb.getInstance().fileHashDao().insert(fileHash);
             }
         }).start();
+        if (mIncremental) {
+            backupDataIncrementally();
+            return;
+        }
         for (int i = 0; i < mMetadata.dataDirs.length; ++i) {
             sourceBackupFilePrefix = DATA_PREFIX + i + getExt(mMetadata.tarType);
             try {
-                dataFiles = TarUtils.create(mMetadata.tarType, Paths.get(mMetadata.dataDirs[i]), mTempBackupPath,
-                                sourceBackupFilePrefix, null, null,
-                                BackupUtils.getExcludeDirs(!mBackupFlags.backupCache()), false)
-                        .toArray(new Path[0]);
+                if (mSinglePass) {
+                    dataFiles = createArchiveInSinglePass(Paths.get(mMetadata.dataDirs[i]), sourceBackupFilePrefix,
+                            null, BackupUtils.getExcludeDirs(!mBackupFlags.backupCache()));
+                } else {
+                    dataFiles = TarUtils.create(mMetadata.tarType, Paths.get(mMetadata.dataDirs[i]), mTempBackupPath,
+                                    sourceBackupFilePrefix, null, null,
+                                    BackupUtils.getExcludeDirs(!mBackupFlags.backupCache()), false, mCompressionWorkers)
+                            .toArray(new Path[0]);
+                }
             } catch (Throwable th) {
                 throw new BackupException("Failed to backup data directory at " + mMetadata.dataDirs[i], th);
             }
+            if (dataFiles.length == 0) {
+                throw new BackupException("Failed to backup data directory at " + mMetadata.dataDirs[i]);
+            }
+            if (mSinglePass) {
+                // Already encrypted and hashed
+                continue;
+            }
             try {
                 dataFiles = encrypt(dataFiles);
             } catch (IOException e) {
@@ -317,6 +433,192 @@ class BackupOp implements Closeable {
         }
     }
 
+    /**
+     * Back up only the files that have been added or modified since the base backup along with the paths that have been
+     * deleted, and carry over the archives of the base backup. If there's no base backup, all the files are backed up.
+     * In both cases, data manifests are stored for the next backup.
+     */
+    private void backupDataIncrementally() throws BackupException {
+        int level = mBaseMetadata != null ? mBaseMetadata.deltaCount + 1 : 0;
+        Map<String, String> baseChecksums;
+        try {
+            baseChecksums = mBaseMetadata != null ? readBaseChecksums() : Collections.emptyMap();
+        } catch (IOException e) {
+            throw new BackupException("Could not read checksums of the base backup.", e);
+        }
+        String[] exclude = BackupUtils.getExcludeDirs(!mBackupFlags.backupCache());
+        for (int i = 0; i < mMetadata.dataDirs.length; ++i) {
+            Path dataDir = Paths.get(mMetadata.dataDirs[i]);
+            try {
+                DataManifest baseManifest;
+                List<List<String>> deletions;
+                if (mBaseMetadata != null) {
+                    try (InputStream is = openBaseFile(DataManifest.getManifestFileName(i), baseChecksums)) {
+                        baseManifest = DataManifest.read(is);
+                    }
+                    try (InputStream is = openBaseFile(DataManifest.getDeletionsFileName(i), baseChecksums)) {
+                        deletions = DataManifest.readDeletions(is, mBaseMetadata.deltaCount);
+                    }
+                    inheritDataFiles(i, baseChecksums);
+                } else {
+                    baseManifest = null;
+                    deletions = new ArrayList<>(1);
+                }
+                List<Path> files = Paths.getAll(dataDir, dataDir, null, exclude, false);
+                DataManifest.Delta delta = DataManifest.diff(baseManifest, dataDir, files);
+                deletions.add(delta.deletedPaths);
+                String filePrefix = level == 0 ? DATA_PREFIX + i + getExt(mMetadata.tarType)
+                        : DataManifest.getDeltaFilePrefix(i, level, mMetadata.tarType);
+                createArchive(dataDir, delta.changedFiles, filePrefix);
+                writeEncryptedFile(DataManifest.getManifestFileName(i), delta.manifest::write);
+                writeEncryptedFile(DataManifest.getDeletionsFileName(i),
+                        os -> DataManifest.writeDeletions(os, deletions));
+            } catch (Throwable th) {
+                throw new BackupException("Failed to backup data directory at " + mMetadata.dataDirs[i], th);
+            }
+        }
+        mMetadata.deltaCount = level;
+        if (level > 0) {
+            // Older versions of the app would only restore the full data backup
+            mMetadata.version = MetadataManager.METADATA_VERSION;
+        }
+    }
+
+    /**
+     * Get the backup that is going to be replaced if the data can be backed up on top of it.
+     */
+    @Nullable
+    private MetadataManager.Metadata getBaseMetadata() {
+        MetadataManager.Metadata baseMetadata;
+        try {
+            BackupFiles.BackupFile previousBackup = mBackupFile.getPreviousBackup();
+            if (previousBackup == null) {
+                return null;
+            }
+            baseMetadata = MetadataManager.getMetadata(previousBackup);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read the previous backup, backing up all data.", e);
+            return null;
+        }
+        if (baseMetadata.deltaCount < 0 || baseMetadata.deltaCount >= DataManifest.MAX_DELTA_COUNT) {
+            // No data manifests or too many deltas
+            return null;
+        }
+        // The archives are reused as is
+        if (baseMetadata.version < MetadataManager.METADATA_VERSION_FULL
+                || !baseMetadata.crypto.equals(mMetadata.crypto)
+                || !baseMetadata.tarType.equals(mMetadata.tarType)
+                || !baseMetadata.checksumAlgo.equals(mMetadata.checksumAlgo)
+                || !Arrays.equals(baseMetadata.dataDirs, mMetadata.dataDirs)) {
+            return null;
+        }
+        return baseMetadata;
+    }
+
+    @NonNull
+    private Map<String, String> readBaseChecksums() throws IOException {
+        Objects.requireNonNull(mBaseMetadata);
+        Path checksumFile = mBaseMetadata.backupFile.getChecksumFile(mBaseMetadata.crypto);
+        Map<String, String> checksums = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                Objects.requireNonNull(mBaseCrypto).getDecryptingStream(checksumFile.openInputStream())))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] lineSplits = line.split("\t", 2);
+                if (lineSplits.length != 2) {
+                    throw new IOException("Illegal lines found in the checksum file.");
+                }
+                checksums.put(lineSplits[1], lineSplits[0]);
+            }
+        }
+        return checksums;
+    }
+
+    /**
+     * Open a file of the base backup for reading. The file is decrypted and verified while being read.
+     */
+    @NonNull
+    private InputStream openBaseFile(@NonNull String name, @NonNull Map<String, String> baseChecksums)
+            throws IOException {
+        Objects.requireNonNull(mBaseMetadata);
+        String fileName = name + CryptoUtils.getExtension(mMetadata.crypto);
+        String checksum = baseChecksums.get(fileName);
+        if (checksum == null) {
+            throw new FileNotFoundException("No checksum found for " + fileName);
+        }
+        Path file = mBaseMetadata.backupFile.getBackupPath().findFile(fileName);
+        return Objects.requireNonNull(mBaseCrypto).getDecryptingStream(new DigestInputStream(file.openInputStream(),
+                mMetadata.checksumAlgo, checksum));
+    }
+
+    @Nullable
+    private static byte[][] appendDeltaCrypto(@Nullable byte[][] baseDeltaValues, @Nullable byte[] baseValue,
+                                              int baseDeltaCount) {
+        if (baseValue == null) {
+            // Not needed by this crypto
+            return null;
+        }
+        byte[][] values = new byte[baseDeltaCount + 1][];
+        if (baseDeltaCount > 0) {
+            System.arraycopy(Objects.requireNonNull(baseDeltaValues), 0, values, 0, baseDeltaCount);
+        }
+        values[baseDeltaCount] = baseValue;
+        return values;
+    }
+
+    /**
+     * Carry over the full data backup and the deltas at the given index from the base backup.
+     */
+    private void inheritDataFiles(int index, @NonNull Map<String, String> baseChecksums) throws IOException {
+        Objects.requireNonNull(mBaseMetadata);
+        Path basePath = mBaseMetadata.backupFile.getBackupPath();
+        String ext = CryptoUtils.getExtension(mMetadata.crypto);
+        List<Path> files = new ArrayList<>(Arrays.asList(BackupUtils.getDataFiles(basePath, index, ext)));
+        for (int level = 1; level <= mBaseMetadata.deltaCount; ++level) {
+            files.addAll(Arrays.asList(BackupUtils.getDeltaFiles(basePath, index, level, ext)));
+        }
+        for (Path file : files) {
+            String checksum = baseChecksums.get(file.getName());
+            if (checksum == null) {
+                throw new IOException("No checksum found for " + file.getName());
+            }
+            // The files are verified during restore
+            mChecksum.add(file.getName(), checksum);
+            mInheritedFiles.add(file.getName());
+        }
+    }
+
+    /**
+     * Same as {@link #createArchiveInSinglePass(Path, String, String[], String[])} except that only the given files are
+     * archived, and it falls back to encrypting and hashing the archive afterwards if single-pass is disabled.
+     */
+    private void createArchive(@NonNull Path basePath, @NonNull List<Path> files, @NonNull String filePrefix)
+            throws IOException {
+        if (mSinglePass) {
+            TarUtils.create(mMetadata.tarType, basePath, files, mTempBackupPath, filePrefix, null, false,
+                    mCompressionWorkers, CryptoUtils.getExtension(mMetadata.crypto), this::getSinglePassPartStream);
+            return;
+        }
+        Path[] archiveFiles = encrypt(TarUtils.create(mMetadata.tarType, basePath, files, mTempBackupPath, filePrefix,
+                null, false, mCompressionWorkers, null, null).toArray(new Path[0]));
+        for (Path file : archiveFiles) {
+            mChecksum.add(file.getName(), DigestUtils.getHexDigest(mMetadata.checksumAlgo, file));
+        }
+    }
+
+    private void writeEncryptedFile(@NonNull String name, @NonNull StreamWriter writer) throws IOException {
+        Path file = mTempBackupPath.createNewFile(name, null);
+        try (OutputStream os = file.openOutputStream()) {
+            writer.write(os);
+        }
+        file = encrypt(new Path[]{file})[0];
+        mChecksum.add(file.getName(), DigestUtils.getHexDigest(mMetadata.checksumAlgo, file));
+    }
+
+    private interface StreamWriter {
+        void write(@NonNull OutputStream os) throws IOException;
+    }
+
     private void backupKeyStore() throws BackupException {  // Called only when the app has an keystore item
         Path keyStorePath = KeyStoreUtils.getKeyStorePath(mUserId);
         try {
@@ -347,9 +649,14 @@ class BackupOp implements Closeable {
         String keyStorePrefix = KEYSTORE_PREFIX + getExt(mMetadata.tarType);
         Path[] backedUpKeyStoreFiles;
         try {
-            backedUpKeyStoreFiles = TarUtils.create(mMetadata.tarType, cachePath, mTempBackupPath, keyStorePrefix,
-                            keyStoreFilters.toArray(new String[0]), null, null, false)
-                    .toArray(new Path[0]);
+            if (mSinglePass) {
+                backedUpKeyStoreFiles = createArchiveInSinglePass(cachePath, keyStorePrefix,
+                        keyStoreFilters.toArray(new String[0]), null);
+            } else {
+                backedUpKeyStoreFiles = TarUtils.create(mMetadata.tarType, cachePath, mTempBackupPath, keyStorePrefix,
+                                keyStoreFilters.toArray(new String[0]), null, null, false, mCompressionWorkers)
+                        .toArray(new Path[0]);
+            }
         } catch (Throwable th) {
             throw new BackupException("Could not backup KeyStore item.", th);
         }
@@ -360,6 +667,10 @@ class BackupOp implements Closeable {
             } catch (FileNotFoundException ignore) {
             }
         }
+        if (mSinglePass) {
+            // Already encrypted and hashed
+            return;
+        }
         try {
             backedUpKeyStoreFiles = encrypt(backedUpKeyStoreFiles);
         } catch (IOException e) {
@@ -515,11 +826,43 @@ class BackupOp implements Closeable {
         }
     }
 
+    /**
+     * Archive, compress, encrypt and hash the source in a single pass, i.e. every byte is written exactly once. The
+     * resulting files are identical to those created by {@link TarUtils#create(String, Path, Path, String, String[], Long, String[], boolean, int)}
+     * followed by {@link #encrypt(Path[])}.
+     *
+     * @return The encrypted files
+     */
+    @NonNull
+    private Path[] createArchiveInSinglePass(@NonNull Path source, @NonNull String filePrefix,
+                                             @Nullable String[] filters, @Nullable String[] exclude)
+            throws IOException {
+        return TarUtils.create(mMetadata.tarType, source, mTempBackupPath, filePrefix, filters, null, exclude, false,
+                mCompressionWorkers, CryptoUtils.getExtension(mMetadata.crypto), this::getSinglePassPartStream)
+                .toArray(new Path[0]);
+    }
+
+    @NonNull
+    private OutputStream getSinglePassPartStream(@NonNull Path part, @NonNull OutputStream os) throws IOException {
+        DigestOutputStream digestStream = new DigestOutputStream(os, mMetadata.checksumAlgo);
+        return new FilterOutputStream(mCrypto.getEncryptingStream(digestStream)) {
+            @Override
+            public void write(@NonNull byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                // The checksum is calculated over the encrypted content
+                mChecksum.add(part.getName(), digestStream.getHexDigest());
+            }
+        };
+    }
+
     @NonNull
     private Path[] encrypt(@NonNull Path[] files) throws IOException {
-        synchronized (Crypto.class) {
-            mCrypto.encrypt(files);
-            return mCrypto.getNewFiles();
-        }
+        mCrypto.encrypt(files);
+        return mCrypto.getNewFiles();
     }
 }
@@ -3,6 +3,7 @@
 package io.github.muntashirakon.AppManager.backup;
 
 import static io.github.muntashirakon.AppManager.backup.BackupManager.DATA_PREFIX;
+import static io.github.muntashirakon.AppManager.backup.BackupManager.DELTA_PREFIX;
 import static io.github.muntashirakon.AppManager.backup.BackupManager.KEYSTORE_PREFIX;
 import static io.github.muntashirakon.AppManager.backup.BackupManager.SOURCE_PREFIX;
 
@@ -10,10 +11,13 @@ import android.annotation.SuppressLint;
 import android.annotation.UserIdInt;
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
+import android.os.BatteryManager;
 import android.os.Build;
+import android.os.PowerManager;
 import android.os.UserHandleHidden;
 import android.text.TextUtils;
 
+import androidx.annotation.IntRange;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
@@ -32,6 +36,7 @@ import io.github.muntashirakon.AppManager.db.utils.AppDb;
 import io.github.muntashirakon.AppManager.logcat.helper.SaveLogHelper;
 import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.AppManager.misc.OsEnvironment;
+import io.github.muntashirakon.AppManager.settings.Prefs;
 import io.github.muntashirakon.AppManager.users.Users;
 import io.github.muntashirakon.AppManager.utils.BroadcastUtils;
 import io.github.muntashirakon.AppManager.utils.Utils;
@@ -41,6 +46,7 @@ import io.github.muntashirakon.io.Paths;
 public final class BackupUtils {
     public static final String TAG = BackupUtils.class.getSimpleName();
 
+    private static final int LOW_BATTERY_PERCENTAGE = 15;
     private static final Pattern UUID_PATTERN = Pattern.compile("[a-f\\d]{8}(-[a-f\\d]{4}){3}-[a-f\\d]{12}");
 
     public static boolean isUuid(@NonNull String name) {
@@ -48,7 +54,7 @@ public final class BackupUtils {
     }
 
     @NonNull
-    private static List<Path> getBackupPaths() {
+    static List<Path> getBackupPaths() {
         Path baseDirectory = BackupFiles.getBaseDirectory();
         List<Path> backupPaths;
         Path[] paths = baseDirectory.listFiles(Path::isDirectory);
@@ -67,6 +73,9 @@ public final class BackupUtils {
             if (BackupFiles.TEMPORARY_DIRECTORY.equals(path.getName())) {
                 continue;
             }
+            if (BackupFiles.CHUNK_STORE_DIRECTORY.equals(path.getName())) {
+                continue;
+            }
             // Other backups can store multiple backups per folder
             backupPaths.addAll(Arrays.asList(path.listFiles(Path::isDirectory)));
         }
@@ -94,6 +103,71 @@ public final class BackupUtils {
         return Paths.getSortedPaths(paths);
     }
 
+    /**
+     * Get the files of an incremental data backup.
+     *
+     * @param level Delta level starting from 1, the full data backup is returned by {@link #getDataFiles}
+     */
+    @NonNull
+    public static Path[] getDeltaFiles(@NonNull Path backupPath, int index, int level, @NonNull String ext) {
+        final String deltaPrefix = DELTA_PREFIX + index + "_" + level + ".";
+        Path[] paths = backupPath.listFiles((dir, name) -> name.startsWith(deltaPrefix) && name.endsWith(ext));
+        return Paths.getSortedPaths(paths);
+    }
+
+    /**
+     * Get the number of workers to be used for compressing a backup. Unlike the configured value, it returns a single
+     * worker if the device is in power saving mode, is running low on battery or is overheating, and halves the number
+     * of workers when the device is warm.
+     */
+    @IntRange(from = 1)
+    public static int getCompressionWorkerCount(@NonNull Context context) {
+        int workers = Prefs.BackupRestore.getCompressionWorkerCount();
+        if (workers == 1) {
+            return 1;
+        }
+        PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (pm != null) {
+            if (pm.isPowerSaveMode()) {
+                return 1;
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                int thermalStatus = pm.getCurrentThermalStatus();
+                if (thermalStatus >= PowerManager.THERMAL_STATUS_SEVERE) {
+                    return 1;
+                }
+                if (thermalStatus >= PowerManager.THERMAL_STATUS_MODERATE) {
+                    workers = Math.max(1, workers / 2);
+                }
+            }
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            BatteryManager bm = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
+            if (bm != null && !bm.isCharging()
+                    && bm.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY) <= LOW_BATTERY_PERCENTAGE) {
+                return 1;
+            }
+        }
+        return workers;
+    }
+
+    /**
+     * Remove the deduplicated APK chunks that are no longer referenced by any backup.
+     */
+    @WorkerThread
+    public static void cleanUpChunkStore() {
+        ChunkStore.collectGarbageIfPossible();
+    }
+
+    /**
+     * Same as {@link #cleanUpChunkStore()}, but only if a backup using the deduplicated APK chunks has been deleted since
+     * the last clean up.
+     */
+    @WorkerThread
+    public static void cleanUpChunkStoreIfNeeded() {
+        ChunkStore.collectGarbageIfDirty();
+    }
+
     @WorkerThread
     @NonNull
     public static HashMap<String, Backup> storeAllAndGetLatestBackupMetadata() {
@@ -132,7 +206,31 @@ public final class BackupUtils {
         return backupMetadata;
     }
 
+    @WorkerThread
+    @NonNull
+    public static HashMap<String, List<Backup>> getAllBackupMetadataFromDbNoLockValidate() {
+        HashMap<String, List<Backup>> backupMetadata = new HashMap<>();
+        for (Backup backup : new AppDb().getAllBackupsNoLock()) {
+            try {
+                if (!backup.getBackupPath().exists()) {
+                    continue;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                continue;
+            }
+            List<Backup> backups = backupMetadata.get(backup.packageName);
+            if (backups == null) {
+                backups = new ArrayList<>();
+                backupMetadata.put(backup.packageName, backups);
+            }
+            backups.add(backup);
+        }
+        return backupMetadata;
+    }
+
     public static void putBackupToDbAndBroadcast(@NonNull Context context, @NonNull MetadataManager.Metadata metadata) {
+        BackupCatalog.put(metadata);
         if (Utils.isRoboUnitTest()) {
             return;
         }
@@ -143,6 +241,7 @@ public final class BackupUtils {
     }
 
     public static void deleteBackupToDbAndBroadcast(@NonNull Context context, @NonNull MetadataManager.Metadata metadata) {
+        BackupCatalog.remove(metadata);
         AppDb appDb = new AppDb();
         appDb.deleteBackup(Backup.fromBackupMetadata(metadata));
         appDb.updateApplication(context, metadata.packageName);
@@ -180,24 +279,19 @@ public final class BackupUtils {
     }
 
     /**
-     * Retrieves all metadata for all packages
+     * Retrieves all metadata for all packages. Only the backups that have changed since they were last seen are read,
+     * the rest are loaded from the {@link BackupCatalog}.
      */
     @WorkerThread
     @NonNull
     public static HashMap<String, List<MetadataManager.Metadata>> getAllMetadata() {
         HashMap<String, List<MetadataManager.Metadata>> backupMetadata = new HashMap<>();
-        List<Path> backupPaths = getBackupPaths();
-        for (Path backupPath : backupPaths) {
-            try {
-                MetadataManager.Metadata metadata = MetadataManager.getMetadata(backupPath);
-                if (!backupMetadata.containsKey(metadata.packageName)) {
-                    backupMetadata.put(metadata.packageName, new ArrayList<>());
-                }
-                //noinspection ConstantConditions
-                backupMetadata.get(metadata.packageName).add(metadata);
-            } catch (IOException e) {
-                e.printStackTrace();
+        for (MetadataManager.Metadata metadata : BackupCatalog.getAllMetadata(getBackupPaths())) {
+            if (!backupMetadata.containsKey(metadata.packageName)) {
+                backupMetadata.put(metadata.packageName, new ArrayList<>());
             }
+            //noinspection ConstantConditions
+            backupMetadata.get(metadata.packageName).add(metadata);
         }
         return backupMetadata;
     }
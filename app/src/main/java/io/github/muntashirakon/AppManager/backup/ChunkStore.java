@@ -0,0 +1,467 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.backup;
+
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import aosp.libcore.util.HexEncoding;
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.utils.DigestUtils;
+import io.github.muntashirakon.io.IoUtils;
+import io.github.muntashirakon.io.Path;
+
+/**
+ * A content-addressed store shared by all the backups. Files are split into chunks using content-defined chunking
+ * (gear hash), and each chunk is stored once under its SHA-256. This allows the same APK files (e.g. the same version
+ * of an app backed up for several users or in several backups) to be stored only once, and the unchanged parts of the
+ * APK files of different versions to be shared.
+ * <p>
+ * A backup refers to its chunks using a chunk list (see {@link #writeChunkList(OutputStream, List)}). Chunks that are
+ * no longer referenced by any backup are removed by {@link #collectGarbage(Collection)}. Deleting such a backup marks
+ * the store dirty (see {@link #markDirty()}) until the next garbage collection.
+ */
+final class ChunkStore {
+    static final String TAG = ChunkStore.class.getSimpleName();
+
+    @VisibleForTesting
+    static final int MIN_CHUNK_SIZE = 16 * 1024;
+    @VisibleForTesting
+    static final int MAX_CHUNK_SIZE = 256 * 1024;
+    // 16 bits, i.e. a chunk boundary is found every 64 KiB on average after the minimum chunk size
+    private static final long BOUNDARY_MASK = 0xFFFFL << 48;
+    private static final long[] GEAR = new long[256];
+    // Present if a backup referring to the store has been deleted since the last garbage collection
+    private static final String DIRTY_FILE = ".dirty";
+
+    static {
+        // The table must never change, otherwise the new chunks cannot be deduplicated against the old ones
+        Random random = new Random(0x416d4368756e6b73L);
+        for (int i = 0; i < GEAR.length; ++i) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    // Backups hold the read lock while they add chunks that are not yet referenced by a committed backup, and garbage
+    // collection holds the write lock
+    private static final ReentrantReadWriteLock sLock = new ReentrantReadWriteLock();
+
+    /**
+     * A file stored in the chunk store.
+     */
+    static final class FileEntry {
+        /**
+         * Path of the file relative to the archived directory
+         */
+        @NonNull
+        final String name;
+        final long size;
+        /**
+         * SHA-256 of the chunks in order
+         */
+        @NonNull
+        final List<String> chunks;
+
+        FileEntry(@NonNull String name, long size, @NonNull List<String> chunks) {
+            this.name = name;
+            this.size = size;
+            this.chunks = chunks;
+        }
+    }
+
+    static final class Stats {
+        /**
+         * Number of chunks in the store
+         */
+        int chunkCount;
+        /**
+         * Total size of the chunks in the store
+         */
+        long storedSize;
+        /**
+         * Total size of the files referred to by the backups, i.e. the space that would be used without the store
+         */
+        long referencedSize;
+        /**
+         * Number of chunks removed by the garbage collection
+         */
+        int removedChunkCount;
+
+        /**
+         * Ratio of the size of the referenced files to the size of the store, e.g. {@code 2.0} means that the store
+         * takes half as much space.
+         */
+        double getDeduplicationRatio() {
+            return storedSize == 0 ? 1.0 : (double) referencedSize / storedSize;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "Stats{chunks=%d, stored=%d, referenced=%d, ratio=%.2f, removed=%d}",
+                    chunkCount, storedSize, referencedSize, getDeduplicationRatio(), removedChunkCount);
+        }
+    }
+
+    @NonNull
+    static ChunkStore getInstance() throws IOException {
+        return new ChunkStore(BackupFiles.getBaseDirectory().findOrCreateDirectory(BackupFiles.CHUNK_STORE_DIRECTORY));
+    }
+
+    /**
+     * Lock to be held from adding the first chunk of a backup until the backup is committed.
+     */
+    @NonNull
+    static Lock getBackupLock() {
+        return sLock.readLock();
+    }
+
+    /**
+     * Remove the chunks that are not referenced by any backup in the backup volume, unless a backup is in progress.
+     */
+    @WorkerThread
+    static void collectGarbageIfPossible() {
+        if (!BackupFiles.getBaseDirectory().hasFile(BackupFiles.CHUNK_STORE_DIRECTORY)) {
+            // The store has never been used
+            return;
+        }
+        ChunkStore chunkStore;
+        try {
+            chunkStore = getInstance();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not collect garbage.", e);
+            return;
+        }
+        try {
+            Stats stats = chunkStore.collectGarbage(BackupUtils.getBackupPaths());
+            if (stats != null) {
+                Log.i(TAG, "Garbage collected: %s", stats);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not collect garbage.", e);
+            // Try again next time
+            chunkStore.setDirty();
+        }
+    }
+
+    /**
+     * Same as {@link #collectGarbageIfPossible()}, but only if the store has been marked dirty.
+     */
+    @WorkerThread
+    static void collectGarbageIfDirty() {
+        Path baseDirectory = BackupFiles.getBaseDirectory();
+        if (!baseDirectory.hasFile(BackupFiles.CHUNK_STORE_DIRECTORY)) {
+            return;
+        }
+        try {
+            if (!new ChunkStore(baseDirectory.findFile(BackupFiles.CHUNK_STORE_DIRECTORY)).isDirty()) {
+                return;
+            }
+        } catch (FileNotFoundException e) {
+            return;
+        }
+        collectGarbageIfPossible();
+    }
+
+    /**
+     * Mark the store dirty after deleting a backup that refers to it, so that the chunks used only by the backup are
+     * removed by the next garbage collection even if it is not run right away.
+     */
+    @WorkerThread
+    static void markDirty() {
+        Path baseDirectory = BackupFiles.getBaseDirectory();
+        if (!baseDirectory.hasFile(BackupFiles.CHUNK_STORE_DIRECTORY)) {
+            // Nothing to clean up
+            return;
+        }
+        try {
+            new ChunkStore(baseDirectory.findFile(BackupFiles.CHUNK_STORE_DIRECTORY)).setDirty();
+        } catch (FileNotFoundException ignore) {
+        }
+    }
+
+    @NonNull
+    static List<FileEntry> readChunkList(@NonNull InputStream is) throws IOException {
+        List<FileEntry> entries = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            // name, size, comma-separated chunks
+            String[] fields = line.split("\t", 3);
+            if (fields.length != 3) {
+                throw new IOException("Malformed chunk list entry: " + line);
+            }
+            List<String> chunks = fields[2].isEmpty() ? Collections.emptyList()
+                    : Arrays.asList(fields[2].split(","));
+            try {
+                entries.add(new FileEntry(fields[0], Long.parseLong(fields[1]), chunks));
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed chunk list entry: " + line, e);
+            }
+        }
+        return entries;
+    }
+
+    static void writeChunkList(@NonNull OutputStream os, @NonNull List<FileEntry> entries) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+        for (FileEntry entry : entries) {
+            writer.write(entry.name + "\t" + entry.size + "\t" + TextUtils.join(",", entry.chunks) + "\n");
+        }
+        writer.flush();
+    }
+
+    @NonNull
+    private final Path mStorePath;
+
+    @VisibleForTesting
+    ChunkStore(@NonNull Path storePath) {
+        mStorePath = storePath;
+    }
+
+    /**
+     * Split the file into chunks, and store the chunks that are not already in the store. The caller must hold
+     * {@link #getBackupLock()} until the returned entry is committed to a chunk list.
+     *
+     * @param name Name of the file as stored in the chunk list
+     */
+    @WorkerThread
+    @NonNull
+    FileEntry put(@NonNull String name, @NonNull Path file) throws IOException {
+        List<String> chunks = new ArrayList<>();
+        long size = 0;
+        byte[] buffer = new byte[MAX_CHUNK_SIZE];
+        int length = 0;
+        boolean eof = false;
+        MessageDigest digest = getSha256();
+        try (InputStream is = file.openInputStream()) {
+            while (true) {
+                while (!eof && length < buffer.length) {
+                    int readCount = is.read(buffer, length, buffer.length - length);
+                    if (readCount == -1) {
+                        eof = true;
+                    } else length += readCount;
+                }
+                if (length == 0) {
+                    break;
+                }
+                int chunkSize = findChunkBoundary(buffer, length);
+                digest.update(buffer, 0, chunkSize);
+                String hash = HexEncoding.encodeToString(digest.digest(), false /* lowercase */);
+                storeChunk(hash, buffer, chunkSize);
+                chunks.add(hash);
+                size += chunkSize;
+                // Move the remaining bytes to the beginning
+                System.arraycopy(buffer, chunkSize, buffer, 0, length - chunkSize);
+                length -= chunkSize;
+            }
+        }
+        return new FileEntry(name, size, chunks);
+    }
+
+    /**
+     * Reassemble the file from its chunks. Each chunk is verified before it is written.
+     */
+    @WorkerThread
+    void get(@NonNull FileEntry entry, @NonNull OutputStream os) throws IOException {
+        MessageDigest digest = getSha256();
+        long size = 0;
+        for (String hash : entry.chunks) {
+            byte[] chunk;
+            try (InputStream is = getChunkPath(hash).openInputStream()) {
+                chunk = IoUtils.readFully(is, -1, true);
+            }
+            String actualHash = HexEncoding.encodeToString(digest.digest(chunk), false /* lowercase */);
+            if (!hash.equals(actualHash)) {
+                throw new IOException("Chunk " + hash + " of " + entry.name + " is corrupted.");
+            }
+            os.write(chunk);
+            size += chunk.length;
+        }
+        if (size != entry.size) {
+            throw new IOException("Size mismatch for " + entry.name + ". Found: " + size + ", required: "
+                    + entry.size);
+        }
+    }
+
+    /**
+     * Verify that all the chunks of the file exist and are intact.
+     */
+    @WorkerThread
+    void verify(@NonNull FileEntry entry) throws IOException {
+        long size = 0;
+        for (String hash : entry.chunks) {
+            Path chunkPath = getChunkPath(hash);
+            if (!hash.equals(DigestUtils.getHexDigest(DigestUtils.SHA_256, chunkPath))) {
+                throw new IOException("Chunk " + hash + " of " + entry.name + " is corrupted.");
+            }
+            size += chunkPath.length();
+        }
+        if (size != entry.size) {
+            throw new IOException("Size mismatch for " + entry.name + ". Found: " + size + ", required: "
+                    + entry.size);
+        }
+    }
+
+    /**
+     * Remove the chunks that are not referenced by the chunk lists of the given backups (mark and sweep).
+     *
+     * @param backupPaths All the backups, including the ones that are being written
+     * @return Statistics of the store, or {@code null} if a backup is in progress
+     */
+    @WorkerThread
+    @VisibleForTesting
+    @Nullable
+    Stats collectGarbage(@NonNull Collection<Path> backupPaths) throws IOException {
+        if (!sLock.writeLock().tryLock()) {
+            // A backup is in progress, the next garbage collection will take care of it
+            return null;
+        }
+        try {
+            // Backups deleted from now on are not covered by this run
+            if (mStorePath.hasFile(DIRTY_FILE)) {
+                mStorePath.findFile(DIRTY_FILE).delete();
+            }
+            Stats stats = new Stats();
+            // Mark
+            Set<String> referencedChunks = new HashSet<>();
+            for (Path backupPath : backupPaths) {
+                if (!backupPath.hasFile(BackupFiles.SOURCE_CHUNKS_TSV)) {
+                    continue;
+                }
+                List<FileEntry> entries;
+                try (InputStream is = backupPath.findFile(BackupFiles.SOURCE_CHUNKS_TSV).openInputStream()) {
+                    entries = readChunkList(is);
+                }
+                for (FileEntry entry : entries) {
+                    referencedChunks.addAll(entry.chunks);
+                    stats.referencedSize += entry.size;
+                }
+            }
+            // Sweep
+            for (Path directory : mStorePath.listFiles(Path::isDirectory)) {
+                for (Path chunkPath : directory.listFiles()) {
+                    String name = chunkPath.getName();
+                    // Temporary files are left behind by the interrupted backups
+                    if (name.startsWith(".") || !referencedChunks.contains(name)) {
+                        if (chunkPath.delete()) {
+                            ++stats.removedChunkCount;
+                        }
+                        continue;
+                    }
+                    ++stats.chunkCount;
+                    stats.storedSize += chunkPath.length();
+                }
+                if (directory.listFiles().length == 0) {
+                    directory.delete();
+                }
+            }
+            return stats;
+        } finally {
+            sLock.writeLock().unlock();
+        }
+    }
+
+    @VisibleForTesting
+    boolean isDirty() {
+        return mStorePath.hasFile(DIRTY_FILE);
+    }
+
+    @VisibleForTesting
+    void setDirty() {
+        try {
+            mStorePath.findOrCreateFile(DIRTY_FILE, null);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not mark the store dirty.", e);
+        }
+    }
+
+    @VisibleForTesting
+    static int findChunkBoundary(@NonNull byte[] buffer, int length) {
+        if (length <= MIN_CHUNK_SIZE) {
+            return length;
+        }
+        long hash = 0;
+        // Chunks smaller than the minimum size are not allowed, no need to look for a boundary there
+        for (int i = MIN_CHUNK_SIZE; i < length; ++i) {
+            hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+            if ((hash & BOUNDARY_MASK) == 0) {
+                return i + 1;
+            }
+        }
+        return length;
+    }
+
+    private void storeChunk(@NonNull String hash, @NonNull byte[] buffer, int length) throws IOException {
+        Path directory = mStorePath.findOrCreateDirectory(hash.substring(0, 2));
+        if (directory.hasFile(hash)) {
+            Path chunkPath = directory.findFile(hash);
+            if (chunkPath.length() == length) {
+                // Already stored
+                return;
+            }
+            // Truncated, replace it
+            chunkPath.delete();
+        }
+        // Write to a temporary file first so that a chunk is never stored partially
+        String tmpName = "." + hash + "_" + Thread.currentThread().getId();
+        Path tmpFile = directory.createNewFile(tmpName, null);
+        try (OutputStream os = tmpFile.openOutputStream()) {
+            os.write(buffer, 0, length);
+        }
+        if (!tmpFile.renameTo(hash)) {
+            tmpFile.delete();
+            if (!directory.hasFile(hash)) {
+                throw new IOException("Could not store chunk " + hash);
+            }
+            // Stored by another backup in the meantime
+        }
+    }
+
+    @NonNull
+    private Path getChunkPath(@NonNull String hash) throws FileNotFoundException {
+        if (hash.length() < 2) {
+            throw new FileNotFoundException("Invalid chunk " + hash);
+        }
+        return mStorePath.findFile(hash.substring(0, 2)).findFile(hash);
+    }
+
+    @NonNull
+    private static MessageDigest getSha256() throws IOException {
+        try {
+            return MessageDigest.getInstance(DigestUtils.SHA_256);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+}
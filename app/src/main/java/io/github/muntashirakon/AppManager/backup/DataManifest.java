@@ -0,0 +1,305 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.backup;
+
+import static io.github.muntashirakon.AppManager.backup.BackupManager.DELTA_PREFIX;
+import static io.github.muntashirakon.AppManager.backup.BackupManager.getExt;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import io.github.muntashirakon.AppManager.utils.DigestUtils;
+import io.github.muntashirakon.AppManager.utils.TarUtils;
+import io.github.muntashirakon.io.Path;
+import io.github.muntashirakon.io.Paths;
+
+/**
+ * Manifest of a backed up data directory, i.e. the state of each file and directory at the time of the backup. It is
+ * used to find the files that have been added, modified or deleted since the last backup so that only those have to be
+ * archived in an incremental backup.
+ * <p>
+ * Each line of a manifest has the format {@code type\tsize\tlast_modified\thash\tpath} where {@code path} is relative
+ * to the data directory, and {@code hash} is the SHA-256 of a file (if known) or the target of a symbolic link.
+ */
+final class DataManifest {
+    // Restoring a backup requires replaying all the deltas, a full backup is taken after this many deltas
+    static final int MAX_DELTA_COUNT = 7;
+
+    static final char TYPE_FILE = 'f';
+    static final char TYPE_DIRECTORY = 'd';
+    static final char TYPE_SYMLINK = 'l';
+
+    private static final String MANIFEST_PREFIX = "manifest";
+    private static final String DELETIONS_PREFIX = "deletions";
+    private static final String MANIFEST_EXT = ".am.tsv";
+
+    @NonNull
+    static String getManifestFileName(int index) {
+        return MANIFEST_PREFIX + index + MANIFEST_EXT;
+    }
+
+    @NonNull
+    static String getDeletionsFileName(int index) {
+        return DELETIONS_PREFIX + index + MANIFEST_EXT;
+    }
+
+    @NonNull
+    static String getDeltaFilePrefix(int index, int level, @TarUtils.TarType String tarType) {
+        return DELTA_PREFIX + index + "_" + level + getExt(tarType);
+    }
+
+    static final class Entry {
+        final char type;
+        final long size;
+        final long lastModified;
+        @Nullable
+        final String hash;
+
+        Entry(char type, long size, long lastModified, @Nullable String hash) {
+            this.type = type;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Entry)) return false;
+            Entry entry = (Entry) o;
+            return type == entry.type && size == entry.size && lastModified == entry.lastModified
+                    && Objects.equals(hash, entry.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, size, lastModified, hash);
+        }
+    }
+
+    /**
+     * Difference between a data directory and its previous manifest.
+     */
+    static final class Delta {
+        /**
+         * Files and directories to be archived, parents before their children
+         */
+        @NonNull
+        final List<Path> changedFiles = new ArrayList<>();
+        /**
+         * Relative paths to be deleted before extracting the changed files
+         */
+        @NonNull
+        final List<String> deletedPaths = new ArrayList<>();
+        /**
+         * Manifest of the data directory after the changes
+         */
+        @NonNull
+        final DataManifest manifest = new DataManifest();
+    }
+
+    /**
+     * Find the changes in the given files since the previous manifest. A file is considered unchanged if its size and
+     * modification time remain the same. Otherwise, its hash is compared with the previous one (if any) in order to
+     * skip the files that were only touched.
+     *
+     * @param previous Manifest of the last backup, or {@code null} if all the files have to be archived
+     * @param basePath The data directory
+     * @param files    Files and directories inside the data directory as returned by {@link Paths#getAll}
+     */
+    @WorkerThread
+    @NonNull
+    static Delta diff(@Nullable DataManifest previous, @NonNull Path basePath, @NonNull List<Path> files) {
+        Delta delta = new Delta();
+        for (Path file : files) {
+            String relativePath = Paths.relativePath(file, basePath);
+            if (relativePath.isEmpty() || relativePath.equals("/")) {
+                // Skipped by the archiver as well
+                delta.changedFiles.add(file);
+                continue;
+            }
+            Entry previousEntry = previous != null ? previous.mEntries.get(relativePath) : null;
+            Entry entry;
+            boolean changed;
+            if (file.isSymbolicLink()) {
+                String target = null;
+                try {
+                    target = file.getRealFilePath();
+                } catch (IOException ignore) {
+                }
+                entry = new Entry(TYPE_SYMLINK, 0, 0, target);
+                changed = !entry.equals(previousEntry);
+            } else if (file.isDirectory()) {
+                entry = new Entry(TYPE_DIRECTORY, 0, 0, null);
+                changed = !entry.equals(previousEntry);
+            } else {
+                long size = file.length();
+                long lastModified = file.lastModified();
+                if (previousEntry != null && previousEntry.type == TYPE_FILE && previousEntry.size == size
+                        && previousEntry.lastModified == lastModified) {
+                    entry = previousEntry;
+                    changed = false;
+                } else if (previous == null) {
+                    // Full backup: Reading every file twice is not worth it
+                    entry = new Entry(TYPE_FILE, size, lastModified, null);
+                    changed = true;
+                } else {
+                    String hash = DigestUtils.getHexDigest(DigestUtils.SHA_256, file);
+                    entry = new Entry(TYPE_FILE, size, lastModified, hash);
+                    changed = previousEntry == null || previousEntry.type != TYPE_FILE
+                            || !hash.equals(previousEntry.hash);
+                }
+            }
+            if (previousEntry != null && previousEntry.type != entry.type) {
+                // e.g. a regular file replaced by a symbolic link
+                delta.deletedPaths.add(relativePath);
+            }
+            delta.manifest.mEntries.put(relativePath, entry);
+            if (changed) {
+                delta.changedFiles.add(file);
+            }
+        }
+        if (previous != null) {
+            // Deleting a directory deletes its children as well
+            Set<String> deletedDirectories = new HashSet<>();
+            for (Map.Entry<String, Entry> previousEntry : previous.mEntries.entrySet()) {
+                String relativePath = previousEntry.getKey();
+                if (delta.manifest.mEntries.containsKey(relativePath)) {
+                    continue;
+                }
+                if (deletedDirectories.contains(getParent(relativePath))) {
+                    if (previousEntry.getValue().type == TYPE_DIRECTORY) {
+                        deletedDirectories.add(relativePath);
+                    }
+                    continue;
+                }
+                if (previousEntry.getValue().type == TYPE_DIRECTORY) {
+                    deletedDirectories.add(relativePath);
+                }
+                delta.deletedPaths.add(relativePath);
+            }
+        }
+        return delta;
+    }
+
+    @WorkerThread
+    @NonNull
+    static DataManifest read(@NonNull InputStream is) throws IOException {
+        DataManifest manifest = new DataManifest();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split("\t", 5);
+            if (fields.length != 5 || fields[0].length() != 1) {
+                throw new IOException("Malformed manifest entry: " + line);
+            }
+            try {
+                manifest.mEntries.put(fields[4], new Entry(fields[0].charAt(0), Long.parseLong(fields[1]),
+                        Long.parseLong(fields[2]), fields[3].isEmpty() ? null : fields[3]));
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed manifest entry: " + line, e);
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Read the paths deleted by each delta.
+     *
+     * @param deltaCount Number of deltas in the backup
+     * @return Deleted paths indexed by the delta level, where level 0 is the full backup
+     */
+    @WorkerThread
+    @NonNull
+    static List<List<String>> readDeletions(@NonNull InputStream is, int deltaCount) throws IOException {
+        List<List<String>> deletions = new ArrayList<>(deltaCount + 1);
+        for (int i = 0; i <= deltaCount; ++i) {
+            deletions.add(new ArrayList<>());
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split("\t", 2);
+            int level;
+            try {
+                level = Integer.parseInt(fields[0]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed deletion entry: " + line, e);
+            }
+            if (fields.length != 2 || level < 1 || level > deltaCount) {
+                throw new IOException("Malformed deletion entry: " + line);
+            }
+            deletions.get(level).add(fields[1]);
+        }
+        return deletions;
+    }
+
+    @WorkerThread
+    static void writeDeletions(@NonNull OutputStream os, @NonNull List<List<String>> deletions) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+        for (int level = 0; level < deletions.size(); ++level) {
+            for (String path : deletions.get(level)) {
+                writer.write(level + "\t" + path + "\n");
+            }
+        }
+        writer.flush();
+    }
+
+    @NonNull
+    private static String getParent(@NonNull String relativePath) {
+        // Directories end with a separator
+        int end = relativePath.endsWith("/") ? relativePath.length() - 1 : relativePath.length();
+        int lastSeparator = relativePath.lastIndexOf('/', end - 1);
+        return lastSeparator == -1 ? "" : relativePath.substring(0, lastSeparator + 1);
+    }
+
+    // Relative path -> entry, in the order of traversal
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>();
+
+    @VisibleForTesting
+    DataManifest() {
+    }
+
+    @VisibleForTesting
+    @NonNull
+    Map<String, Entry> getEntries() {
+        return Collections.unmodifiableMap(mEntries);
+    }
+
+    @WorkerThread
+    void write(@NonNull OutputStream os) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+        for (Map.Entry<String, Entry> mapEntry : mEntries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            writer.write(entry.type + "\t" + entry.size + "\t" + entry.lastModified + "\t"
+                    + (entry.hash != null ? entry.hash : "") + "\t" + mapEntry.getKey() + "\n");
+        }
+        writer.flush();
+    }
+}
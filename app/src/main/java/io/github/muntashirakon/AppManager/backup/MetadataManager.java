@@ -18,9 +18,11 @@ import android.text.TextUtils;
 import android.text.format.Formatter;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import androidx.core.content.pm.PackageInfoCompat;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -58,6 +60,15 @@ public final class MetadataManager {
     public static final String META_FILE = "meta_v2.am.json";
     public static final String[] TAR_TYPES = new String[]{TarUtils.TAR_GZIP, TarUtils.TAR_BZIP2, TarUtils.TAR_ZSTD};
     public static final String[] TAR_TYPES_READABLE = new String[]{"GZip", "BZip2", "Zstandard"};
+    /**
+     * Latest supported metadata version. Backups having a newer version cannot be read.
+     */
+    public static final int METADATA_VERSION = 5;
+    /**
+     * Metadata version of the backups that are not incremental. Released versions of the app do not check the metadata
+     * version, so only the backups they can restore correctly are written using this version.
+     */
+    public static final int METADATA_VERSION_FULL = 4;
 
     // For an extended documentation, see https://github.com/MuntashirAkon/AppManager/issues/30
     // All the attributes must be non-null
@@ -89,9 +100,11 @@ public final class MetadataManager {
          *     <li>{@code 2} - Beta version (v2.5.2x), permissions aren't preserved (special action needed)</li>
          *     <li>{@code 3} - From v2.6.x to v3.0.2 and v3.1.0-alpha01, permissions are preserved, AES GCM MAC size is 32 bits</li>
          *     <li>{@code 4} - Since v3.0.3 and v3.1.0-alpha02, AES GCM MAC size is 128 bits</li>
+         *     <li>{@code 5} - Data is backed up incrementally ({@link #deltaCount} is positive), each incremental backup
+         *     is encrypted using its own IV and key ({@link #deltaIvs}). Other backups still use version 4.</li>
          * </ul>
          */
-        public int version = 4;  // version
+        public int version = METADATA_VERSION_FULL;  // version
         public String apkName;  // apk_name
         public String instructionSet = VMRuntime.getInstructionSet(Build.SUPPORTED_ABIS[0]);  // instruction_set
         public BackupFlags flags;  // flags
@@ -100,6 +113,26 @@ public final class MetadataManager {
         public String tarType;  // tar_type
         public boolean keyStore;  // key_store
         public String installer;  // installer
+        /**
+         * Number of incremental data backups on top of the full data backup, or {@code -1} if the data was not backed
+         * up incrementally (i.e. there are no data manifests).
+         */
+        public int deltaCount = -1;  // delta_count
+        /**
+         * IVs of the data archives carried over from the previous backups, i.e. of the full data backup followed by
+         * every incremental backup but the last one, which is encrypted using {@link #iv}. It has {@link #deltaCount}
+         * items if the data was backed up incrementally.
+         */
+        public byte[][] deltaIvs;  // delta_ivs
+        /**
+         * Same as {@link #deltaIvs} but for the encrypted AES keys (RSA and ECC only)
+         */
+        public byte[][] deltaAes;  // delta_aes
+        /**
+         * Whether the APK files are stored in the {@link ChunkStore} rather than in the source archives. If set, the
+         * chunks are listed in {@link BackupFiles#SOURCE_CHUNKS_TSV}.
+         */
+        public boolean apkDeduplicated;  // apk_deduplicated
 
         public Metadata() {
         }
@@ -139,6 +172,30 @@ public final class MetadataManager {
             tarType = metadata.tarType;
             keyStore = metadata.keyStore;
             installer = metadata.installer;
+            deltaCount = metadata.deltaCount;
+            if (metadata.deltaIvs != null) {
+                deltaIvs = metadata.deltaIvs.clone();
+            }
+            if (metadata.deltaAes != null) {
+                deltaAes = metadata.deltaAes.clone();
+            }
+            apkDeduplicated = metadata.apkDeduplicated;
+        }
+
+        /**
+         * Get the metadata needed to decrypt the data archives of the given level, where {@code 0} is the full data
+         * backup and the rest are incremental backups.
+         */
+        @NonNull
+        public Metadata getDataCryptoMetadata(int level) {
+            if (level >= deltaCount || deltaIvs == null) {
+                // Encrypted along with the rest of this backup
+                return this;
+            }
+            Metadata metadata = new Metadata(this);
+            metadata.iv = deltaIvs[level];
+            metadata.aes = deltaAes != null ? deltaAes[level] : null;
+            return metadata;
         }
 
         public long getBackupSize() {
@@ -235,53 +292,109 @@ public final class MetadataManager {
             throw new IOException("Empty JSON string for path " + backupFile.getBackupPath());
         }
         try {
-            JSONObject rootObject = new JSONObject(metadata);
-            mMetadata = new Metadata();
-            mMetadata.backupFile = backupFile;
-            mMetadata.backupName = backupFile.backupName;
-            mMetadata.label = rootObject.getString("label");
-            mMetadata.packageName = rootObject.getString("package_name");
-            mMetadata.versionName = rootObject.getString("version_name");
-            mMetadata.versionCode = rootObject.getLong("version_code");
-            mMetadata.dataDirs = JSONUtils.getArray(String.class, rootObject.getJSONArray("data_dirs"));
-            mMetadata.isSystem = rootObject.getBoolean("is_system");
-            mMetadata.isSplitApk = rootObject.getBoolean("is_split_apk");
-            mMetadata.splitConfigs = JSONUtils.getArray(String.class, rootObject.getJSONArray("split_configs"));
-            mMetadata.hasRules = rootObject.getBoolean("has_rules");
-            mMetadata.backupTime = rootObject.getLong("backup_time");
-            mMetadata.checksumAlgo = rootObject.getString("checksum_algo");
-            mMetadata.crypto = rootObject.getString("crypto");
-            readCrypto(rootObject);
-            mMetadata.version = rootObject.getInt("version");
-            mMetadata.apkName = rootObject.getString("apk_name");
-            mMetadata.instructionSet = rootObject.getString("instruction_set");
-            mMetadata.flags = new BackupFlags(rootObject.getInt("flags"));
-            mMetadata.userHandle = rootObject.getInt("user_handle");
-            mMetadata.tarType = rootObject.getString("tar_type");
-            mMetadata.keyStore = rootObject.getBoolean("key_store");
-            mMetadata.installer = JSONUtils.getString(rootObject, "installer", BuildConfig.APPLICATION_ID);
+            mMetadata = fromJson(new JSONObject(metadata), backupFile);
         } catch (JSONException e) {
             throw new IOException(e.getMessage() + " for path " + backupFile.getBackupPath());
         }
     }
 
-    private void readCrypto(JSONObject rootObj) throws JSONException {
-        switch (mMetadata.crypto) {
+    @NonNull
+    static Metadata fromJson(@NonNull JSONObject rootObject, @NonNull BackupFiles.BackupFile backupFile)
+            throws JSONException {
+        Metadata metadata = new Metadata();
+        metadata.backupFile = backupFile;
+        metadata.backupName = backupFile.backupName;
+        metadata.label = rootObject.getString("label");
+        metadata.packageName = rootObject.getString("package_name");
+        metadata.versionName = rootObject.getString("version_name");
+        metadata.versionCode = rootObject.getLong("version_code");
+        metadata.dataDirs = JSONUtils.getArray(String.class, rootObject.getJSONArray("data_dirs"));
+        metadata.isSystem = rootObject.getBoolean("is_system");
+        metadata.isSplitApk = rootObject.getBoolean("is_split_apk");
+        metadata.splitConfigs = JSONUtils.getArray(String.class, rootObject.getJSONArray("split_configs"));
+        metadata.hasRules = rootObject.getBoolean("has_rules");
+        metadata.backupTime = rootObject.getLong("backup_time");
+        metadata.checksumAlgo = rootObject.getString("checksum_algo");
+        metadata.crypto = rootObject.getString("crypto");
+        readCrypto(metadata, rootObject);
+        metadata.version = rootObject.getInt("version");
+        if (metadata.version > METADATA_VERSION) {
+            throw new JSONException("Unsupported metadata version " + metadata.version);
+        }
+        metadata.apkName = rootObject.getString("apk_name");
+        metadata.instructionSet = rootObject.getString("instruction_set");
+        metadata.flags = new BackupFlags(rootObject.getInt("flags"));
+        metadata.userHandle = rootObject.getInt("user_handle");
+        metadata.tarType = rootObject.getString("tar_type");
+        metadata.keyStore = rootObject.getBoolean("key_store");
+        metadata.installer = JSONUtils.getString(rootObject, "installer", BuildConfig.APPLICATION_ID);
+        metadata.deltaCount = rootObject.optInt("delta_count", -1);
+        if (metadata.deltaCount > 0) {
+            if (metadata.version < 5) {
+                throw new JSONException("Incremental backups require metadata version 5, found " + metadata.version);
+            }
+            readDeltaCrypto(metadata, rootObject);
+        }
+        metadata.apkDeduplicated = rootObject.optBoolean("apk_deduplicated", false);
+        return metadata;
+    }
+
+    private static void readCrypto(@NonNull Metadata metadata, @NonNull JSONObject rootObj) throws JSONException {
+        switch (metadata.crypto) {
             case CryptoUtils.MODE_OPEN_PGP:
-                mMetadata.keyIds = rootObj.getString("key_ids");
+                metadata.keyIds = rootObj.getString("key_ids");
                 break;
             case CryptoUtils.MODE_RSA:
             case CryptoUtils.MODE_ECC:
-                mMetadata.aes = HexEncoding.decode(rootObj.getString("aes"));
+                metadata.aes = HexEncoding.decode(rootObj.getString("aes"));
                 // Deliberate fallthrough
             case CryptoUtils.MODE_AES:
-                mMetadata.iv = HexEncoding.decode(rootObj.getString("iv"));
+                metadata.iv = HexEncoding.decode(rootObj.getString("iv"));
                 break;
             case CryptoUtils.MODE_NO_ENCRYPTION:
             default:
         }
     }
 
+    private static void readDeltaCrypto(@NonNull Metadata metadata, @NonNull JSONObject rootObj) throws JSONException {
+        switch (metadata.crypto) {
+            case CryptoUtils.MODE_RSA:
+            case CryptoUtils.MODE_ECC:
+                metadata.deltaAes = getHexArray(rootObj.getJSONArray("delta_aes"), metadata.deltaCount);
+                // Deliberate fallthrough
+            case CryptoUtils.MODE_AES:
+                metadata.deltaIvs = getHexArray(rootObj.getJSONArray("delta_ivs"), metadata.deltaCount);
+                break;
+            case CryptoUtils.MODE_OPEN_PGP:
+            case CryptoUtils.MODE_NO_ENCRYPTION:
+            default:
+        }
+    }
+
+    @NonNull
+    private static byte[][] getHexArray(@NonNull JSONArray jsonArray, int length) throws JSONException {
+        if (jsonArray.length() != length) {
+            throw new JSONException("Expected " + length + " items, found " + jsonArray.length());
+        }
+        byte[][] array = new byte[length][];
+        for (int i = 0; i < length; ++i) {
+            array[i] = HexEncoding.decode(jsonArray.getString(i));
+        }
+        return array;
+    }
+
+    @Nullable
+    private static JSONArray getHexJSONArray(@Nullable byte[][] array) {
+        if (array == null) {
+            return null;
+        }
+        JSONArray jsonArray = new JSONArray();
+        for (byte[] item : array) {
+            jsonArray.put(HexEncoding.encodeToString(item));
+        }
+        return jsonArray;
+    }
+
     @WorkerThread
     synchronized public void writeMetadata(@NonNull BackupFiles.BackupFile backupFile) throws IOException {
         if (mMetadata == null) {
@@ -289,36 +402,45 @@ public final class MetadataManager {
         }
         Path metadataFile = backupFile.getMetadataFile();
         try (OutputStream outputStream = metadataFile.openOutputStream()) {
-            JSONObject rootObject = new JSONObject();
-            rootObject.put("label", mMetadata.label);
-            rootObject.put("package_name", mMetadata.packageName);
-            rootObject.put("version_name", mMetadata.versionName);
-            rootObject.put("version_code", mMetadata.versionCode);
-            rootObject.put("data_dirs", JSONUtils.getJSONArray(mMetadata.dataDirs));
-            rootObject.put("is_system", mMetadata.isSystem);
-            rootObject.put("is_split_apk", mMetadata.isSplitApk);
-            rootObject.put("split_configs", JSONUtils.getJSONArray(mMetadata.splitConfigs));
-            rootObject.put("has_rules", mMetadata.hasRules);
-            rootObject.put("backup_time", mMetadata.backupTime);
-            rootObject.put("checksum_algo", mMetadata.checksumAlgo);
-            rootObject.put("crypto", mMetadata.crypto);
-            rootObject.put("key_ids", mMetadata.keyIds);
-            rootObject.put("iv", mMetadata.iv == null ? null : HexEncoding.encodeToString(mMetadata.iv));
-            rootObject.put("aes", mMetadata.aes == null ? null : HexEncoding.encodeToString(mMetadata.aes));
-            rootObject.put("version", mMetadata.version);
-            rootObject.put("apk_name", mMetadata.apkName);
-            rootObject.put("instruction_set", mMetadata.instructionSet);
-            rootObject.put("flags", mMetadata.flags.getFlags());
-            rootObject.put("user_handle", mMetadata.userHandle);
-            rootObject.put("tar_type", mMetadata.tarType);
-            rootObject.put("key_store", mMetadata.keyStore);
-            rootObject.put("installer", mMetadata.installer);
-            outputStream.write(rootObject.toString(4).getBytes());
+            outputStream.write(toJson(mMetadata).toString(4).getBytes());
         } catch (JSONException e) {
             throw new IOException(e.getMessage() + " for path " + backupFile.getBackupPath());
         }
     }
 
+    @NonNull
+    static JSONObject toJson(@NonNull Metadata metadata) throws JSONException {
+        JSONObject rootObject = new JSONObject();
+        rootObject.put("label", metadata.label);
+        rootObject.put("package_name", metadata.packageName);
+        rootObject.put("version_name", metadata.versionName);
+        rootObject.put("version_code", metadata.versionCode);
+        rootObject.put("data_dirs", JSONUtils.getJSONArray(metadata.dataDirs));
+        rootObject.put("is_system", metadata.isSystem);
+        rootObject.put("is_split_apk", metadata.isSplitApk);
+        rootObject.put("split_configs", JSONUtils.getJSONArray(metadata.splitConfigs));
+        rootObject.put("has_rules", metadata.hasRules);
+        rootObject.put("backup_time", metadata.backupTime);
+        rootObject.put("checksum_algo", metadata.checksumAlgo);
+        rootObject.put("crypto", metadata.crypto);
+        rootObject.put("key_ids", metadata.keyIds);
+        rootObject.put("iv", metadata.iv == null ? null : HexEncoding.encodeToString(metadata.iv));
+        rootObject.put("aes", metadata.aes == null ? null : HexEncoding.encodeToString(metadata.aes));
+        rootObject.put("version", metadata.version);
+        rootObject.put("apk_name", metadata.apkName);
+        rootObject.put("instruction_set", metadata.instructionSet);
+        rootObject.put("flags", metadata.flags.getFlags());
+        rootObject.put("user_handle", metadata.userHandle);
+        rootObject.put("tar_type", metadata.tarType);
+        rootObject.put("key_store", metadata.keyStore);
+        rootObject.put("installer", metadata.installer);
+        rootObject.put("delta_count", metadata.deltaCount);
+        rootObject.put("delta_ivs", getHexJSONArray(metadata.deltaIvs));
+        rootObject.put("delta_aes", getHexJSONArray(metadata.deltaAes));
+        rootObject.put("apk_deduplicated", metadata.apkDeduplicated);
+        return rootObject;
+    }
+
     public Metadata setupMetadata(@NonNull PackageInfo packageInfo,
                                   @UserIdInt int userHandle,
                                   @NonNull BackupFlags requestedFlags) {
@@ -23,6 +23,8 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -62,6 +64,7 @@ import io.github.muntashirakon.AppManager.rules.struct.SsaidRule;
 import io.github.muntashirakon.AppManager.rules.struct.UriGrantRule;
 import io.github.muntashirakon.AppManager.runner.Runner;
 import io.github.muntashirakon.AppManager.self.SelfPermissions;
+import io.github.muntashirakon.AppManager.settings.Prefs;
 import io.github.muntashirakon.AppManager.ssaid.SsaidSettings;
 import io.github.muntashirakon.AppManager.uri.UriManager;
 import io.github.muntashirakon.AppManager.utils.DigestUtils;
@@ -103,6 +106,8 @@ class RestoreOp implements Closeable {
     private final int mUserId;
     private boolean mIsInstalled;
     private final List<Path> mDecryptedFiles = new ArrayList<>();
+    // Whether to verify, decrypt and extract each file in a single pass
+    private final boolean mSinglePass;
 
     private boolean mRequiresRestart;
 
@@ -131,6 +136,7 @@ class RestoreOp implements Closeable {
         } catch (CryptoException e) {
             throw new BackupException("Failed to get crypto " + mMetadata.crypto, e);
         }
+        mSinglePass = Prefs.BackupRestore.backupInSinglePass() && mCrypto.supportsStreaming();
         Path checksumFile;
         try {
             checksumFile = mBackupFile.getChecksumFile(mMetadata.crypto);
@@ -265,10 +271,18 @@ class RestoreOp implements Closeable {
         if (!mBackupFlags.backupApkFiles()) {
             throw new BackupException("APK restore is requested but backup doesn't contain any source files.");
         }
-        Path[] backupSourceFiles = BackupUtils.getSourceFiles(mBackupPath, mExtension);
-        if (backupSourceFiles.length == 0) {
-            // No source backup found
-            throw new BackupException("Source restore is requested but there are no source files.");
+        Path[] backupSourceFiles;
+        List<ChunkStore.FileEntry> chunkedApks;
+        if (mMetadata.apkDeduplicated) {
+            backupSourceFiles = new Path[0];
+            chunkedApks = readSourceChunks();
+        } else {
+            backupSourceFiles = BackupUtils.getSourceFiles(mBackupPath, mExtension);
+            if (backupSourceFiles.length == 0) {
+                // No source backup found
+                throw new BackupException("Source restore is requested but there are no source files.");
+            }
+            chunkedApks = null;
         }
         boolean isVerified = true;
         if (mPackageInfo != null) {
@@ -334,17 +348,36 @@ class RestoreOp implements Closeable {
             } catch (IOException e) {
                 throw new BackupException("Could not create staging files", e);
             }
-            // Decrypt sources
-            try {
-                backupSourceFiles = decrypt(backupSourceFiles);
-            } catch (IOException e) {
-                throw new BackupException("Failed to decrypt " + Arrays.toString(backupSourceFiles), e);
-            }
-            // Extract apk files to the package staging directory
-            try {
-                TarUtils.extract(mMetadata.tarType, backupSourceFiles, packageStagingDirectory, allApkNames, null, null);
-            } catch (Throwable th) {
-                throw new BackupException("Failed to extract the apk file(s).", th);
+            if (chunkedApks != null) {
+                // Reassemble and verify apk files in the package staging directory
+                try {
+                    restoreApkFilesFromChunkStore(chunkedApks, allApkNames, allApks);
+                } catch (IOException e) {
+                    deleteFiles(allApks);
+                    throw new BackupException("Failed to extract the apk file(s).", e);
+                }
+            } else if (mSinglePass) {
+                // Decrypt and extract apk files to the package staging directory
+                try {
+                    extractInSinglePass(mCrypto, backupSourceFiles, packageStagingDirectory, allApkNames, null, null);
+                } catch (Throwable th) {
+                    // Nothing has been installed yet
+                    deleteFiles(allApks);
+                    throw new BackupException("Failed to extract the apk file(s).", th);
+                }
+            } else {
+                // Decrypt sources
+                try {
+                    backupSourceFiles = decrypt(backupSourceFiles);
+                } catch (IOException e) {
+                    throw new BackupException("Failed to decrypt " + Arrays.toString(backupSourceFiles), e);
+                }
+                // Extract apk files to the package staging directory
+                try {
+                    TarUtils.extract(mMetadata.tarType, backupSourceFiles, packageStagingDirectory, allApkNames, null, null);
+                } catch (Throwable th) {
+                    throw new BackupException("Failed to extract the apk file(s).", th);
+                }
             }
             // A normal update will do it now
             InstallerOptions options = InstallerOptions.getDefault();
@@ -433,11 +466,13 @@ class RestoreOp implements Closeable {
                 }
             }
         }
-        // Decrypt sources
-        try {
-            keyStoreFiles = decrypt(keyStoreFiles);
-        } catch (IOException e) {
-            throw new BackupException("Failed to decrypt " + Arrays.toString(keyStoreFiles), e);
+        if (!mSinglePass) {
+            // Decrypt sources
+            try {
+                keyStoreFiles = decrypt(keyStoreFiles);
+            } catch (IOException e) {
+                throw new BackupException("Failed to decrypt " + Arrays.toString(keyStoreFiles), e);
+            }
         }
         // Restore KeyStore files to the /data/misc/keystore folder
         Path keyStorePath = KeyStoreUtils.getKeyStorePath(mUserId);
@@ -451,7 +486,11 @@ class RestoreOp implements Closeable {
             throw new BackupException("Failed to access properties of the KeyStore folder.", e);
         }
         try {
-            TarUtils.extract(mMetadata.tarType, keyStoreFiles, keyStorePath, null, null, null);
+            if (mSinglePass) {
+                extractInSinglePass(mCrypto, keyStoreFiles, keyStorePath, null, null, null);
+            } else {
+                TarUtils.extract(mMetadata.tarType, keyStoreFiles, keyStorePath, null, null, null);
+            }
             // Restore folder permission
             Paths.chown(keyStorePath, uidGidPair.uid, uidGidPair.gid);
             //noinspection OctalInteger
@@ -491,7 +530,11 @@ class RestoreOp implements Closeable {
                 if (dataFiles.length == 0) {
                     throw new BackupException("Data restore is requested but there are no data files for index " + i + ".");
                 }
-                for (Path file : dataFiles) {
+                List<Path> allDataFiles = new ArrayList<>(Arrays.asList(dataFiles));
+                for (int level = 1; level <= mMetadata.deltaCount; ++level) {
+                    allDataFiles.addAll(Arrays.asList(BackupUtils.getDeltaFiles(mBackupPath, i, level, mExtension)));
+                }
+                for (Path file : allDataFiles) {
                     checksum = DigestUtils.getHexDigest(mMetadata.checksumAlgo, file);
                     if (!checksum.equals(mChecksum.get(file.getName()))) {
                         throw new BackupException("Data file verification failed for index " + i + "." +
@@ -556,19 +599,25 @@ class RestoreOp implements Closeable {
                     dataSourceFile.setUidGid(uidGidPair);
                 }
             }
-            // Decrypt data
-            try {
-                dataFiles = decrypt(dataFiles);
-            } catch (IOException e) {
-                throw new BackupException("Failed to decrypt " + Arrays.toString(dataFiles), e);
-            }
-            // Extract data to the data directory
-            try {
-                String publicSourceDir = new File(Objects.requireNonNull(mPackageInfo.applicationInfo).publicSourceDir).getParent();
-                TarUtils.extract(mMetadata.tarType, dataFiles, dataSourceFile, null, BackupUtils
-                        .getExcludeDirs(!mRequestedFlags.backupCache(), null), publicSourceDir);
-            } catch (Throwable th) {
-                throw new BackupException("Failed to restore data files for index " + i + ".", th);
+            String publicSourceDir = new File(Objects.requireNonNull(mPackageInfo.applicationInfo).publicSourceDir).getParent();
+            restoreDataFiles(dataFiles, dataSourceFile, publicSourceDir, i, 0);
+            if (mMetadata.deltaCount > 0) {
+                // Replay the incremental backups
+                List<List<String>> deletions = readDeletions(i);
+                for (int level = 1; level <= mMetadata.deltaCount; ++level) {
+                    for (String relativePath : deletions.get(level)) {
+                        Path file = Paths.build(dataSourceFile, relativePath.split("/"));
+                        if (file != null && file.exists()) {
+                            file.delete();
+                        }
+                    }
+                    Path[] deltaFiles = BackupUtils.getDeltaFiles(mBackupPath, i, level, mExtension);
+                    if (deltaFiles.length == 0) {
+                        throw new BackupException("Data restore is requested but there are no data files for index "
+                                + i + " at level " + level + ".");
+                    }
+                    restoreDataFiles(deltaFiles, dataSourceFile, publicSourceDir, i, level);
+                }
             }
             // Restore UID and GID
             if (!Runner.runCommand(String.format(Locale.ROOT, "chown -R %d:%d \"%s\"", uidGidPair.uid, uidGidPair.gid, dataSource)).isSuccessful()) {
@@ -581,6 +630,126 @@ class RestoreOp implements Closeable {
         }
     }
 
+    @NonNull
+    private List<ChunkStore.FileEntry> readSourceChunks() throws BackupException {
+        Path sourceChunksFile;
+        try {
+            sourceChunksFile = mBackupFile.getSourceChunksFile();
+        } catch (IOException e) {
+            throw new BackupException("Source restore is requested but there are no source files.", e);
+        }
+        if (!mRequestedFlags.skipSignatureCheck()) {
+            String checksum = DigestUtils.getHexDigest(mMetadata.checksumAlgo, sourceChunksFile);
+            if (!checksum.equals(mChecksum.get(sourceChunksFile.getName()))) {
+                throw new BackupException("Source file verification failed." +
+                        "\nFile: " + sourceChunksFile +
+                        "\nFound: " + checksum +
+                        "\nRequired: " + mChecksum.get(sourceChunksFile.getName()));
+            }
+        }
+        try (InputStream is = sourceChunksFile.openInputStream()) {
+            return ChunkStore.readChunkList(is);
+        } catch (IOException e) {
+            throw new BackupException("Could not read the list of source files.", e);
+        }
+    }
+
+    private static void restoreApkFilesFromChunkStore(@NonNull List<ChunkStore.FileEntry> chunkedApks,
+                                                      @NonNull String[] apkNames, @NonNull Path[] apkFiles)
+            throws IOException {
+        ChunkStore chunkStore = ChunkStore.getInstance();
+        for (int i = 0; i < apkNames.length; ++i) {
+            ChunkStore.FileEntry apkEntry = null;
+            for (ChunkStore.FileEntry entry : chunkedApks) {
+                if (entry.name.equals(apkNames[i])) {
+                    apkEntry = entry;
+                    break;
+                }
+            }
+            if (apkEntry == null) {
+                throw new FileNotFoundException(apkNames[i] + " not found in the backup.");
+            }
+            // Chunks are verified while being reassembled
+            try (OutputStream os = apkFiles[i].openOutputStream()) {
+                chunkStore.get(apkEntry, os);
+            }
+        }
+    }
+
+    /**
+     * @param level {@code 0} for the full data backup, and the level of the incremental backup otherwise
+     */
+    private void restoreDataFiles(@NonNull Path[] dataFiles, @NonNull Path dataSourceFile,
+                                  @Nullable String publicSourceDir, int index, int level) throws BackupException {
+        MetadataManager.Metadata cryptoMetadata = mMetadata.getDataCryptoMetadata(level);
+        Crypto crypto;
+        try {
+            // Carried over archives are encrypted using the IV and the key of the backup that created them
+            crypto = cryptoMetadata == mMetadata ? mCrypto : CryptoUtils.getCrypto(cryptoMetadata);
+        } catch (CryptoException e) {
+            throw new BackupException("Failed to get crypto " + mMetadata.crypto + " for level " + level, e);
+        }
+        try {
+            if (mSinglePass) {
+                // Decrypt and extract data to the data directory
+                try {
+                    extractInSinglePass(crypto, dataFiles, dataSourceFile, null, BackupUtils
+                            .getExcludeDirs(!mRequestedFlags.backupCache(), null), publicSourceDir);
+                } catch (Throwable th) {
+                    throw new BackupException("Failed to restore data files for index " + index + ".", th);
+                }
+            } else {
+                // Decrypt data
+                try {
+                    dataFiles = decrypt(crypto, dataFiles);
+                } catch (IOException e) {
+                    throw new BackupException("Failed to decrypt " + Arrays.toString(dataFiles), e);
+                }
+                // Extract data to the data directory
+                try {
+                    TarUtils.extract(mMetadata.tarType, dataFiles, dataSourceFile, null, BackupUtils
+                            .getExcludeDirs(!mRequestedFlags.backupCache(), null), publicSourceDir);
+                } catch (Throwable th) {
+                    throw new BackupException("Failed to restore data files for index " + index + ".", th);
+                }
+            }
+        } finally {
+            if (crypto != mCrypto) {
+                crypto.close();
+            }
+        }
+    }
+
+    /**
+     * Read the paths deleted by each incremental backup at the given index.
+     */
+    @NonNull
+    private List<List<String>> readDeletions(int index) throws BackupException {
+        Path deletionsFile;
+        try {
+            deletionsFile = mBackupPath.findFile(DataManifest.getDeletionsFileName(index) + mExtension);
+        } catch (FileNotFoundException e) {
+            throw new BackupException("Deleted paths for index " + index + " not found.", e);
+        }
+        if (!mRequestedFlags.skipSignatureCheck()) {
+            String checksum = DigestUtils.getHexDigest(mMetadata.checksumAlgo, deletionsFile);
+            if (!checksum.equals(mChecksum.get(deletionsFile.getName()))) {
+                throw new BackupException("Couldn't verify deleted paths for index " + index + "." +
+                        "\nFile: " + deletionsFile +
+                        "\nFound: " + checksum +
+                        "\nRequired: " + mChecksum.get(deletionsFile.getName()));
+            }
+        }
+        try {
+            deletionsFile = decrypt(new Path[]{deletionsFile})[0];
+            try (InputStream is = deletionsFile.openInputStream()) {
+                return DataManifest.readDeletions(is, mMetadata.deltaCount);
+            }
+        } catch (IOException e) {
+            throw new BackupException("Could not read deleted paths for index " + index + ".", e);
+        }
+    }
+
     private synchronized void restoreExtras() throws BackupException {
         if (!mIsInstalled) {
             throw new BackupException("Misc restore is requested but the app isn't installed.");
@@ -768,13 +937,27 @@ class RestoreOp implements Closeable {
         }
     }
 
+    /**
+     * Decrypt and extract the files in a single pass, i.e. no decrypted copy is written to the disk. The files must
+     * have been verified beforehand since nothing should be extracted from a corrupted backup.
+     */
+    private void extractInSinglePass(@NonNull Crypto crypto, @NonNull Path[] files, @NonNull Path dest,
+                                     @Nullable String[] filters, @Nullable String[] exclusions,
+                                     @Nullable String realDataAppPath)
+            throws IOException {
+        TarUtils.extract(mMetadata.tarType, files, dest, filters, exclusions, realDataAppPath,
+                (part, is) -> crypto.getDecryptingStream(is));
+    }
+
     @NonNull
     private Path[] decrypt(@NonNull Path[] files) throws IOException {
-        Path[] newFiles;
-        synchronized (Crypto.class) {
-            mCrypto.decrypt(files);
-            newFiles = mCrypto.getNewFiles();
-        }
+        return decrypt(mCrypto, files);
+    }
+
+    @NonNull
+    private Path[] decrypt(@NonNull Crypto crypto, @NonNull Path[] files) throws IOException {
+        crypto.decrypt(files);
+        Path[] newFiles = crypto.getNewFiles();
         mDecryptedFiles.addAll(Arrays.asList(newFiles));
         return newFiles.length > 0 ? newFiles : files;
     }
@@ -6,7 +6,9 @@ import androidx.annotation.NonNull;
 import androidx.annotation.WorkerThread;
 
 import java.io.Closeable;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -66,10 +68,8 @@ class VerifyOp implements Closeable {
         }
         // Decrypt checksum
         try {
-            synchronized (Crypto.class) {
-                mCrypto.decrypt(new Path[]{checksumFile});
-                mDecryptedFiles.addAll(Arrays.asList(mCrypto.getNewFiles()));
-            }
+            mCrypto.decrypt(new Path[]{checksumFile});
+            mDecryptedFiles.addAll(Arrays.asList(mCrypto.getNewFiles()));
         } catch (IOException e) {
             throw new BackupException("Could not decrypt " + checksumFile.getName(), e);
         }
@@ -133,6 +133,10 @@ class VerifyOp implements Closeable {
     }
 
     private void verifyApkFiles() throws BackupException {
+        if (mMetadata.apkDeduplicated) {
+            verifyChunkedApkFiles();
+            return;
+        }
         Path[] backupSourceFiles = BackupUtils.getSourceFiles(mBackupPath, mExtension);
         if (backupSourceFiles.length == 0) {
             // No APK files found
@@ -167,6 +171,30 @@ class VerifyOp implements Closeable {
         }
     }
 
+    private void verifyChunkedApkFiles() throws BackupException {
+        Path sourceChunksFile;
+        try {
+            sourceChunksFile = mBackupFile.getSourceChunksFile();
+        } catch (IOException e) {
+            throw new BackupException("Backup does not contain any APK files.", e);
+        }
+        String checksum = DigestUtils.getHexDigest(mMetadata.checksumAlgo, sourceChunksFile);
+        if (!checksum.equals(mChecksum.get(sourceChunksFile.getName()))) {
+            throw new BackupException("Could not verify APK files." +
+                    "\nFile: " + sourceChunksFile.getName() +
+                    "\nFound: " + checksum +
+                    "\nRequired: " + mChecksum.get(sourceChunksFile.getName()));
+        }
+        try (InputStream is = sourceChunksFile.openInputStream()) {
+            ChunkStore chunkStore = ChunkStore.getInstance();
+            for (ChunkStore.FileEntry entry : ChunkStore.readChunkList(is)) {
+                chunkStore.verify(entry);
+            }
+        } catch (IOException e) {
+            throw new BackupException("Could not verify APK files.", e);
+        }
+    }
+
     private void verifyData() throws BackupException {
         Path[] dataFiles;
         String checksum;
@@ -175,7 +203,24 @@ class VerifyOp implements Closeable {
             if (dataFiles.length == 0) {
                 throw new BackupException("No data files at index " + i + ".");
             }
-            for (Path file : dataFiles) {
+            List<Path> allDataFiles = new ArrayList<>(Arrays.asList(dataFiles));
+            for (int level = 1; level <= mMetadata.deltaCount; ++level) {
+                Path[] deltaFiles = BackupUtils.getDeltaFiles(mBackupPath, i, level, mExtension);
+                if (deltaFiles.length == 0) {
+                    throw new BackupException("No data files at index " + i + " for level " + level + ".");
+                }
+                allDataFiles.addAll(Arrays.asList(deltaFiles));
+            }
+            if (mMetadata.deltaCount >= 0) {
+                // Manifests of an incremental backup
+                try {
+                    allDataFiles.add(mBackupPath.findFile(DataManifest.getManifestFileName(i) + mExtension));
+                    allDataFiles.add(mBackupPath.findFile(DataManifest.getDeletionsFileName(i) + mExtension));
+                } catch (FileNotFoundException e) {
+                    throw new BackupException("No manifest at index " + i + ".", e);
+                }
+            }
+            for (Path file : allDataFiles) {
                 checksum = DigestUtils.getHexDigest(mMetadata.checksumAlgo, file);
                 if (!checksum.equals(mChecksum.get(file.getName()))) {
                     throw new BackupException("Could not verify data files at index " + i + "." +
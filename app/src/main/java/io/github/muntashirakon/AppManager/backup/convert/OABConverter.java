@@ -412,19 +412,14 @@ public class OABConverter extends Converter {
 
     @NonNull
     private Path[] encrypt(@NonNull Path[] files) throws IOException {
-        synchronized (Crypto.class) {
-            mCrypto.encrypt(files);
-            return mCrypto.getNewFiles();
-        }
+        mCrypto.encrypt(files);
+        return mCrypto.getNewFiles();
     }
 
     @NonNull
     private Path[] decrypt(@NonNull Path[] files) throws IOException {
-        Path[] newFiles;
-        synchronized (Crypto.class) {
-            mCrypto.decrypt(files);
-            newFiles = mCrypto.getNewFiles();
-        }
+        mCrypto.decrypt(files);
+        Path[] newFiles = mCrypto.getNewFiles();
         mDecryptedFiles.addAll(Arrays.asList(newFiles));
         return newFiles.length > 0 ? newFiles : files;
     }
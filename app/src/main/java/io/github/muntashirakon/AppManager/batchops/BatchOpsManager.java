@@ -42,6 +42,7 @@ import io.github.muntashirakon.AppManager.apk.dexopt.DexOptimizer;
 import io.github.muntashirakon.AppManager.apk.installer.PackageInstallerCompat;
 import io.github.muntashirakon.AppManager.backup.BackupException;
 import io.github.muntashirakon.AppManager.backup.BackupManager;
+import io.github.muntashirakon.AppManager.backup.BackupUtils;
 import io.github.muntashirakon.AppManager.backup.convert.ConvertUtils;
 import io.github.muntashirakon.AppManager.backup.convert.Converter;
 import io.github.muntashirakon.AppManager.backup.dialog.BackupRestoreDialogFragment;
@@ -66,6 +67,7 @@ import io.github.muntashirakon.AppManager.progress.ProgressHandler;
 import io.github.muntashirakon.AppManager.rules.compontents.ComponentUtils;
 import io.github.muntashirakon.AppManager.rules.compontents.ComponentsBlocker;
 import io.github.muntashirakon.AppManager.rules.compontents.ExternalComponentsImporter;
+import io.github.muntashirakon.AppManager.rules.compontents.IntentFirewallTransaction;
 import io.github.muntashirakon.AppManager.self.SelfPermissions;
 import io.github.muntashirakon.AppManager.types.UserPackagePair;
 import io.github.muntashirakon.AppManager.utils.ArrayUtils;
@@ -364,6 +366,8 @@ public class BatchOpsManager {
             log("====> op=BACKUP_RESTORE, mode=BACKUP", th);
         }
         executor.awaitCompletion();
+        // Replaced backups may have left unused APK chunks behind
+        BackupUtils.cleanUpChunkStore();
         return new Result(failedPackages);
     }
 
@@ -434,6 +438,8 @@ public class BatchOpsManager {
         } catch (Throwable th) {
             log("====> op=BACKUP_RESTORE, mode=DELETE", th);
         }
+        // Only needed if any of the deleted backups used the deduplicated APK chunks
+        BackupUtils.cleanUpChunkStoreIfNeeded();
         return new Result(failedPackages);
     }
 
@@ -487,15 +493,19 @@ public class BatchOpsManager {
         float lastProgress = mProgressHandler != null ? mProgressHandler.getLastProgress() : 0;
         int max = info.size();
         UserPackagePair pair;
-        for (int i = 0; i < max; ++i) {
-            updateProgress(lastProgress, i + 1);
-            pair = info.getPair(i);
-            try {
-                ComponentUtils.blockFilteredComponents(pair, options.getSignatures());
-            } catch (Exception e) {
-                log("====> op=BLOCK_COMPONENTS, pkg=" + pair, e);
-                failedPackages.add(pair);
+        // Rules of all the packages are written at once
+        try (IntentFirewallTransaction transaction = IntentFirewallTransaction.begin()) {
+            for (int i = 0; i < max; ++i) {
+                updateProgress(lastProgress, i + 1);
+                pair = info.getPair(i);
+                try {
+                    ComponentUtils.blockFilteredComponents(pair, options.getSignatures());
+                } catch (Exception e) {
+                    log("====> op=BLOCK_COMPONENTS, pkg=" + pair, e);
+                    failedPackages.add(pair);
+                }
             }
+            addIfwFailures(info, transaction.commit(), failedPackages);
         }
         return new Result(failedPackages);
     }
@@ -506,15 +516,19 @@ public class BatchOpsManager {
         float lastProgress = mProgressHandler != null ? mProgressHandler.getLastProgress() : 0;
         int max = info.size();
         UserPackagePair pair;
-        for (int i = 0; i < max; ++i) {
-            updateProgress(lastProgress, i + 1);
-            pair = info.getPair(i);
-            try {
-                ComponentUtils.blockTrackingComponents(pair);
-            } catch (Exception e) {
-                log("====> op=BLOCK_TRACKERS, pkg=" + pair, e);
-                failedPackages.add(pair);
+        // Rules of all the packages are written at once
+        try (IntentFirewallTransaction transaction = IntentFirewallTransaction.begin()) {
+            for (int i = 0; i < max; ++i) {
+                updateProgress(lastProgress, i + 1);
+                pair = info.getPair(i);
+                try {
+                    ComponentUtils.blockTrackingComponents(pair);
+                } catch (Exception e) {
+                    log("====> op=BLOCK_TRACKERS, pkg=" + pair, e);
+                    failedPackages.add(pair);
+                }
             }
+            addIfwFailures(info, transaction.commit(), failedPackages);
         }
         return new Result(failedPackages);
     }
@@ -806,15 +820,19 @@ public class BatchOpsManager {
         BatchComponentOptions options = (BatchComponentOptions) Objects.requireNonNull(info.options);
         int max = info.size();
         UserPackagePair pair;
-        for (int i = 0; i < max; ++i) {
-            updateProgress(lastProgress, i + 1);
-            pair = info.getPair(i);
-            try {
-                ComponentUtils.unblockFilteredComponents(pair, options.getSignatures());
-            } catch (Throwable th) {
-                log("====> op=UNBLOCK_COMPONENTS, pkg=" + pair, th);
-                failedPackages.add(pair);
+        // Rules of all the packages are written at once
+        try (IntentFirewallTransaction transaction = IntentFirewallTransaction.begin()) {
+            for (int i = 0; i < max; ++i) {
+                updateProgress(lastProgress, i + 1);
+                pair = info.getPair(i);
+                try {
+                    ComponentUtils.unblockFilteredComponents(pair, options.getSignatures());
+                } catch (Throwable th) {
+                    log("====> op=UNBLOCK_COMPONENTS, pkg=" + pair, th);
+                    failedPackages.add(pair);
+                }
             }
+            addIfwFailures(info, transaction.commit(), failedPackages);
         }
         return new Result(failedPackages);
     }
@@ -825,19 +843,37 @@ public class BatchOpsManager {
         float lastProgress = mProgressHandler != null ? mProgressHandler.getLastProgress() : 0;
         int max = info.size();
         UserPackagePair pair;
-        for (int i = 0; i < max; ++i) {
-            updateProgress(lastProgress, i + 1);
-            pair = info.getPair(i);
-            try {
-                ComponentUtils.unblockTrackingComponents(pair);
-            } catch (Throwable th) {
-                log("====> op=UNBLOCK_TRACKERS, pkg=" + pair, th);
-                failedPackages.add(pair);
+        // Rules of all the packages are written at once
+        try (IntentFirewallTransaction transaction = IntentFirewallTransaction.begin()) {
+            for (int i = 0; i < max; ++i) {
+                updateProgress(lastProgress, i + 1);
+                pair = info.getPair(i);
+                try {
+                    ComponentUtils.unblockTrackingComponents(pair);
+                } catch (Throwable th) {
+                    log("====> op=UNBLOCK_TRACKERS, pkg=" + pair, th);
+                    failedPackages.add(pair);
+                }
             }
+            addIfwFailures(info, transaction.commit(), failedPackages);
         }
         return new Result(failedPackages);
     }
 
+    private void addIfwFailures(@NonNull BatchOpsInfo info, @NonNull Set<String> failedIfwPackages,
+                                @NonNull List<UserPackagePair> failedPackages) {
+        if (failedIfwPackages.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < info.size(); ++i) {
+            UserPackagePair pair = info.getPair(i);
+            if (failedIfwPackages.contains(pair.getPackageName()) && !failedPackages.contains(pair)) {
+                log("====> IFW rules could not be saved, pkg=" + pair);
+                failedPackages.add(pair);
+            }
+        }
+    }
+
     @NonNull
     private Result opUninstall(@NonNull BatchOpsInfo info) {
         List<UserPackagePair> failedPackages = new ArrayList<>();
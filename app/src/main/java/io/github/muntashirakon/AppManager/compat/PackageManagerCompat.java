@@ -18,6 +18,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
 import android.content.pm.ApplicationInfo;
+import android.content.pm.ChangedPackages;
 import android.content.pm.IPackageInstaller;
 import android.content.pm.IPackageManager;
 import android.content.pm.IPackageManagerN;
@@ -52,11 +53,14 @@ import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
 import dev.rikka.tools.refine.Refine;
+import io.github.muntashirakon.AppManager.ipc.LocalServices;
 import io.github.muntashirakon.AppManager.ipc.ProxyBinder;
 import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.AppManager.self.SelfPermissions;
@@ -414,6 +418,89 @@ public final class PackageManagerCompat {
         }
     }
 
+    /**
+     * Set the states of several components in as few binder transactions as possible. All the components are set at
+     * once on Android 13 and later. Otherwise, they are set one by one in the privileged service if it is running, or
+     * in this process as a last resort. Unlike {@link #setComponentEnabledSetting(ComponentName, int, int, int)}, this
+     * does not throw if a component could not be set.
+     *
+     * @param componentStates Components and their new states
+     * @return Components that could not be set along with the errors
+     */
+    @SuppressWarnings("deprecation")
+    @WorkerThread
+    @RequiresPermission(value = Manifest.permission.CHANGE_COMPONENT_ENABLED_STATE)
+    @NonNull
+    public static Map<ComponentName, Throwable> setComponentEnabledSettings(@NonNull Map<ComponentName, Integer> componentStates,
+                                                                            @EnabledFlags int flags,
+                                                                            @UserIdInt int userId) {
+        if (componentStates.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        String callingPackage = SelfPermissions.getCallingPackage(Users.getSelfOrRemoteUid());
+        Map<ComponentName, Throwable> failedComponents = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            List<PackageManager.ComponentEnabledSetting> settings = new ArrayList<>(componentStates.size());
+            for (Map.Entry<ComponentName, Integer> componentState : componentStates.entrySet()) {
+                settings.add(new PackageManager.ComponentEnabledSetting(componentState.getKey(),
+                        componentState.getValue(), flags));
+            }
+            try {
+                IPackageManager pm = getPackageManager();
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+                    pm.setComponentEnabledSettings(settings, userId, callingPackage);
+                } else pm.setComponentEnabledSettings(settings, userId);
+                failedComponents = Collections.emptyMap();
+            } catch (Throwable e) {
+                // None of the components are set if any one of them fails. Set them one by one to find the culprits.
+                Log.w(TAG, "Could not set the states of %d components at once", e, componentStates.size());
+            }
+        }
+        if (failedComponents == null && LocalServices.alive()) {
+            ComponentName[] componentNames = componentStates.keySet().toArray(new ComponentName[0]);
+            int[] newStates = new int[componentNames.length];
+            for (int i = 0; i < componentNames.length; ++i) {
+                newStates[i] = Objects.requireNonNull(componentStates.get(componentNames[i]));
+            }
+            try {
+                String[] errors = LocalServices.getAmService().setComponentEnabledSettings(componentNames, newStates,
+                        flags, userId, callingPackage);
+                failedComponents = new LinkedHashMap<>();
+                for (int i = 0; i < componentNames.length; ++i) {
+                    if (errors[i] != null) {
+                        failedComponents.put(componentNames[i], new RemoteException(errors[i]));
+                    }
+                }
+            } catch (RemoteException e) {
+                Log.w(TAG, "Could not set the states of %d components in the privileged service", e,
+                        componentStates.size());
+            }
+        }
+        if (failedComponents == null) {
+            failedComponents = new LinkedHashMap<>();
+            IPackageManager pm = getPackageManager();
+            for (Map.Entry<ComponentName, Integer> componentState : componentStates.entrySet()) {
+                try {
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+                        pm.setComponentEnabledSetting(componentState.getKey(), componentState.getValue(), flags,
+                                userId, callingPackage);
+                    } else pm.setComponentEnabledSetting(componentState.getKey(), componentState.getValue(), flags,
+                            userId);
+                } catch (Throwable e) {
+                    failedComponents.put(componentState.getKey(), e);
+                }
+            }
+        }
+        if (userId != UserHandleHidden.myUserId() && failedComponents.size() < componentStates.size()) {
+            Set<String> packageNames = new HashSet<>();
+            for (ComponentName componentName : componentStates.keySet()) {
+                packageNames.add(componentName.getPackageName());
+            }
+            BroadcastUtils.sendPackageAltered(ContextUtils.getContext(), packageNames.toArray(new String[0]));
+        }
+        return failedComponents;
+    }
+
     @RequiresPermission(value = Manifest.permission.CHANGE_COMPONENT_ENABLED_STATE)
     public static void setApplicationEnabledSetting(String packageName, @EnabledState int newState,
                                                     @EnabledFlags int flags, @UserIdInt int userId)
@@ -460,6 +547,18 @@ public final class PackageManagerCompat {
         }
     }
 
+    /**
+     * Retrieve the packages that have been installed, updated or uninstalled since the given sequence number. The
+     * sequence numbers are reset on every boot.
+     *
+     * @return {@code null} if no packages have changed since then
+     */
+    @RequiresApi(Build.VERSION_CODES.O)
+    @Nullable
+    public static ChangedPackages getChangedPackages(int sequenceNumber, @UserIdInt int userId) throws RemoteException {
+        return getPackageManager().getChangedPackages(sequenceNumber, userId);
+    }
+
     public static boolean isPackageSuspended(String packageName, @UserIdInt int userId) throws RemoteException {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
             return getPackageManager().isPackageSuspendedForUser(packageName, userId);
@@ -139,6 +139,20 @@ public class AESCrypto implements Crypto {
         }
     }
 
+    @Override
+    public boolean supportsStreaming() {
+        return true;
+    }
+
+    @NonNull
+    @Override
+    public OutputStream getEncryptingStream(@NonNull OutputStream encryptedStream) {
+        // Each stream is encrypted independently just like each file in handleFiles()
+        GCMModeCipher cipher = GCMBlockCipher.newInstance(AESEngine.newInstance());
+        cipher.init(true, getParams());
+        return new CipherOutputStream(encryptedStream, cipher);
+    }
+
     @WorkerThread
     @Override
     public void decrypt(@NonNull Path[] files) throws IOException {
@@ -157,6 +171,14 @@ public class AESCrypto implements Crypto {
         }
     }
 
+    @NonNull
+    @Override
+    public InputStream getDecryptingStream(@NonNull InputStream encryptedStream) {
+        GCMModeCipher cipher = GCMBlockCipher.newInstance(AESEngine.newInstance());
+        cipher.init(false, getParams());
+        return new CipherInputStream(encryptedStream, cipher);
+    }
+
     @WorkerThread
     private void handleFiles(boolean forEncryption, @NonNull Path[] files) throws IOException {
         mNewFiles.clear();
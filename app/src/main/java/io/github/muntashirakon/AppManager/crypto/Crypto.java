@@ -12,6 +12,11 @@ import java.io.OutputStream;
 
 import io.github.muntashirakon.io.Path;
 
+/**
+ * An instance must only be used by one operation at a time, but different instances can be used concurrently. So, an
+ * implementation that relies on a shared resource which cannot be used concurrently must serialise the access to it
+ * by itself.
+ */
 public interface Crypto extends Closeable {
     @WorkerThread
     void encrypt(@NonNull Path[] files) throws IOException;
@@ -19,9 +24,35 @@ public interface Crypto extends Closeable {
     @WorkerThread
     void encrypt(@NonNull InputStream unencryptedStream, @NonNull OutputStream encryptedStream) throws IOException;
 
+    /**
+     * Whether this crypto can en/decrypt a stream on the fly, i.e. whether {@link #getEncryptingStream(OutputStream)}
+     * and {@link #getDecryptingStream(InputStream)} are supported.
+     */
+    boolean supportsStreaming();
+
+    /**
+     * Wrap the given stream so that everything written to the returned stream is encrypted before being written to
+     * {@code encryptedStream}. Closing the returned stream finalises the encryption and closes the underlying stream.
+     *
+     * @throws UnsupportedOperationException If {@link #supportsStreaming()} returns {@code false}
+     */
+    @WorkerThread
+    @NonNull
+    OutputStream getEncryptingStream(@NonNull OutputStream encryptedStream) throws IOException;
+
     @WorkerThread
     void decrypt(@NonNull Path[] files) throws IOException;
 
+    /**
+     * Wrap the given stream so that everything read from the returned stream is decrypted from
+     * {@code encryptedStream}. Authentication, if supported, is done when the end of the stream is reached.
+     *
+     * @throws UnsupportedOperationException If {@link #supportsStreaming()} returns {@code false}
+     */
+    @WorkerThread
+    @NonNull
+    InputStream getDecryptingStream(@NonNull InputStream encryptedStream) throws IOException;
+
     @WorkerThread
     void decrypt(@NonNull InputStream encryptedStream, @NonNull OutputStream unencryptedStream) throws IOException;
 
@@ -25,12 +25,31 @@ public class DummyCrypto implements Crypto {
         // Do nothing since both are the same stream
     }
 
+    @Override
+    public boolean supportsStreaming() {
+        return true;
+    }
+
+    @NonNull
+    @Override
+    public OutputStream getEncryptingStream(@NonNull OutputStream encryptedStream) {
+        // No encryption, write as is
+        return encryptedStream;
+    }
+
     @Override
     public void decrypt(@NonNull Path[] files) {
         // The new files will be deleted, so don't send
         mNewFiles = null;
     }
 
+    @NonNull
+    @Override
+    public InputStream getDecryptingStream(@NonNull InputStream encryptedStream) {
+        // No encryption, read as is
+        return encryptedStream;
+    }
+
     @Override
     public void decrypt(@NonNull InputStream encryptedStream, @NonNull OutputStream unencryptedStream) {
         // Do nothing since both are the same stream
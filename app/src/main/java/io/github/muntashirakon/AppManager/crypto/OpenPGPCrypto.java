@@ -50,6 +50,10 @@ public class OpenPGPCrypto implements Crypto {
 
     public static final String GPG_EXT = ".gpg";
 
+    // Interactions with the provider are delivered as app-wide broadcasts and notifications, which cannot be told
+    // apart. So, only one en/decryption may run at a time.
+    private static final Object sLock = new Object();
+
     private OpenPgpServiceConnection mService;
     private boolean mSuccessFlag;
     private boolean mErrorFlag;
@@ -140,30 +144,52 @@ public class OpenPGPCrypto implements Crypto {
         handleStreams(intent, Cipher.ENCRYPT_MODE, unencryptedStream, encryptedStream);
     }
 
+    @Override
+    public boolean supportsStreaming() {
+        // The provider needs the whole input before it can produce any output, and may ask for user interaction
+        return false;
+    }
+
+    @NonNull
+    @Override
+    public OutputStream getEncryptingStream(@NonNull OutputStream encryptedStream) {
+        throw new UnsupportedOperationException("OpenPGP does not support streaming.");
+    }
+
+    @NonNull
+    @Override
+    public InputStream getDecryptingStream(@NonNull InputStream encryptedStream) {
+        throw new UnsupportedOperationException("OpenPGP does not support streaming.");
+    }
+
     @WorkerThread
     private void handleFiles(Intent intent, int mode, @NonNull Path[] filesList) throws IOException {
-        mIsFileMode = true;
-        waitForServiceBound();
-        mIs = null;
-        mOs = null;
-        mFiles = filesList;
-        mNewFiles.clear();
-        mLastIntent = intent;
-        mLastMode = mode;
-        doAction(intent, mode, true);
+        synchronized (sLock) {
+            mIsFileMode = true;
+            waitForServiceBound();
+            mIs = null;
+            mOs = null;
+            mFiles = filesList;
+            mNewFiles.clear();
+            mLastIntent = intent;
+            mLastMode = mode;
+            doAction(intent, mode, true);
+        }
     }
 
     @WorkerThread
     private void handleStreams(Intent intent, int mode, @NonNull InputStream is, @NonNull OutputStream os)
             throws IOException {
-        mIsFileMode = false;
-        waitForServiceBound();
-        mIs = is;
-        mOs = os;
-        mFiles = new Path[0];
-        mLastIntent = intent;
-        mLastMode = mode;
-        doAction(intent, mode, true);
+        synchronized (sLock) {
+            mIsFileMode = false;
+            waitForServiceBound();
+            mIs = is;
+            mOs = os;
+            mFiles = new Path[0];
+            mLastIntent = intent;
+            mLastMode = mode;
+            doAction(intent, mode, true);
+        }
     }
 
     @WorkerThread
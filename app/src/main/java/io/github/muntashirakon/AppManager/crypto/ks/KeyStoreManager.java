@@ -87,14 +87,14 @@ public class KeyStoreManager {
     @SuppressLint("StaticFieldLeak")
     private static KeyStoreManager sInstance;
 
-    public static KeyStoreManager getInstance() throws Exception {
+    public static synchronized KeyStoreManager getInstance() throws Exception {
         if (sInstance == null) {
             sInstance = new KeyStoreManager();
         }
         return sInstance;
     }
 
-    public static void reloadKeyStore() throws Exception {
+    public static synchronized void reloadKeyStore() throws Exception {
         sInstance = new KeyStoreManager();
     }
 
@@ -232,6 +232,8 @@ public class KeyStoreManager {
     }
 
     private final Context mContext;
+    // KeyStore is not thread-safe. All accesses to it are guarded by this instance so that the callers, such as the
+    // cryptos used in concurrent backups, only wait for each other while loading or storing keys.
     private final KeyStore mAmKeyStore;
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
         @Override
@@ -253,7 +255,7 @@ public class KeyStoreManager {
         mAmKeyStore = getAmKeyStore();
     }
 
-    public void addKeyPair(String alias, @NonNull KeyPair keyPair, boolean isOverride)
+    public synchronized void addKeyPair(String alias, @NonNull KeyPair keyPair, boolean isOverride)
             throws KeyStoreException, IOException, CertificateException, NoSuchAlgorithmException {
         // Check existence of this alias in system preferences, this should be unique
         String prefAlias = getPrefAlias(alias);
@@ -279,7 +281,7 @@ public class KeyStoreManager {
         }
     }
 
-    public void addSecretKey(String alias, @NonNull SecretKey secretKey, boolean isOverride)
+    public synchronized void addSecretKey(String alias, @NonNull SecretKey secretKey, boolean isOverride)
             throws KeyStoreException, IOException, CertificateException, NoSuchAlgorithmException {
         // Check existence of this alias in system preferences, this should be unique
         String prefAlias = getPrefAlias(alias);
@@ -303,7 +305,7 @@ public class KeyStoreManager {
         }
     }
 
-    public void removeItem(String alias)
+    public synchronized void removeItem(String alias)
             throws KeyStoreException, IOException, CertificateException, NoSuchAlgorithmException {
         removeItemInternal(alias);
         char[] realPassword = getAmKeyStorePassword();
@@ -323,7 +325,7 @@ public class KeyStoreManager {
     }
 
     @Nullable
-    private Key getKey(String alias)
+    private synchronized Key getKey(String alias)
             throws UnrecoverableKeyException, NoSuchAlgorithmException, KeyStoreException {
         char[] password = getAmKeyStorePassword();
         Key key = mAmKeyStore.getKey(alias, password);
@@ -336,7 +338,7 @@ public class KeyStoreManager {
      */
     @Deprecated
     @Nullable
-    private Key getKey(String alias, @Nullable char[] password)
+    private synchronized Key getKey(String alias, @Nullable char[] password)
             throws UnrecoverableKeyException, NoSuchAlgorithmException, KeyStoreException {
         if (password == null) {
             password = getAliasPassword(alias);
@@ -375,7 +377,7 @@ public class KeyStoreManager {
         }
     }
 
-    public boolean containsKey(String alias) throws KeyStoreException {
+    public synchronized boolean containsKey(String alias) throws KeyStoreException {
         return mAmKeyStore.containsAlias(alias);
     }
 
@@ -385,7 +387,7 @@ public class KeyStoreManager {
      * @param alias The given KeyStore alias
      * @return Certificate associated with the alias, usually {@link X509Certificate}
      */
-    private Certificate getCertificate(String alias) throws KeyStoreException {
+    private synchronized Certificate getCertificate(String alias) throws KeyStoreException {
         return mAmKeyStore.getCertificate(alias);
     }
 
@@ -18,16 +18,21 @@ import android.text.TextUtils;
 import android.util.ArrayMap;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import io.github.muntashirakon.AppManager.backup.BackupUtils;
 import io.github.muntashirakon.AppManager.compat.PackageManagerCompat;
@@ -42,6 +47,7 @@ import io.github.muntashirakon.AppManager.self.SelfPermissions;
 import io.github.muntashirakon.AppManager.settings.FeatureController;
 import io.github.muntashirakon.AppManager.ssaid.SsaidSettings;
 import io.github.muntashirakon.AppManager.types.PackageSizeInfo;
+import io.github.muntashirakon.AppManager.types.UserPackagePair;
 import io.github.muntashirakon.AppManager.uri.UriManager;
 import io.github.muntashirakon.AppManager.usage.AppUsageStatsManager;
 import io.github.muntashirakon.AppManager.usage.PackageUsageInfo;
@@ -50,6 +56,7 @@ import io.github.muntashirakon.AppManager.users.Users;
 import io.github.muntashirakon.AppManager.utils.BroadcastUtils;
 import io.github.muntashirakon.AppManager.utils.ExUtils;
 import io.github.muntashirakon.AppManager.utils.KeyStoreUtils;
+import io.github.muntashirakon.AppManager.utils.MultithreadedExecutor;
 import io.github.muntashirakon.AppManager.utils.PackageUtils;
 import io.github.muntashirakon.AppManager.utils.ThreadUtils;
 
@@ -102,6 +109,13 @@ public class AppDb {
         }
     }
 
+    /**
+     * Fetch backups without a lock file. Necessary checks must be done to ensure that the backups actually exist.
+     */
+    public List<Backup> getAllBackupsNoLock() {
+        return mBackupDao.getAll();
+    }
+
     /**
      * Fetch backups without a lock file. Necessary checks must be done to ensure that the backups actually exist.
      */
@@ -186,11 +200,11 @@ public class AppDb {
     @NonNull
     private List<App> updateApplicationInternal(@NonNull Context context, @NonNull String packageName) {
         int[] userIds = Users.getUsersIds();
-        List<App> oldApps = new ArrayList<>(mAppDao.getAll(packageName));
+        Map<UserPackagePair, App> oldApps = indexApps(mAppDao.getAll(packageName));
         List<App> appList = new ArrayList<>(userIds.length);
         List<Backup> backups = new ArrayList<>(mBackupDao.get(packageName));
         for (int userId : userIds) {
-            int oldAppIndex = findIndexOfApp(oldApps, packageName, userId);
+            App oldApp = oldApps.remove(new UserPackagePair(packageName, userId));
             PackageInfo packageInfo = null;
             Backup backup = null;
             ListIterator<Backup> backupListIterator = backups.listIterator();
@@ -213,15 +227,14 @@ public class AppDb {
             }
             if (backup == null && packageInfo == null) {
                 // Neither backup nor package exist
-                if (oldAppIndex >= 0) {
+                if (oldApp != null) {
                     // Delete existing backup
-                    mAppDao.delete(oldApps.get(oldAppIndex));
+                    mAppDao.delete(oldApp);
                 }
                 continue;
             }
-            if (oldAppIndex >= 0) {
+            if (oldApp != null) {
                 // There's already existing app
-                App oldApp = oldApps.get(oldAppIndex);
                 mAppDao.delete(oldApp);
                 if ((packageInfo != null && isUpToDate(oldApp, packageInfo))
                         || (backup != null && isUpToDate(oldApp, backup))) {
@@ -245,14 +258,79 @@ public class AppDb {
         return appList;
     }
 
+    /**
+     * Update only the apps whose packages have changed since the last update. A full update is done instead if the
+     * changes cannot be tracked, e.g. after a reboot or on Android 7.1 and earlier.
+     */
     @WorkerThread
-    public void updateApplications(@NonNull Context context) {
+    public void updateChangedApplications(@NonNull Context context) {
         synchronized (sLock) {
-            Map<String, Backup> backups = getBackups(false);
-            List<App> oldApps = new ArrayList<>(mAppDao.getAll());
-            List<App> modifiedApps = new ArrayList<>();
+            PackageChangeJournal journal = new PackageChangeJournal(context);
+            Set<String> changedPackages = journal.getChangedPackages();
+            if (changedPackages == null) {
+                updateApplications(context);
+                return;
+            }
+            Log.d(TAG, "Updating %d changed packages.", changedPackages.size());
+            List<App> appList = new ArrayList<>();
             Set<String> newApps = new HashSet<>();
             Set<String> updatedApps = new HashSet<>();
+            Set<String> removedApps = new HashSet<>();
+            for (String packageName : changedPackages) {
+                boolean existed = !mAppDao.getAll(packageName).isEmpty();
+                List<App> apps = updateApplicationInternal(context, packageName);
+                if (apps.isEmpty()) {
+                    if (existed) removedApps.add(packageName);
+                } else if (existed) {
+                    updatedApps.add(packageName);
+                } else newApps.add(packageName);
+                appList.addAll(apps);
+            }
+            // Update usage and others
+            updateVariableData(context, appList);
+            if (!storeChangedApplications(mAppDao, journal, appList)) {
+                return;
+            }
+            if (!removedApps.isEmpty()) {
+                // Delete broadcast
+                BroadcastUtils.sendDbPackageRemoved(context, removedApps.toArray(new String[0]));
+            }
+            if (!newApps.isEmpty()) {
+                // New apps
+                BroadcastUtils.sendDbPackageAdded(context, newApps.toArray(new String[0]));
+            }
+            if (!updatedApps.isEmpty()) {
+                // Altered apps
+                BroadcastUtils.sendDbPackageAltered(context, updatedApps.toArray(new String[0]));
+            }
+        }
+    }
+
+    /**
+     * Store the changed apps and advance the journal. Nothing is stored if the thread was interrupted while the apps
+     * were being updated, since they would be only partially updated, and their packages would not be updated again
+     * until they change.
+     *
+     * @return {@code true} if the apps were stored
+     */
+    @VisibleForTesting
+    static boolean storeChangedApplications(@NonNull AppDao appDao, @NonNull PackageChangeJournal journal,
+                                            @NonNull List<App> appList) {
+        // Interrupt thread on request
+        if (ThreadUtils.isInterrupted()) return false;
+        appDao.insert(appList);
+        journal.save();
+        return true;
+    }
+
+    @WorkerThread
+    public void updateApplications(@NonNull Context context) {
+        synchronized (sLock) {
+            // Changes made during the update are picked up by the next incremental update
+            PackageChangeJournal journal = new PackageChangeJournal(context);
+            journal.reset();
+            Map<String, Backup> backups = getBackups(false);
+            Reconciliation reconciliation = new Reconciliation(indexApps(mAppDao.getAll()), backups);
 
             // Interrupt thread on request
             if (ThreadUtils.isInterrupted()) return;
@@ -276,58 +354,29 @@ public class AppDb {
                     // Interrupt thread on request
                     if (ThreadUtils.isInterrupted()) return;
 
-                    int oldAppIndex = findIndexOfApp(oldApps, packageInfo.packageName, UserHandleHidden.getUserId(packageInfo.applicationInfo.uid));
-                    if (oldAppIndex >= 0) {
-                        // There's already existing app
-                        App oldApp = oldApps.remove(oldAppIndex);
-                        if (isUpToDate(oldApp, packageInfo)) {
-                            // Up-to-date app
-                            updatedApps.add(oldApp.packageName);
-                            modifiedApps.add(oldApp);
-                            backups.remove(packageInfo.packageName);
-                            oldApp.lastActionTime = System.currentTimeMillis();
-                            continue;
-                        }
-                    }
-                    // New app
-                    App app = App.fromPackageInfo(context, packageInfo);
-                    backups.remove(packageInfo.packageName);
-                    newApps.add(app.packageName);
-                    modifiedApps.add(app);
+                    reconciliation.addInstalledPackage(context, packageInfo);
                 }
             }
 
             // Update usage and others
-            updateVariableData(context, modifiedApps);
+            updateVariableData(context, reconciliation.modifiedApps);
 
-            // Add rest of the backup items, i.e., items that aren't installed
-            for (Backup backup : backups.values()) {
-                if (backup == null) continue;
-                // Interrupt thread on request
-                if (ThreadUtils.isInterrupted()) return;
+            // Interrupt thread on request
+            if (ThreadUtils.isInterrupted()) return;
 
-                int oldAppIndex = findIndexOfApp(oldApps, backup.packageName, backup.userId);
-                if (oldAppIndex >= 0) {
-                    // There's already existing app
-                    App oldApp = oldApps.remove(oldAppIndex);
-                    if (isUpToDate(oldApp, backup)) {
-                        // Up-to-date app
-                        updatedApps.add(oldApp.packageName);
-                        modifiedApps.add(oldApp);
-                        continue;
-                    }
-                }
-                // New app
-                App app = App.fromBackup(backup);
-                newApps.add(app.packageName);
-                modifiedApps.add(app);
-            }
+            // Add rest of the backup items, i.e., items that aren't installed
+            reconciliation.addRemainingBackups();
+            List<App> modifiedApps = reconciliation.modifiedApps;
+            Set<String> newApps = reconciliation.newApps;
+            Set<String> updatedApps = reconciliation.updatedApps;
             // Add new data
-            mAppDao.delete(oldApps);
+            List<App> removedApps = reconciliation.getRemovedApps();
+            mAppDao.delete(removedApps);
             mAppDao.insert(modifiedApps);
-            if (!oldApps.isEmpty()) {
+            journal.save();
+            if (!removedApps.isEmpty()) {
                 // Delete broadcast
-                BroadcastUtils.sendDbPackageRemoved(context, getPackageNamesFromApps(oldApps));
+                BroadcastUtils.sendDbPackageRemoved(context, getPackageNamesFromApps(removedApps));
             }
             if (!newApps.isEmpty()) {
                 // New apps
@@ -375,28 +424,46 @@ public class AppDb {
                 }
             }
         }
-        for (App app : modifiedApps) {
-            if (!app.isInstalled && !app.isSystemApp()) {
-                continue;
-            }
-            int userId = app.userId;
-            try (ComponentsBlocker cb = ComponentsBlocker.getInstance(app.packageName, userId, false)) {
-                app.rulesCount = cb.entryCount();
-            }
-            app.codeSize = app.dataSize = 0;
-            if (hasUsageAccess) {
-                PackageSizeInfo sizeInfo = PackageUtils.getPackageSizeInfo(context, app.packageName, userId, null);
-                if (sizeInfo != null) {
-                    app.codeSize = sizeInfo.codeSize + sizeInfo.obbSize;
-                    app.dataSize = sizeInfo.dataSize + sizeInfo.mediaSize + sizeInfo.cacheSize;
+        Map<UserPackagePair, PackageUsageInfo> packageUsageInfoMap = indexUsage(packageUsageInfoList);
+        // Rules, sizes and KeyStore have to be fetched one package at a time, which is the slowest part. Since they do
+        // not depend on one another, they are fetched in parallel. Each task only modifies its own app.
+        MultithreadedExecutor executor = MultithreadedExecutor.getNewInstance();
+        List<Future<?>> futures = new ArrayList<>(modifiedApps.size());
+        try {
+            for (App app : modifiedApps) {
+                if (!app.isInstalled && !app.isSystemApp()) {
+                    continue;
                 }
+                // Interrupt thread on request
+                if (ThreadUtils.isInterrupted()) return;
+                futures.add(executor.submit(() -> updateVariableDataSlow(context, app, hasUsageAccess)));
             }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
             // Interrupt thread on request
-            if (ThreadUtils.isInterrupted()) return;
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            // Rethrow as if the apps were updated in this thread
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+        // The rest are looked up in memory
+        for (App app : modifiedApps) {
             if (!app.isInstalled) {
                 continue;
             }
-            app.hasKeystore = KeyStoreUtils.hasKeyStore(app.uid);
+            int userId = app.userId;
             app.usesSaf = uriManager.getGrantedUris(app.packageName) != null;
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                 SsaidSettings ssaidSettings = userIdSsaidSettingsMap.get(userId);
@@ -407,7 +474,7 @@ public class AppDb {
                     app.ssaid = null;
                 }
             }
-            PackageUsageInfo usageInfo = findUsage(packageUsageInfoList, app.packageName, userId);
+            PackageUsageInfo usageInfo = packageUsageInfoMap.get(new UserPackagePair(app.packageName, userId));
             if (usageInfo != null) {
                 app.mobileDataUsage = usageInfo.mobileData != null ? usageInfo.mobileData.getTotal() : 0;
                 app.wifiDataUsage = usageInfo.wifiData != null ? usageInfo.wifiData.getTotal() : 0;
@@ -421,24 +488,131 @@ public class AppDb {
         }
     }
 
-    private static int findIndexOfApp(@NonNull List<App> appList, @NonNull String packageName, @UserIdInt int userId) {
-        for (int i = 0; i < appList.size(); ++i) {
-            App app = appList.get(i);
-            if (app.userId == userId && app.packageName.equals(packageName)) {
-                return i;
+    @WorkerThread
+    private static void updateVariableDataSlow(@NonNull Context context, @NonNull App app, boolean hasUsageAccess) {
+        int userId = app.userId;
+        try (ComponentsBlocker cb = ComponentsBlocker.getInstance(app.packageName, userId, false)) {
+            app.rulesCount = cb.entryCount();
+        }
+        app.codeSize = app.dataSize = 0;
+        if (hasUsageAccess) {
+            // There is no way to query the sizes of all the packages of a user at once: queryStatsForUser() only
+            // returns the total
+            PackageSizeInfo sizeInfo = PackageUtils.getPackageSizeInfo(context, app.packageName, userId, null);
+            if (sizeInfo != null) {
+                app.codeSize = sizeInfo.codeSize + sizeInfo.obbSize;
+                app.dataSize = sizeInfo.dataSize + sizeInfo.mediaSize + sizeInfo.cacheSize;
+            }
+        }
+        if (app.isInstalled) {
+            app.hasKeystore = KeyStoreUtils.hasKeyStore(app.uid);
+        }
+    }
+
+    /**
+     * Matches the apps in the database against the installed packages and the backups. Each installed package or backup
+     * is looked up in constant time.
+     */
+    @VisibleForTesting
+    static final class Reconciliation {
+        // Apps in the database that have not been matched yet
+        @NonNull
+        private final Map<UserPackagePair, App> mOldApps;
+        // Latest backups of the packages that have not been matched yet
+        @NonNull
+        private final Map<String, Backup> mBackups;
+        final List<App> modifiedApps = new ArrayList<>();
+        final Set<String> newApps = new HashSet<>();
+        final Set<String> updatedApps = new HashSet<>();
+
+        /**
+         * @param oldApps Apps in the database indexed by {@link #indexApps(List)}
+         */
+        Reconciliation(@NonNull Map<UserPackagePair, App> oldApps, @NonNull Map<String, Backup> backups) {
+            mOldApps = oldApps;
+            mBackups = backups;
+        }
+
+        void addInstalledPackage(@NonNull Context context, @NonNull PackageInfo packageInfo) {
+            App oldApp = mOldApps.remove(new UserPackagePair(packageInfo.packageName,
+                    UserHandleHidden.getUserId(packageInfo.applicationInfo.uid)));
+            mBackups.remove(packageInfo.packageName);
+            if (oldApp != null) {
+                // There's already existing app
+                if (isUpToDate(oldApp, packageInfo)) {
+                    // Up-to-date app
+                    updatedApps.add(oldApp.packageName);
+                    modifiedApps.add(oldApp);
+                    oldApp.lastActionTime = System.currentTimeMillis();
+                    return;
+                }
+            }
+            // New app
+            App app = App.fromPackageInfo(context, packageInfo);
+            newApps.add(app.packageName);
+            modifiedApps.add(app);
+        }
+
+        /**
+         * Add the backups of the packages that are not installed
+         */
+        void addRemainingBackups() {
+            for (Backup backup : mBackups.values()) {
+                if (backup == null) continue;
+                App oldApp = mOldApps.remove(new UserPackagePair(backup.packageName, backup.userId));
+                if (oldApp != null) {
+                    // There's already existing app
+                    if (isUpToDate(oldApp, backup)) {
+                        // Up-to-date app
+                        updatedApps.add(oldApp.packageName);
+                        modifiedApps.add(oldApp);
+                        continue;
+                    }
+                }
+                // New app
+                App app = App.fromBackup(backup);
+                newApps.add(app.packageName);
+                modifiedApps.add(app);
             }
+            mBackups.clear();
+        }
+
+        /**
+         * @return Apps in the database that are neither installed nor backed up
+         */
+        @NonNull
+        List<App> getRemovedApps() {
+            return new ArrayList<>(mOldApps.values());
         }
-        return -1;
     }
 
-    @Nullable
-    private static PackageUsageInfo findUsage(@NonNull List<PackageUsageInfo> usageInfoList, @NonNull String packageName, @UserIdInt int userId) {
+    /**
+     * Index the apps by package name and user ID so that each of them can be looked up (and removed) in constant time.
+     * The apps retain their original order. Package name and user ID form the primary key of the table, and are thus
+     * unique.
+     */
+    @VisibleForTesting
+    @NonNull
+    static Map<UserPackagePair, App> indexApps(@NonNull List<App> appList) {
+        Map<UserPackagePair, App> appMap = new LinkedHashMap<>(appList.size());
+        for (App app : appList) {
+            appMap.put(new UserPackagePair(app.packageName, app.userId), app);
+        }
+        return appMap;
+    }
+
+    @VisibleForTesting
+    @NonNull
+    static Map<UserPackagePair, PackageUsageInfo> indexUsage(@NonNull Collection<PackageUsageInfo> usageInfoList) {
+        Map<UserPackagePair, PackageUsageInfo> usageInfoMap = new HashMap<>(usageInfoList.size());
         for (PackageUsageInfo usageInfo : usageInfoList) {
-            if (usageInfo.userId == userId && usageInfo.packageName.equals(packageName)) {
-                return usageInfo;
+            UserPackagePair key = new UserPackagePair(usageInfo.packageName, usageInfo.userId);
+            if (!usageInfoMap.containsKey(key)) {
+                // Retain the first one as before
+                usageInfoMap.put(key, usageInfo);
             }
         }
-        return null;
+        return usageInfoMap;
     }
 
     private static boolean isUpToDate(@NonNull App currentApp, @NonNull PackageInfo installedPackageInfo) {
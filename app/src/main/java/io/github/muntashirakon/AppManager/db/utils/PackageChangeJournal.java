@@ -0,0 +1,174 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.db.utils;
+
+import android.content.Context;
+import android.content.pm.ChangedPackages;
+import android.os.Build;
+import android.os.RemoteException;
+import android.provider.Settings;
+import android.util.SparseIntArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import io.github.muntashirakon.AppManager.compat.PackageManagerCompat;
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.self.SelfPermissions;
+import io.github.muntashirakon.AppManager.users.Users;
+import io.github.muntashirakon.AppManager.utils.AppPref;
+import io.github.muntashirakon.AppManager.utils.ArrayUtils;
+
+/**
+ * Keeps track of the last package change sequence number of each user that has been reflected in the app database, so
+ * that only the packages changed since then have to be updated. The sequence numbers are reset on every boot, and
+ * therefore, they are only valid for the boot they were recorded in.
+ */
+final class PackageChangeJournal {
+    public static final String TAG = PackageChangeJournal.class.getSimpleName();
+
+    private static final String KEY_BOOT_COUNT = "boot_count";
+    private static final String KEY_SEQUENCES = "sequences";
+
+    private final int mBootCount;
+    private final SparseIntArray mSequences = new SparseIntArray();
+    private boolean mValid;
+
+    PackageChangeJournal(@NonNull Context context) {
+        mBootCount = getBootCount(context);
+        mValid = readJournal(AppPref.getString(AppPref.PrefKey.PREF_PACKAGE_CHANGE_JOURNAL_STR), mBootCount,
+                mSequences);
+    }
+
+    /**
+     * Retrieve the packages that have changed since the journal was last saved, and advance the journal to the current
+     * sequence numbers.
+     *
+     * @return The changed packages, or {@code null} if the journal cannot be used and a full rescan is required
+     */
+    @WorkerThread
+    @Nullable
+    Set<String> getChangedPackages() {
+        if (!mValid || Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return null;
+        }
+        Set<String> changedPackages = new HashSet<>();
+        for (int userId : getUserIds()) {
+            int sequence = mSequences.get(userId, -1);
+            if (sequence < 0) {
+                // New user
+                return null;
+            }
+            try {
+                ChangedPackages changes = PackageManagerCompat.getChangedPackages(sequence, userId);
+                if (changes != null) {
+                    changedPackages.addAll(changes.getPackageNames());
+                    mSequences.put(userId, changes.getSequenceNumber());
+                }
+            } catch (RemoteException | SecurityException e) {
+                Log.w(TAG, "Could not fetch the changed packages of user %d", e, userId);
+                return null;
+            }
+        }
+        return changedPackages;
+    }
+
+    /**
+     * Advance the journal to the current sequence numbers. This must be called before a full rescan so that the
+     * packages changed during the rescan are picked up later.
+     */
+    @WorkerThread
+    void reset() {
+        mSequences.clear();
+        mValid = false;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O || mBootCount < 0) {
+            return;
+        }
+        for (int userId : getUserIds()) {
+            try {
+                // All the changes since the boot
+                ChangedPackages changes = PackageManagerCompat.getChangedPackages(0, userId);
+                mSequences.put(userId, changes != null ? changes.getSequenceNumber() : 0);
+            } catch (RemoteException | SecurityException e) {
+                Log.w(TAG, "Could not fetch the changed packages of user %d", e, userId);
+                return;
+            }
+        }
+        mValid = true;
+    }
+
+    void save() {
+        AppPref.set(AppPref.PrefKey.PREF_PACKAGE_CHANGE_JOURNAL_STR, mValid ? writeJournal(mBootCount, mSequences)
+                : "{}");
+    }
+
+    @VisibleForTesting
+    static boolean readJournal(@NonNull String journal, int bootCount, @NonNull SparseIntArray sequences) {
+        if (bootCount < 0) {
+            return false;
+        }
+        try {
+            JSONObject object = new JSONObject(journal);
+            if (object.optInt(KEY_BOOT_COUNT, -1) != bootCount) {
+                // Rebooted since then
+                return false;
+            }
+            JSONObject sequencesObject = object.getJSONObject(KEY_SEQUENCES);
+            Iterator<String> userIds = sequencesObject.keys();
+            while (userIds.hasNext()) {
+                String userId = userIds.next();
+                sequences.put(Integer.parseInt(userId), sequencesObject.getInt(userId));
+            }
+            return true;
+        } catch (JSONException | NumberFormatException e) {
+            return false;
+        }
+    }
+
+    @VisibleForTesting
+    @NonNull
+    static String writeJournal(int bootCount, @NonNull SparseIntArray sequences) {
+        try {
+            JSONObject sequencesObject = new JSONObject();
+            for (int i = 0; i < sequences.size(); ++i) {
+                sequencesObject.put(String.valueOf(sequences.keyAt(i)), sequences.valueAt(i));
+            }
+            JSONObject object = new JSONObject();
+            object.put(KEY_BOOT_COUNT, bootCount);
+            object.put(KEY_SEQUENCES, sequencesObject);
+            return object.toString();
+        } catch (JSONException e) {
+            return "{}";
+        }
+    }
+
+    private static int getBootCount(@NonNull Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return -1;
+        }
+        return Settings.Global.getInt(context.getContentResolver(), Settings.Global.BOOT_COUNT, -1);
+    }
+
+    @NonNull
+    private static int[] getUserIds() {
+        // Same as the users scanned by AppDb#updateApplications(Context)
+        List<Integer> userIds = new ArrayList<>();
+        for (int userId : Users.getUsersIds()) {
+            if (SelfPermissions.checkCrossUserPermission(userId, false)) {
+                userIds.add(userId);
+            }
+        }
+        return ArrayUtils.convertToIntArray(userIds);
+    }
+}
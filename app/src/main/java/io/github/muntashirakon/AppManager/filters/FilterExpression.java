@@ -0,0 +1,338 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.filters;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.github.muntashirakon.AppManager.filters.options.FilterOption;
+
+/**
+ * Compiled form of a filter expression. An expression consists of filter options (e.g., {@code target_sdk_1}),
+ * {@code true}, {@code false}, {@code &}, {@code |} and parentheses, where {@code &} takes precedence over {@code |}.
+ * <p>
+ * The expression is parsed once, and the operands of each {@code &} and {@code |} are reordered so that the cheaper
+ * filter options are tested first. Since the operands are evaluated lazily, the expensive ones are often skipped.
+ * Operands containing filter options with match details (e.g., {@code components_1}) are never moved, nor are the
+ * other operands moved across them, so that they are evaluated exactly when they would be in the given order.
+ */
+abstract class FilterExpression {
+    /**
+     * Parse the expression.
+     *
+     * @param options Filter options by their IDs
+     * @param strict  Whether to reject the filter options that do not exist. Otherwise, they never match.
+     * @throws IllegalArgumentException If the expression is invalid
+     */
+    @NonNull
+    public static FilterExpression compile(@NonNull String expr, @NonNull Map<Integer, FilterOption> options,
+                                           boolean strict) {
+        return new Parser(expr, options, strict).parse();
+    }
+
+    public abstract boolean evaluate(@NonNull FilterableAppInfo info, @NonNull FilterOption.TestResult result);
+
+    /**
+     * @see FilterOption#getTestCost()
+     */
+    public abstract int getCost();
+
+    /**
+     * @see FilterOption#hasMatchDetails()
+     */
+    public abstract boolean hasMatchDetails();
+
+    /**
+     * Add the filter options referenced by the expression.
+     */
+    public abstract void collectOptions(@NonNull Collection<FilterOption> options);
+
+    /**
+     * Add the time in nanoseconds spent on testing each filter option since the last call to this method.
+     *
+     * @param testTimes Time spent on testing the filter options by their IDs
+     */
+    public abstract void drainTestTimes(@NonNull Map<Integer, Long> testTimes);
+
+    private static class Literal extends FilterExpression {
+        private final boolean mValue;
+
+        Literal(boolean value) {
+            mValue = value;
+        }
+
+        @Override
+        public boolean evaluate(@NonNull FilterableAppInfo info, @NonNull FilterOption.TestResult result) {
+            return mValue;
+        }
+
+        @Override
+        public int getCost() {
+            return FilterOption.COST_CHEAP;
+        }
+
+        @Override
+        public boolean hasMatchDetails() {
+            return false;
+        }
+
+        @Override
+        public void collectOptions(@NonNull Collection<FilterOption> options) {
+        }
+
+        @Override
+        public void drainTestTimes(@NonNull Map<Integer, Long> testTimes) {
+        }
+    }
+
+    private static class Option extends FilterExpression {
+        @Nullable
+        private final FilterOption mOption;
+        // Apps are tested in multiple threads
+        private final AtomicLong mTestTime = new AtomicLong();
+
+        Option(@Nullable FilterOption option) {
+            mOption = option;
+        }
+
+        @Override
+        public boolean evaluate(@NonNull FilterableAppInfo info, @NonNull FilterOption.TestResult result) {
+            if (mOption == null) {
+                return false;
+            }
+            long start = System.nanoTime();
+            boolean matched = mOption.test(info, result).isMatched();
+            mTestTime.addAndGet(System.nanoTime() - start);
+            return matched;
+        }
+
+        @Override
+        public int getCost() {
+            return mOption != null ? mOption.getTestCost() : FilterOption.COST_CHEAP;
+        }
+
+        @Override
+        public boolean hasMatchDetails() {
+            return mOption != null && mOption.hasMatchDetails();
+        }
+
+        @Override
+        public void collectOptions(@NonNull Collection<FilterOption> options) {
+            if (mOption != null) {
+                options.add(mOption);
+            }
+        }
+
+        @Override
+        public void drainTestTimes(@NonNull Map<Integer, Long> testTimes) {
+            if (mOption != null) {
+                // The same option can be referenced more than once
+                Long testTime = testTimes.get(mOption.id);
+                testTimes.put(mOption.id, (testTime != null ? testTime : 0) + mTestTime.getAndSet(0));
+            }
+        }
+    }
+
+    private static class Junction extends FilterExpression {
+        private final boolean mAnd;
+        @NonNull
+        private final FilterExpression[] mOperands;
+        private final int mCost;
+        private final boolean mHasMatchDetails;
+
+        Junction(boolean and, @NonNull List<FilterExpression> operands) {
+            mAnd = and;
+            int cost = FilterOption.COST_CHEAP;
+            boolean hasMatchDetails = false;
+            int start = 0;
+            for (int i = 0; i <= operands.size(); ++i) {
+                if (i < operands.size()) {
+                    FilterExpression operand = operands.get(i);
+                    cost = Math.max(cost, operand.getCost());
+                    if (!operand.hasMatchDetails()) {
+                        continue;
+                    }
+                    hasMatchDetails = true;
+                }
+                // Sort the operands between the ones with match details. Sorting is stable, the operands of the same
+                // cost are evaluated in the given order.
+                Collections.sort(operands.subList(start, i), (o1, o2) -> Integer.compare(o1.getCost(), o2.getCost()));
+                start = i + 1;
+            }
+            mOperands = operands.toArray(new FilterExpression[0]);
+            mCost = cost;
+            mHasMatchDetails = hasMatchDetails;
+        }
+
+        @Override
+        public boolean evaluate(@NonNull FilterableAppInfo info, @NonNull FilterOption.TestResult result) {
+            for (FilterExpression operand : mOperands) {
+                if (operand.evaluate(info, result) != mAnd) {
+                    // No need to evaluate any further
+                    return !mAnd;
+                }
+            }
+            return mAnd;
+        }
+
+        @Override
+        public int getCost() {
+            return mCost;
+        }
+
+        @Override
+        public boolean hasMatchDetails() {
+            return mHasMatchDetails;
+        }
+
+        @Override
+        public void collectOptions(@NonNull Collection<FilterOption> options) {
+            for (FilterExpression operand : mOperands) {
+                operand.collectOptions(options);
+            }
+        }
+
+        @Override
+        public void drainTestTimes(@NonNull Map<Integer, Long> testTimes) {
+            for (FilterExpression operand : mOperands) {
+                operand.drainTestTimes(testTimes);
+            }
+        }
+    }
+
+    /**
+     * Recursive descent parser for the following grammar:
+     * <pre>
+     * or      := and ('|' and)*
+     * and     := operand ('&' operand)*
+     * operand := '(' or ')' | 'true' | 'false' | option
+     * </pre>
+     */
+    private static class Parser {
+        @NonNull
+        private final String mExpr;
+        @NonNull
+        private final Map<Integer, FilterOption> mOptions;
+        private final boolean mStrict;
+        private int mPos;
+
+        Parser(@NonNull String expr, @NonNull Map<Integer, FilterOption> options, boolean strict) {
+            mExpr = expr;
+            mOptions = options;
+            mStrict = strict;
+        }
+
+        @NonNull
+        FilterExpression parse() {
+            FilterExpression expression = parseOr();
+            skipWhitespaces();
+            if (mPos < mExpr.length()) {
+                throw error("Unexpected '" + mExpr.charAt(mPos) + "'");
+            }
+            return expression;
+        }
+
+        @NonNull
+        private FilterExpression parseOr() {
+            FilterExpression operand = parseAnd();
+            if (!consume('|')) {
+                return operand;
+            }
+            List<FilterExpression> operands = new ArrayList<>();
+            operands.add(operand);
+            do {
+                operands.add(parseAnd());
+            } while (consume('|'));
+            return new Junction(false, operands);
+        }
+
+        @NonNull
+        private FilterExpression parseAnd() {
+            FilterExpression operand = parseOperand();
+            if (!consume('&')) {
+                return operand;
+            }
+            List<FilterExpression> operands = new ArrayList<>();
+            operands.add(operand);
+            do {
+                operands.add(parseOperand());
+            } while (consume('&'));
+            return new Junction(true, operands);
+        }
+
+        @NonNull
+        private FilterExpression parseOperand() {
+            if (consume('(')) {
+                FilterExpression expression = parseOr();
+                if (!consume(')')) {
+                    throw error("Missing ')'");
+                }
+                return expression;
+            }
+            skipWhitespaces();
+            int start = mPos;
+            while (mPos < mExpr.length() && isNameChar(mExpr.charAt(mPos))) {
+                ++mPos;
+            }
+            if (start == mPos) {
+                throw error(mPos < mExpr.length() ? "Unexpected '" + mExpr.charAt(mPos) + "'" : "Unexpected end");
+            }
+            String name = mExpr.substring(start, mPos);
+            if (name.equals("true")) {
+                return new Literal(true);
+            }
+            if (name.equals("false")) {
+                return new Literal(false);
+            }
+            // Option names are in the form {type}_{id}
+            int idx = name.lastIndexOf('_');
+            int id;
+            try {
+                id = Integer.parseInt(name.substring(idx + 1));
+            } catch (NumberFormatException e) {
+                if (!mStrict) {
+                    return new Option(null);
+                }
+                mPos = start;
+                throw error("Invalid filter option " + name);
+            }
+            FilterOption option = mOptions.get(id);
+            if (mStrict && (option == null || !name.equals(option.type + "_" + id))) {
+                mPos = start;
+                throw error("Unknown filter option " + name);
+            }
+            return new Option(option);
+        }
+
+        private boolean consume(char c) {
+            skipWhitespaces();
+            if (mPos < mExpr.length() && mExpr.charAt(mPos) == c) {
+                ++mPos;
+                return true;
+            }
+            return false;
+        }
+
+        private void skipWhitespaces() {
+            while (mPos < mExpr.length() && Character.isWhitespace(mExpr.charAt(mPos))) {
+                ++mPos;
+            }
+        }
+
+        private static boolean isNameChar(char c) {
+            return c != '(' && c != ')' && c != '&' && c != '|' && !Character.isWhitespace(c);
+        }
+
+        @NonNull
+        private IllegalArgumentException error(@NonNull String message) {
+            return new IllegalArgumentException(message + " at position " + mPos + " in " + mExpr);
+        }
+    }
+}
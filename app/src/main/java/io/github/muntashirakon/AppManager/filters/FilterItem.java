@@ -6,6 +6,8 @@ import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
 import androidx.collection.ArrayMap;
 
 import org.json.JSONArray;
@@ -13,56 +15,38 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.github.muntashirakon.AppManager.filters.options.FilterOption;
+import io.github.muntashirakon.AppManager.utils.MultithreadedExecutor;
+import io.github.muntashirakon.AppManager.utils.ThreadUtils;
 
 public class FilterItem {
-    private static class ExprEvaluator extends AbsExpressionEvaluator {
-        private final ArrayMap<Integer, FilterOption> mFilterOptions;
-        @Nullable
-        private FilterableAppInfo mInfo;
-        @Nullable
-        private FilterOption.TestResult mResult;
-
-        public ExprEvaluator(ArrayMap<Integer, FilterOption> filterOptions) {
-            mFilterOptions = filterOptions;
-        }
-
-        public void setInfo(@Nullable FilterableAppInfo info) {
-            mInfo = info;
-            mResult = new FilterOption.TestResult();
-        }
-
-        @Nullable
-        public FilterOption.TestResult getResult() {
-            return mResult;
-        }
+    public static final String TAG = FilterItem.class.getSimpleName();
 
-        @Override
-        protected boolean evalId(@NonNull String id) {
-            if (mResult == null) {
-                mResult = new FilterOption.TestResult();
-            }
-            // Extract ID
-            int idx = id.lastIndexOf('_');
-            int intId;
-            if (idx >= 0 && id.length() > (idx + 1)) {
-                intId = Integer.parseInt(id.substring(idx + 1));
-            } else intId = 0;
-            FilterOption option = mFilterOptions.get(intId);
-            if (option == null || mInfo == null) {
-                return false;
-            }
-            return option.test(mInfo, mResult).isMatched();
-        }
-    }
+    // Minimum number of apps to be tested in each thread
+    private static final int MIN_APPS_PER_THREAD = 32;
 
     @NonNull
     private String mName;
     private final ArrayMap<Integer, FilterOption> mFilterOptions;
     private String mExpr = "";
+    @Nullable
+    private FilterExpression mCompiledExpr;
+    // Time in nanoseconds spent on each filter option during the last run, including the time spent on prefetching.
+    // Since apps are tested in multiple threads, this is the sum of the time spent in each thread, not the wall time.
+    @NonNull
+    private volatile Map<Integer, Long> mLastTestTimes = Collections.emptyMap();
     private boolean customExpr = false;
     // Assign this id to the next filter option (starts with 1)
     private int nextId = 1;
@@ -90,7 +74,12 @@ public class FilterItem {
         return mExpr;
     }
 
+    /**
+     * @throws IllegalArgumentException If the expression is invalid or contains filter options that do not exist
+     */
     public void setExpr(@NonNull String expr) {
+        mCompiledExpr = FilterExpression.compile(TextUtils.isEmpty(expr) ? "true" : expr, mFilterOptions, true);
+        mLastTestTimes = Collections.emptyMap();
         mExpr = expr;
         customExpr = true;
     }
@@ -104,6 +93,7 @@ public class FilterItem {
                 mExpr = id;
             } else mExpr += " & " + id;
         }
+        invalidate();
         return mFilterOptions.put(filterOption.id, filterOption) == null;
     }
 
@@ -114,6 +104,7 @@ public class FilterItem {
         }
         filterOption.id = oldFilterOption.id;
         mFilterOptions.setValueAt(i, filterOption);
+        invalidate();
     }
 
     public boolean removeFilterOptionAt(int i) {
@@ -122,6 +113,7 @@ public class FilterItem {
             return false;
         }
         nextId = filterOption.id;
+        invalidate();
         String idStr = filterOption.type + "_" + filterOption.id;
         if (!customExpr) {
             // Default expression is just all the filters &'ed together
@@ -148,21 +140,131 @@ public class FilterItem {
         return mFilterOptions.valueAt(i);
     }
 
+    /**
+     * @return Time in milliseconds spent on testing the filter option during the last run summed over all the worker
+     * threads, or -1 if it was not tested
+     */
+    public long getLastTestTime(int id) {
+        Long testTime = mLastTestTimes.get(id);
+        return testTime != null ? TimeUnit.NANOSECONDS.toMillis(testTime) : -1;
+    }
+
+    /**
+     * Test the apps against the filter, dividing them among multiple threads.
+     *
+     * @return The apps that matched in the given order, or an empty list if the thread was interrupted
+     * @throws IllegalArgumentException If the expression is invalid
+     * @throws RuntimeException         If any of the filter options failed to test an app
+     */
+    @WorkerThread
+    @NonNull
     public List<FilteredItemInfo> getFilteredList(@NonNull List<FilterableAppInfo> allFilterableAppInfo) {
+        return getFilteredList(allFilterableAppInfo, MultithreadedExecutor.getThreadCount());
+    }
+
+    @VisibleForTesting
+    @WorkerThread
+    @NonNull
+    List<FilteredItemInfo> getFilteredList(@NonNull List<FilterableAppInfo> allFilterableAppInfo, int maxThreadCount) {
+        FilterExpression expr = getCompiledExpr();
+        Map<Integer, Long> testTimes = new HashMap<>();
+        prefetch(expr, allFilterableAppInfo, testTimes);
+        int size = allFilterableAppInfo.size();
+        FilteredItemInfo[] filteredItems = new FilteredItemInfo[size];
+        int threadCount = Math.min(maxThreadCount, size / MIN_APPS_PER_THREAD);
+        if (threadCount <= 1) {
+            for (int i = 0; i < size; ++i) {
+                if (ThreadUtils.isInterrupted()) {
+                    break;
+                }
+                filteredItems[i] = test(expr, allFilterableAppInfo.get(i));
+            }
+        } else {
+            // Each thread takes the next app once it's done with the current one since the cost of testing an app
+            // varies greatly
+            AtomicInteger nextIndex = new AtomicInteger();
+            List<Callable<Void>> tasks = new ArrayList<>(threadCount);
+            for (int i = 0; i < threadCount; ++i) {
+                tasks.add(() -> {
+                    int index;
+                    while ((index = nextIndex.getAndIncrement()) < size && !Thread.currentThread().isInterrupted()) {
+                        filteredItems[index] = test(expr, allFilterableAppInfo.get(index));
+                    }
+                    return null;
+                });
+            }
+            MultithreadedExecutor executor = MultithreadedExecutor.getNewInstance();
+            try {
+                for (Future<Void> future : executor.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new RuntimeException(cause);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        // Reset the test times of the expression in either case
+        expr.drainTestTimes(testTimes);
+        if (ThreadUtils.isInterrupted()) {
+            // Only some of the apps were tested
+            mLastTestTimes = Collections.emptyMap();
+            return Collections.emptyList();
+        }
+        mLastTestTimes = testTimes;
         List<FilteredItemInfo> filteredFilterableAppInfo = new ArrayList<>();
-        ExprEvaluator evaluator = new ExprEvaluator(mFilterOptions);
-        String expr = TextUtils.isEmpty(mExpr) ? "true" : mExpr;
-        for (FilterableAppInfo info : allFilterableAppInfo) {
-            evaluator.setInfo(info);
-            boolean eval = evaluator.evaluate(expr);
-            FilterOption.TestResult result = Objects.requireNonNull(evaluator.getResult());
-            if (eval) {
-                filteredFilterableAppInfo.add(new FilteredItemInfo(info, result));
+        for (FilteredItemInfo filteredItem : filteredItems) {
+            if (filteredItem != null) {
+                filteredFilterableAppInfo.add(filteredItem);
             }
         }
         return filteredFilterableAppInfo;
     }
 
+    @WorkerThread
+    private static void prefetch(@NonNull FilterExpression expr, @NonNull List<FilterableAppInfo> allFilterableAppInfo,
+                                 @NonNull Map<Integer, Long> testTimes) {
+        Set<FilterOption> filterOptions = new LinkedHashSet<>();
+        expr.collectOptions(filterOptions);
+        int prefetchedFlags = 0;
+        for (FilterOption filterOption : filterOptions) {
+            int flags = filterOption.getPrefetchFlags() & ~prefetchedFlags;
+            if (flags == 0 || ThreadUtils.isInterrupted()) {
+                continue;
+            }
+            // The time is attributed to the first option that needs the attributes
+            long start = System.nanoTime();
+            FilterableAppInfo.prefetch(allFilterableAppInfo, flags);
+            testTimes.put(filterOption.id, System.nanoTime() - start);
+            prefetchedFlags |= flags;
+        }
+    }
+
+    @Nullable
+    private static FilteredItemInfo test(@NonNull FilterExpression expr, @NonNull FilterableAppInfo info) {
+        FilterOption.TestResult result = new FilterOption.TestResult();
+        return expr.evaluate(info, result) ? new FilteredItemInfo(info, result) : null;
+    }
+
+    @NonNull
+    private FilterExpression getCompiledExpr() {
+        if (mCompiledExpr == null) {
+            // Options removed from a custom expression never match
+            mCompiledExpr = FilterExpression.compile(TextUtils.isEmpty(mExpr) ? "true" : mExpr, mFilterOptions,
+                    false);
+        }
+        return mCompiledExpr;
+    }
+
     public JSONObject toJson() throws JSONException {
         JSONObject object = new JSONObject();
         JSONArray array = new JSONArray();
@@ -184,9 +286,19 @@ public class FilterItem {
             FilterOption option = FilterOption.fromJson(array.getJSONObject(i));
             item.mFilterOptions.put(option.id, option);
         }
+        try {
+            item.getCompiledExpr();
+        } catch (IllegalArgumentException e) {
+            throw new JSONException(e.getMessage());
+        }
         return item;
     }
 
+    private void invalidate() {
+        mCompiledExpr = null;
+        mLastTestTimes = Collections.emptyMap();
+    }
+
     private int getNextId() {
         // Find next ID
         while (mFilterOptions.containsKey(nextId)) {
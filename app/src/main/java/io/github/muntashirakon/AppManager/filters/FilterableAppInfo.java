@@ -20,6 +20,7 @@ import android.text.TextUtils;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
+import androidx.annotation.WorkerThread;
 import androidx.core.content.pm.PackageInfoCompat;
 
 import java.io.IOException;
@@ -27,6 +28,7 @@ import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -59,6 +61,58 @@ import io.github.muntashirakon.AppManager.utils.ExUtils;
 import io.github.muntashirakon.AppManager.utils.PackageUtils;
 
 public class FilterableAppInfo {
+    /**
+     * Whether the app is running, fetched using a single snapshot of the running processes
+     */
+    public static final int PREFETCH_RUNNING_STATE = 1;
+    /**
+     * Backups of the app, fetched using a single database query
+     */
+    public static final int PREFETCH_BACKUPS = 1 << 1;
+    /**
+     * Bloatware info of the app, fetched using a single lookup table
+     */
+    public static final int PREFETCH_BLOATWARE = 1 << 2;
+
+    /**
+     * Fetch the given attributes of all the apps at once instead of making the same expensive call for each app.
+     *
+     * @param flags Combination of the {@code PREFETCH_*} flags
+     */
+    @WorkerThread
+    public static void prefetch(@NonNull List<FilterableAppInfo> infoList, int flags) {
+        if ((flags & PREFETCH_RUNNING_STATE) != 0) {
+            Set<String> runningPackages = new HashSet<>();
+            for (ActivityManager.RunningAppProcessInfo info : ActivityManagerCompat.getRunningAppProcesses()) {
+                if (info.pkgList != null) {
+                    Collections.addAll(runningPackages, info.pkgList);
+                }
+            }
+            for (FilterableAppInfo info : infoList) {
+                info.mRunning = runningPackages.contains(info.getPackageName());
+            }
+        }
+        if ((flags & PREFETCH_BACKUPS) != 0) {
+            Map<String, List<Backup>> backupMetadata = BackupUtils.getAllBackupMetadataFromDbNoLockValidate();
+            for (FilterableAppInfo info : infoList) {
+                List<Backup> backups = backupMetadata.get(info.getPackageName());
+                info.mBackups = backups != null ? backups.toArray(new Backup[0]) : new Backup[0];
+            }
+        }
+        if ((flags & PREFETCH_BLOATWARE) != 0) {
+            Map<String, DebloatObject> debloatObjects = new HashMap<>();
+            for (DebloatObject debloatObject : StaticDataset.getDebloatObjects()) {
+                if (!debloatObjects.containsKey(debloatObject.packageName)) {
+                    debloatObjects.put(debloatObject.packageName, debloatObject);
+                }
+            }
+            for (FilterableAppInfo info : infoList) {
+                info.mBloatwareInfo = debloatObjects.get(info.getPackageName());
+                info.mBloatwareInfoFetched = true;
+            }
+        }
+    }
+
     private final PackageInfo mPackageInfo;
     @Nullable
     private final PackageUsageInfo mPackageUsageInfo;
@@ -78,11 +132,15 @@ public class FilterableAppInfo {
     private Map<ComponentInfo, Integer> mTrackerComponents;
     private List<String> mUsedPermissions;
     private Backup[] mBackups;
+    @Nullable
+    private Boolean mRunning;
     private List<AppOpsManagerCompat.OpEntry> mAppOpEntries;
     @Nullable
     private PackageSizeInfo mPackageSizeInfo;
     private AppUsageStatsManager.DataUsage mDataUsage;
+    @Nullable
     private DebloatObject mBloatwareInfo;
+    private boolean mBloatwareInfoFetched;
     private Integer mFreezeFlags = null;
     private Integer mAppTypeFlags = null;
 
@@ -155,12 +213,16 @@ public class FilterableAppInfo {
     }
 
     public boolean isRunning() {
-        for (ActivityManager.RunningAppProcessInfo info : ActivityManagerCompat.getRunningAppProcesses()) {
-            if (ArrayUtils.contains(info.pkgList, mPackageInfo.packageName)) {
-                return true;
+        if (mRunning == null) {
+            mRunning = false;
+            for (ActivityManager.RunningAppProcessInfo info : ActivityManagerCompat.getRunningAppProcesses()) {
+                if (ArrayUtils.contains(info.pkgList, mPackageInfo.packageName)) {
+                    mRunning = true;
+                    break;
+                }
             }
         }
-        return false;
+        return mRunning;
     }
 
     @NonNull
@@ -538,13 +600,14 @@ public class FilterableAppInfo {
 
     @Nullable
     public DebloatObject getBloatwareInfo() {
-        if (mBloatwareInfo == null) {
+        if (!mBloatwareInfoFetched) {
             for (DebloatObject debloatObject : StaticDataset.getDebloatObjects()) {
                 if (getPackageName().equals(debloatObject.packageName)) {
                     mBloatwareInfo = debloatObject;
                     break;
                 }
             }
+            mBloatwareInfoFetched = true;
         }
         return mBloatwareInfo;
     }
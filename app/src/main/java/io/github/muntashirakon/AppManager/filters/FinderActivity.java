@@ -21,6 +21,7 @@ import io.github.muntashirakon.AppManager.filters.options.FilterOption;
 import io.github.muntashirakon.AppManager.utils.DateUtils;
 import io.github.muntashirakon.AppManager.utils.UIUtils;
 import io.github.muntashirakon.dialog.DialogTitleBuilder;
+import io.github.muntashirakon.dialog.TextInputDialogBuilder;
 import io.github.muntashirakon.util.UiUtils;
 import io.github.muntashirakon.view.ProgressIndicatorCompat;
 import io.github.muntashirakon.widget.MultiSelectionView;
@@ -55,6 +56,11 @@ public class FinderActivity extends BaseActivity implements EditFilterOptionFrag
             ProgressIndicatorCompat.setVisibility(mProgress, false);
             mAdapter.setDefaultList(list);
         });
+        mViewModel.getFilterErrorLiveData().observe(this, throwable -> {
+            ProgressIndicatorCompat.setVisibility(mProgress, false);
+            Optional.ofNullable(getSupportActionBar()).ifPresent(actionBar -> actionBar.setSubtitle(null));
+            UIUtils.displayLongToast(R.string.error_with_details, throwable.getMessage());
+        });
         mViewModel.getLastUpdateTimeLiveData().observe(this, time -> {
             CharSequence subtitle;
             // TODO: 8/2/24 Set subtitle to "Loaded at: {time}" localised
@@ -85,11 +91,31 @@ public class FinderActivity extends BaseActivity implements EditFilterOptionFrag
                 .setCustomTitle(builder.build())
                 .setView(recyclerView)
                 .setNegativeButton(R.string.cancel, null)
+                .setNeutralButton(R.string.filter_expression, (dialog, which) -> displayExpressionEditor())
                 .setPositiveButton(R.string.apply, (dialog, which) -> mViewModel.loadFilteredAppList(false))
                 .show();
         mFinderFilterAdapter.setOnItemClickListener((v, position, filterOption) -> displayEditor(position, filterOption));
     }
 
+    private void displayExpressionEditor() {
+        FilterItem filterItem = mViewModel.getFilterItem();
+        new TextInputDialogBuilder(this, R.string.filter_expression)
+                .setTitle(R.string.filter_expression)
+                .setInputText(filterItem.getExpr())
+                .setHelperText(R.string.filter_expression_description)
+                .setNegativeButton(R.string.cancel, null)
+                .setPositiveButton(R.string.apply, (dialog, which, inputText, isChecked) -> {
+                    try {
+                        filterItem.setExpr(inputText != null ? inputText.toString().trim() : "");
+                    } catch (IllegalArgumentException e) {
+                        UIUtils.displayLongToast(R.string.error_with_details, e.getMessage());
+                        return;
+                    }
+                    mViewModel.loadFilteredAppList(false);
+                })
+                .show();
+    }
+
     private void displayEditor(int position, @NonNull FilterOption filterOption) {
         EditFilterOptionFragment.WrappedFilterOption wrappedFilterOption = new EditFilterOptionFragment.WrappedFilterOption();
         wrappedFilterOption.filterOption = filterOption;
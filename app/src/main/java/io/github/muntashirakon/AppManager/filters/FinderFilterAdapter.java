@@ -57,7 +57,12 @@ public class FinderFilterAdapter extends RecyclerView.Adapter<FinderFilterAdapte
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
         final FilterOption filterOption = mFilterItem.getFilterOptionAt(position);
-        holder.textView.setText(filterOption.type + "_" + filterOption.id);
+        long testTime = mFilterItem.getLastTestTime(filterOption.id);
+        if (testTime >= 0) {
+            // Let users know which filter options are slow
+            holder.textView.setText(holder.itemView.getContext().getString(R.string.filter_option_with_test_time,
+                    filterOption.type + "_" + filterOption.id, testTime));
+        } else holder.textView.setText(filterOption.type + "_" + filterOption.id);
         // TODO: 14/2/24 Display a localised string
         holder.itemView.setOnClickListener(v -> {
             if (mListener != null) {
@@ -26,6 +26,7 @@ import java.util.Map;
 import java.util.concurrent.Future;
 
 import io.github.muntashirakon.AppManager.compat.PackageManagerCompat;
+import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.AppManager.self.SelfPermissions;
 import io.github.muntashirakon.AppManager.settings.FeatureController;
 import io.github.muntashirakon.AppManager.usage.AppUsageStatsManager;
@@ -39,6 +40,7 @@ public class FinderViewModel extends AndroidViewModel {
 
     private final MutableLiveData<Long> mLastUpdateTimeLiveData = new MutableLiveData<>();
     private final MutableLiveData<List<FilterItem.FilteredItemInfo>> mFilteredAppListLiveData = new MutableLiveData<>();
+    private final MutableLiveData<Throwable> mFilterErrorLiveData = new MutableLiveData<>();
     private Future<?> mAppListLoaderFuture;
     @Nullable
     private List<FilterableAppInfo> mFilterableAppInfoList;
@@ -62,6 +64,10 @@ public class FinderViewModel extends AndroidViewModel {
         return mFilteredAppListLiveData;
     }
 
+    public MutableLiveData<Throwable> getFilterErrorLiveData() {
+        return mFilterErrorLiveData;
+    }
+
     public FilterItem getFilterItem() {
         return mFilterItem;
     }
@@ -76,7 +82,17 @@ public class FinderViewModel extends AndroidViewModel {
                 loadAppList();
             }
             if (ThreadUtils.isInterrupted() || mFilterableAppInfoList == null) return;
-            mFilteredAppListLiveData.postValue(mFilterItem.getFilteredList(mFilterableAppInfoList));
+            List<FilterItem.FilteredItemInfo> filteredList;
+            try {
+                filteredList = mFilterItem.getFilteredList(mFilterableAppInfoList);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Could not filter apps", e);
+                mFilterErrorLiveData.postValue(e);
+                return;
+            }
+            // The list is incomplete if the filtering was cancelled
+            if (ThreadUtils.isInterrupted()) return;
+            mFilteredAppListLiveData.postValue(filteredList);
             mLastUpdateTimeLiveData.postValue(System.currentTimeMillis());
         });
     }
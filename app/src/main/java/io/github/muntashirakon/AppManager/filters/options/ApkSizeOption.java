@@ -41,4 +41,9 @@ public class ApkSizeOption extends FilterOption {
                 return result.setMatched(info.getApkSize() >= longValue);
         }
     }
+
+    @Override
+    public int getTestCost() {
+        return COST_EXPENSIVE;
+    }
 }
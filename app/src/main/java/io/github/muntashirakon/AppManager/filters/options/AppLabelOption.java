@@ -48,4 +48,10 @@ public class AppLabelOption extends FilterOption {
                 return result.setMatched(regexValue.matcher(info.getAppLabel()).matches());
         }
     }
+
+    @Override
+    public int getTestCost() {
+        // Label is loaded from the resources of the app
+        return COST_MODERATE;
+    }
 }
@@ -103,4 +103,10 @@ public class AppTypeOption extends FilterOption {
             }
         }
     }
+
+    @Override
+    public int getTestCost() {
+        // SSAID is read from the settings
+        return COST_EXPENSIVE;
+    }
 }
@@ -154,4 +154,19 @@ public class BackupOption extends FilterOption {
             }
         }
     }
+
+    @Override
+    public int getTestCost() {
+        return COST_EXPENSIVE;
+    }
+
+    @Override
+    public int getPrefetchFlags() {
+        return FilterableAppInfo.PREFETCH_BACKUPS;
+    }
+
+    @Override
+    public boolean hasMatchDetails() {
+        return true;
+    }
 }
@@ -93,4 +93,14 @@ public class BloatwareOption extends FilterOption {
                 throw new IllegalArgumentException("Unknown type: " + type);
         }
     }
+
+    @Override
+    public int getTestCost() {
+        return COST_MODERATE;
+    }
+
+    @Override
+    public int getPrefetchFlags() {
+        return FilterableAppInfo.PREFETCH_BLOATWARE;
+    }
 }
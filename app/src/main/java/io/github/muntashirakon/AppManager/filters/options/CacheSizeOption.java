@@ -41,4 +41,9 @@ public class CacheSizeOption extends FilterOption {
                 return result.setMatched(info.getCacheSize() >= longValue);
         }
     }
+
+    @Override
+    public int getTestCost() {
+        return COST_EXPENSIVE;
+    }
 }
@@ -156,4 +156,14 @@ public class ComponentsOption extends FilterOption {
             }
         }
     }
+
+    @Override
+    public int getTestCost() {
+        return COST_MODERATE;
+    }
+
+    @Override
+    public boolean hasMatchDetails() {
+        return true;
+    }
 }
@@ -41,4 +41,9 @@ public class DataSizeOption extends FilterOption {
                 return result.setMatched(info.getDataSize() >= longValue);
         }
     }
+
+    @Override
+    public int getTestCost() {
+        return COST_EXPENSIVE;
+    }
 }
@@ -52,6 +52,19 @@ public abstract class FilterOption {
 
     public static final String KEY_ALL = "all";
 
+    /**
+     * The test only reads the package info.
+     */
+    public static final int COST_CHEAP = 0;
+    /**
+     * The test processes the components, permissions, etc. of the package, which are cached afterwards.
+     */
+    public static final int COST_MODERATE = 1;
+    /**
+     * The test queries the system services, the database or the file system.
+     */
+    public static final int COST_EXPENSIVE = 2;
+
     /**
      * Option type (e.g., target_sdk, last_update)
      */
@@ -139,6 +152,30 @@ public abstract class FilterOption {
     @NonNull
     public abstract TestResult test(@NonNull FilterableAppInfo info, @NonNull TestResult result);
 
+    /**
+     * Relative cost of {@link #test(FilterableAppInfo, TestResult)}, one of {@link #COST_CHEAP},
+     * {@link #COST_MODERATE} and {@link #COST_EXPENSIVE}. Cheaper options are tested first.
+     */
+    public int getTestCost() {
+        return COST_CHEAP;
+    }
+
+    /**
+     * Whether {@link #test(FilterableAppInfo, TestResult)} adds match details (e.g., the matched components) to the
+     * result. Such options are tested in the order they appear in the expression.
+     */
+    public boolean hasMatchDetails() {
+        return false;
+    }
+
+    /**
+     * Attributes of the apps required by {@link #test(FilterableAppInfo, TestResult)} that can be fetched for all the
+     * apps at once, a combination of the {@code PREFETCH_*} flags in {@link FilterableAppInfo}.
+     */
+    public int getPrefetchFlags() {
+        return 0;
+    }
+
     @Nullable
     public JSONObject toJson() throws JSONException {
         if (value == null) {
@@ -75,4 +75,9 @@ public class InstallerOption extends FilterOption {
         }
         return installers;
     }
+
+    @Override
+    public int getTestCost() {
+        return COST_EXPENSIVE;
+    }
 }
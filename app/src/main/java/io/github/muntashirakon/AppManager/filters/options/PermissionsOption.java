@@ -98,4 +98,14 @@ public class PermissionsOption extends FilterOption {
             }
         }
     }
+
+    @Override
+    public int getTestCost() {
+        return COST_MODERATE;
+    }
+
+    @Override
+    public boolean hasMatchDetails() {
+        return true;
+    }
 }
@@ -38,4 +38,14 @@ public class RunningAppsOption extends FilterOption {
                 return result.setMatched(!info.isRunning());
         }
     }
+
+    @Override
+    public int getTestCost() {
+        return COST_EXPENSIVE;
+    }
+
+    @Override
+    public int getPrefetchFlags() {
+        return FilterableAppInfo.PREFETCH_RUNNING_STATE;
+    }
 }
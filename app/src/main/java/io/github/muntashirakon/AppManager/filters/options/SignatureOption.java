@@ -132,4 +132,14 @@ public class SignatureOption extends FilterOption {
         return result.setMatched(false)
                 .setMatchedSubjectLines(Collections.emptyList());
     }
+
+    @Override
+    public int getTestCost() {
+        return COST_EXPENSIVE;
+    }
+
+    @Override
+    public boolean hasMatchDetails() {
+        return true;
+    }
 }
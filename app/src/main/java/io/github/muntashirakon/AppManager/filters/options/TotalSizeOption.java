@@ -41,4 +41,9 @@ public class TotalSizeOption extends FilterOption {
                 return result.setMatched(info.getTotalSize() >= longValue);
         }
     }
+
+    @Override
+    public int getTestCost() {
+        return COST_EXPENSIVE;
+    }
 }
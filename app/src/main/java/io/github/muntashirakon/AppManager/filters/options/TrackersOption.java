@@ -42,4 +42,9 @@ public class TrackersOption extends FilterOption {
                 return result.setMatched(info.getTrackerComponents().size() >= intValue);
         }
     }
+
+    @Override
+    public int getTestCost() {
+        return COST_MODERATE;
+    }
 }
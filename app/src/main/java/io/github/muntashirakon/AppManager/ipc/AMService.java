@@ -2,8 +2,11 @@
 
 package io.github.muntashirakon.AppManager.ipc;
 
+import android.content.ComponentName;
 import android.content.Intent;
+import android.content.pm.IPackageManager;
 import android.os.Binder;
+import android.os.Build;
 import android.os.IBinder;
 import android.os.Parcel;
 import android.os.RemoteException;
@@ -74,6 +77,28 @@ public class AMService extends RootService {
             return ServiceManager.getService(serviceName);
         }
 
+        /**
+         * Set the states of the components one by one in this process, so that only a single transaction is required
+         * from the app.
+         */
+        @SuppressWarnings("deprecation")
+        @Override
+        public String[] setComponentEnabledSettings(ComponentName[] componentNames, int[] newStates, int flags,
+                                                    int userId, String callingPackage) {
+            IPackageManager pm = IPackageManager.Stub.asInterface(ServiceManager.getService("package"));
+            String[] errors = new String[componentNames.length];
+            for (int i = 0; i < componentNames.length; ++i) {
+                try {
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
+                        pm.setComponentEnabledSetting(componentNames[i], newStates[i], flags, userId, callingPackage);
+                    } else pm.setComponentEnabledSetting(componentNames[i], newStates[i], flags, userId);
+                } catch (Throwable th) {
+                    errors[i] = th.toString();
+                }
+            }
+            return errors;
+        }
+
         @Override
         public boolean onTransact(int code, @NonNull Parcel data, @Nullable Parcel reply, int flags) throws RemoteException {
             if (code == ProxyBinder.PROXY_BINDER_TRANSACTION) {
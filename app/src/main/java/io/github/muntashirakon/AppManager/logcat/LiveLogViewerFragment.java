@@ -115,8 +115,8 @@ public class LiveLogViewerFragment extends AbsLogViewerFragment implements LogVi
     @Override
     public void onNewLogsAvailable(@NonNull List<LogLine> logLines) {
         mActivity.hideProgressBar();
+        mLogListAdapter.addAllWithFilter(logLines, mSearchCriteria);
         for (LogLine logLine : logLines) {
-            mLogListAdapter.addWithFilter(logLine, mSearchCriteria, true);
             mActivity.addToAutocompleteSuggestions(logLine);
         }
 
@@ -0,0 +1,126 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.UiThread;
+import androidx.annotation.WorkerThread;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import io.github.muntashirakon.AppManager.logcat.struct.LogLine;
+import io.github.muntashirakon.AppManager.logcat.struct.RingBuffer;
+import io.github.muntashirakon.AppManager.utils.ThreadUtils;
+
+/**
+ * Deliver the lines read by the logcat reader to the UI thread in batches. A batch is delivered once it has the
+ * configured number of lines, or the configured interval has passed since its first line was added, whichever comes
+ * first.
+ * <p>
+ * At most one batch is queued in the UI thread at a time. While the UI thread is busy, new lines are appended to the
+ * queued batch, and once the batch exceeds the display limit, its oldest lines are dropped since they would be evicted
+ * by the adapter anyway.
+ */
+final class LogLineBatcher {
+    interface OnLinesDroppedListener {
+        @UiThread
+        void onLinesDropped(int droppedCount);
+    }
+
+    private static final int FLUSH_NONE = 0;
+    private static final int FLUSH_DELAYED = 1;
+    private static final int FLUSH_IMMEDIATE = 2;
+
+    @NonNull
+    private final WeakReference<LogViewerViewModel.LogLinesAvailableInterface> mLogLinesAvailableInterface;
+    @NonNull
+    private final OnLinesDroppedListener mOnLinesDroppedListener;
+    private final int mBatchSize;
+    private final long mIntervalMillis;
+    private final Runnable mFlushRunnable = this::flush;
+    private final Object mLock = new Object();
+    @GuardedBy("mLock")
+    @NonNull
+    private final RingBuffer<LogLine> mPendingLines;
+    @GuardedBy("mLock")
+    private int mDroppedCount;
+    @GuardedBy("mLock")
+    private int mFlushState = FLUSH_NONE;
+
+    LogLineBatcher(@NonNull WeakReference<LogViewerViewModel.LogLinesAvailableInterface> logLinesAvailableInterface,
+                   @NonNull OnLinesDroppedListener onLinesDroppedListener, int maxLines, int batchSize,
+                   long intervalMillis) {
+        mLogLinesAvailableInterface = logLinesAvailableInterface;
+        mOnLinesDroppedListener = onLinesDroppedListener;
+        mPendingLines = new RingBuffer<>(Math.max(maxLines, 1));
+        mBatchSize = Math.max(batchSize, 1);
+        mIntervalMillis = Math.max(intervalMillis, 0);
+    }
+
+    @WorkerThread
+    public void add(@NonNull LogLine logLine) {
+        synchronized (mLock) {
+            addLocked(logLine);
+            scheduleFlushLocked();
+        }
+    }
+
+    @WorkerThread
+    public void addAll(@NonNull Collection<LogLine> logLines) {
+        synchronized (mLock) {
+            for (LogLine logLine : logLines) {
+                addLocked(logLine);
+            }
+            scheduleFlushLocked();
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void addLocked(@NonNull LogLine logLine) {
+        if (mPendingLines.addLast(logLine) != null) {
+            ++mDroppedCount;
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void scheduleFlushLocked() {
+        if (mFlushState == FLUSH_IMMEDIATE || mPendingLines.isEmpty()) {
+            // The UI thread will pick up the new lines along with the queued ones
+            return;
+        }
+        if (mPendingLines.size() >= mBatchSize || mIntervalMillis == 0) {
+            if (mFlushState == FLUSH_DELAYED) {
+                ThreadUtils.getUiThreadHandler().removeCallbacks(mFlushRunnable);
+            }
+            mFlushState = FLUSH_IMMEDIATE;
+            ThreadUtils.postOnMainThread(mFlushRunnable);
+        } else if (mFlushState == FLUSH_NONE) {
+            mFlushState = FLUSH_DELAYED;
+            ThreadUtils.postOnMainThreadDelayed(mFlushRunnable, mIntervalMillis);
+        }
+    }
+
+    @UiThread
+    private void flush() {
+        List<LogLine> logLines;
+        int droppedCount;
+        synchronized (mLock) {
+            logLines = new ArrayList<>(mPendingLines);
+            droppedCount = mDroppedCount;
+            mPendingLines.clear();
+            mDroppedCount = 0;
+            mFlushState = FLUSH_NONE;
+        }
+        if (droppedCount > 0) {
+            mOnLinesDroppedListener.onLinesDropped(droppedCount);
+        }
+        LogViewerViewModel.LogLinesAvailableInterface i = mLogLinesAvailableInterface.get();
+        if (i != null && !logLines.isEmpty()) {
+            i.onNewLogsAvailable(logLines);
+        }
+    }
+}
@@ -21,15 +21,16 @@ import androidx.collection.SparseArrayCompat;
 import androidx.core.content.ContextCompat;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 
 import io.github.muntashirakon.AppManager.BuildConfig;
 import io.github.muntashirakon.AppManager.R;
 import io.github.muntashirakon.AppManager.logcat.struct.LogLine;
+import io.github.muntashirakon.AppManager.logcat.struct.RingBuffer;
 import io.github.muntashirakon.AppManager.logcat.struct.SearchCriteria;
 import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.AppManager.settings.Prefs;
@@ -98,29 +99,34 @@ public class LogViewerRecyclerAdapter extends MultiSelectionView.Adapter<LogView
     }
 
     /**
-     * Lock used to modify the content of {@link #mObjects}. Any write operation
-     * performed on the array should be synchronized on this lock. This lock is also
-     * used by the filter (see {@link #getFilter()} to make a synchronized copy of
-     * the original array of data.
+     * Lock used to modify the content of {@link #mLines} and {@link #mFilteredIndices}. Any write operation performed
+     * on them should be synchronized on this lock. This lock is also used by the filter (see {@link #getFilter()} to
+     * make a synchronized copy of the lines.
      */
     private final Object mLock = new Object();
     /**
-     * Contains the list of objects that represent the data of this ArrayAdapter.
-     * The content of this list is referred to as "the array" in the documentation.
+     * All the lines up to the display limit. The oldest lines are evicted once the limit is reached.
      */
     @GuardedBy("mLock")
-    private List<LogLine> mObjects;
+    private final RingBuffer<LogLine> mLines;
+    /**
+     * Absolute indices of the lines in {@link #mLines} that are displayed, or {@code null} if no filter has been
+     * applied, in which case all the lines are displayed. Since lines are evicted in the order they are added, the
+     * evicted ones are always at the beginning.
+     */
+    @GuardedBy("mLock")
+    @Nullable
+    private RingBuffer<Long> mFilteredIndices;
 
     private ViewHolder.OnSearchByClickListener mSearchByClickListener;
 
-    private ArrayList<LogLine> mOriginalValues;
     private ArrayFilter mFilter;
 
     private int mLogLevelLimit = Prefs.LogViewer.getLogLevel();
     private final Set<LogLine> mSelectedLogLines = new LinkedHashSet<>();
 
     public LogViewerRecyclerAdapter() {
-        mObjects = new ArrayList<>();
+        mLines = new RingBuffer<>(Math.max(Prefs.LogViewer.getDisplayLimit(), 1));
         setHasStableIds(true);
     }
 
@@ -132,125 +138,112 @@ public class LogViewerRecyclerAdapter extends MultiSelectionView.Adapter<LogView
     @GuardedBy("mLock")
     public void add(LogLine object, boolean notify) {
         synchronized (mLock) {
-            if (mOriginalValues != null) {
-                mOriginalValues.add(object);
-            }
-            mObjects.add(object);
-            if (notify) {
-                notifyItemInserted(mObjects.size() - 1);
-            }
+            addLocked(object, true, notify);
         }
     }
 
     @GuardedBy("mLock")
     public void readAll(LogLine object, boolean notify) {
         synchronized (mLock) {
-            if (mOriginalValues != null) {
-                mOriginalValues.add(object);
-            }
-            mObjects.add(object);
-            if (notify) {
-                notifyItemInserted(mObjects.size() - 1);
-            }
-        }
-    }
-
-    public void addWithFilter(@NonNull LogLine object, @Nullable SearchCriteria searchCriteria, boolean notify) {
-        if (mOriginalValues != null) {
-            List<LogLine> inputList = Collections.singletonList(object);
-            if (mFilter == null) {
-                mFilter = new ArrayFilter();
-            }
-            List<LogLine> filteredObjects = mFilter.performFilteringOnList(inputList, searchCriteria);
-            synchronized (mLock) {
-                mOriginalValues.add(object);
-                mObjects.addAll(filteredObjects);
-                if (!filteredObjects.isEmpty() && notify) {
-                    notifyItemRangeInserted(mObjects.size() - filteredObjects.size(), filteredObjects.size());
-                }
-            }
-        } else {
-            synchronized (mLock) {
-                mObjects.add(object);
-                if (notify) {
-                    notifyItemInserted(mObjects.size() - 1);
-                }
-            }
+            addLocked(object, true, notify);
         }
     }
 
     /**
-     * Inserts the specified object at the specified index in the array.
-     *
-     * @param object The object to insert into the array.
-     * @param index  The index at which the object must be inserted.
+     * Add a batch of lines and notify the changes at once.
      */
-    @GuardedBy("mLock")
-    public void insert(LogLine object, int index) {
+    public void addAllWithFilter(@NonNull List<LogLine> objects, @Nullable SearchCriteria searchCriteria) {
+        if (mFilter == null) {
+            mFilter = new ArrayFilter();
+        }
         synchronized (mLock) {
-            if (mOriginalValues != null) {
-                mOriginalValues.add(index, object);
+            int previousCount = getItemCountLocked();
+            long firstNewIndex = mLines.getFirstIndex() + mLines.size();
+            for (LogLine object : objects) {
+                addLocked(object, mFilteredIndices == null || mFilter.matches(object, searchCriteria), false);
+            }
+            int count = getItemCountLocked();
+            // Some of the new lines could have been evicted by the newer ones
+            int insertedCount;
+            if (mFilteredIndices == null) {
+                insertedCount = (int) Math.min(count, mLines.getFirstIndex() + count - firstNewIndex);
             } else {
-                mObjects.add(index, object);
-                notifyItemChanged(index, AdapterUtils.STUB);
+                insertedCount = 0;
+                while (insertedCount < count && mFilteredIndices.get(count - insertedCount - 1) >= firstNewIndex) {
+                    ++insertedCount;
+                }
+            }
+            int removedCount = previousCount - (count - insertedCount);
+            if (removedCount > 0) {
+                notifyItemRangeRemoved(0, removedCount);
+            }
+            if (insertedCount > 0) {
+                notifyItemRangeInserted(count - insertedCount, insertedCount);
             }
         }
     }
 
-    /**
-     * Removes the specified object from the array.
-     *
-     * @param object The object to remove.
-     */
     @GuardedBy("mLock")
-    public void remove(LogLine object) {
-        synchronized (mLock) {
-            if (mOriginalValues != null) {
-                mOriginalValues.remove(object);
-            } else {
-                int pos = mObjects.indexOf(object);
-                if (pos >= 0) {
-                    mObjects.remove(pos);
-                    notifyItemRemoved(pos);
-                }
+    private void addLocked(@NonNull LogLine object, boolean visible, boolean notify) {
+        if (mLines.isFull()) {
+            // Evict the oldest line
+            removeFirstLocked(1, notify);
+        }
+        mLines.addLast(object);
+        if (mFilteredIndices != null) {
+            if (!visible) {
+                return;
             }
+            mFilteredIndices.addLast(mLines.getAbsoluteIndex(mLines.size() - 1));
+        }
+        if (notify) {
+            notifyItemInserted(getItemCountLocked() - 1);
         }
     }
 
     public void removeFirst(int n) {
         StopWatch stopWatch = new StopWatch("removeFirst()");
-        if (mOriginalValues != null) {
-            synchronized (mLock) {
-                List<LogLine> subList = mOriginalValues.subList(n, mOriginalValues.size());
-                for (int i = 0; i < n; i++) {
-                    int pos = mObjects.indexOf(mOriginalValues.get(i));
-                    if (pos >= 0) {
-                        mObjects.remove(pos);
-                        notifyItemRemoved(pos);
-                    }
-                }
-                mOriginalValues = new ArrayList<>(subList);
-            }
-        } else {
-            synchronized (mLock) {
-                mObjects = new ArrayList<>(mObjects.subList(n, mObjects.size()));
-                notifyItemRangeRemoved(0, n);
-            }
+        synchronized (mLock) {
+            removeFirstLocked(n, true);
         }
         stopWatch.log();
     }
 
+    @GuardedBy("mLock")
+    private void removeFirstLocked(int n, boolean notify) {
+        n = Math.min(n, mLines.size());
+        int previousCount = getItemCountLocked();
+        mLines.removeFirst(n);
+        if (mFilteredIndices != null) {
+            removeEvictedIndicesLocked(mFilteredIndices);
+        }
+        int removedCount = previousCount - getItemCountLocked();
+        if (notify && removedCount > 0) {
+            notifyItemRangeRemoved(0, removedCount);
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void removeEvictedIndicesLocked(@NonNull RingBuffer<Long> indices) {
+        long firstIndex = mLines.getFirstIndex();
+        int count = 0;
+        while (count < indices.size() && indices.get(count) < firstIndex) {
+            ++count;
+        }
+        indices.removeFirst(count);
+    }
+
     /**
      * Remove all elements from the list.
      */
     @GuardedBy("mLock")
     public void clear() {
         synchronized (mLock) {
-            if (mOriginalValues != null) {
-                mOriginalValues.clear();
+            int size = getItemCountLocked();
+            mLines.clear();
+            if (mFilteredIndices != null) {
+                mFilteredIndices.clear();
             }
-            int size = mObjects.size();
-            mObjects.clear();
             notifyItemRangeRemoved(0, size);
         }
     }
@@ -258,7 +251,10 @@ public class LogViewerRecyclerAdapter extends MultiSelectionView.Adapter<LogView
     @GuardedBy("mLock")
     public LogLine getItem(int position) {
         synchronized (mLock) {
-            return mObjects.get(position);
+            if (mFilteredIndices == null) {
+                return mLines.get(position);
+            }
+            return Objects.requireNonNull(mLines.getByAbsoluteIndex(mFilteredIndices.get(position)));
         }
     }
 
@@ -266,8 +262,8 @@ public class LogViewerRecyclerAdapter extends MultiSelectionView.Adapter<LogView
     @GuardedBy("mLock")
     private LogLine getItemSafe(int position) {
         synchronized (mLock) {
-            if (mObjects.size() > position) {
-                return mObjects.get(position);
+            if (getItemCountLocked() > position) {
+                return getItem(position);
             }
             return null;
         }
@@ -276,7 +272,7 @@ public class LogViewerRecyclerAdapter extends MultiSelectionView.Adapter<LogView
     @GuardedBy("mLock")
     public int getRealSize() {
         synchronized (mLock) {
-            return (mOriginalValues != null ? mOriginalValues : mObjects).size();
+            return mLines.size();
         }
     }
 
@@ -287,8 +283,7 @@ public class LogViewerRecyclerAdapter extends MultiSelectionView.Adapter<LogView
     @GuardedBy("mLock")
     public void setCollapseMode(boolean isCollapsed) {
         synchronized (mLock) {
-            List<LogLine> list = mOriginalValues != null ? mOriginalValues : mObjects;
-            for (LogLine logLine : list) {
+            for (LogLine logLine : mLines) {
                 logLine.setExpanded(!isCollapsed);
             }
         }
@@ -460,7 +455,11 @@ public class LogViewerRecyclerAdapter extends MultiSelectionView.Adapter<LogView
     @Override
     public long getItemId(int position) {
         synchronized (mLock) {
-            return mObjects.get(position).getOriginalLine().hashCode();
+            // Absolute indices are unique and do not change when the older lines are evicted
+            if (mFilteredIndices == null) {
+                return mLines.getAbsoluteIndex(position);
+            }
+            return mFilteredIndices.get(position);
         }
     }
 
@@ -468,10 +467,15 @@ public class LogViewerRecyclerAdapter extends MultiSelectionView.Adapter<LogView
     @Override
     public int getItemCount() {
         synchronized (mLock) {
-            return mObjects.size();
+            return getItemCountLocked();
         }
     }
 
+    @GuardedBy("mLock")
+    private int getItemCountLocked() {
+        return mFilteredIndices != null ? mFilteredIndices.size() : mLines.size();
+    }
+
     public int getLogLevelLimit() {
         return mLogLevelLimit;
     }
@@ -503,12 +507,13 @@ public class LogViewerRecyclerAdapter extends MultiSelectionView.Adapter<LogView
             lastItem = it.next();
         }
         if (lastItem != null) {
-            int i = 0;
-            for (LogLine fmItem : mObjects) {
-                if (fmItem.equals(lastItem)) {
-                    return i;
+            synchronized (mLock) {
+                int count = getItemCountLocked();
+                for (int i = 0; i < count; ++i) {
+                    if (getItem(i).equals(lastItem)) {
+                        return i;
+                    }
                 }
-                ++i;
             }
         }
         return -1;
@@ -524,60 +529,44 @@ public class LogViewerRecyclerAdapter extends MultiSelectionView.Adapter<LogView
         @Override
         protected FilterResults performFiltering(CharSequence prefix) {
             FilterResults results = new FilterResults();
-
-            if (mOriginalValues == null) {
-                synchronized (mLock) {
-                    mOriginalValues = new ArrayList<>(mObjects);
+            SearchCriteria searchCriteria = new SearchCriteria(prefix != null ? prefix.toString() : null);
+            List<LogLine> logLines;
+            long firstIndex;
+            int capacity;
+            synchronized (mLock) {
+                logLines = new ArrayList<>(mLines);
+                firstIndex = mLines.getFirstIndex();
+                capacity = mLines.capacity();
+            }
+            RingBuffer<Long> filteredIndices = new RingBuffer<>(capacity);
+            for (int i = 0; i < logLines.size(); ++i) {
+                if (matches(logLines.get(i), searchCriteria)) {
+                    filteredIndices.addLast(firstIndex + i);
                 }
             }
-
-            SearchCriteria searchCriteria = new SearchCriteria(prefix != null ? prefix.toString() : null);
-            ArrayList<LogLine> allValues = performFilteringOnList(mOriginalValues, searchCriteria);
-
-            results.values = allValues;
-            results.count = allValues.size();
-
+            results.values = filteredIndices;
+            results.count = filteredIndices.size();
             return results;
         }
 
-        public ArrayList<LogLine> performFilteringOnList(List<LogLine> inputList, @Nullable SearchCriteria searchCriteria) {
+        public boolean matches(@Nullable LogLine logLine, @Nullable SearchCriteria searchCriteria) {
             // search by log level
-            ArrayList<LogLine> allValues = new ArrayList<>();
-
-            ArrayList<LogLine> logLines;
-            synchronized (mLock) {
-                logLines = new ArrayList<>(inputList);
-            }
-
-            for (LogLine logLine : logLines) {
-                if (logLine != null && logLine.getLogLevel() >= mLogLevelLimit) {
-                    allValues.add(logLine);
-                }
+            if (logLine == null || logLine.getLogLevel() < mLogLevelLimit) {
+                return false;
             }
-            ArrayList<LogLine> finalValues = allValues;
-
             // search by criteria
-            if (searchCriteria != null && !searchCriteria.isEmpty()) {
-                final int count = allValues.size();
-                final ArrayList<LogLine> newValues = new ArrayList<>(count);
-                for (final LogLine value : allValues) {
-                    // search the logline based on the criteria
-                    if (searchCriteria.matches(value)) {
-                        newValues.add(value);
-                    }
-                }
-                finalValues = newValues;
-            }
-            return finalValues;
+            return searchCriteria == null || searchCriteria.isEmpty() || searchCriteria.matches(logLine);
         }
 
         @SuppressWarnings("unchecked")
         @Override
         protected void publishResults(CharSequence constraint, FilterResults results) {
             synchronized (mLock) {
-                int previousCount = mObjects != null ? mObjects.size() : 0;
-                mObjects = (List<LogLine>) results.values;
-                AdapterUtils.notifyDataSetChanged(LogViewerRecyclerAdapter.this, previousCount, mObjects.size());
+                int previousCount = getItemCountLocked();
+                mFilteredIndices = (RingBuffer<Long>) results.values;
+                // Lines evicted while filtering
+                removeEvictedIndicesLocked(mFilteredIndices);
+                AdapterUtils.notifyDataSetChanged(LogViewerRecyclerAdapter.this, previousCount, mFilteredIndices.size());
             }
         }
     }
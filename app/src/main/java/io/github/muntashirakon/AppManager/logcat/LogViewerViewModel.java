@@ -23,7 +23,6 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
@@ -37,7 +36,9 @@ import io.github.muntashirakon.AppManager.logcat.helper.SaveLogHelper;
 import io.github.muntashirakon.AppManager.logcat.reader.LogcatReader;
 import io.github.muntashirakon.AppManager.logcat.reader.LogcatReaderLoader;
 import io.github.muntashirakon.AppManager.logcat.struct.LogLine;
+import io.github.muntashirakon.AppManager.logcat.struct.RingBuffer;
 import io.github.muntashirakon.AppManager.logcat.struct.SavedLog;
+import io.github.muntashirakon.AppManager.logcat.struct.SearchCriteria;
 import io.github.muntashirakon.AppManager.logcat.struct.SendLogDetails;
 import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.AppManager.runner.Runner;
@@ -65,6 +66,7 @@ public class LogViewerViewModel extends AndroidViewModel {
     private volatile boolean mCollapsedMode;
     private volatile int mLogLevel;
     private volatile LogcatReader mReader;
+    private boolean mLinesDropped;
 
     private final Pattern mFilterPattern;
     private final MutableLiveData<Boolean> mExpandLogsLiveData = new MutableLiveData<>();
@@ -129,10 +131,16 @@ public class LogViewerViewModel extends AndroidViewModel {
                 mReader = LogcatReaderLoader.create(true).loadReader();
 
                 int maxLines = Prefs.LogViewer.getDisplayLimit();
+                LogLineBatcher batcher = null;
+                if (logLinesAvailableInterface != null) {
+                    batcher = new LogLineBatcher(logLinesAvailableInterface, droppedCount -> onLinesDropped(
+                            droppedCount, maxLines), maxLines, Prefs.LogViewer.getBatchSize(),
+                            Prefs.LogViewer.getBatchInterval());
+                }
 
-                String line;
-                LinkedList<LogLine> initialLines = new LinkedList<>();
-                while ((line = mReader.readLine()) != null && !ThreadUtils.isInterrupted()) {
+                LogLine logLine;
+                RingBuffer<LogLine> initialLines = new RingBuffer<>(Math.max(maxLines, 1));
+                while ((logLine = mReader.readLogLine()) != null && !ThreadUtils.isInterrupted()) {
                     if (mPaused) {
                         synchronized (mLock) {
                             if (mPaused) {
@@ -140,25 +148,24 @@ public class LogViewerViewModel extends AndroidViewModel {
                             }
                         }
                     }
-                    LogLine logLine = LogLine.newLogLine(line, !mCollapsedMode, mFilterPattern);
-                    if (logLine == null) {
-                        if (mReader.readyToRecord()) {
-                            // Logcat is ready
-                        }
-                    } else if (!mReader.readyToRecord()) {
+                    if (logLine.isFilteredBy(mFilterPattern)) {
+                        continue;
+                    }
+                    logLine.setExpanded(!mCollapsedMode);
+                    if (!mReader.readyToRecord()) {
                         // "ready to record" in this case means all the initial lines have been flushed from the reader
-                        initialLines.add(logLine);
-                        if (initialLines.size() > maxLines) {
-                            initialLines.removeFirst();
-                        }
+                        initialLines.addLast(logLine);
+                    } else if (batcher == null) {
+                        // Nobody to deliver the lines to
+                        initialLines.clear();
                     } else if (!initialLines.isEmpty()) {
                         // flush all the initial lines we've loaded
                         initialLines.add(logLine);
-                        sendNewLogs(initialLines, logLinesAvailableInterface);
+                        batcher.addAll(initialLines);
                         initialLines.clear();
                     } else {
                         // just proceed as normal
-                        sendNewLogs(Collections.singletonList(logLine), logLinesAvailableInterface);
+                        batcher.add(logLine);
                     }
                 }
             } catch (Exception e) {
@@ -192,6 +199,16 @@ public class LogViewerViewModel extends AndroidViewModel {
         });
     }
 
+    @UiThread
+    private void onLinesDropped(int droppedCount, int maxLines) {
+        Log.d(TAG, "Dropped %d lines since the UI could not keep up with logcat", droppedCount);
+        if (!mLinesDropped) {
+            // Only the oldest lines are dropped, which are never displayed once the display limit is reached
+            mLinesDropped = true;
+            mTruncatedLinesLiveData.setValue(maxLines);
+        }
+    }
+
     private static void sendNewLogs(@NonNull List<LogLine> logLines, @Nullable WeakReference<LogLinesAvailableInterface> logLinesAvailableInterface) {
         if (logLinesAvailableInterface != null) {
             LogLinesAvailableInterface i = logLinesAvailableInterface.get();
@@ -264,13 +281,17 @@ public class LogViewerViewModel extends AndroidViewModel {
         }
     }
 
+    /**
+     * @param searchCriteria If not {@code null}, only the lines matching it are loaded
+     */
     @AnyThread
-    public void openLogsFromFile(Uri filename, @Nullable WeakReference<LogLinesAvailableInterface> logLinesAvailableInterface) {
+    public void openLogsFromFile(Uri filename, @Nullable SearchCriteria searchCriteria,
+                                 @Nullable WeakReference<LogLinesAvailableInterface> logLinesAvailableInterface) {
         mExecutor.submit(() -> {
             // remove any lines at the beginning if necessary
             final int maxLines = Prefs.LogViewer.getDisplayLimit();
             SavedLog savedLog;
-            savedLog = SaveLogHelper.openLog(filename, maxLines);
+            savedLog = SaveLogHelper.openLog(filename, maxLines, searchCriteria);
             List<String> lines = savedLog.getLogLines();
             List<LogLine> logLines = new ArrayList<>();
             for (int lineNumber = 0, linesSize = lines.size(); lineNumber < linesSize; lineNumber++) {
@@ -282,7 +303,7 @@ public class LogViewerViewModel extends AndroidViewModel {
                 mLoadingProgressLiveData.postValue(lineNumber * 100 / linesSize);
             }
             sendNewLogs(logLines, logLinesAvailableInterface);
-            if (savedLog.isTruncated()) {
+            if (savedLog.isTruncated() && searchCriteria == null) {
                 mTruncatedLinesLiveData.postValue(maxLines);
             }
         });
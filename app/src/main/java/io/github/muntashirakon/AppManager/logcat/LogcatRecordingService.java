@@ -24,6 +24,7 @@ import java.util.regex.Pattern;
 import io.github.muntashirakon.AppManager.BuildConfig;
 import io.github.muntashirakon.AppManager.R;
 import io.github.muntashirakon.AppManager.intercept.IntentCompat;
+import io.github.muntashirakon.AppManager.logcat.helper.RecordedLogWriter;
 import io.github.muntashirakon.AppManager.logcat.helper.SaveLogHelper;
 import io.github.muntashirakon.AppManager.logcat.helper.ServiceHelper;
 import io.github.muntashirakon.AppManager.logcat.helper.WidgetHelper;
@@ -91,7 +92,7 @@ public class LogcatRecordingService extends ForegroundService {
         try {
             mReader = loader.loadReader();
             while (mReader != null && !mReader.readyToRecord() && !mKilled) {
-                mReader.readLine();
+                mReader.readLogLine();
                 // Keep skipping lines until we find one that is past the last log line, i.e.
                 // it's ready to record
             }
@@ -150,7 +151,6 @@ public class LogcatRecordingService extends ForegroundService {
         int logLevel = intent.getIntExtra(EXTRA_LEVEL, Prefs.LogViewer.getLogLevel());
         boolean searchCriteriaWillAlwaysMatch = searchCriteria.isEmpty();
         boolean logLevelAcceptsEverything = logLevel == android.util.Log.VERBOSE;
-        StringBuilder stringBuilder = new StringBuilder();
         LogcatReaderLoader loader = IntentCompat.getUnwrappedParcelableExtra(intent, EXTRA_LOADER, LogcatReaderLoader.class);
         if (loader == null) {
             // No loader found
@@ -159,23 +159,25 @@ public class LogcatRecordingService extends ForegroundService {
 
         SaveLogHelper.deleteLogIfExists(filename);
         initializeReader(loader);
+        RecordedLogWriter logWriter = null;
+        boolean logSaved = false;
         try {
-            String line;
+            logWriter = SaveLogHelper.createRecordedLog(filename);
+            LogLine logLine;
             int lineCount = 0;
             int logLinePeriod = Prefs.LogViewer.getLogWritingInterval();
             Pattern filterPattern = Pattern.compile(Prefs.LogViewer.getFilterPattern());
-            while (mReader != null && (line = mReader.readLine()) != null && !mKilled) {
+            while (mReader != null && (logLine = mReader.readLogLine()) != null && !mKilled) {
                 // filter
                 if (!searchCriteriaWillAlwaysMatch || !logLevelAcceptsEverything) {
-                    if (!checkLogLine(line, searchCriteria, logLevel, filterPattern)) {
+                    if (!checkLogLine(logLine, searchCriteria, logLevel, filterPattern)) {
                         continue;
                     }
                 }
-                stringBuilder.append(line).append("\n");
+                logWriter.write(logLine);
                 if (++lineCount % logLinePeriod == 0) {
-                    // avoid OutOfMemoryErrors; flush now
-                    SaveLogHelper.saveLog(stringBuilder, filename);
-                    stringBuilder.delete(0, stringBuilder.length()); // clear
+                    // Make the lines available to the log viewer
+                    logWriter.flush();
                 }
             }
         } catch (IOException e) {
@@ -183,7 +185,14 @@ public class LogcatRecordingService extends ForegroundService {
         } finally {
             killProcess();
             Log.d(TAG, "Service ended");
-            boolean logSaved = SaveLogHelper.saveLog(stringBuilder, filename);
+            if (logWriter != null) {
+                try {
+                    logWriter.close();
+                    logSaved = true;
+                } catch (IOException e) {
+                    Log.e(TAG, e);
+                }
+            }
             NotificationProgressHandler.NotificationInfo notificationInfo =
                     new NotificationProgressHandler.NotificationInfo()
                             .setTitle(getString(R.string.notification_title))
@@ -200,9 +209,9 @@ public class LogcatRecordingService extends ForegroundService {
         }
     }
 
-    private boolean checkLogLine(String line, SearchCriteria searchCriteria, int logLevel, Pattern filterPattern) {
-        LogLine logLine = LogLine.newLogLine(line, false, filterPattern);
-        return logLine != null && logLine.getLogLevel() >= logLevel && searchCriteria.matches(logLine);
+    private boolean checkLogLine(LogLine logLine, SearchCriteria searchCriteria, int logLevel, Pattern filterPattern) {
+        return !logLine.isFilteredBy(filterPattern) && logLine.getLogLevel() >= logLevel
+                && searchCriteria.matches(logLine);
     }
 
 
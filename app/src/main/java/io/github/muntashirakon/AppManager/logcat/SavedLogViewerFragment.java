@@ -17,10 +17,12 @@ import androidx.core.os.BundleCompat;
 
 import java.lang.ref.WeakReference;
 import java.util.List;
+import java.util.Objects;
 
 import io.github.muntashirakon.AppManager.R;
 import io.github.muntashirakon.AppManager.logcat.struct.LogLine;
 import io.github.muntashirakon.AppManager.logcat.struct.SearchCriteria;
+import io.github.muntashirakon.AppManager.settings.Prefs;
 import io.github.muntashirakon.AppManager.utils.ContextUtils;
 import io.github.muntashirakon.AppManager.utils.ThreadUtils;
 import io.github.muntashirakon.AppManager.utils.Utils;
@@ -42,6 +44,14 @@ public class SavedLogViewerFragment extends AbsLogViewerFragment implements LogV
     }
 
     private String mFilename = "";
+    @Nullable
+    private Uri mUri;
+    // Whether only the last lines of the log could be displayed, in which case searches are performed on the file
+    private boolean mPartiallyLoaded;
+    // Query of the lines loaded from the file, or null if the lines were loaded without a query
+    @Nullable
+    private String mLoadedQuery;
+    private int mPendingReloadCount;
 
     @Override
     public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
@@ -51,8 +61,9 @@ public class SavedLogViewerFragment extends AbsLogViewerFragment implements LogV
             // TODO: 31/5/22 Handle invalid URI
             return;
         }
+        mUri = uri;
         mFilename = uri.getLastPathSegment();
-        mViewModel.openLogsFromFile(uri, new WeakReference<>(this));
+        mViewModel.openLogsFromFile(uri, null, new WeakReference<>(this));
     }
 
     @Override
@@ -78,11 +89,35 @@ public class SavedLogViewerFragment extends AbsLogViewerFragment implements LogV
         return super.onMenuItemSelected(item);
     }
 
+    @Override
+    public void onQuery(@Nullable SearchCriteria searchCriteria) {
+        super.onQuery(searchCriteria);
+        String query = searchCriteria != null && !searchCriteria.isEmpty() ? searchCriteria.query : null;
+        if (mUri == null || !mPartiallyLoaded || Objects.equals(query, mLoadedQuery)) {
+            return;
+        }
+        // The matching lines may not have been loaded, search the file instead
+        mLoadedQuery = query;
+        ++mPendingReloadCount;
+        mViewModel.openLogsFromFile(mUri, query != null ? searchCriteria : null, new WeakReference<>(this));
+    }
+
     @Override
     public void onNewLogsAvailable(@NonNull List<LogLine> logLines) {
         mActivity.hideProgressBar();
+        boolean reloaded = mPendingReloadCount > 0;
+        if (reloaded) {
+            --mPendingReloadCount;
+            mLogListAdapter.clear();
+        }
+        mLogListAdapter.addAllWithFilter(logLines, mSearchCriteria);
+        if (reloaded) {
+            // Apply the filter to the new lines
+            mLogListAdapter.getFilter().filter(mSearchCriteria != null ? mSearchCriteria.query : null, this);
+        } else if (mLogListAdapter.getRealSize() >= Prefs.LogViewer.getDisplayLimit()) {
+            mPartiallyLoaded = true;
+        }
         for (LogLine logLine : logLines) {
-            mLogListAdapter.addWithFilter(logLine, new SearchCriteria(null), true);
             mActivity.addToAutocompleteSuggestions(logLine);
         }
 
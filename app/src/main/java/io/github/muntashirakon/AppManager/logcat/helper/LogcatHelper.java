@@ -45,11 +45,30 @@ public class LogcatHelper {
 
     public static final int DEFAULT_DISPLAY_LIMIT = 10_000;
     public static final int DEFAULT_LOG_WRITE_INTERVAL = 200;
+    // Log lines are delivered to the UI in batches of at most this many lines or every this many milliseconds
+    public static final int DEFAULT_BATCH_INTERVAL = 100;
+    public static final int DEFAULT_BATCH_SIZE = 500;
 
     public static Process getLogcatProcess(@LogBufferId int buffers) throws IOException {
         return ProcessCompat.exec(getLogcatArgs(buffers, false));
     }
 
+    /**
+     * Same as {@link #getLogcatProcess(int)} except that the entries are written as {@code struct logger_entry}
+     * records.
+     *
+     * @param lastEntryOnly Write only the last entry and exit
+     */
+    public static Process getBinaryLogcatProcess(@LogBufferId int buffers, boolean lastEntryOnly) throws IOException {
+        List<String> args = new ArrayList<>(Arrays.asList("logcat", "-B"));
+        addBufferArgs(args, buffers);
+        if (lastEntryOnly) {
+            args.add("-t");
+            args.add("1");
+        }
+        return ProcessCompat.exec(args.toArray(new String[0]));
+    }
+
     @Nullable
     public static String getLastLogLine(@LogBufferId int buffers) {
         Process dumpLogcatProcess = null;
@@ -84,7 +103,12 @@ public class LogcatHelper {
         // - descriptive: Descriptive output, currently NOP (Android 8 onwards)
         // * UID is not guaranteed
         List<String> args = new ArrayList<>(Arrays.asList("logcat", "-v", "threadtime", "-v", "uid"));
+        addBufferArgs(args, buffers);
+        if (dumpAndExit) args.add("-d");
+        return args.toArray(new String[0]);
+    }
 
+    private static void addBufferArgs(@NonNull List<String> args, @LogBufferId int buffers) {
         if (buffers == LOG_ID_ALL) {
             args.add("-b");
             args.add(BUFFER_ALL);
@@ -113,7 +137,5 @@ public class LogcatHelper {
                 args.add(BUFFER_CRASH);
             }
         }
-        if (dumpAndExit) args.add("-d");
-        return args.toArray(new String[0]);
     }
 }
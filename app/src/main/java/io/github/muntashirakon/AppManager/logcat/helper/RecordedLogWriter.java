@@ -0,0 +1,81 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.helper;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import io.github.muntashirakon.AppManager.logcat.struct.LogIndex;
+import io.github.muntashirakon.AppManager.logcat.struct.LogLine;
+import io.github.muntashirakon.io.Path;
+
+/**
+ * Write a recorded log along with its {@link LogIndex}. Both files are kept open for the entire recording, and the
+ * index is updated each time a segment is completed.
+ *
+ * @see SaveLogHelper#createRecordedLog(String)
+ */
+public class RecordedLogWriter implements Closeable {
+    private static final int BUFFER = 0x10000; // 64K
+
+    @NonNull
+    private final OutputStream mLogStream;
+    @NonNull
+    private final OutputStream mIndexStream;
+    @NonNull
+    private LogIndex.Segment mSegment = new LogIndex.Segment();
+
+    RecordedLogWriter(@NonNull Path logFile, @NonNull Path indexFile) throws IOException {
+        mLogStream = new BufferedOutputStream(logFile.openOutputStream(), BUFFER);
+        try {
+            mIndexStream = new BufferedOutputStream(indexFile.openOutputStream());
+            LogIndex.writeHeader(mIndexStream);
+        } catch (IOException e) {
+            mLogStream.close();
+            throw e;
+        }
+    }
+
+    public void write(@NonNull LogLine logLine) throws IOException {
+        byte[] bytes = (logLine.getOriginalLine() + "\n").getBytes(StandardCharsets.UTF_8);
+        mLogStream.write(bytes);
+        mSegment.addLine(logLine, bytes.length);
+        if (mSegment.getLineCount() >= LogIndex.SEGMENT_LINES) {
+            writeSegment();
+        }
+    }
+
+    /**
+     * Write the buffered lines to the log.
+     */
+    public void flush() throws IOException {
+        mLogStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (mSegment.getLineCount() > 0) {
+                writeSegment();
+            }
+        } finally {
+            try {
+                mLogStream.close();
+            } finally {
+                mIndexStream.close();
+            }
+        }
+    }
+
+    private void writeSegment() throws IOException {
+        // The index must not point beyond the end of the log
+        mLogStream.flush();
+        LogIndex.writeSegment(mIndexStream, mSegment);
+        mSegment = mSegment.next();
+    }
+}
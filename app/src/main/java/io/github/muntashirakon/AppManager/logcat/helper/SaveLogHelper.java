@@ -12,28 +12,38 @@ import androidx.annotation.Nullable;
 
 import org.jetbrains.annotations.Contract;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.DecimalFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.GregorianCalendar;
-import java.util.LinkedList;
 import java.util.List;
 
+import io.github.muntashirakon.AppManager.logcat.struct.LogIndex;
+import io.github.muntashirakon.AppManager.logcat.struct.LogLine;
+import io.github.muntashirakon.AppManager.logcat.struct.RingBuffer;
 import io.github.muntashirakon.AppManager.logcat.struct.SavedLog;
+import io.github.muntashirakon.AppManager.logcat.struct.SearchCriteria;
 import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.AppManager.self.filecache.FileCache;
 import io.github.muntashirakon.AppManager.settings.Prefs;
 import io.github.muntashirakon.AppManager.utils.UIUtils;
+import io.github.muntashirakon.io.FileSystemManager;
 import io.github.muntashirakon.io.Path;
 import io.github.muntashirakon.io.Paths;
 
@@ -79,6 +89,10 @@ public class SaveLogHelper {
             getFile(filename).delete();
         } catch (IOException ignore) {
         }
+        try {
+            getFile(filename + LogIndex.EXTENSION).delete();
+        } catch (IOException ignore) {
+        }
     }
 
     @NonNull
@@ -97,7 +111,12 @@ public class SaveLogHelper {
     public static List<Path> getLogFiles() {
         try {
             Path[] filesArray = getSavedLogsDirectory().listFiles();
-            List<Path> files = new ArrayList<>(Arrays.asList(filesArray));
+            List<Path> files = new ArrayList<>(filesArray.length);
+            for (Path file : filesArray) {
+                if (!file.getName().endsWith(LogIndex.EXTENSION)) {
+                    files.add(file);
+                }
+            }
             Collections.sort(files, (o1, o2) -> Long.compare(o2.lastModified(), o1.lastModified()));
             return files;
         } catch (IOException e) {
@@ -105,16 +124,38 @@ public class SaveLogHelper {
         }
     }
 
+    /**
+     * Open the last {@code maxLines} lines of a log. If the log has an index, it is read backwards segment by segment
+     * so that only the lines to be displayed are read.
+     *
+     * @param searchCriteria If not empty, only the lines that match it are returned, and the segments that cannot
+     *                       contain such lines are skipped.
+     */
     @NonNull
-    public static SavedLog openLog(@NonNull Uri fileUri, int maxLines) {
+    public static SavedLog openLog(@NonNull Uri fileUri, int maxLines, @Nullable SearchCriteria searchCriteria) {
         Path logFile = Paths.get(fileUri);
-        LinkedList<String> logLines = new LinkedList<>();
+        maxLines = Math.max(maxLines, 1);
+        if (searchCriteria != null && searchCriteria.isEmpty()) {
+            searchCriteria = null;
+        }
+        LogIndex logIndex = readIndex(logFile);
+        if (logIndex != null) {
+            try {
+                return openIndexedLog(logFile, logIndex, maxLines, searchCriteria);
+            } catch (IOException | UnsupportedOperationException e) {
+                // Memory-mapping is not supported by every file system
+                Log.e(TAG, e);
+            }
+        }
+        RingBuffer<String> logLines = new RingBuffer<>(maxLines);
         boolean truncated = false;
         try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(logFile.openInputStream()), BUFFER)) {
             while (bufferedReader.ready()) {
-                logLines.add(bufferedReader.readLine());
-                if (logLines.size() > maxLines) {
-                    logLines.removeFirst();
+                String line = bufferedReader.readLine();
+                if (searchCriteria != null && !matches(line, searchCriteria)) {
+                    continue;
+                }
+                if (logLines.addLast(line) != null) {
                     truncated = true;
                 }
             }
@@ -124,6 +165,110 @@ public class SaveLogHelper {
         return new SavedLog(logLines, truncated);
     }
 
+    @Nullable
+    private static LogIndex readIndex(@NonNull Path logFile) {
+        Path parent = logFile.getParent();
+        String indexFilename = logFile.getName() + LogIndex.EXTENSION;
+        if (parent == null || !parent.hasFile(indexFilename)) {
+            return null;
+        }
+        try (InputStream is = new BufferedInputStream(parent.findFile(indexFilename).openInputStream(), BUFFER)) {
+            return LogIndex.read(is, logFile.length());
+        } catch (IOException e) {
+            Log.e(TAG, e);
+            return null;
+        }
+    }
+
+    @NonNull
+    private static SavedLog openIndexedLog(@NonNull Path logFile, @NonNull LogIndex logIndex, int maxLines,
+                                           @Nullable SearchCriteria searchCriteria) throws IOException {
+        try (FileChannel channel = logFile.openFileChannel(FileSystemManager.MODE_READ_ONLY)) {
+            // Chunks of lines from the oldest to the newest
+            Deque<List<String>> chunks = new ArrayDeque<>();
+            int lineCount = 0;
+            boolean truncated = false;
+            // Lines after the last segment, e.g. the log is still being recorded
+            long indexedLength = logIndex.getIndexedLength();
+            long size = channel.size();
+            if (size > indexedLength) {
+                List<String> lines = readLines(channel, indexedLength, size - indexedLength, searchCriteria);
+                chunks.addFirst(lines);
+                lineCount += lines.size();
+            }
+            List<LogIndex.Segment> segments = logIndex.getSegments();
+            for (int i = segments.size() - 1; i >= 0; --i) {
+                LogIndex.Segment segment = segments.get(i);
+                if (searchCriteria != null && !searchCriteria.mayMatch(segment)) {
+                    continue;
+                }
+                if (lineCount >= maxLines) {
+                    truncated = true;
+                    break;
+                }
+                List<String> lines = readLines(channel, segment.getOffset(), segment.getLength(), searchCriteria);
+                chunks.addFirst(lines);
+                lineCount += lines.size();
+            }
+            int skipCount = lineCount - maxLines;
+            if (skipCount > 0) {
+                truncated = true;
+            }
+            List<String> logLines = new ArrayList<>(Math.min(lineCount, maxLines));
+            for (List<String> lines : chunks) {
+                for (String line : lines) {
+                    if (skipCount > 0) {
+                        --skipCount;
+                    } else {
+                        logLines.add(line);
+                    }
+                }
+            }
+            return new SavedLog(logLines, truncated);
+        }
+    }
+
+    @NonNull
+    private static List<String> readLines(@NonNull FileChannel channel, long offset, long length,
+                                          @Nullable SearchCriteria searchCriteria) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Too large to be mapped: " + length);
+        }
+        CharBuffer chars = StandardCharsets.UTF_8.decode(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        int limit = chars.limit();
+        while (start < limit) {
+            int end = start;
+            while (end < limit && chars.get(end) != '\n') {
+                ++end;
+            }
+            int lineEnd = end > start && chars.get(end - 1) == '\r' ? end - 1 : end;
+            String line = chars.subSequence(start, lineEnd).toString();
+            if (searchCriteria == null || matches(line, searchCriteria)) {
+                lines.add(line);
+            }
+            start = end + 1;
+        }
+        return lines;
+    }
+
+    private static boolean matches(@NonNull String line, @NonNull SearchCriteria searchCriteria) {
+        LogLine logLine = LogLine.newLogLine(line, false, null);
+        return logLine != null && searchCriteria.matches(logLine);
+    }
+
+    /**
+     * Create a new log to be recorded, replacing the existing one if any.
+     */
+    @NonNull
+    public static RecordedLogWriter createRecordedLog(@NonNull String filename) throws IOException {
+        Path savedLogsDirectory = getSavedLogsDirectory();
+        Path logFile = savedLogsDirectory.createNewFile(filename, null);
+        Path indexFile = savedLogsDirectory.createNewFile(filename + LogIndex.EXTENSION, null);
+        return new RecordedLogWriter(logFile, indexFile);
+    }
+
     public static synchronized boolean saveLog(CharSequence logString, String filename) {
         try {
             saveLog(null, logString, filename);
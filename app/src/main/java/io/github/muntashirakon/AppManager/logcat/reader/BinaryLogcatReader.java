@@ -0,0 +1,426 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.reader;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+
+import io.github.muntashirakon.AppManager.logcat.helper.LogcatHelper;
+import io.github.muntashirakon.AppManager.logcat.struct.LogLine;
+import io.github.muntashirakon.AppManager.logs.Log;
+
+/**
+ * Read the entries written by {@code logcat -B}, which are {@code struct logger_entry} records followed by their
+ * payload, and decode them directly into {@link LogLine}s. This saves logcat from formatting the entries and the log
+ * viewer from parsing them again.
+ * <p>
+ * Only the buffers containing text entries are supported, i.e., the events buffer must not be included.
+ * <p>
+ * If logcat fails in binary mode or writes entries that cannot be decoded, the reader falls back to text mode, and
+ * binary mode is not used again until the app is restarted.
+ */
+public class BinaryLogcatReader extends AbsLogcatReader {
+    public static final String TAG = BinaryLogcatReader.class.getSimpleName();
+
+    // struct logger_entry: uint16_t len, uint16_t hdr_size, int32_t pid, uint32_t tid, uint32_t sec, uint32_t nsec,
+    // uint32_t lid (v3 onwards), uint32_t uid (v4 onwards). hdr_size is 0 in v1.
+    private static final int HEADER_SIZE_V1 = 20;
+    private static final int HEADER_SIZE_V3 = 24;
+    private static final int HEADER_SIZE_V4 = 28;
+    private static final int MAX_HEADER_SIZE = 100;
+    private static final int MAX_PAYLOAD_SIZE = 0xFFFF;
+
+    // Buffers with binary payloads (events, stats, security)
+    private static final int LID_EVENTS = 2;
+    private static final int LID_STATS = 5;
+    private static final int LID_SECURITY = 6;
+
+    // android_LogPriority
+    private static final int ANDROID_LOG_VERBOSE = 2;
+    private static final int ANDROID_LOG_ERROR = 6;
+    private static final int ANDROID_LOG_FATAL = 7;
+
+    // Must be a power of two
+    private static final int TAG_POOL_SIZE = 512;
+
+    private static volatile boolean sUnsupported = false;
+
+    /**
+     * Whether binary mode has not failed so far.
+     */
+    public static boolean isSupported() {
+        return !sUnsupported;
+    }
+
+    /**
+     * Retrieve the last entry of the given buffers in a form that can be passed to
+     * {@link #BinaryLogcatReader(boolean, int, String)}.
+     */
+    @Nullable
+    public static String getLastEntry(@LogcatHelper.LogBufferId int buffers) {
+        Process process = null;
+        try {
+            process = LogcatHelper.getBinaryLogcatProcess(buffers, true);
+            EntryDecoder decoder = new EntryDecoder(process.getInputStream());
+            long lastTime = -1;
+            while (decoder.next()) {
+                lastTime = decoder.getTimeNanos();
+            }
+            if (lastTime < 0 && hasFailed(process)) {
+                Log.w(TAG, "logcat failed in binary mode");
+                sUnsupported = true;
+            }
+            return lastTime >= 0 ? String.valueOf(lastTime) : null;
+        } catch (InvalidEntryException e) {
+            Log.w(TAG, "Binary entries are not supported", e);
+            sUnsupported = true;
+            return null;
+        } catch (IOException e) {
+            Log.e(TAG, e);
+            return null;
+        } finally {
+            if (process != null) {
+                process.destroy();
+            }
+        }
+    }
+
+    @Nullable
+    private final Process mLogcatProcess;
+    private final EntryDecoder mDecoder;
+    @NonNull
+    private final Callable<LogcatReader> mFallbackReaderLoader;
+    @Nullable
+    private LogcatReader mFallbackReader;
+    private boolean mHasEntries;
+    // The lines of a multi-line message that have not been returned yet
+    private final Queue<LogLine> mPendingLines = new ArrayDeque<>();
+    private final String[] mTagPool = new String[TAG_POOL_SIZE];
+    // Time of the last entry in nanoseconds, or -1 once it has been passed
+    private long mLastTime;
+
+    /**
+     * @param lastEntry The last entry as returned by {@link #getLastEntry(int)}
+     */
+    public BinaryLogcatReader(boolean recordingMode, @LogcatHelper.LogBufferId int buffers, @Nullable String lastEntry)
+            throws IOException {
+        super(recordingMode);
+        mLastTime = lastEntry != null ? Long.parseLong(lastEntry) : -1;
+        mLogcatProcess = LogcatHelper.getBinaryLogcatProcess(buffers, false);
+        mDecoder = new EntryDecoder(mLogcatProcess.getInputStream());
+        mFallbackReaderLoader = () -> LogcatReaderLoader.loadTextReader(recordingMode, buffers);
+    }
+
+    @VisibleForTesting
+    BinaryLogcatReader(@NonNull InputStream inputStream, @NonNull Callable<LogcatReader> fallbackReaderLoader) {
+        super(false);
+        mLastTime = -1;
+        mLogcatProcess = null;
+        mDecoder = new EntryDecoder(inputStream);
+        mFallbackReaderLoader = fallbackReaderLoader;
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        if (mFallbackReader != null) {
+            return mFallbackReader.readLine();
+        }
+        LogLine logLine = readLogLine();
+        return logLine != null ? logLine.getOriginalLine() : null;
+    }
+
+    @Nullable
+    @Override
+    public LogLine readLogLine() throws IOException {
+        if (mFallbackReader != null) {
+            return mFallbackReader.readLogLine();
+        }
+        LogLine logLine = mPendingLines.poll();
+        if (logLine != null) {
+            return logLine;
+        }
+        try {
+            while (mDecoder.next()) {
+                if (mDecoder.hasBinaryPayload()) {
+                    continue;
+                }
+                if (mLastTime >= 0 && mDecoder.getTimeNanos() >= mLastTime) {
+                    // Indicates we've reached the last entry
+                    mLastTime = -1;
+                }
+                if (decodeEntry()) {
+                    mHasEntries = true;
+                    return mPendingLines.poll();
+                }
+            }
+        } catch (InvalidEntryException e) {
+            if (mHasEntries) {
+                // The stream is corrupted rather than unsupported
+                throw e;
+            }
+            Log.w(TAG, "Binary entries are not supported, falling back to text mode", e);
+            return fallBackToTextMode().readLogLine();
+        }
+        if (!mHasEntries && hasFailed(mLogcatProcess)) {
+            Log.w(TAG, "logcat failed in binary mode, falling back to text mode");
+            return fallBackToTextMode().readLogLine();
+        }
+        return null;
+    }
+
+    @Override
+    public void killQuietly() {
+        if (mFallbackReader != null) {
+            mFallbackReader.killQuietly();
+        }
+        if (mLogcatProcess != null) {
+            mLogcatProcess.destroy();
+            Log.d(TAG, "killed 1 logcat process");
+        }
+    }
+
+    @Override
+    public boolean readyToRecord() {
+        if (mFallbackReader != null) {
+            return mFallbackReader.readyToRecord();
+        }
+        return recordingMode && mLastTime < 0;
+    }
+
+    @Override
+    public List<Process> getProcesses() {
+        if (mFallbackReader != null) {
+            return mFallbackReader.getProcesses();
+        }
+        return mLogcatProcess != null ? Collections.singletonList(mLogcatProcess) : Collections.emptyList();
+    }
+
+    @NonNull
+    private LogcatReader fallBackToTextMode() throws IOException {
+        sUnsupported = true;
+        if (mLogcatProcess != null) {
+            mLogcatProcess.destroy();
+        }
+        try {
+            mFallbackReader = mFallbackReaderLoader.call();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+        return mFallbackReader;
+    }
+
+    private static boolean hasFailed(@Nullable Process process) {
+        if (process == null) {
+            return false;
+        }
+        try {
+            return process.waitFor() != 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Decode the current entry into {@link #mPendingLines}. Like logcat, each line of the message becomes a separate
+     * log line.
+     *
+     * @return {@code false} if the entry is malformed
+     */
+    private boolean decodeEntry() {
+        // Payload: uint8_t priority, char tag[], '\0', char message[], '\0'
+        byte[] buffer = mDecoder.getBuffer();
+        int start = mDecoder.getPayloadOffset();
+        int end = start + mDecoder.getPayloadSize();
+        if (start >= end) {
+            return false;
+        }
+        int logLevel = convertPriorityToLogLevel(buffer[start]);
+        int tagStart = start + 1;
+        int tagEnd = indexOf(buffer, (byte) 0, tagStart, end);
+        String tag = getPooledTag(buffer, tagStart, tagEnd);
+        int messageStart = Math.min(tagEnd + 1, end);
+        int messageEnd = indexOf(buffer, (byte) 0, messageStart, end);
+        // Trailing new lines do not produce empty lines
+        while (messageEnd > messageStart && buffer[messageEnd - 1] == '\n') {
+            --messageEnd;
+        }
+        long time = mDecoder.getTimeNanos() / 1_000_000;
+        int uid = mDecoder.getUid();
+        int pid = mDecoder.getPid();
+        int tid = mDecoder.getTid();
+        do {
+            int lineEnd = indexOf(buffer, (byte) '\n', messageStart, messageEnd);
+            String message = new String(buffer, messageStart, lineEnd - messageStart, StandardCharsets.UTF_8);
+            mPendingLines.add(LogLine.newLogLine(time, uid, pid, tid, logLevel, tag, message));
+            messageStart = lineEnd + 1;
+        } while (messageStart < messageEnd);
+        return true;
+    }
+
+    /**
+     * Return the tag in the given range, reusing a previously returned tag if possible, since the same tags are
+     * repeated over and over again.
+     */
+    @NonNull
+    private String getPooledTag(@NonNull byte[] buffer, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; ++i) {
+            hash = 31 * hash + buffer[i];
+        }
+        int index = (hash ^ (hash >>> 16)) & (TAG_POOL_SIZE - 1);
+        String pooled = mTagPool[index];
+        if (pooled != null && pooled.length() == end - start) {
+            // Most tags are ASCII, compare them byte by byte
+            boolean matches = true;
+            for (int i = start; i < end; ++i) {
+                if (pooled.charAt(i - start) != buffer[i]) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                return pooled;
+            }
+        }
+        String tag = new String(buffer, start, end - start, StandardCharsets.UTF_8);
+        mTagPool[index] = tag;
+        return tag;
+    }
+
+    private static int indexOf(@NonNull byte[] buffer, byte b, int start, int end) {
+        for (int i = start; i < end; ++i) {
+            if (buffer[i] == b) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static int convertPriorityToLogLevel(int priority) {
+        if (priority >= ANDROID_LOG_VERBOSE && priority <= ANDROID_LOG_ERROR) {
+            // Same as android.util.Log
+            return priority;
+        }
+        if (priority == ANDROID_LOG_FATAL) {
+            return LogLine.LOG_FATAL;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the records one at a time into a reusable buffer.
+     */
+    private static class EntryDecoder {
+        @NonNull
+        private final InputStream mInputStream;
+        private final byte[] mBuffer = new byte[MAX_HEADER_SIZE + MAX_PAYLOAD_SIZE];
+        private int mHeaderSize;
+        private int mPayloadSize;
+
+        EntryDecoder(@NonNull InputStream inputStream) {
+            mInputStream = new BufferedInputStream(inputStream, 64 * 1024);
+        }
+
+        /**
+         * Read the next record.
+         *
+         * @return {@code false} if the end of the stream has been reached
+         */
+        boolean next() throws IOException {
+            if (!readFully(0, 4)) {
+                return false;
+            }
+            mPayloadSize = getUInt16(0);
+            int headerSize = getUInt16(2);
+            if (headerSize == 0) {
+                headerSize = HEADER_SIZE_V1;
+            } else if (headerSize < HEADER_SIZE_V1 || headerSize > MAX_HEADER_SIZE) {
+                throw new InvalidEntryException("Invalid header size " + headerSize);
+            }
+            mHeaderSize = headerSize;
+            return readFully(4, headerSize - 4 + mPayloadSize);
+        }
+
+        @NonNull
+        byte[] getBuffer() {
+            return mBuffer;
+        }
+
+        int getPayloadOffset() {
+            return mHeaderSize;
+        }
+
+        int getPayloadSize() {
+            return mPayloadSize;
+        }
+
+        int getPid() {
+            return getInt32(4);
+        }
+
+        int getTid() {
+            return getInt32(8);
+        }
+
+        long getTimeNanos() {
+            long sec = getInt32(12) & 0xFFFF_FFFFL;
+            long nsec = getInt32(16) & 0xFFFF_FFFFL;
+            return sec * 1_000_000_000 + nsec;
+        }
+
+        int getUid() {
+            return mHeaderSize >= HEADER_SIZE_V4 ? getInt32(24) : -1;
+        }
+
+        boolean hasBinaryPayload() {
+            if (mHeaderSize < HEADER_SIZE_V3) {
+                // Unknown, but only text buffers are requested
+                return false;
+            }
+            int lid = getInt32(20);
+            return lid == LID_EVENTS || lid == LID_STATS || lid == LID_SECURITY;
+        }
+
+        private boolean readFully(int offset, int length) throws IOException {
+            while (length > 0) {
+                int count = mInputStream.read(mBuffer, offset, length);
+                if (count < 0) {
+                    return false;
+                }
+                offset += count;
+                length -= count;
+            }
+            return true;
+        }
+
+        // Little endian
+        private int getUInt16(int offset) {
+            return (mBuffer[offset] & 0xFF) | ((mBuffer[offset + 1] & 0xFF) << 8);
+        }
+
+        private int getInt32(int offset) {
+            return (mBuffer[offset] & 0xFF) | ((mBuffer[offset + 1] & 0xFF) << 8)
+                    | ((mBuffer[offset + 2] & 0xFF) << 16) | ((mBuffer[offset + 3] & 0xFF) << 24);
+        }
+    }
+
+    private static class InvalidEntryException extends IOException {
+        InvalidEntryException(@NonNull String message) {
+            super(message);
+        }
+    }
+}
@@ -2,9 +2,13 @@
 
 package io.github.muntashirakon.AppManager.logcat.reader;
 
+import androidx.annotation.Nullable;
+
 import java.io.IOException;
 import java.util.List;
 
+import io.github.muntashirakon.AppManager.logcat.struct.LogLine;
+
 // Copyright 2012 Nolan Lawson
 public interface LogcatReader {
     /**
@@ -14,6 +18,23 @@ public interface LogcatReader {
      */
     String readLine() throws IOException;
 
+    /**
+     * Read a single log entry, skipping the lines that do not contain any entries.
+     *
+     * @return A single log entry, or {@code null} if the end of the stream has been reached
+     */
+    @Nullable
+    default LogLine readLogLine() throws IOException {
+        String line;
+        while ((line = readLine()) != null) {
+            LogLine logLine = LogLine.newLogLine(line, false, null);
+            if (logLine != null) {
+                return logLine;
+            }
+        }
+        return null;
+    }
+
     /**
      * Kill the reader and close all resources without throwing any exceptions.
      */
@@ -2,6 +2,7 @@
 
 package io.github.muntashirakon.AppManager.logcat.reader;
 
+import android.os.Build;
 import android.os.Parcel;
 import android.os.Parcelable;
 
@@ -14,6 +15,7 @@ import java.util.Map;
 
 import io.github.muntashirakon.AppManager.logcat.helper.LogcatHelper;
 import io.github.muntashirakon.AppManager.logcat.helper.PreferenceHelper;
+import io.github.muntashirakon.AppManager.settings.Prefs;
 import io.github.muntashirakon.util.ParcelUtils;
 
 // Copyright 2012 Nolan Lawson
@@ -22,11 +24,32 @@ public class LogcatReaderLoader implements Parcelable {
     private final Map<Integer, String> mLastLines;
     private final boolean mRecordingMode;
     private final boolean mMultipleBuffers;
+    private final boolean mBinaryMode;
 
-    private LogcatReaderLoader(@LogcatHelper.LogBufferId @NonNull List<Integer> buffers, boolean recordingMode) {
+    private LogcatReaderLoader(@LogcatHelper.LogBufferId @NonNull List<Integer> buffers, boolean recordingMode,
+                               boolean binaryMode) {
         this.mRecordingMode = recordingMode;
-        this.mMultipleBuffers = buffers.size() > 1;
         this.mLastLines = new HashMap<>();
+        int allBuffers = 0;
+        for (Integer buffer : buffers) {
+            allBuffers |= buffer;
+        }
+        // Binary entries of the events buffer cannot be decoded without the event log tags
+        binaryMode = binaryMode && (allBuffers & LogcatHelper.LOG_ID_EVENTS) == 0;
+        String lastEntry = null;
+        if (binaryMode && recordingMode) {
+            lastEntry = BinaryLogcatReader.getLastEntry(allBuffers);
+            // Use text mode if the last entry could not be read in binary mode
+            binaryMode = BinaryLogcatReader.isSupported();
+        }
+        this.mBinaryMode = binaryMode;
+        if (mBinaryMode) {
+            // A single logcat process merges the entries of all the buffers
+            this.mMultipleBuffers = false;
+            mLastLines.put(allBuffers, lastEntry);
+            return;
+        }
+        this.mMultipleBuffers = buffers.size() > 1;
         for (Integer buffer : buffers) {
             // No need to grab the last line if this isn't recording mode
             String lastLine = recordingMode ? LogcatHelper.getLastLogLine(buffer) : null;
@@ -37,12 +60,19 @@ public class LogcatReaderLoader implements Parcelable {
     @NonNull
     public static LogcatReaderLoader create(boolean recordingMode) {
         List<Integer> buffers = PreferenceHelper.getBuffers();
-        return new LogcatReaderLoader(buffers, recordingMode);
+        // UID is only available in binary mode from Android 7 onwards
+        boolean binaryMode = Prefs.LogViewer.useBinaryMode() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                && BinaryLogcatReader.isSupported();
+        return new LogcatReaderLoader(buffers, recordingMode, binaryMode);
     }
 
     public LogcatReader loadReader() throws IOException {
         LogcatReader reader;
-        if (!mMultipleBuffers) {
+        if (mBinaryMode) {
+            Integer buffers = mLastLines.keySet().iterator().next();
+            String lastEntry = mLastLines.values().iterator().next();
+            reader = new BinaryLogcatReader(mRecordingMode, buffers, lastEntry);
+        } else if (!mMultipleBuffers) {
             // single reader
             Integer buffers = mLastLines.keySet().iterator().next();
             String lastLine = mLastLines.values().iterator().next();
@@ -55,6 +85,24 @@ public class LogcatReaderLoader implements Parcelable {
         return reader;
     }
 
+    /**
+     * Load a text mode reader for the given buffers, e.g. when binary mode turns out to be unsupported.
+     */
+    @NonNull
+    static LogcatReader loadTextReader(boolean recordingMode, @LogcatHelper.LogBufferId int buffers)
+            throws IOException {
+        Map<Integer, String> lastLines = new HashMap<>();
+        for (int buffer = LogcatHelper.LOG_ID_MAIN; buffer <= LogcatHelper.LOG_ID_CRASH; buffer <<= 1) {
+            if ((buffers & buffer) != 0) {
+                lastLines.put(buffer, recordingMode ? LogcatHelper.getLastLogLine(buffer) : null);
+            }
+        }
+        if (lastLines.size() == 1) {
+            return new SingleLogcatReader(recordingMode, buffers, lastLines.get(buffers));
+        }
+        return new MultipleLogcatReader(recordingMode, lastLines);
+    }
+
     @Override
     public int describeContents() {
         return 0;
@@ -74,12 +122,14 @@ public class LogcatReaderLoader implements Parcelable {
     public void writeToParcel(@NonNull Parcel dest, int flags) {
         dest.writeInt(mRecordingMode ? 1 : 0);
         dest.writeInt(mMultipleBuffers ? 1 : 0);
+        dest.writeInt(mBinaryMode ? 1 : 0);
         ParcelUtils.writeMap(mLastLines, dest);
     }
 
     private LogcatReaderLoader(@NonNull Parcel in) {
         this.mRecordingMode = in.readInt() == 1;
         this.mMultipleBuffers = in.readInt() == 1;
+        this.mBinaryMode = in.readInt() == 1;
         this.mLastLines = ParcelUtils.readMap(in, Integer.class.getClassLoader(), String.class.getClassLoader());
     }
 }
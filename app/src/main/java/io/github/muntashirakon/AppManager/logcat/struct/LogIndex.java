@@ -0,0 +1,282 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.struct;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sparse index of a recorded log. The log is divided into segments of {@link #SEGMENT_LINES} lines, and for each
+ * segment, the index stores its position in the log along with bloom filters of the tags and PIDs in it, which allow
+ * skipping the segments that cannot contain a tag or a PID.
+ * <p>
+ * The index is stored next to the log and segments are appended to it as they are completed, the last segment being
+ * completed when the recording ends. Lines that are not covered by the index must be read sequentially.
+ */
+public final class LogIndex {
+    public static final String EXTENSION = ".idx";
+    public static final int SEGMENT_LINES = 1024;
+
+    private static final int MAGIC = 0x414D4C49; // AMLI
+    private static final int VERSION = 2;
+    // The bloom filters are sized for a busy log, where a segment has up to 150 distinct tags and 100 distinct PIDs.
+    // With two bits per tag or PID, about 2% of the absent tags and 3% of the absent PIDs are false positives.
+    private static final int TAG_BLOOM_LONGS = 32; // 2048 bits
+    private static final int PID_BLOOM_LONGS = 16; // 1024 bits
+
+    public static final class Segment {
+        private final long[] mTagBloom = new long[TAG_BLOOM_LONGS];
+        private final long[] mPidBloom = new long[PID_BLOOM_LONGS];
+        private long mOffset;
+        private int mLength;
+        private int mLineCount;
+        // Timestamp of the first line as MMddHHmmssSSS, or -1 if unknown
+        private long mFirstTimestamp = -1;
+
+        /**
+         * Position of the segment in the log in bytes
+         */
+        public long getOffset() {
+            return mOffset;
+        }
+
+        /**
+         * Size of the segment in bytes
+         */
+        public int getLength() {
+            return mLength;
+        }
+
+        public int getLineCount() {
+            return mLineCount;
+        }
+
+        public long getFirstTimestamp() {
+            return mFirstTimestamp;
+        }
+
+        /**
+         * @return {@code false} if the segment certainly does not have a line with the given tag
+         */
+        public boolean mayContainTag(@NonNull String tag) {
+            return mayContain(mTagBloom, tag.hashCode());
+        }
+
+        /**
+         * @return {@code false} if the segment certainly does not have a line with the given PID
+         */
+        public boolean mayContainPid(int pid) {
+            return mayContain(mPidBloom, pid);
+        }
+
+        /**
+         * Add a line of the given size in bytes, including the line terminator.
+         */
+        public void addLine(@NonNull LogLine logLine, int length) {
+            if (mLineCount == 0) {
+                mFirstTimestamp = packTimestamp(logLine.getTimestamp());
+            }
+            ++mLineCount;
+            mLength += length;
+            String tag = getTagAsParsed(logLine.getTagName());
+            if (tag != null) {
+                add(mTagBloom, tag.hashCode());
+            }
+            int pid = logLine.getPid();
+            if (pid >= 0) {
+                add(mPidBloom, pid);
+            }
+        }
+
+        /**
+         * Create the segment that follows this one.
+         */
+        @NonNull
+        public Segment next() {
+            Segment segment = new Segment();
+            segment.mOffset = mOffset + mLength;
+            return segment;
+        }
+
+        /**
+         * Return the tag as it will be parsed back from the log, which differs from the original tag if it contains
+         * {@code ": "} or ends with whitespaces.
+         */
+        @Nullable
+        private static String getTagAsParsed(@Nullable String tag) {
+            if (tag == null) {
+                return null;
+            }
+            int end = tag.indexOf(": ", 1);
+            if (end < 0) {
+                end = tag.length();
+            }
+            while (end > 0 && tag.charAt(end - 1) <= ' ') {
+                --end;
+            }
+            return end == tag.length() ? tag : tag.substring(0, end);
+        }
+
+        void write(@NonNull DataOutputStream out) throws IOException {
+            out.writeLong(mOffset);
+            out.writeInt(mLength);
+            out.writeInt(mLineCount);
+            out.writeLong(mFirstTimestamp);
+            for (long bits : mTagBloom) {
+                out.writeLong(bits);
+            }
+            for (long bits : mPidBloom) {
+                out.writeLong(bits);
+            }
+        }
+
+        void read(@NonNull DataInputStream in) throws IOException {
+            mOffset = in.readLong();
+            mLength = in.readInt();
+            mLineCount = in.readInt();
+            mFirstTimestamp = in.readLong();
+            for (int i = 0; i < TAG_BLOOM_LONGS; ++i) {
+                mTagBloom[i] = in.readLong();
+            }
+            for (int i = 0; i < PID_BLOOM_LONGS; ++i) {
+                mPidBloom[i] = in.readLong();
+            }
+        }
+
+        private static boolean mayContain(@NonNull long[] bloom, int hash) {
+            hash = mix(hash);
+            return isSet(bloom, hash) && isSet(bloom, hash >>> 16);
+        }
+
+        private static void add(@NonNull long[] bloom, int hash) {
+            hash = mix(hash);
+            set(bloom, hash);
+            set(bloom, hash >>> 16);
+        }
+
+        /**
+         * Finalizer of MurmurHash3 so that similar tags and consecutive PIDs set unrelated bits. Bits 0-15 and 16-31
+         * of the result are used as two independent hashes.
+         */
+        private static int mix(int hash) {
+            hash ^= hash >>> 16;
+            hash *= 0x85EBCA6B;
+            hash ^= hash >>> 13;
+            hash *= 0xC2B2AE35;
+            hash ^= hash >>> 16;
+            return hash;
+        }
+
+        private static boolean isSet(@NonNull long[] bloom, int hash) {
+            int bit = hash & (bloom.length * 64 - 1);
+            return (bloom[bit >>> 6] & (1L << bit)) != 0;
+        }
+
+        private static void set(@NonNull long[] bloom, int hash) {
+            int bit = hash & (bloom.length * 64 - 1);
+            bloom[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Write the header of a new index.
+     */
+    public static void writeHeader(@NonNull OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.flush();
+    }
+
+    /**
+     * Append a completed segment to the index.
+     */
+    public static void writeSegment(@NonNull OutputStream os, @NonNull Segment segment) throws IOException {
+        DataOutputStream out = new DataOutputStream(os);
+        segment.write(out);
+        out.flush();
+    }
+
+    /**
+     * Read an index, ignoring the segments that go beyond the end of the log.
+     *
+     * @param logLength Size of the log in bytes
+     * @return The index, or {@code null} if it is not a valid index
+     */
+    @Nullable
+    public static LogIndex read(@NonNull InputStream is, long logLength) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            return null;
+        }
+        List<Segment> segments = new ArrayList<>();
+        long offset = 0;
+        while (true) {
+            Segment segment = new Segment();
+            try {
+                segment.read(in);
+            } catch (IOException e) {
+                // End of the index, or an incomplete segment
+                break;
+            }
+            if (segment.mOffset != offset || offset + segment.mLength > logLength) {
+                break;
+            }
+            offset += segment.mLength;
+            segments.add(segment);
+        }
+        return new LogIndex(segments);
+    }
+
+    /**
+     * Convert a timestamp in the format MM-dd HH:mm:ss.SSS to a number that preserves its order.
+     */
+    private static long packTimestamp(@Nullable String timestamp) {
+        if (timestamp == null) {
+            return -1;
+        }
+        long packed = 0;
+        for (int i = 0; i < timestamp.length(); ++i) {
+            char c = timestamp.charAt(i);
+            if (c >= '0' && c <= '9') {
+                packed = packed * 10 + (c - '0');
+            }
+        }
+        return packed;
+    }
+
+    @NonNull
+    private final List<Segment> mSegments;
+
+    private LogIndex(@NonNull List<Segment> segments) {
+        mSegments = Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * Contiguous segments starting from the beginning of the log.
+     */
+    @NonNull
+    public List<Segment> getSegments() {
+        return mSegments;
+    }
+
+    /**
+     * @return Size of the indexed part of the log in bytes
+     */
+    public long getIndexedLength() {
+        if (mSegments.isEmpty()) {
+            return 0;
+        }
+        Segment last = mSegments.get(mSegments.size() - 1);
+        return last.mOffset + last.mLength;
+    }
+}
@@ -10,12 +10,14 @@ import android.util.LruCache;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import io.github.muntashirakon.AppManager.compat.PackageManagerCompat;
-import io.github.muntashirakon.AppManager.logcat.helper.LogcatHelper;
 import io.github.muntashirakon.AppManager.logcat.reader.ScrubberUtils;
 import io.github.muntashirakon.AppManager.users.Owners;
 
@@ -27,25 +29,6 @@ public class LogLine {
 
     public static final int LOG_FATAL = 15;
 
-    /**
-     * %s %5d %5d %c %-8s:
-     * %s %s%5d %5d %c %-8s: (Android 7+)
-     *
-     * @see LogcatHelper#getLogcatArgs(int, boolean)
-     */
-    private static final Pattern LOG_PATTERN = Pattern.compile(
-            // Timestamp
-            "(\\d{2}-\\d{2}\\s\\d{2}:\\d{2}:\\d{2}\\.\\d{3})\\s+" +
-                    // UID PID
-                    "(.+\\d+)\\s+" +
-                    // TID
-                    "(\\d+)\\s+" +
-                    // Log level
-                    "([ADEIVWF])\\s+" +
-                    // Tag
-                    "(.+?)" +
-                    // Message
-                    ": (.*)");
     /**
      * This is the old pattern used prior to v4.0.0. Format: {timestamp} {level}/{tag}(\s{pid}): message
      */
@@ -64,22 +47,22 @@ public class LogLine {
 
     public static boolean omitSensitiveInfo = false;
 
+    private static final ThreadLocal<SimpleDateFormat> sTimestampFormat = new ThreadLocal<SimpleDateFormat>() {
+        @NonNull
+        @Override
+        protected SimpleDateFormat initialValue() {
+            // Same as logcat
+            return new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.ROOT);
+        }
+    };
+
     @Nullable
     public static LogLine newLogLine(@NonNull String originalLine, boolean expanded, @Nullable Pattern filterPattern) {
         LogLine logLine = new LogLine(originalLine);
         logLine.setExpanded(expanded);
 
-        if (matchPattern(originalLine, logLine)) {
-            if (filterPattern != null && filterPattern.matcher(logLine.getTagName()).matches()) {
-                return null;
-            }
-            return logLine;
-        }
-        if (matchPatternLegacy(originalLine, logLine)) {
-            if (filterPattern != null && filterPattern.matcher(logLine.getTagName()).matches()) {
-                return null;
-            }
-            return logLine;
+        if (LogLineParser.parse(originalLine, logLine) || matchPatternLegacy(originalLine, logLine)) {
+            return logLine.isFilteredBy(filterPattern) ? null : logLine;
         }
         if (originalLine.startsWith(BEGIN)) {
             Log.d(TAG, "Started buffer: " + originalLine.substring(BEGIN.length()));
@@ -92,6 +75,30 @@ public class LogLine {
         return logLine;
     }
 
+    /**
+     * Create a log line from a decoded log entry. The original line is generated on demand in the same format as
+     * {@code logcat -v threadtime -v uid}.
+     *
+     * @param time Time of the entry in milliseconds since the epoch
+     * @param uid  UID of the entry, or -1 if not available
+     */
+    @NonNull
+    public static LogLine newLogLine(long time, int uid, int pid, int tid, int logLevel, @NonNull String tag,
+                                     @NonNull String message) {
+        LogLine logLine = new LogLine();
+        logLine.mTime = time;
+        if (uid >= 0) {
+            logLine.setUid(uid);
+            logLine.setPackageName(retrievePackageName(uid));
+        }
+        logLine.setPid(pid);
+        logLine.setTid(tid);
+        logLine.setLogLevel(logLevel);
+        logLine.setTag(tag);
+        logLine.setLogOutput(message);
+        return logLine;
+    }
+
     public static int convertCharToLogLevel(char logLevelChar) {
         switch (logLevelChar) {
             case 'A':
@@ -132,14 +139,20 @@ public class LogLine {
         return ' ';
     }
 
-    @NonNull
-    private final String mOriginalLine;
+    // Lines read in binary mode are generated on first use
+    @Nullable
+    private String mOriginalLine;
 
     @Nullable
     private String mTimestamp;
+    // Time in milliseconds for generating the timestamp, if it has not been generated yet
+    private long mTime = -1;
     private int mLogLevel;
     private String mTagName;
+    @Nullable
     private String mLogOutput;
+    // Start of the message in the original line, if it has not been extracted yet
+    private int mLogOutputStart = -1;
     private int mPid = -1;
     private int mTid = -1;
     private int mUid = -1;
@@ -154,8 +167,25 @@ public class LogLine {
         mOriginalLine = originalLine;
     }
 
+    private LogLine() {
+    }
+
+    @NonNull
     public String getOriginalLine() {
-        return mOriginalLine;
+        String originalLine = mOriginalLine;
+        if (originalLine == null) {
+            // Generate the line on first use
+            String uidOwner = getUidOwner();
+            if (uidOwner != null) {
+                originalLine = String.format(Locale.ROOT, "%s %5s %5d %5d %c %-8s: %s", getTimestamp(), uidOwner,
+                        mPid, mTid, convertLogLevelToChar(mLogLevel), mTagName, getLogOutput());
+            } else {
+                originalLine = String.format(Locale.ROOT, "%s %5d %5d %c %-8s: %s", getTimestamp(), mPid, mTid,
+                        convertLogLevelToChar(mLogLevel), mTagName, getLogOutput());
+            }
+            mOriginalLine = originalLine;
+        }
+        return originalLine;
     }
 
     public String getProcessIdText() {
@@ -179,10 +209,18 @@ public class LogLine {
     }
 
     public String getLogOutput() {
-        return mLogOutput;
+        String logOutput = mLogOutput;
+        if (logOutput == null && mLogOutputStart >= 0) {
+            // Extract the message on first use. The start is only set for the lines parsed from the original line.
+            logOutput = omitSensitiveInfo ? ScrubberUtils.scrubLine(mOriginalLine.substring(mLogOutputStart))
+                    : mOriginalLine.substring(mLogOutputStart);
+            mLogOutput = logOutput;
+        }
+        return logOutput;
     }
 
     public void setLogOutput(String logOutput) {
+        mLogOutputStart = -1;
         if (omitSensitiveInfo) {
             mLogOutput = ScrubberUtils.scrubLine(logOutput);
         } else {
@@ -190,6 +228,11 @@ public class LogLine {
         }
     }
 
+    void setLogOutputStart(int logOutputStart) {
+        mLogOutput = null;
+        mLogOutputStart = logOutputStart;
+    }
+
     public int getPid() {
         return mPid;
     }
@@ -216,6 +259,9 @@ public class LogLine {
 
     @Nullable
     public String getUidOwner() {
+        if (mUidOwner == null && mUid >= 0) {
+            mUidOwner = retrieveUidOwner(mUid);
+        }
         return mUidOwner;
     }
 
@@ -234,10 +280,14 @@ public class LogLine {
 
     @Nullable
     public String getTimestamp() {
+        if (mTimestamp == null && mTime >= 0) {
+            mTimestamp = Objects.requireNonNull(sTimestampFormat.get()).format(new Date(mTime));
+        }
         return mTimestamp;
     }
 
     public void setTimestamp(@Nullable String timestamp) {
+        mTime = -1;
         mTimestamp = timestamp;
     }
 
@@ -254,18 +304,35 @@ public class LogLine {
         if (this == o) return true;
         if (!(o instanceof LogLine)) return false;
         LogLine logLine = (LogLine) o;
-        return mOriginalLine.equals(logLine.mOriginalLine);
+        // The original line is not compared since decoded lines generate it on demand
+        return mLogLevel == logLine.mLogLevel && mPid == logLine.mPid && mTid == logLine.mTid
+                && hasSameTime(logLine) && Objects.equals(mTagName, logLine.mTagName)
+                && Objects.equals(getLogOutput(), logLine.getLogOutput());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(mOriginalLine);
+        return Objects.hash(mLogLevel, mPid, mTid, mTagName, getLogOutput());
+    }
+
+    private boolean hasSameTime(@NonNull LogLine logLine) {
+        if (mTime >= 0 && logLine.mTime >= 0) {
+            return mTime == logLine.mTime;
+        }
+        return Objects.equals(getTimestamp(), logLine.getTimestamp());
     }
 
     @NonNull
     @Override
     public String toString() {
-        return mOriginalLine;
+        return getOriginalLine();
+    }
+
+    /**
+     * @return {@code true} if the tag matches the given pattern, i.e. the line should be hidden
+     */
+    public boolean isFilteredBy(@Nullable Pattern filterPattern) {
+        return filterPattern != null && mTagName != null && filterPattern.matcher(mTagName).matches();
     }
 
     private static boolean matchPatternLegacy(@NonNull String originalLine, @NonNull LogLine logLine) {
@@ -286,39 +353,21 @@ public class LogLine {
         return true;
     }
 
-    private static boolean matchPattern(@NonNull String originalLine, @NonNull LogLine logLine) {
-        Matcher matcher = LOG_PATTERN.matcher(originalLine);
-        if (!matcher.matches()) {
-            return false;
-        }
-        // Group 1: Timestamp
-        logLine.setTimestamp(Objects.requireNonNull(matcher.group(1)));
-        // Group 2: UID PID
-        String[] uidPid = Objects.requireNonNull(matcher.group(2)).split("\\s+", 2);
-        if (uidPid.length == 2) {
-            String owner = uidPid[0];
-            int uid = Owners.parseUid(owner);
-            logLine.setUidOwner(owner);
-            logLine.setUid(uid);
-            // Set package name
-            logLine.setPackageName(retrievePackageName(uid));
+    private static final LruCache<Integer, String> sUidPackageNameCache = new LruCache<>(300);
+    private static final LruCache<Integer, String> sUidOwnerCache = new LruCache<>(300);
+
+    @NonNull
+    private static String retrieveUidOwner(int uid) {
+        String owner = sUidOwnerCache.get(uid);
+        if (owner == null) {
+            owner = Owners.getOwnerName(uid);
+            sUidOwnerCache.put(uid, owner);
         }
-        logLine.setPid(Integer.parseInt(uidPid[uidPid.length == 2 ? 1 : 0]));
-        // Group 3: TID
-        logLine.setTid(Integer.parseInt(matcher.group(3)));
-        // Group 4: Log level
-        logLine.setLogLevel(convertCharToLogLevel(Objects.requireNonNull(matcher.group(4)).charAt(0)));
-        // Group 5: Tag
-        logLine.setTag(Objects.requireNonNull(matcher.group(5)).trim());
-        // Group 6: Message
-        logLine.setLogOutput(Objects.requireNonNull(matcher.group(6)));
-        return true;
+        return owner;
     }
 
-    private static final LruCache<Integer, String> sUidPackageNameCache = new LruCache<>(300);
-
     @Nullable
-    private static String retrievePackageName(int uid) {
+    static String retrievePackageName(int uid) {
         if (uid < 0) {
             return null;
         }
@@ -0,0 +1,220 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.struct;
+
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import io.github.muntashirakon.AppManager.logcat.helper.LogcatHelper;
+import io.github.muntashirakon.AppManager.users.Owners;
+
+/**
+ * Single-pass parser for the lines produced by {@code logcat -v threadtime -v uid}. The format is
+ * <pre>
+ * {timestamp} [{uid}] {pid} {tid} {level} {tag}: {message}
+ * </pre>
+ * where the UID is only present on Android 7 onwards. Numbers are parsed in place, tags and UID owners are shared
+ * among lines, and the message is only extracted when it is needed.
+ *
+ * @see LogcatHelper#getLogcatArgs(int, boolean)
+ */
+final class LogLineParser {
+    // MM-DD HH:MM:SS.mmm
+    private static final int TIMESTAMP_LENGTH = 18;
+    private static final String TIMESTAMP_FORMAT = "00-00 00:00:00.000";
+
+    // Must be a power of two
+    private static final int STRING_POOL_SIZE = 1024;
+    private static final String[] sStringPool = new String[STRING_POOL_SIZE];
+    private static final LruCache<String, Integer> sOwnerUidCache = new LruCache<>(300);
+
+    /**
+     * Parse the line into the given {@link LogLine}.
+     *
+     * @return {@code false} if the line is not in the expected format, in which case the {@link LogLine} is left
+     * untouched
+     */
+    static boolean parse(@NonNull String line, @NonNull LogLine logLine) {
+        int length = line.length();
+        if (!isTimestamp(line)) {
+            return false;
+        }
+        int pos = skipWhitespaces(line, TIMESTAMP_LENGTH);
+        if (pos == TIMESTAMP_LENGTH) {
+            return false;
+        }
+        // Up to three fields precede the log level: [UID] PID TID
+        int firstStart = pos;
+        int firstEnd = skipNonWhitespaces(line, firstStart);
+        int secondStart = skipWhitespaces(line, firstEnd);
+        int secondEnd = skipNonWhitespaces(line, secondStart);
+        int nextStart = skipWhitespaces(line, secondEnd);
+        if (firstEnd == firstStart || secondEnd == secondStart || nextStart == secondEnd || nextStart >= length) {
+            return false;
+        }
+        int uidStart = -1;
+        int uidEnd = -1;
+        int pidStart;
+        int pidEnd;
+        int tidStart;
+        int tidEnd;
+        if (isLogLevelAt(line, nextStart)) {
+            // No UID
+            pidStart = firstStart;
+            pidEnd = firstEnd;
+            tidStart = secondStart;
+            tidEnd = secondEnd;
+            pos = nextStart;
+        } else {
+            uidStart = firstStart;
+            uidEnd = firstEnd;
+            pidStart = secondStart;
+            pidEnd = secondEnd;
+            tidStart = nextStart;
+            tidEnd = skipNonWhitespaces(line, tidStart);
+            pos = skipWhitespaces(line, tidEnd);
+            if (pos == tidEnd || !isLogLevelAt(line, pos)) {
+                return false;
+            }
+        }
+        int pid = parseInt(line, pidStart, pidEnd);
+        int tid = parseInt(line, tidStart, tidEnd);
+        if (pid < 0 || tid < 0) {
+            return false;
+        }
+        int logLevel = LogLine.convertCharToLogLevel(line.charAt(pos));
+        // Tag contains at least one character and ends at the first ": " after that
+        int tagStart = skipWhitespaces(line, pos + 1);
+        int separator = line.indexOf(": ", tagStart + 1);
+        if (tagStart == pos + 1 || separator < 0) {
+            return false;
+        }
+        int tagEnd = separator;
+        while (tagEnd > tagStart && line.charAt(tagEnd - 1) <= ' ') {
+            --tagEnd;
+        }
+        logLine.setTimestamp(line.substring(0, TIMESTAMP_LENGTH));
+        if (uidStart >= 0) {
+            String owner = getPooledString(line, uidStart, uidEnd);
+            int uid = parseUid(owner);
+            logLine.setUidOwner(owner);
+            logLine.setUid(uid);
+            logLine.setPackageName(LogLine.retrievePackageName(uid));
+        }
+        logLine.setPid(pid);
+        logLine.setTid(tid);
+        logLine.setLogLevel(logLevel);
+        logLine.setTag(getPooledString(line, tagStart, tagEnd));
+        logLine.setLogOutputStart(separator + 2);
+        return true;
+    }
+
+    private static boolean isTimestamp(@NonNull String line) {
+        if (line.length() <= TIMESTAMP_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < TIMESTAMP_LENGTH; ++i) {
+            char c = line.charAt(i);
+            char expected = TIMESTAMP_FORMAT.charAt(i);
+            if (expected == '0') {
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            } else if (expected == ' ') {
+                if (!Character.isWhitespace(c)) {
+                    return false;
+                }
+            } else if (c != expected) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLogLevelAt(@NonNull String line, int index) {
+        return index + 1 < line.length()
+                && LogLine.convertCharToLogLevel(line.charAt(index)) != -1
+                && Character.isWhitespace(line.charAt(index + 1));
+    }
+
+    private static int skipWhitespaces(@NonNull String line, int index) {
+        int length = line.length();
+        while (index < length && Character.isWhitespace(line.charAt(index))) {
+            ++index;
+        }
+        return index;
+    }
+
+    private static int skipNonWhitespaces(@NonNull String line, int index) {
+        int length = line.length();
+        while (index < length && !Character.isWhitespace(line.charAt(index))) {
+            ++index;
+        }
+        return index;
+    }
+
+    /**
+     * @return The non-negative integer in the given range, or -1 if the range contains anything other than digits
+     */
+    private static int parseInt(@NonNull String line, int start, int end) {
+        if (start == end || end - start > 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; ++i) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int parseUid(@NonNull String owner) {
+        int uid = parseInt(owner, 0, owner.length());
+        if (uid >= 0) {
+            return uid;
+        }
+        Integer cachedUid = sOwnerUidCache.get(owner);
+        if (cachedUid != null) {
+            return cachedUid;
+        }
+        try {
+            uid = Owners.parseUid(owner);
+        } catch (RuntimeException e) {
+            uid = -1;
+        }
+        sOwnerUidCache.put(owner, uid);
+        return uid;
+    }
+
+    /**
+     * Return the string in the given range, reusing a previously returned string with the same contents if possible.
+     * Tags and UID owners are repeated over and over again, and sharing them avoids both the allocations and the
+     * duplicated strings retained by the log viewer.
+     */
+    @NonNull
+    private static String getPooledString(@NonNull String line, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; ++i) {
+            hash = 31 * hash + line.charAt(i);
+        }
+        int index = (hash ^ (hash >>> 16)) & (STRING_POOL_SIZE - 1);
+        // Races are harmless as strings are immutable: at worst, a string is not shared
+        String pooled = sStringPool[index];
+        if (matches(pooled, line, start, end)) {
+            return pooled;
+        }
+        String string = line.substring(start, end);
+        sStringPool[index] = string;
+        return string;
+    }
+
+    private static boolean matches(@Nullable String pooled, @NonNull String line, int start, int end) {
+        int length = end - start;
+        return pooled != null && pooled.length() == length && line.regionMatches(start, pooled, 0, length);
+    }
+}
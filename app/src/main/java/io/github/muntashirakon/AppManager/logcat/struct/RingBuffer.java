@@ -0,0 +1,192 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.struct;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * A list with a fixed capacity where adding an element to a full list evicts the oldest one. Both adding and evicting
+ * are O(1).
+ * <p>
+ * Besides its position, each element has an absolute index which is the number of elements that had been added before
+ * it. Unlike positions, absolute indices do not change when older elements are evicted, and they are never reused.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class RingBuffer<E> extends AbstractList<E> implements RandomAccess {
+    @NonNull
+    private final Object[] mElements;
+    // Position of the oldest element in mElements
+    private int mHead;
+    private int mSize;
+    // Absolute index of the oldest element
+    private long mFirstIndex;
+
+    public RingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        mElements = new Object[capacity];
+    }
+
+    public int capacity() {
+        return mElements.length;
+    }
+
+    public boolean isFull() {
+        return mSize == mElements.length;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public E get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+        }
+        return elementAt(index);
+    }
+
+    /**
+     * Add an element after the newest element, evicting the oldest one if the buffer is full.
+     *
+     * @return The evicted element, or {@code null} if the buffer was not full
+     */
+    @Nullable
+    public E addLast(E element) {
+        E evicted = null;
+        if (isFull()) {
+            evicted = removeFirst();
+        }
+        mElements[physicalIndex(mSize)] = element;
+        ++mSize;
+        ++modCount;
+        return evicted;
+    }
+
+    /**
+     * Same as {@link #addLast(Object)}.
+     *
+     * @return Always {@code true}
+     */
+    @Override
+    public boolean add(E element) {
+        addLast(element);
+        return true;
+    }
+
+    /**
+     * Remove the oldest element.
+     *
+     * @throws NoSuchElementException if the buffer is empty
+     */
+    public E removeFirst() {
+        if (mSize == 0) {
+            throw new NoSuchElementException();
+        }
+        E element = elementAt(0);
+        mElements[mHead] = null;
+        mHead = physicalIndex(1);
+        --mSize;
+        ++mFirstIndex;
+        ++modCount;
+        return element;
+    }
+
+    /**
+     * Remove the {@code n} oldest elements, or all of them if there are fewer.
+     */
+    public void removeFirst(int n) {
+        n = Math.min(n, mSize);
+        for (int i = 0; i < n; ++i) {
+            mElements[physicalIndex(i)] = null;
+        }
+        mHead = physicalIndex(n);
+        mSize -= n;
+        mFirstIndex += n;
+        ++modCount;
+    }
+
+    @Nullable
+    public E peekFirst() {
+        return mSize == 0 ? null : elementAt(0);
+    }
+
+    @Nullable
+    public E peekLast() {
+        return mSize == 0 ? null : elementAt(mSize - 1);
+    }
+
+    /**
+     * Remove all the elements. The absolute indices of the elements added afterwards continue from the last one.
+     */
+    @Override
+    public void clear() {
+        removeFirst(mSize);
+        mHead = 0;
+    }
+
+    /**
+     * @return The absolute index of the oldest element, or of the next element if the buffer is empty
+     */
+    public long getFirstIndex() {
+        return mFirstIndex;
+    }
+
+    /**
+     * @return The absolute index of the element at the given position
+     */
+    public long getAbsoluteIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+        }
+        return mFirstIndex + index;
+    }
+
+    /**
+     * @return The element with the given absolute index, or {@code null} if it has been evicted or not added yet
+     */
+    @Nullable
+    public E getByAbsoluteIndex(long absoluteIndex) {
+        long index = absoluteIndex - mFirstIndex;
+        if (index < 0 || index >= mSize) {
+            return null;
+        }
+        return elementAt((int) index);
+    }
+
+    @NonNull
+    @Override
+    public Object[] toArray() {
+        Object[] array = new Object[mSize];
+        int firstPart = Math.min(mSize, mElements.length - mHead);
+        System.arraycopy(mElements, mHead, array, 0, firstPart);
+        System.arraycopy(mElements, 0, array, firstPart, mSize - firstPart);
+        return array;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    @SuppressWarnings("unchecked")
+    private E elementAt(int index) {
+        return (E) mElements[physicalIndex(index)];
+    }
+
+    private int physicalIndex(int index) {
+        int i = mHead + index;
+        return i < mElements.length ? i : i - mElements.length;
+    }
+}
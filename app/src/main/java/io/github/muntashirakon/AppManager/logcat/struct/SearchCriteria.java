@@ -130,6 +130,18 @@ public class SearchCriteria {
         return true;
     }
 
+    /**
+     * @return {@code false} if none of the lines in the segment can match the criteria
+     */
+    public boolean mayMatch(@NonNull LogIndex.Segment segment) {
+        for (Filter filter : mFilters) {
+            if (!filter.mayMatch(segment)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static class Filter {
         @FilterType
         private final String mType;
@@ -186,7 +198,7 @@ public class SearchCriteria {
                         matches = matchPattern(p, tag) || matchPattern(p, out);
                     } else {
                         String query = (String) mValue;
-                        matches = matchQuery(query, tag, mExact) || matchQuery(query, tag, mExact);
+                        matches = matchQuery(query, tag, mExact) || matchQuery(query, out, mExact);
                     }
                     break;
                 }
@@ -245,6 +257,21 @@ public class SearchCriteria {
             return mInverse != matches;
         }
 
+        public boolean mayMatch(@NonNull LogIndex.Segment segment) {
+            if (isEmpty() || mRegex || mInverse) {
+                return true;
+            }
+            switch (mType) {
+                case TYPE_PID:
+                    return segment.mayContainPid((int) mValue);
+                case TYPE_TAG:
+                    // Only exact tags are indexed
+                    return !mExact || segment.mayContainTag((String) mValue);
+                default:
+                    return true;
+            }
+        }
+
         @Nullable
         private Object getRealValue(@Nullable String value) {
             if (value == null) {
@@ -295,7 +322,21 @@ public class SearchCriteria {
             if (value == null) {
                 return false;
             }
-            return exact ? value.equals(query) : value.toLowerCase(Locale.ROOT).contains(query);
+            return exact ? value.equals(query) : containsIgnoreCase(value, query);
+        }
+
+        /**
+         * Same as {@code value.toLowerCase(Locale.ROOT).contains(query)} without creating a lower case copy of each
+         * value. The query must be in lower case.
+         */
+        private static boolean containsIgnoreCase(@NonNull String value, @NonNull String query) {
+            int queryLength = query.length();
+            for (int i = 0, last = value.length() - queryLength; i <= last; ++i) {
+                if (value.regionMatches(true, i, query, 0, queryLength)) {
+                    return true;
+                }
+            }
+            return false;
         }
     }
 }
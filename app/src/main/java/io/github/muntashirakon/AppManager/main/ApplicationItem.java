@@ -19,6 +19,9 @@ import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import java.io.InputStream;
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 
@@ -28,6 +31,7 @@ import io.github.muntashirakon.AppManager.compat.PackageManagerCompat;
 import io.github.muntashirakon.AppManager.compat.PermissionCompat;
 import io.github.muntashirakon.AppManager.compat.UsageStatsManagerCompat;
 import io.github.muntashirakon.AppManager.db.entity.Backup;
+import io.github.muntashirakon.AppManager.utils.Utils;
 import io.github.muntashirakon.io.Path;
 
 /**
@@ -150,6 +154,16 @@ public class ApplicationItem extends PackageItemInfo {
     public long lastBackupDays;
     public StringBuilder backupFlagsStr;
 
+    // Cached for sorting and searching, see getLabelCollationKey() and getSearchTokens()
+    @Nullable
+    private Collator mCollator;
+    @Nullable
+    private CollationKey mLabelCollationKey;
+    @Nullable
+    private String mSearchTokensLabel;
+    @Nullable
+    private String[] mSearchTokens;
+
     public ApplicationItem() {
         super();
     }
@@ -218,6 +232,36 @@ public class ApplicationItem extends PackageItemInfo {
         }
     }
 
+    /**
+     * Get the collation key of the label so that the label is only decomposed once no matter how many times the items
+     * are sorted.
+     */
+    @NonNull
+    public CollationKey getLabelCollationKey(@NonNull Collator collator) {
+        if (mLabelCollationKey == null || mCollator != collator
+                || !mLabelCollationKey.getSourceString().equals(label)) {
+            mLabelCollationKey = collator.getCollationKey(label);
+            mCollator = collator;
+        }
+        return mLabelCollationKey;
+    }
+
+    /**
+     * Get the lower-cased package name, the lower-cased label and the initials of the label, in that order.
+     */
+    @NonNull
+    public String[] getSearchTokens() {
+        if (mSearchTokens == null || !Objects.equals(mSearchTokensLabel, label)) {
+            mSearchTokens = new String[]{
+                    packageName.toLowerCase(Locale.ROOT),
+                    label.toLowerCase(Locale.ROOT),
+                    Utils.getFirstLettersInLowerCase(Utils.camelCaseToSpaceSeparatedString(label))
+            };
+            mSearchTokensLabel = label;
+        }
+        return mSearchTokens;
+    }
+
     @WorkerThread
     @Override
     public Drawable loadIcon(PackageManager pm) {
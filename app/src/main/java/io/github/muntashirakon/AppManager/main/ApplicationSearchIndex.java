@@ -0,0 +1,257 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.main;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.github.muntashirakon.AppManager.misc.AdvancedSearchView;
+import io.github.muntashirakon.AppManager.utils.ThreadUtils;
+
+/**
+ * Search index of the application items that passed the filters of the main list. Each item is indexed by the
+ * characters and the pairs of consecutive characters in its {@link ApplicationItem#getSearchTokens() search tokens}.
+ * Since every match contains the query as a whole, only the items having all the pairs in the query are tested.
+ * Besides, if the query is an extension of the previous one (e.g., the user typed another character), only the items
+ * that matched the previous query are tested.
+ * <p>
+ * This class is not thread-safe.
+ */
+class ApplicationSearchIndex {
+    @NonNull
+    private final List<ApplicationItem> mItems;
+    private final int mVersion;
+    // Sorted indexes of the items by the characters and the pairs of characters they contain
+    @Nullable
+    private Map<Character, int[]> mCharIndex;
+    @Nullable
+    private Map<Integer, int[]> mPairIndex;
+    // Results of the previous query
+    @Nullable
+    private String mLastQuery;
+    private int mLastSearchType;
+    @Nullable
+    private List<ApplicationItem> mLastResults;
+
+    /**
+     * @param items   Items that passed the filters
+     * @param version Version of the items and the filters used to determine whether the index is up-to-date
+     */
+    public ApplicationSearchIndex(@NonNull List<ApplicationItem> items, int version) {
+        mItems = items;
+        mVersion = version;
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    @NonNull
+    public List<ApplicationItem> getItems() {
+        return mItems;
+    }
+
+    /**
+     * Find the items matching the query, preserving their order.
+     *
+     * @param query Lower-cased query unless it is a regular expression
+     * @return The matched items, or {@code null} if the thread is interrupted
+     */
+    @WorkerThread
+    @Nullable
+    public List<ApplicationItem> search(@NonNull String query, @AdvancedSearchView.SearchType int searchType) {
+        if (searchType == AdvancedSearchView.SEARCH_TYPE_REGEX) {
+            // Regular expressions cannot make use of the index
+            return AdvancedSearchView.matches(query, mItems,
+                    (AdvancedSearchView.ChoicesGenerator<ApplicationItem>) item -> new ArrayList<String>() {{
+                        add(item.packageName);
+                        add(item.label);
+                    }}, AdvancedSearchView.SEARCH_TYPE_REGEX);
+        }
+        List<ApplicationItem> candidates;
+        if (mLastResults != null && mLastSearchType == searchType && isNarrowerQuery(query, mLastQuery, searchType)) {
+            candidates = mLastResults;
+        } else {
+            candidates = getCandidates(query);
+            if (candidates == null) {
+                return null;
+            }
+        }
+        List<ApplicationItem> results = new ArrayList<>();
+        for (ApplicationItem item : candidates) {
+            if (ThreadUtils.isInterrupted()) {
+                return null;
+            }
+            if (matches(query, item.getSearchTokens(), searchType)) {
+                results.add(item);
+            }
+        }
+        mLastQuery = query;
+        mLastSearchType = searchType;
+        mLastResults = results;
+        return results;
+    }
+
+    @Nullable
+    private List<ApplicationItem> getCandidates(@NonNull String query) {
+        if (mCharIndex == null || mPairIndex == null) {
+            if (!buildIndex()) {
+                return null;
+            }
+        }
+        int[] indexes;
+        if (query.length() == 1) {
+            indexes = mCharIndex.get(query.charAt(0));
+        } else {
+            indexes = null;
+            for (int i = 1; i < query.length(); ++i) {
+                int[] pairIndexes = mPairIndex.get(getPair(query.charAt(i - 1), query.charAt(i)));
+                indexes = indexes == null ? pairIndexes : intersect(indexes, pairIndexes);
+                if (indexes == null || indexes.length == 0) {
+                    break;
+                }
+            }
+        }
+        if (indexes == null) {
+            return Collections.emptyList();
+        }
+        List<ApplicationItem> candidates = new ArrayList<>(indexes.length);
+        for (int index : indexes) {
+            candidates.add(mItems.get(index));
+        }
+        return candidates;
+    }
+
+    private boolean buildIndex() {
+        Map<Character, IntList> charIndex = new HashMap<>();
+        Map<Integer, IntList> pairIndex = new HashMap<>();
+        Set<Character> chars = new HashSet<>();
+        Set<Integer> pairs = new HashSet<>();
+        for (int i = 0; i < mItems.size(); ++i) {
+            if (ThreadUtils.isInterrupted()) {
+                return false;
+            }
+            chars.clear();
+            pairs.clear();
+            for (String token : mItems.get(i).getSearchTokens()) {
+                for (int j = 0; j < token.length(); ++j) {
+                    chars.add(token.charAt(j));
+                    if (j > 0) {
+                        pairs.add(getPair(token.charAt(j - 1), token.charAt(j)));
+                    }
+                }
+            }
+            // Items are visited in order, the indexes are therefore sorted
+            for (Character c : chars) {
+                IntList list = charIndex.get(c);
+                if (list == null) {
+                    list = new IntList();
+                    charIndex.put(c, list);
+                }
+                list.add(i);
+            }
+            for (Integer pair : pairs) {
+                IntList list = pairIndex.get(pair);
+                if (list == null) {
+                    list = new IntList();
+                    pairIndex.put(pair, list);
+                }
+                list.add(i);
+            }
+        }
+        mCharIndex = new HashMap<>(charIndex.size());
+        for (Map.Entry<Character, IntList> entry : charIndex.entrySet()) {
+            mCharIndex.put(entry.getKey(), entry.getValue().toArray());
+        }
+        mPairIndex = new HashMap<>(pairIndex.size());
+        for (Map.Entry<Integer, IntList> entry : pairIndex.entrySet()) {
+            mPairIndex.put(entry.getKey(), entry.getValue().toArray());
+        }
+        return true;
+    }
+
+    private static boolean matches(@NonNull String query, @NonNull String[] tokens,
+                                   @AdvancedSearchView.SearchType int searchType) {
+        // Package name
+        if (AdvancedSearchView.matches(query, tokens[0], searchType)) {
+            return true;
+        }
+        // Label, or its initials when looking for a substring
+        if (searchType == AdvancedSearchView.SEARCH_TYPE_CONTAINS) {
+            return tokens[1].contains(query) || tokens[2].contains(query);
+        }
+        return AdvancedSearchView.matches(query, tokens[1], searchType);
+    }
+
+    /**
+     * Whether every text matched by the query is also matched by the previous query
+     */
+    private static boolean isNarrowerQuery(@NonNull String query, @Nullable String lastQuery,
+                                           @AdvancedSearchView.SearchType int searchType) {
+        if (lastQuery == null) {
+            return false;
+        }
+        switch (searchType) {
+            case AdvancedSearchView.SEARCH_TYPE_CONTAINS:
+                return query.contains(lastQuery);
+            case AdvancedSearchView.SEARCH_TYPE_PREFIX:
+                return query.startsWith(lastQuery);
+            case AdvancedSearchView.SEARCH_TYPE_SUFFIX:
+                return query.endsWith(lastQuery);
+            default:
+                return false;
+        }
+    }
+
+    private static int getPair(char c1, char c2) {
+        return (c1 << 16) | c2;
+    }
+
+    @Nullable
+    private static int[] intersect(@NonNull int[] indexes1, @Nullable int[] indexes2) {
+        if (indexes2 == null) {
+            return null;
+        }
+        int[] result = new int[Math.min(indexes1.length, indexes2.length)];
+        int i = 0, j = 0, k = 0;
+        while (i < indexes1.length && j < indexes2.length) {
+            if (indexes1[i] < indexes2[j]) {
+                ++i;
+            } else if (indexes1[i] > indexes2[j]) {
+                ++j;
+            } else {
+                result[k++] = indexes1[i];
+                ++i;
+                ++j;
+            }
+        }
+        return Arrays.copyOf(result, k);
+    }
+
+    private static class IntList {
+        private int[] mValues = new int[4];
+        private int mSize;
+
+        void add(int value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+
+        @NonNull
+        int[] toArray() {
+            return Arrays.copyOf(mValues, mSize);
+        }
+    }
+}
@@ -8,6 +8,7 @@ import android.content.Intent;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
+import android.net.Uri;
 import android.os.Handler;
 import android.os.RemoteException;
 import android.os.UserHandleHidden;
@@ -45,6 +46,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.github.muntashirakon.AppManager.apk.list.ListExporter;
 import io.github.muntashirakon.AppManager.backup.BackupUtils;
@@ -65,7 +67,6 @@ import io.github.muntashirakon.AppManager.utils.ArrayUtils;
 import io.github.muntashirakon.AppManager.utils.MultithreadedExecutor;
 import io.github.muntashirakon.AppManager.utils.PackageUtils;
 import io.github.muntashirakon.AppManager.utils.ThreadUtils;
-import io.github.muntashirakon.AppManager.utils.Utils;
 import io.github.muntashirakon.io.Path;
 
 public class MainViewModel extends AndroidViewModel implements ListOptions.ListOptionActions {
@@ -84,6 +85,25 @@ public class MainViewModel extends AndroidViewModel implements ListOptions.ListO
     @AdvancedSearchView.SearchType
     private int mSearchType;
     private Future<?> mFilterResult;
+    // Incremented whenever the items need to be filtered again, regardless of the search query
+    private final AtomicInteger mFilterVersion = new AtomicInteger();
+    @GuardedBy("applicationItems")
+    @Nullable
+    private ApplicationSearchIndex mSearchIndex;
+    @GuardedBy("applicationItems")
+    @Nullable
+    private Set<String> mFilterProfilePackages;
+    @GuardedBy("applicationItems")
+    @Nullable
+    private Uri mFilterProfileUri;
+    @GuardedBy("applicationItems")
+    private long mFilterProfileLastModified;
+    @GuardedBy("applicationItems")
+    @Nullable
+    private Collator mCollator;
+    @GuardedBy("applicationItems")
+    @Nullable
+    private Locale mCollatorLocale;
     private final Map<String, ApplicationItem> mSelectedPackageApplicationItemMap = Collections.synchronizedMap(new LinkedHashMap<>());
     final MultithreadedExecutor executor = MultithreadedExecutor.getNewInstance();
 
@@ -209,7 +229,7 @@ public class MainViewModel extends AndroidViewModel implements ListOptions.ListO
         this.mSearchQuery = searchType != AdvancedSearchView.SEARCH_TYPE_REGEX ? searchQuery.toLowerCase(Locale.ROOT) : searchQuery;
         this.mSearchType = searchType;
         cancelIfRunning();
-        mFilterResult = executor.submit(this::filterItemsByFlags);
+        mFilterResult = executor.submit(this::filterItemsBySearchQuery);
     }
 
     @Override
@@ -254,6 +274,7 @@ public class MainViewModel extends AndroidViewModel implements ListOptions.ListO
     @Override
     public void addFilterFlag(@MainListOptions.Filter int filterFlag) {
         mFilterFlags |= filterFlag;
+        mFilterVersion.incrementAndGet();
         Prefs.MainPage.setFilters(mFilterFlags);
         cancelIfRunning();
         mFilterResult = executor.submit(this::filterItemsByFlags);
@@ -262,6 +283,7 @@ public class MainViewModel extends AndroidViewModel implements ListOptions.ListO
     @Override
     public void removeFilterFlag(@MainListOptions.Filter int filterFlag) {
         mFilterFlags &= ~filterFlag;
+        mFilterVersion.incrementAndGet();
         Prefs.MainPage.setFilters(mFilterFlags);
         cancelIfRunning();
         mFilterResult = executor.submit(this::filterItemsByFlags);
@@ -272,6 +294,7 @@ public class MainViewModel extends AndroidViewModel implements ListOptions.ListO
             if (filterProfileName == null) return;
         } else if (mFilterProfileName.equals(filterProfileName)) return;
         mFilterProfileName = filterProfileName;
+        mFilterVersion.incrementAndGet();
         Prefs.MainPage.setFilteredProfileName(filterProfileName);
         cancelIfRunning();
         mFilterResult = executor.submit(this::filterItemsByFlags);
@@ -304,6 +327,7 @@ public class MainViewModel extends AndroidViewModel implements ListOptions.ListO
             }
         }
         mSelectedUsers = selectedUsers;
+        mFilterVersion.incrementAndGet();
         // TODO: 5/6/23 Store value to prefs
         cancelIfRunning();
         mFilterResult = executor.submit(this::filterItemsByFlags);
@@ -370,144 +394,128 @@ public class MainViewModel extends AndroidViewModel implements ListOptions.ListO
     }
 
     @WorkerThread
-    private void filterItemsByQuery(@NonNull List<ApplicationItem> applicationItems) {
-        List<ApplicationItem> filteredApplicationItems;
-        if (mSearchType == AdvancedSearchView.SEARCH_TYPE_REGEX) {
-            filteredApplicationItems = AdvancedSearchView.matches(mSearchQuery, applicationItems,
-                    (AdvancedSearchView.ChoicesGenerator<ApplicationItem>) item -> new ArrayList<String>() {{
-                        add(item.packageName);
-                        add(item.label);
-                    }}, AdvancedSearchView.SEARCH_TYPE_REGEX);
-            mApplicationItemsLiveData.postValue(filteredApplicationItems);
+    @GuardedBy("applicationItems")
+    private void filterItemsBySearchQuery() {
+        synchronized (mApplicationItems) {
+            if (mSearchIndex == null || mSearchIndex.getVersion() != mFilterVersion.get()) {
+                // The items or the filters have changed since the index was built
+                filterItemsByFlags();
+            } else filterItemsByQuery(mSearchIndex);
+        }
+    }
+
+    @WorkerThread
+    @GuardedBy("applicationItems")
+    private void filterItemsByQuery(@NonNull ApplicationSearchIndex searchIndex) {
+        if (TextUtils.isEmpty(mSearchQuery)) {
+            mApplicationItemsLiveData.postValue(searchIndex.getItems());
             return;
         }
-        // Others
-        filteredApplicationItems = new ArrayList<>();
-        for (ApplicationItem item : applicationItems) {
-            if (ThreadUtils.isInterrupted()) {
-                return;
-            }
-            if (AdvancedSearchView.matches(mSearchQuery, item.packageName.toLowerCase(Locale.ROOT), mSearchType)) {
-                filteredApplicationItems.add(item);
-            } else if (mSearchType == AdvancedSearchView.SEARCH_TYPE_CONTAINS) {
-                if (Utils.containsOrHasInitials(mSearchQuery, item.label)) {
-                    filteredApplicationItems.add(item);
-                }
-            } else if (AdvancedSearchView.matches(mSearchQuery, item.label.toLowerCase(Locale.ROOT), mSearchType)) {
-                filteredApplicationItems.add(item);
-            }
+        List<ApplicationItem> filteredApplicationItems = searchIndex.search(mSearchQuery, mSearchType);
+        if (filteredApplicationItems != null) {
+            mApplicationItemsLiveData.postValue(filteredApplicationItems);
         }
-        mApplicationItemsLiveData.postValue(filteredApplicationItems);
     }
 
     @WorkerThread
     @GuardedBy("applicationItems")
     private void filterItemsByFlags() {
         synchronized (mApplicationItems) {
-            List<ApplicationItem> candidateApplicationItems = new ArrayList<>();
+            // Read before the filters so that the index is never newer than its version
+            int version = mFilterVersion.get();
+            mSearchIndex = null;
+            Set<String> profilePackages = null;
             if (mFilterProfileName != null) {
-                String profileId = ProfileManager.getProfileIdCompat(mFilterProfileName);
-                Path profilePath = ProfileManager.findProfilePathById(profileId);
                 try {
-                    AppsProfile profile = AppsProfile.fromPath(profilePath);
-                    List<Integer> indexes = new ArrayList<>();
-                    for (String packageName : profile.packages) {
-                        if (ThreadUtils.isInterrupted()) {
-                            return;
-                        }
-                        ApplicationItem item = new ApplicationItem();
-                        item.packageName = packageName;
-                        int index = mApplicationItems.indexOf(item);
-                        if (index != -1) {
-                            indexes.add(index);
-                        }
-                    }
-                    Collections.sort(indexes);
-                    for (int index : indexes) {
-                        if (ThreadUtils.isInterrupted()) {
-                            return;
-                        }
-                        ApplicationItem item = mApplicationItems.get(index);
-                        if (isAmongSelectedUsers(item)) {
-                            candidateApplicationItems.add(item);
-                        }
-                    }
+                    profilePackages = getFilterProfilePackages(mFilterProfileName);
                 } catch (IOException | JSONException e) {
                     e.printStackTrace();
-                }
-            } else {
-                for (ApplicationItem item : mApplicationItems) {
-                    if (ThreadUtils.isInterrupted()) {
-                        return;
-                    }
-                    if (isAmongSelectedUsers(item)) {
-                        candidateApplicationItems.add(item);
-                    }
+                    profilePackages = Collections.emptySet();
                 }
             }
-            // Other filters
-            if (mFilterFlags == MainListOptions.FILTER_NO_FILTER) {
-                if (!TextUtils.isEmpty(mSearchQuery)) {
-                    filterItemsByQuery(candidateApplicationItems);
-                } else {
-                    mApplicationItemsLiveData.postValue(candidateApplicationItems);
-                }
-            } else {
-                List<ApplicationItem> filteredApplicationItems = new ArrayList<>();
-                if ((mFilterFlags & MainListOptions.FILTER_RUNNING_APPS) != 0) {
-                    loadRunningApps();
+            int filterFlags = mFilterFlags;
+            if ((filterFlags & MainListOptions.FILTER_RUNNING_APPS) != 0) {
+                loadRunningApps();
+            }
+            // All the filters are applied in a single pass, the order of the items is preserved
+            List<ApplicationItem> filteredApplicationItems = new ArrayList<>();
+            for (ApplicationItem item : mApplicationItems) {
+                if (ThreadUtils.isInterrupted()) {
+                    return;
                 }
-                for (ApplicationItem item : candidateApplicationItems) {
-                    if (ThreadUtils.isInterrupted()) {
-                        return;
-                    }
-                    // Filter user and system apps first (if requested)
-                    if ((mFilterFlags & MainListOptions.FILTER_USER_APPS) != 0 && !item.isUser) {
-                        continue;
-                    } else if ((mFilterFlags & MainListOptions.FILTER_SYSTEM_APPS) != 0 && item.isUser) {
-                        continue;
-                    }
-                    // Filter installed/uninstalled
-                    if ((mFilterFlags & MainListOptions.FILTER_INSTALLED_APPS) != 0 && !item.isInstalled) {
-                        continue;
-                    } else if ((mFilterFlags & MainListOptions.FILTER_UNINSTALLED_APPS) != 0 && item.isInstalled) {
-                        continue;
-                    }
-                    // Filter backups
-                    if ((mFilterFlags & MainListOptions.FILTER_APPS_WITH_BACKUPS) != 0 && item.backup == null) {
-                        continue;
-                    } else if ((mFilterFlags & MainListOptions.FILTER_APPS_WITHOUT_BACKUPS) != 0 && item.backup != null) {
-                        continue;
-                    }
-                    // Filter rests
-                    if ((mFilterFlags & MainListOptions.FILTER_FROZEN_APPS) != 0 && !item.isDisabled) {
-                        continue;
-                    } else if ((mFilterFlags & MainListOptions.FILTER_APPS_WITH_RULES) != 0 && item.blockedCount <= 0) {
-                        continue;
-                    } else if ((mFilterFlags & MainListOptions.FILTER_APPS_WITH_ACTIVITIES) != 0 && !item.hasActivities) {
-                        continue;
-                    } else if ((mFilterFlags & MainListOptions.FILTER_APPS_WITH_SPLITS) != 0 && !item.hasSplits) {
-                        continue;
-                    } else if ((mFilterFlags & MainListOptions.FILTER_RUNNING_APPS) != 0 && !item.isRunning) {
-                        continue;
-                    } else if ((mFilterFlags & MainListOptions.FILTER_APPS_WITH_KEYSTORE) != 0 && !item.hasKeystore) {
-                        continue;
-                    } else if ((mFilterFlags & MainListOptions.FILTER_APPS_WITH_SAF) != 0 && !item.usesSaf) {
-                        continue;
-                    } else if ((mFilterFlags & MainListOptions.FILTER_APPS_WITH_SSAID) != 0 && item.ssaid == null) {
-                        continue;
-                    } else if ((mFilterFlags & MainListOptions.FILTER_STOPPED_APPS) != 0 && (item.flags & ApplicationInfo.FLAG_STOPPED) == 0) {
-                        continue;
-                    }
+                if ((profilePackages == null || profilePackages.contains(item.packageName))
+                        && isAmongSelectedUsers(item) && matchesFilterFlags(item, filterFlags)) {
                     filteredApplicationItems.add(item);
                 }
-                if (!TextUtils.isEmpty(mSearchQuery)) {
-                    filterItemsByQuery(filteredApplicationItems);
-                } else {
-                    mApplicationItemsLiveData.postValue(filteredApplicationItems);
-                }
             }
+            mSearchIndex = new ApplicationSearchIndex(filteredApplicationItems, version);
+            filterItemsByQuery(mSearchIndex);
+        }
+    }
+
+    @GuardedBy("applicationItems")
+    @NonNull
+    private Set<String> getFilterProfilePackages(@NonNull String profileName) throws IOException, JSONException {
+        String profileId = ProfileManager.getProfileIdCompat(profileName);
+        Path profilePath = ProfileManager.findProfilePathById(profileId);
+        if (profilePath == null) {
+            throw new IOException("Empty profile path");
+        }
+        long lastModified = profilePath.lastModified();
+        // Profiles are only read again if they are modified
+        if (mFilterProfilePackages == null || lastModified == 0 || lastModified != mFilterProfileLastModified
+                || !profilePath.getUri().equals(mFilterProfileUri)) {
+            AppsProfile profile = AppsProfile.fromPath(profilePath);
+            mFilterProfilePackages = new HashSet<>(Arrays.asList(profile.packages));
+            mFilterProfileUri = profilePath.getUri();
+            mFilterProfileLastModified = lastModified;
+        }
+        return mFilterProfilePackages;
+    }
+
+    private static boolean matchesFilterFlags(@NonNull ApplicationItem item, @MainListOptions.Filter int filterFlags) {
+        if (filterFlags == MainListOptions.FILTER_NO_FILTER) {
+            return true;
+        }
+        // Filter user and system apps first (if requested)
+        if ((filterFlags & MainListOptions.FILTER_USER_APPS) != 0 && !item.isUser) {
+            return false;
+        } else if ((filterFlags & MainListOptions.FILTER_SYSTEM_APPS) != 0 && item.isUser) {
+            return false;
+        }
+        // Filter installed/uninstalled
+        if ((filterFlags & MainListOptions.FILTER_INSTALLED_APPS) != 0 && !item.isInstalled) {
+            return false;
+        } else if ((filterFlags & MainListOptions.FILTER_UNINSTALLED_APPS) != 0 && item.isInstalled) {
+            return false;
+        }
+        // Filter backups
+        if ((filterFlags & MainListOptions.FILTER_APPS_WITH_BACKUPS) != 0 && item.backup == null) {
+            return false;
+        } else if ((filterFlags & MainListOptions.FILTER_APPS_WITHOUT_BACKUPS) != 0 && item.backup != null) {
+            return false;
+        }
+        // Filter rests
+        if ((filterFlags & MainListOptions.FILTER_FROZEN_APPS) != 0 && !item.isDisabled) {
+            return false;
+        } else if ((filterFlags & MainListOptions.FILTER_APPS_WITH_RULES) != 0 && item.blockedCount <= 0) {
+            return false;
+        } else if ((filterFlags & MainListOptions.FILTER_APPS_WITH_ACTIVITIES) != 0 && !item.hasActivities) {
+            return false;
+        } else if ((filterFlags & MainListOptions.FILTER_APPS_WITH_SPLITS) != 0 && !item.hasSplits) {
+            return false;
+        } else if ((filterFlags & MainListOptions.FILTER_RUNNING_APPS) != 0 && !item.isRunning) {
+            return false;
+        } else if ((filterFlags & MainListOptions.FILTER_APPS_WITH_KEYSTORE) != 0 && !item.hasKeystore) {
+            return false;
+        } else if ((filterFlags & MainListOptions.FILTER_APPS_WITH_SAF) != 0 && !item.usesSaf) {
+            return false;
+        } else if ((filterFlags & MainListOptions.FILTER_APPS_WITH_SSAID) != 0 && item.ssaid == null) {
+            return false;
+        } else if ((filterFlags & MainListOptions.FILTER_STOPPED_APPS) != 0 && (item.flags & ApplicationInfo.FLAG_STOPPED) == 0) {
+            return false;
         }
+        return true;
     }
 
     private boolean isAmongSelectedUsers(@NonNull ApplicationItem applicationItem) {
@@ -554,77 +562,100 @@ public class MainViewModel extends AndroidViewModel implements ListOptions.ListO
     @GuardedBy("applicationItems")
     private void sortApplicationList(@MainListOptions.SortOrder int sortBy, boolean reverse) {
         synchronized (mApplicationItems) {
-            if (sortBy != MainListOptions.SORT_BY_APP_LABEL) {
-                sortApplicationList(MainListOptions.SORT_BY_APP_LABEL, false);
-            }
+            mFilterVersion.incrementAndGet();
             int mode = reverse ? -1 : 1;
-            Collator collator = Collator.getInstance();
+            Collator collator = getCollator();
+            // Labels are compared far more often than there are items
+            for (ApplicationItem item : mApplicationItems) {
+                item.getLabelCollationKey(collator);
+            }
             Collections.sort(mApplicationItems, (o1, o2) -> {
-                switch (sortBy) {
-                    case MainListOptions.SORT_BY_APP_LABEL:
-                        return mode * collator.compare(o1.label, o2.label);
-                    case MainListOptions.SORT_BY_PACKAGE_NAME:
-                        return mode * o1.packageName.compareTo(o2.packageName);
-                    case MainListOptions.SORT_BY_DOMAIN:
-                        boolean isSystem1 = (o1.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
-                        boolean isSystem2 = (o2.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
-                        return mode * Boolean.compare(isSystem1, isSystem2);
-                    case MainListOptions.SORT_BY_LAST_UPDATE:
-                        // Sort in decreasing order
-                        return -mode * o1.lastUpdateTime.compareTo(o2.lastUpdateTime);
-                    case MainListOptions.SORT_BY_TOTAL_SIZE:
-                        // Sort in decreasing order
-                        return -mode * o1.totalSize.compareTo(o2.totalSize);
-                    case MainListOptions.SORT_BY_DATA_USAGE:
-                        // Sort in decreasing order
-                        return -mode * o1.dataUsage.compareTo(o2.dataUsage);
-                    case MainListOptions.SORT_BY_OPEN_COUNT:
-                        // Sort in decreasing order
-                        return -mode * Integer.compare(o1.openCount, o2.openCount);
-                    case MainListOptions.SORT_BY_INSTALLATION_DATE:
-                        // Sort in decreasing order
-                        return -mode * Long.compare(o1.firstInstallTime, o2.firstInstallTime);
-                    case MainListOptions.SORT_BY_SCREEN_TIME:
-                        // Sort in decreasing order
-                        return -mode * Long.compare(o1.screenTime, o2.screenTime);
-                    case MainListOptions.SORT_BY_LAST_USAGE_TIME:
-                        // Sort in decreasing order
-                        return -mode * Long.compare(o1.lastUsageTime, o2.lastUsageTime);
-                    case MainListOptions.SORT_BY_TARGET_SDK:
-                        // null on top
-                        if (o1.sdk == null) return -mode;
-                        else if (o2.sdk == null) return +mode;
-                        return mode * o1.sdk.compareTo(o2.sdk);
-                    case MainListOptions.SORT_BY_SHARED_ID:
-                        return mode * Integer.compare(o1.uid, o2.uid);
-                    case MainListOptions.SORT_BY_SHA:
-                        // null on top
-                        if (o1.sha == null) {
-                            return -mode;
-                        } else if (o2.sha == null) {
-                            return +mode;
-                        } else {  // Both aren't null
-                            int i = o1.sha.first.compareToIgnoreCase(o2.sha.first);
-                            if (i == 0) {
-                                return mode * o1.sha.second.compareToIgnoreCase(o2.sha.second);
-                            } else return mode * i;
-                        }
-                    case MainListOptions.SORT_BY_BLOCKED_COMPONENTS:
-                        return -mode * o1.blockedCount.compareTo(o2.blockedCount);
-                    case MainListOptions.SORT_BY_FROZEN_APP:
-                        return -mode * Boolean.compare(o1.isDisabled, o2.isDisabled);
-                    case MainListOptions.SORT_BY_BACKUP:
-                        return -mode * Boolean.compare(o1.backup != null, o2.backup != null);
-                    case MainListOptions.SORT_BY_LAST_ACTION:
-                        return -mode * o1.lastActionTime.compareTo(o2.lastActionTime);
-                    case MainListOptions.SORT_BY_TRACKERS:
-                        return -mode * o1.trackerCount.compareTo(o2.trackerCount);
+                int result = compare(o1, o2, sortBy, mode, collator);
+                if (result == 0 && sortBy != MainListOptions.SORT_BY_APP_LABEL) {
+                    // Items having the same value are sorted by their labels
+                    return o1.getLabelCollationKey(collator).compareTo(o2.getLabelCollationKey(collator));
                 }
-                return 0;
+                return result;
             });
         }
     }
 
+    @GuardedBy("applicationItems")
+    @NonNull
+    private Collator getCollator() {
+        Locale locale = Locale.getDefault();
+        if (mCollator == null || !locale.equals(mCollatorLocale)) {
+            mCollator = Collator.getInstance(locale);
+            mCollatorLocale = locale;
+        }
+        return mCollator;
+    }
+
+    private static int compare(@NonNull ApplicationItem o1, @NonNull ApplicationItem o2,
+                               @MainListOptions.SortOrder int sortBy, int mode, @NonNull Collator collator) {
+        switch (sortBy) {
+            case MainListOptions.SORT_BY_APP_LABEL:
+                return mode * o1.getLabelCollationKey(collator).compareTo(o2.getLabelCollationKey(collator));
+            case MainListOptions.SORT_BY_PACKAGE_NAME:
+                return mode * o1.packageName.compareTo(o2.packageName);
+            case MainListOptions.SORT_BY_DOMAIN:
+                boolean isSystem1 = (o1.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
+                boolean isSystem2 = (o2.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
+                return mode * Boolean.compare(isSystem1, isSystem2);
+            case MainListOptions.SORT_BY_LAST_UPDATE:
+                // Sort in decreasing order
+                return -mode * o1.lastUpdateTime.compareTo(o2.lastUpdateTime);
+            case MainListOptions.SORT_BY_TOTAL_SIZE:
+                // Sort in decreasing order
+                return -mode * o1.totalSize.compareTo(o2.totalSize);
+            case MainListOptions.SORT_BY_DATA_USAGE:
+                // Sort in decreasing order
+                return -mode * o1.dataUsage.compareTo(o2.dataUsage);
+            case MainListOptions.SORT_BY_OPEN_COUNT:
+                // Sort in decreasing order
+                return -mode * Integer.compare(o1.openCount, o2.openCount);
+            case MainListOptions.SORT_BY_INSTALLATION_DATE:
+                // Sort in decreasing order
+                return -mode * Long.compare(o1.firstInstallTime, o2.firstInstallTime);
+            case MainListOptions.SORT_BY_SCREEN_TIME:
+                // Sort in decreasing order
+                return -mode * Long.compare(o1.screenTime, o2.screenTime);
+            case MainListOptions.SORT_BY_LAST_USAGE_TIME:
+                // Sort in decreasing order
+                return -mode * Long.compare(o1.lastUsageTime, o2.lastUsageTime);
+            case MainListOptions.SORT_BY_TARGET_SDK:
+                // null on top
+                if (o1.sdk == null) return -mode;
+                else if (o2.sdk == null) return +mode;
+                return mode * o1.sdk.compareTo(o2.sdk);
+            case MainListOptions.SORT_BY_SHARED_ID:
+                return mode * Integer.compare(o1.uid, o2.uid);
+            case MainListOptions.SORT_BY_SHA:
+                // null on top
+                if (o1.sha == null) {
+                    return -mode;
+                } else if (o2.sha == null) {
+                    return +mode;
+                } else {  // Both aren't null
+                    int i = o1.sha.first.compareToIgnoreCase(o2.sha.first);
+                    if (i == 0) {
+                        return mode * o1.sha.second.compareToIgnoreCase(o2.sha.second);
+                    } else return mode * i;
+                }
+            case MainListOptions.SORT_BY_BLOCKED_COMPONENTS:
+                return -mode * o1.blockedCount.compareTo(o2.blockedCount);
+            case MainListOptions.SORT_BY_FROZEN_APP:
+                return -mode * Boolean.compare(o1.isDisabled, o2.isDisabled);
+            case MainListOptions.SORT_BY_BACKUP:
+                return -mode * Boolean.compare(o1.backup != null, o2.backup != null);
+            case MainListOptions.SORT_BY_LAST_ACTION:
+                return -mode * o1.lastActionTime.compareTo(o2.lastActionTime);
+            case MainListOptions.SORT_BY_TRACKERS:
+                return -mode * o1.trackerCount.compareTo(o2.trackerCount);
+        }
+        return 0;
+    }
+
     @WorkerThread
     private void updateInfoForUid(int uid, String action) {
         Log.d("updateInfoForUid", "Uid: %d", uid);
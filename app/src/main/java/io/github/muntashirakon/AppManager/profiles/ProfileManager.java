@@ -3,7 +3,6 @@
 package io.github.muntashirakon.AppManager.profiles;
 
 import android.annotation.SuppressLint;
-import android.app.AppOpsManager;
 import android.content.Context;
 import android.os.UserHandleHidden;
 
@@ -22,13 +21,11 @@ import java.util.UUID;
 import io.github.muntashirakon.AppManager.backup.BackupFlags;
 import io.github.muntashirakon.AppManager.batchops.BatchOpsManager;
 import io.github.muntashirakon.AppManager.batchops.BatchOpsManager.BatchOpsInfo;
-import io.github.muntashirakon.AppManager.batchops.struct.BatchAppOpsOptions;
 import io.github.muntashirakon.AppManager.batchops.struct.BatchBackupOptions;
-import io.github.muntashirakon.AppManager.batchops.struct.BatchComponentOptions;
-import io.github.muntashirakon.AppManager.batchops.struct.BatchPermissionOptions;
 import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.AppManager.profiles.struct.AppsProfile;
 import io.github.muntashirakon.AppManager.progress.ProgressHandler;
+import io.github.muntashirakon.AppManager.types.UserPackagePair;
 import io.github.muntashirakon.AppManager.users.Users;
 import io.github.muntashirakon.AppManager.utils.ContextUtils;
 import io.github.muntashirakon.AppManager.utils.ThreadUtils;
@@ -177,144 +174,21 @@ public class ProfileManager {
         }
         BatchOpsManager batchOpsManager = new BatchOpsManager(mLogger);
         BatchOpsManager.Result result;
-        // Apply component blocking
-        String[] components = mProfile.components;
-        if (components != null) {
-            log("====> Started block/unblock components. State: " + state);
-            BatchComponentOptions options = new BatchComponentOptions(components);
-            int op;
-            switch (state) {
-                case AppsProfile.STATE_ON:
-                    op = BatchOpsManager.OP_BLOCK_COMPONENTS;
-                    break;
-                case AppsProfile.STATE_OFF:
-                    op = BatchOpsManager.OP_UNBLOCK_COMPONENTS;
-                    break;
-                default:
-                    op = BatchOpsManager.OP_NONE;
+        // Apply components, app ops, permissions, trackers, freeze, force-stop, clear cache and clear data
+        ProfilePlan plan = ProfilePlan.compile(mProfile, state);
+        if (!plan.isEmpty()) {
+            log("====> Started execution plan " + plan + ". State: " + state);
+            List<UserPackagePair> failedPackages = plan.execute(mProfile.packages, users, progressHandler, mLogger);
+            if (!failedPackages.isEmpty()) {
+                Log.d(TAG, "Failed packages: %s", failedPackages);
             }
-            BatchOpsInfo info = BatchOpsInfo.getInstance(op, packages, assocUsers, options);
-            result = batchOpsManager.performOp(info, progressHandler);
-            if (!result.isSuccessful()) {
-                Log.d(TAG, "Failed packages: %s", result);
-            }
-        } else Log.d(TAG, "Skipped components.");
-        // Apply app ops blocking
-        int[] appOps = mProfile.appOps;
-        if (appOps != null) {
-            log("====> Started ignore/default components. State: " + state);
-            int mode;
-            switch (state) {
-                case AppsProfile.STATE_ON:
-                    mode = AppOpsManager.MODE_IGNORED;
-                    break;
-                case AppsProfile.STATE_OFF:
-                default:
-                    mode = AppOpsManager.MODE_DEFAULT;
-            }
-            BatchAppOpsOptions options = new BatchAppOpsOptions(appOps, mode);
-            BatchOpsInfo info = BatchOpsInfo.getInstance(BatchOpsManager.OP_SET_APP_OPS, packages,
-                    assocUsers, options);
-            result = batchOpsManager.performOp(info, progressHandler);
-            if (!result.isSuccessful()) {
-                Log.d(TAG, "Failed packages: %s", result);
-            }
-        } else Log.d(TAG, "Skipped app ops.");
-        // Apply permissions
-        String[] permissions = mProfile.permissions;
-        if (permissions != null) {
-            log("====> Started grant/revoke permissions.");
-            int op;
-            switch (state) {
-                case AppsProfile.STATE_ON:
-                    op = BatchOpsManager.OP_REVOKE_PERMISSIONS;
-                    break;
-                case AppsProfile.STATE_OFF:
-                    op = BatchOpsManager.OP_GRANT_PERMISSIONS;
-                    break;
-                default:
-                    op = BatchOpsManager.OP_NONE;
-            }
-            BatchPermissionOptions options = new BatchPermissionOptions(permissions);
-            BatchOpsInfo info = BatchOpsInfo.getInstance(op, packages, assocUsers, options);
-            result = batchOpsManager.performOp(info, progressHandler);
-            if (!result.isSuccessful()) {
-                Log.d(TAG, "Failed packages: %s", result);
-            }
-        } else Log.d(TAG, "Skipped permissions.");
+        } else Log.d(TAG, "Skipped execution plan.");
         // Backup rules
         Integer rulesFlag = mProfile.exportRules;
         if (rulesFlag != null) {
             log("====> Not implemented export rules.");
             // TODO(18/11/20): Export rules
         } else Log.d(TAG, "Skipped export rules.");
-        // Disable/enable
-        if (mProfile.freeze) {
-            log("====> Started freeze/unfreeze. State: " + state);
-            int op;
-            switch (state) {
-                case AppsProfile.STATE_ON:
-                    op = BatchOpsManager.OP_FREEZE;
-                    break;
-                case AppsProfile.STATE_OFF:
-                    op = BatchOpsManager.OP_UNFREEZE;
-                    break;
-                default:
-                    op = BatchOpsManager.OP_NONE;
-            }
-            BatchOpsInfo info = BatchOpsInfo.getInstance(op, packages, assocUsers, null);
-            result = batchOpsManager.performOp(info, progressHandler);
-            if (!result.isSuccessful()) {
-                Log.d(TAG, "Failed packages: %s", result);
-            }
-        } else Log.d(TAG, "Skipped disable/enable.");
-        // Force-stop
-        if (mProfile.forceStop) {
-            log("====> Started force-stop.");
-            BatchOpsInfo info = BatchOpsInfo.getInstance(BatchOpsManager.OP_FORCE_STOP, packages, assocUsers, null);
-            result = batchOpsManager.performOp(info, progressHandler);
-            if (!result.isSuccessful()) {
-                Log.d(TAG, "Failed packages: %s", result);
-            }
-        } else Log.d(TAG, "Skipped force stop.");
-        // Clear cache
-        if (mProfile.clearCache) {
-            log("====> Started clear cache.");
-            BatchOpsInfo info = BatchOpsInfo.getInstance(BatchOpsManager.OP_CLEAR_CACHE, packages, assocUsers, null);
-            result = batchOpsManager.performOp(info, progressHandler);
-            if (!result.isSuccessful()) {
-                Log.d(TAG, "Failed packages: %s", result);
-            }
-        } else Log.d(TAG, "Skipped clear cache.");
-        // Clear data
-        if (mProfile.clearData) {
-            log("====> Started clear data.");
-            BatchOpsInfo info = BatchOpsInfo.getInstance(BatchOpsManager.OP_CLEAR_DATA, packages, assocUsers, null);
-            result = batchOpsManager.performOp(info, progressHandler);
-            if (!result.isSuccessful()) {
-                Log.d(TAG, "Failed packages: %s", result);
-            }
-        } else Log.d(TAG, "Skipped clear data.");
-        // Block trackers
-        if (mProfile.blockTrackers) {
-            log("====> Started block trackers. State: " + state);
-            int op;
-            switch (state) {
-                case AppsProfile.STATE_ON:
-                    op = BatchOpsManager.OP_BLOCK_TRACKERS;
-                    break;
-                case AppsProfile.STATE_OFF:
-                    op = BatchOpsManager.OP_UNBLOCK_TRACKERS;
-                    break;
-                default:
-                    op = BatchOpsManager.OP_NONE;
-            }
-            BatchOpsInfo info = BatchOpsInfo.getInstance(op, packages, assocUsers, null);
-            result = batchOpsManager.performOp(info, progressHandler);
-            if (!result.isSuccessful()) {
-                Log.d(TAG, "Failed packages: %s", result);
-            }
-        } else Log.d(TAG, "Skipped block trackers.");
         // Backup apk
         if (mProfile.saveApk) {
             log("====> Started backup apk.");
@@ -371,15 +245,13 @@ public class ProfileManager {
     private int calculateMaxProgress(@NonNull List<String> userPackagePairs) {
         int packageCount = userPackagePairs.size();
         int opCount = 0;
-        if (mProfile.components != null) ++opCount;
-        if (mProfile.appOps != null) ++opCount;
-        if (mProfile.permissions != null) ++opCount;
+        // All of these are executed at once
+        if (mProfile.components != null || mProfile.appOps != null || mProfile.permissions != null
+                || mProfile.freeze || mProfile.forceStop || mProfile.clearCache || mProfile.clearData
+                || mProfile.blockTrackers) {
+            ++opCount;
+        }
         // if (profile.exportRules != null) ++opCount; todo
-        if (mProfile.freeze) ++opCount;
-        if (mProfile.forceStop) ++opCount;
-        if (mProfile.clearCache) ++opCount;
-        if (mProfile.clearData) ++opCount;
-        if (mProfile.blockTrackers) ++opCount;
         if (mProfile.saveApk) ++opCount;
         if (mProfile.backupData != null) ++opCount;
         return opCount * packageCount;
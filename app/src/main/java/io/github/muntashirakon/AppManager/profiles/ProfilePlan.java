@@ -0,0 +1,598 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.profiles;
+
+import static io.github.muntashirakon.AppManager.compat.PackageManagerCompat.MATCH_DISABLED_COMPONENTS;
+import static io.github.muntashirakon.AppManager.compat.PackageManagerCompat.MATCH_UNINSTALLED_PACKAGES;
+
+import android.app.AppOpsManager;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.RemoteException;
+import android.util.SparseIntArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.github.muntashirakon.AppManager.compat.AppOpsManagerCompat;
+import io.github.muntashirakon.AppManager.compat.ApplicationInfoCompat;
+import io.github.muntashirakon.AppManager.compat.PackageManagerCompat;
+import io.github.muntashirakon.AppManager.compat.PermissionCompat;
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.AppManager.logs.Logger;
+import io.github.muntashirakon.AppManager.profiles.struct.AppsProfile;
+import io.github.muntashirakon.AppManager.progress.ProgressHandler;
+import io.github.muntashirakon.AppManager.rules.RuleType;
+import io.github.muntashirakon.AppManager.rules.RulesStorageManager;
+import io.github.muntashirakon.AppManager.rules.compontents.ComponentUtils;
+import io.github.muntashirakon.AppManager.rules.compontents.ComponentsBlocker;
+import io.github.muntashirakon.AppManager.rules.struct.AppOpRule;
+import io.github.muntashirakon.AppManager.rules.struct.ComponentRule;
+import io.github.muntashirakon.AppManager.types.UserPackagePair;
+import io.github.muntashirakon.AppManager.utils.FreezeUtils;
+import io.github.muntashirakon.AppManager.utils.MultithreadedExecutor;
+import io.github.muntashirakon.AppManager.utils.PackageUtils;
+
+/**
+ * An execution plan for the parts of a profile that act on each package on its own, i.e. components, app ops,
+ * trackers, permissions, freezing, force-stopping and clearing cache and data. They are compiled into a single list of
+ * actions that is executed once per package and user, so that the package info and the rules of a package are only
+ * loaded once. Actions that would not change anything are skipped.
+ * <p>
+ * Packages are executed in parallel. All the users of a package are executed in the same task because the IFW rules of
+ * a package are shared by all users.
+ */
+final class ProfilePlan {
+    public static final String TAG = ProfilePlan.class.getSimpleName();
+
+    private static final int PACKAGE_INFO_FLAGS = PackageManager.GET_ACTIVITIES | PackageManager.GET_RECEIVERS
+            | PackageManager.GET_PROVIDERS | PackageManager.GET_SERVICES | PackageManager.GET_PERMISSIONS
+            | MATCH_DISABLED_COMPONENTS | MATCH_UNINSTALLED_PACKAGES
+            | PackageManagerCompat.MATCH_STATIC_SHARED_AND_SDK_LIBRARIES;
+
+    @NonNull
+    static ProfilePlan compile(@NonNull AppsProfile profile, @NonNull @AppsProfile.ProfileState String state) {
+        boolean on = state.equals(AppsProfile.STATE_ON);
+        boolean off = state.equals(AppsProfile.STATE_OFF);
+        List<Action> actions = new ArrayList<>();
+        // Components are only staged here, and applied at once afterwards. App ops are set right away, and only need
+        // to be saved to the rules.
+        boolean hasComponents = false;
+        if (profile.components != null && (on || off)) {
+            actions.add(new ComponentsAction(profile.components, on));
+            hasComponents = true;
+        }
+        if (profile.appOps != null) {
+            actions.add(new AppOpsAction(profile.appOps, on ? AppOpsManager.MODE_IGNORED : AppOpsManager.MODE_DEFAULT));
+        }
+        if (profile.blockTrackers && (on || off)) {
+            actions.add(new TrackersAction(on));
+            hasComponents = true;
+        }
+        if (hasComponents) {
+            actions.add(new ApplyRulesAction());
+        }
+        if (profile.permissions != null && (on || off)) {
+            actions.add(new PermissionsAction(profile.permissions, off));
+        }
+        if (profile.freeze && (on || off)) {
+            actions.add(new FreezeAction(on));
+        }
+        if (profile.forceStop) {
+            actions.add(new ForceStopAction());
+        }
+        if (profile.clearCache) {
+            actions.add(new ClearCacheAction());
+        }
+        if (profile.clearData) {
+            actions.add(new ClearDataAction());
+        }
+        return new ProfilePlan(actions);
+    }
+
+    /**
+     * The state of a package that is shared by all the actions.
+     */
+    private static final class Target {
+        @NonNull
+        final UserPackagePair pair;
+        @NonNull
+        final PackageInfo packageInfo;
+        @NonNull
+        final ApplicationInfo applicationInfo;
+        @Nullable
+        private ComponentsBlocker mBlocker;
+        private boolean mRulesModified;
+        private boolean mRulesChecked;
+
+        Target(@NonNull UserPackagePair pair) throws Exception {
+            this.pair = pair;
+            packageInfo = PackageManagerCompat.getPackageInfo(pair.getPackageName(), PACKAGE_INFO_FLAGS,
+                    pair.getUserId());
+            applicationInfo = packageInfo.applicationInfo;
+        }
+
+        @NonNull
+        ComponentsBlocker getBlocker() {
+            if (mBlocker == null) {
+                mBlocker = ComponentsBlocker.getMutableInstance(packageInfo, pair.getUserId());
+            }
+            return mBlocker;
+        }
+
+        /**
+         * Whether the components blocked by the rules are actually blocked, i.e. the IFW rules and the states of the
+         * components have not been altered outside App Manager. Components that drifted are set to be applied again.
+         */
+        boolean areRulesInEffect() {
+            if (mRulesModified || mRulesChecked) {
+                // Rules have to be applied anyway, or they were checked already
+                return true;
+            }
+            mRulesChecked = true;
+            return getBlocker().isUpToDate();
+        }
+
+        void close() {
+            if (mBlocker != null) {
+                if (!mRulesModified) {
+                    // Nothing to save
+                    mBlocker.setReadOnly();
+                }
+                mBlocker.close();
+            }
+        }
+    }
+
+    private abstract static class Action {
+        @NonNull
+        final String name;
+
+        Action(@NonNull String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return {@code false} if the package is already in the desired state, and nothing has been done
+         */
+        abstract boolean execute(@NonNull Target target) throws Exception;
+
+        @NonNull
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final class ComponentsAction extends Action {
+        @NonNull
+        private final String[] mSignatures;
+        private final boolean mBlock;
+
+        ComponentsAction(@NonNull String[] signatures, boolean block) {
+            super(block ? "BLOCK_COMPONENTS" : "UNBLOCK_COMPONENTS");
+            mSignatures = signatures;
+            mBlock = block;
+        }
+
+        @Override
+        boolean execute(@NonNull Target target) {
+            return stageComponents(target, PackageUtils.getFilteredComponents(target.packageInfo, mSignatures),
+                    mBlock);
+        }
+    }
+
+    private static final class TrackersAction extends Action {
+        private final boolean mBlock;
+
+        TrackersAction(boolean block) {
+            super(block ? "BLOCK_TRACKERS" : "UNBLOCK_TRACKERS");
+            mBlock = block;
+        }
+
+        @Override
+        boolean execute(@NonNull Target target) {
+            return stageComponents(target, ComponentUtils.getTrackerComponentsForPackage(target.packageInfo), mBlock);
+        }
+    }
+
+    private static boolean stageComponents(@NonNull Target target, @NonNull Map<String, RuleType> components,
+                                           boolean block) {
+        if (components.isEmpty()) {
+            return false;
+        }
+        ComponentsBlocker cb = target.getBlocker();
+        boolean modified = false;
+        boolean checkRules = false;
+        for (Map.Entry<String, RuleType> component : components.entrySet()) {
+            ComponentRule rule = cb.getComponent(component.getKey());
+            if (block) {
+                if (rule != null && rule.isBlocked()) {
+                    // Blocked according to the rules, but it may have been unblocked by other means
+                    checkRules = true;
+                    continue;
+                }
+                cb.addComponent(component.getKey(), component.getValue());
+            } else {
+                if (rule == null) {
+                    // Not blocked by us
+                    continue;
+                }
+                cb.removeComponent(component.getKey());
+            }
+            modified = true;
+        }
+        if (!modified && checkRules && !target.areRulesInEffect()) {
+            // Apply the rules again
+            modified = true;
+        }
+        target.mRulesModified |= modified;
+        return modified;
+    }
+
+    private static final class AppOpsAction extends Action {
+        @NonNull
+        private final int[] mAppOps;
+        @AppOpsManagerCompat.Mode
+        private final int mMode;
+
+        AppOpsAction(@NonNull int[] appOps, @AppOpsManagerCompat.Mode int mode) {
+            super("SET_APP_OPS");
+            mAppOps = appOps;
+            mMode = mode;
+        }
+
+        @Override
+        boolean execute(@NonNull Target target) throws Exception {
+            AppOpsManagerCompat appOpsManager = new AppOpsManagerCompat();
+            String packageName = target.pair.getPackageName();
+            int uid = target.applicationInfo.uid;
+            List<Integer> appOps = new ArrayList<>();
+            if (mAppOps.length == 1 && mAppOps[0] == AppOpsManagerCompat.OP_NONE) {
+                // Wildcard detected
+                for (AppOpsManagerCompat.OpEntry entry : AppOpsManagerCompat.getConfiguredOpsForPackage(
+                        appOpsManager, packageName, uid)) {
+                    appOps.add(entry.getOp());
+                }
+            } else {
+                for (int appOp : mAppOps) {
+                    appOps.add(appOp);
+                }
+            }
+            PackageAppOps packageAppOps = new PackageAppOps() {
+                @Override
+                public int checkOperation(int op) throws RemoteException {
+                    return appOpsManager.checkOperation(op, uid, packageName);
+                }
+
+                @Override
+                public void setMode(int op, int mode) throws RemoteException {
+                    appOpsManager.setMode(op, uid, packageName, mode);
+                }
+
+                @Override
+                public int getDefaultMode(int op) {
+                    return AppOpsManagerCompat.opToDefaultMode(op);
+                }
+            };
+            boolean modified = setAppOps(packageAppOps, appOps, mMode, target.getBlocker());
+            target.mRulesModified |= modified;
+            return modified;
+        }
+    }
+
+    /**
+     * The app ops of a package.
+     */
+    @VisibleForTesting
+    interface PackageAppOps {
+        /**
+         * @see AppOpsManagerCompat#checkOperation(int, int, String)
+         */
+        @AppOpsManagerCompat.Mode
+        int checkOperation(int op) throws RemoteException;
+
+        /**
+         * @see AppOpsManagerCompat#setMode(int, int, String, int)
+         */
+        void setMode(int op, @AppOpsManagerCompat.Mode int mode) throws RemoteException;
+
+        /**
+         * @see AppOpsManagerCompat#opToDefaultMode(int)
+         */
+        @AppOpsManagerCompat.Mode
+        int getDefaultMode(int op);
+    }
+
+    /**
+     * Set the mode of the app ops unless it is already in effect, and save the mode to the rules in either case so that
+     * the rules match the profile even if the app ops were set by other means.
+     *
+     * @return {@code true} if any of the app ops or the rules has been modified
+     */
+    @VisibleForTesting
+    static boolean setAppOps(@NonNull PackageAppOps packageAppOps, @NonNull List<Integer> appOps,
+                             @AppOpsManagerCompat.Mode int mode, @NonNull RulesStorageManager rules)
+            throws RemoteException {
+        SparseIntArray savedModes = new SparseIntArray();
+        for (AppOpRule rule : rules.getAll(AppOpRule.class)) {
+            savedModes.put(rule.getOp(), rule.getMode());
+        }
+        boolean modified = false;
+        for (int appOp : appOps) {
+            // checkOperation() returns the effective mode, which is the default mode of the app op in place of
+            // MODE_DEFAULT
+            int effectiveMode = mode == AppOpsManager.MODE_DEFAULT ? packageAppOps.getDefaultMode(appOp) : mode;
+            if (packageAppOps.checkOperation(appOp) != effectiveMode) {
+                packageAppOps.setMode(appOp, mode);
+                modified = true;
+            }
+            if (savedModes.indexOfKey(appOp) < 0 || savedModes.get(appOp) != mode) {
+                rules.setAppOp(appOp, mode);
+                modified = true;
+            }
+        }
+        return modified;
+    }
+
+    private static final class ApplyRulesAction extends Action {
+        ApplyRulesAction() {
+            super("APPLY_RULES");
+        }
+
+        @Override
+        boolean execute(@NonNull Target target) {
+            if (!target.mRulesModified) {
+                return false;
+            }
+            if (!target.getBlocker().applyRules(true)) {
+                // Same as the batch operations, the rules are saved regardless
+                Log.w(TAG, "Could not apply all the rules of %s", target.pair);
+            }
+            return true;
+        }
+    }
+
+    private static final class PermissionsAction extends Action {
+        @NonNull
+        private final String[] mPermissions;
+        private final boolean mGrant;
+
+        PermissionsAction(@NonNull String[] permissions, boolean grant) {
+            super(grant ? "GRANT_PERMISSIONS" : "REVOKE_PERMISSIONS");
+            mPermissions = permissions;
+            mGrant = grant;
+        }
+
+        @Override
+        boolean execute(@NonNull Target target) throws Exception {
+            String[] requestedPermissions = target.packageInfo.requestedPermissions;
+            int[] permissionFlags = target.packageInfo.requestedPermissionsFlags;
+            String[] permissions;
+            if (mPermissions.length == 1 && mPermissions[0].equals("*")) {
+                // Wildcard detected
+                if (requestedPermissions == null) {
+                    return false;
+                }
+                permissions = requestedPermissions;
+            } else permissions = mPermissions;
+            String packageName = target.pair.getPackageName();
+            int userId = target.pair.getUserId();
+            boolean modified = false;
+            Exception lastException = null;
+            for (String permission : permissions) {
+                Boolean granted = isGranted(requestedPermissions, permissionFlags, permission);
+                if (granted != null && granted == mGrant) {
+                    continue;
+                }
+                try {
+                    if (mGrant) {
+                        PermissionCompat.grantPermission(packageName, permission, userId);
+                    } else {
+                        PermissionCompat.revokePermission(packageName, permission, userId);
+                    }
+                    modified = true;
+                } catch (Exception e) {
+                    // Continue with the rest of the permissions
+                    lastException = e;
+                }
+            }
+            if (lastException != null) {
+                throw lastException;
+            }
+            return modified;
+        }
+
+        /**
+         * @return {@code null} if the permission is not requested by the package
+         */
+        @Nullable
+        private static Boolean isGranted(@Nullable String[] requestedPermissions, @Nullable int[] permissionFlags,
+                                         @NonNull String permission) {
+            if (requestedPermissions == null || permissionFlags == null) {
+                return null;
+            }
+            for (int i = 0; i < requestedPermissions.length; ++i) {
+                if (permission.equals(requestedPermissions[i])) {
+                    return (permissionFlags[i] & PackageInfo.REQUESTED_PERMISSION_GRANTED) != 0;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class FreezeAction extends Action {
+        private final boolean mFreeze;
+
+        FreezeAction(boolean freeze) {
+            super(freeze ? "FREEZE" : "UNFREEZE");
+            mFreeze = freeze;
+        }
+
+        @Override
+        boolean execute(@NonNull Target target) throws Exception {
+            if (FreezeUtils.isFrozen(target.applicationInfo) == mFreeze) {
+                return false;
+            }
+            if (mFreeze) {
+                //noinspection deprecation
+                FreezeUtils.freeze(target.pair.getPackageName(), target.pair.getUserId());
+            } else {
+                FreezeUtils.unfreeze(target.pair.getPackageName(), target.pair.getUserId());
+            }
+            return true;
+        }
+    }
+
+    private static final class ForceStopAction extends Action {
+        ForceStopAction() {
+            super("FORCE_STOP");
+        }
+
+        @Override
+        boolean execute(@NonNull Target target) throws Exception {
+            if (ApplicationInfoCompat.isStopped(target.applicationInfo)) {
+                return false;
+            }
+            PackageManagerCompat.forceStopPackage(target.pair.getPackageName(), target.pair.getUserId());
+            return true;
+        }
+    }
+
+    private static final class ClearCacheAction extends Action {
+        ClearCacheAction() {
+            super("CLEAR_CACHE");
+        }
+
+        @Override
+        boolean execute(@NonNull Target target) throws Exception {
+            PackageManagerCompat.deleteApplicationCacheFilesAsUser(target.pair);
+            return true;
+        }
+    }
+
+    private static final class ClearDataAction extends Action {
+        ClearDataAction() {
+            super("CLEAR_DATA");
+        }
+
+        @Override
+        boolean execute(@NonNull Target target) throws Exception {
+            PackageManagerCompat.clearApplicationUserData(target.pair);
+            return true;
+        }
+    }
+
+    @NonNull
+    private final List<Action> mActions;
+
+    private ProfilePlan(@NonNull List<Action> actions) {
+        mActions = Collections.unmodifiableList(actions);
+    }
+
+    public boolean isEmpty() {
+        return mActions.isEmpty();
+    }
+
+    /**
+     * Execute the plan for all the packages and users.
+     *
+     * @return The packages for which at least one of the actions failed
+     */
+    @WorkerThread
+    @NonNull
+    public List<UserPackagePair> execute(@NonNull String[] packages, @NonNull int[] users,
+                                         @Nullable ProgressHandler progressHandler, @Nullable Logger logger) {
+        if (isEmpty()) {
+            return Collections.emptyList();
+        }
+        long startTime = System.currentTimeMillis();
+        float lastProgress = progressHandler != null ? progressHandler.getLastProgress() : 0;
+        AtomicInteger progress = new AtomicInteger();
+        MultithreadedExecutor executor = MultithreadedExecutor.getNewInstance();
+        List<Future<List<UserPackagePair>>> results = new ArrayList<>(packages.length);
+        for (String packageName : packages) {
+            results.add(executor.submit(() -> {
+                List<UserPackagePair> failedPackages = new ArrayList<>();
+                for (int userId : users) {
+                    UserPackagePair pair = new UserPackagePair(packageName, userId);
+                    if (!execute(pair, logger)) {
+                        failedPackages.add(pair);
+                    }
+                    if (progressHandler != null) {
+                        progressHandler.postUpdate(lastProgress + progress.incrementAndGet());
+                    }
+                }
+                return failedPackages;
+            }));
+        }
+        executor.shutdown();
+        List<UserPackagePair> failedPackages = new ArrayList<>();
+        for (int i = 0; i < results.size(); ++i) {
+            try {
+                failedPackages.addAll(results.get(i).get());
+            } catch (ExecutionException e) {
+                log(logger, "====> op=PLAN, pkg=" + packages[i], e.getCause());
+                for (int userId : users) {
+                    failedPackages.add(new UserPackagePair(packages[i], userId));
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        Log.d(TAG, "Executed %s for %d packages in %d ms", mActions, packages.length,
+                System.currentTimeMillis() - startTime);
+        return failedPackages;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return mActions.toString();
+    }
+
+    private boolean execute(@NonNull UserPackagePair pair, @Nullable Logger logger) {
+        Target target;
+        try {
+            target = new Target(pair);
+        } catch (Exception e) {
+            log(logger, "====> op=LOAD_PACKAGE, pkg=" + pair, e);
+            return false;
+        }
+        boolean isSuccessful = true;
+        try {
+            for (Action action : mActions) {
+                try {
+                    if (!action.execute(target)) {
+                        Log.d(TAG, "Skipped %s for %s", action, pair);
+                    }
+                } catch (Exception e) {
+                    log(logger, "====> op=" + action + ", pkg=" + pair, e);
+                    isSuccessful = false;
+                }
+            }
+        } finally {
+            target.close();
+        }
+        return isSuccessful;
+    }
+
+    private static void log(@Nullable Logger logger, @Nullable String message, @Nullable Throwable th) {
+        if (logger != null) {
+            logger.println(message, th);
+        }
+    }
+}
@@ -16,7 +16,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Objects;
 
@@ -45,8 +45,46 @@ import io.github.muntashirakon.io.PathReader;
 import io.github.muntashirakon.io.Paths;
 
 public class RulesStorageManager implements Closeable {
+    /**
+     * Key of a rule that is unique within a package, i.e. all rules except {@link RuleType#URI_GRANT}.
+     */
+    private static final class EntryKey {
+        @NonNull
+        private final RuleType mType;
+        @NonNull
+        private final String mName;
+
+        EntryKey(@NonNull RuleType type, @NonNull String name) {
+            mType = type;
+            mName = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof EntryKey)) return false;
+            EntryKey entryKey = (EntryKey) o;
+            return mType == entryKey.mType && mName.equals(entryKey.mName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mType.hashCode() + mName.hashCode();
+        }
+    }
+
+    /**
+     * All the entries in the order they were added, indexed by {@link EntryKey}. Since {@link RuleType#URI_GRANT} is
+     * not unique, it is indexed by the entry itself.
+     */
     @NonNull
-    private final ArrayList<RuleEntry> mEntries;
+    private final LinkedHashMap<Object, RuleEntry> mEntries;
+    // Number of entries of each type, indexed by RuleType#ordinal()
+    @GuardedBy("entries")
+    private final int[] mTypeCounts = new int[RuleType.values().length];
+    // Number of components that are to be removed
+    @GuardedBy("entries")
+    private int mComponentsToBeRemovedCount;
 
     @GuardedBy("entries")
     @NonNull
@@ -59,7 +97,7 @@ public class RulesStorageManager implements Closeable {
     protected RulesStorageManager(@NonNull String packageName, @UserIdInt int userId) {
         this.packageName = packageName;
         this.userId = userId;
-        mEntries = new ArrayList<>();
+        mEntries = new LinkedHashMap<>();
         try {
             loadEntries(getDesiredFile(false), false);
         } catch (Throwable ignored) {
@@ -83,7 +121,7 @@ public class RulesStorageManager implements Closeable {
     public <T extends RuleEntry> List<T> getAll(Class<T> type) {
         synchronized (mEntries) {
             List<T> newEntries = new ArrayList<>();
-            for (RuleEntry entry : mEntries) if (type.isInstance(entry)) newEntries.add(type.cast(entry));
+            for (RuleEntry entry : mEntries.values()) if (type.isInstance(entry)) newEntries.add(type.cast(entry));
             return newEntries;
         }
     }
@@ -92,7 +130,7 @@ public class RulesStorageManager implements Closeable {
     public List<RuleEntry> getAll(List<RuleType> types) {
         synchronized (mEntries) {
             List<RuleEntry> newEntries = new ArrayList<>();
-            for (RuleEntry entry : mEntries) if (types.contains(entry.type)) newEntries.add(entry);
+            for (RuleEntry entry : mEntries.values()) if (types.contains(entry.type)) newEntries.add(entry);
             return newEntries;
         }
     }
@@ -105,7 +143,7 @@ public class RulesStorageManager implements Closeable {
     @GuardedBy("entries")
     public List<RuleEntry> getAll() {
         synchronized (mEntries) {
-            return mEntries;
+            return new ArrayList<>(mEntries.values());
         }
     }
 
@@ -116,10 +154,47 @@ public class RulesStorageManager implements Closeable {
         }
     }
 
+    /**
+     * Get the number of entries of the given type.
+     */
+    @GuardedBy("entries")
+    public int entryCount(@NonNull RuleType type) {
+        synchronized (mEntries) {
+            return mTypeCounts[type.ordinal()];
+        }
+    }
+
+    /**
+     * Get the number of components except the ones that are to be removed.
+     */
+    @GuardedBy("entries")
+    protected int activeComponentCount() {
+        synchronized (mEntries) {
+            return mTypeCounts[RuleType.ACTIVITY.ordinal()] + mTypeCounts[RuleType.PROVIDER.ordinal()]
+                    + mTypeCounts[RuleType.RECEIVER.ordinal()] + mTypeCounts[RuleType.SERVICE.ordinal()]
+                    - mComponentsToBeRemovedCount;
+        }
+    }
+
+    /**
+     * Get the entry of the given name and type. Since {@link RuleType#URI_GRANT} is not unique, it is not supported.
+     */
+    @GuardedBy("entries")
+    @Nullable
+    protected RuleEntry getEntry(@NonNull String name, @NonNull RuleType type) {
+        synchronized (mEntries) {
+            return mEntries.get(new EntryKey(type, name));
+        }
+    }
+
     @GuardedBy("entries")
     public void removeEntry(RuleEntry entry) {
         synchronized (mEntries) {
-            mEntries.remove(entry);
+            Object key = getKey(entry);
+            RuleEntry existingEntry = mEntries.get(key);
+            if (existingEntry != null && existingEntry.equals(entry)) {
+                removeEntryInternal(key);
+            }
         }
     }
 
@@ -127,15 +202,16 @@ public class RulesStorageManager implements Closeable {
     @Nullable
     protected RuleEntry removeEntries(String name, RuleType type) {
         synchronized (mEntries) {
-            Iterator<RuleEntry> entryIterator = mEntries.iterator();
-            RuleEntry entry = null;
-            while (entryIterator.hasNext()) {
-                entry = entryIterator.next();
-                if (entry.name.equals(name) && entry.type.equals(type)) {
-                    entryIterator.remove();
+            if (type != RuleType.URI_GRANT) {
+                return removeEntryInternal(new EntryKey(type, name));
+            }
+            RuleEntry removedEntry = null;
+            for (RuleEntry entry : new ArrayList<>(mEntries.values())) {
+                if (entry.type == type && entry.name.equals(name)) {
+                    removedEntry = removeEntryInternal(entry);
                 }
             }
-            return entry;
+            return removedEntry;
         }
     }
 
@@ -207,8 +283,8 @@ public class RulesStorageManager implements Closeable {
     @GuardedBy("entries")
     private void addEntryInternal(@NonNull RuleEntry entry) {
         synchronized (mEntries) {
-            removeEntry(entry);
-            mEntries.add(entry);
+            removeEntryInternal(entry);
+            putEntryInternal(entry, entry);
         }
     }
 
@@ -219,21 +295,49 @@ public class RulesStorageManager implements Closeable {
     @Nullable
     private RuleEntry addUniqueEntry(@NonNull RuleEntry entry) {
         synchronized (mEntries) {
-            RuleEntry previousEntry = removeEntries(entry.name, entry.type);
-            mEntries.add(entry);
+            EntryKey key = new EntryKey(entry.type, entry.name);
+            // Removed so that the entry is moved to the end
+            RuleEntry previousEntry = removeEntryInternal(key);
+            putEntryInternal(key, entry);
             return previousEntry;
         }
     }
 
+    @GuardedBy("entries")
+    private void putEntryInternal(@NonNull Object key, @NonNull RuleEntry entry) {
+        mEntries.put(key, entry);
+        ++mTypeCounts[entry.type.ordinal()];
+        if (entry instanceof ComponentRule && ((ComponentRule) entry).toBeRemoved()) {
+            ++mComponentsToBeRemovedCount;
+        }
+    }
+
+    @GuardedBy("entries")
+    @Nullable
+    private RuleEntry removeEntryInternal(@NonNull Object key) {
+        RuleEntry entry = mEntries.remove(key);
+        if (entry != null) {
+            --mTypeCounts[entry.type.ordinal()];
+            if (entry instanceof ComponentRule && ((ComponentRule) entry).toBeRemoved()) {
+                --mComponentsToBeRemovedCount;
+            }
+        }
+        return entry;
+    }
+
+    @NonNull
+    private static Object getKey(@NonNull RuleEntry entry) {
+        return entry.type == RuleType.URI_GRANT ? entry : new EntryKey(entry.type, entry.name);
+    }
+
     @GuardedBy("entries")
     protected void loadEntries(Path file, boolean isExternal) throws IOException {
         String dataRow;
         try (BufferedReader TSVFile = new BufferedReader(new PathReader(file))) {
             while ((dataRow = TSVFile.readLine()) != null) {
                 RuleEntry entry = RuleEntry.unflattenFromString(packageName, dataRow, isExternal);
-                synchronized (mEntries) {
-                    mEntries.add(entry);
-                }
+                // Duplicates, if any, are merged
+                addEntry(entry);
             }
         }
     }
@@ -267,7 +371,7 @@ public class RulesStorageManager implements Closeable {
                 return;
             }
             try (OutputStream TSVFile = tsvRulesFile.openOutputStream()) {
-                ComponentUtils.storeRules(TSVFile, mEntries, isExternal);
+                ComponentUtils.storeRules(TSVFile, mEntries.values(), isExternal);
             }
         }
     }
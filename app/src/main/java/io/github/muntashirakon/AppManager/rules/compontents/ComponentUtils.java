@@ -43,12 +43,7 @@ import io.github.muntashirakon.io.Paths;
 
 public final class ComponentUtils {
     public static boolean isTracker(String componentName) {
-        for (String signature : StaticDataset.getTrackerCodeSignatures()) {
-            if (componentName.startsWith(signature) || componentName.contains(signature)) {
-                return true;
-            }
-        }
-        return false;
+        return StaticDataset.getTrackerSignatureMatcher().matches(componentName);
     }
 
     @NonNull
@@ -143,7 +138,7 @@ public final class ComponentUtils {
         }
     }
 
-    public static void storeRules(@NonNull OutputStream os, @NonNull List<RuleEntry> rules, boolean isExternal)
+    public static void storeRules(@NonNull OutputStream os, @NonNull Collection<RuleEntry> rules, boolean isExternal)
             throws IOException {
         for (RuleEntry entry : rules) {
             os.write((entry.flattenToString(isExternal) + "\n").getBytes());
@@ -16,22 +16,27 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.RemoteException;
-import android.system.ErrnoException;
 
 import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import io.github.muntashirakon.AppManager.compat.AppOpsManagerCompat;
 import io.github.muntashirakon.AppManager.compat.ApplicationInfoCompat;
@@ -47,7 +52,10 @@ import io.github.muntashirakon.AppManager.rules.struct.PermissionRule;
 import io.github.muntashirakon.AppManager.rules.struct.RuleEntry;
 import io.github.muntashirakon.AppManager.self.SelfPermissions;
 import io.github.muntashirakon.AppManager.settings.Prefs;
+import io.github.muntashirakon.AppManager.utils.MultithreadedExecutor;
 import io.github.muntashirakon.AppManager.utils.PackageUtils;
+import io.github.muntashirakon.compat.xml.TypedXmlSerializer;
+import io.github.muntashirakon.compat.xml.Xml;
 import io.github.muntashirakon.io.AtomicExtendedFile;
 import io.github.muntashirakon.io.Paths;
 
@@ -75,6 +83,9 @@ public final class ComponentsBlocker extends RulesStorageManager {
                 : "/data/system/ifw";
     }
 
+    private static final RuleType[] COMPONENT_TYPES = new RuleType[]{RuleType.ACTIVITY, RuleType.PROVIDER,
+            RuleType.RECEIVER, RuleType.SERVICE};
+
     /**
      * Get a new or existing IMMUTABLE instance of {@link ComponentsBlocker}. The existing instance
      * will only be returned if the existing instance has the same package name as the original.
@@ -116,6 +127,21 @@ public final class ComponentsBlocker extends RulesStorageManager {
         return componentsBlocker;
     }
 
+    /**
+     * Same as {@link #getMutableInstance(String, int)}, except that the given package info is used instead of loading
+     * it again. The package info must include all the components of the package.
+     *
+     * @param packageInfo The package whose instance is to be returned
+     * @param userHandle  The user to whom the rules belong
+     * @return New mutable instance for the package
+     */
+    @NonNull
+    public static ComponentsBlocker getMutableInstance(@NonNull PackageInfo packageInfo, int userHandle) {
+        ComponentsBlocker componentsBlocker = new ComponentsBlocker(packageInfo.packageName, userHandle, packageInfo);
+        componentsBlocker.readOnly = false;
+        return componentsBlocker;
+    }
+
     /**
      * Get a new or existing IMMUTABLE instance of {@link ComponentsBlocker}. The existing instance
      * will only be returned if the existing instance has the same package name as the original. It
@@ -150,18 +176,28 @@ public final class ComponentsBlocker extends RulesStorageManager {
     private PackageInfo mPackageInfo;
 
     private ComponentsBlocker(@NonNull String packageName, int userHandle) {
+        this(packageName, userHandle, loadPackageInfo(packageName, userHandle));
+    }
+
+    private ComponentsBlocker(@NonNull String packageName, int userHandle, @Nullable PackageInfo packageInfo) {
         super(packageName, userHandle);
         mRulesFile = new AtomicExtendedFile(Objects.requireNonNull(Paths.get(SYSTEM_RULES_PATH).getFile())
                 .getChildFile(packageName + ".xml"));
+        mPackageInfo = packageInfo;
+        mComponents = mPackageInfo != null ? PackageUtils.collectComponentClassNames(mPackageInfo).keySet() : null;
+    }
+
+    @Nullable
+    private static PackageInfo loadPackageInfo(@NonNull String packageName, int userHandle) {
         try {
-            mPackageInfo = PackageManagerCompat.getPackageInfo(packageName, PackageManager.GET_ACTIVITIES
+            return PackageManagerCompat.getPackageInfo(packageName, PackageManager.GET_ACTIVITIES
                     | PackageManager.GET_RECEIVERS | PackageManager.GET_PROVIDERS | MATCH_DISABLED_COMPONENTS
                     | MATCH_UNINSTALLED_PACKAGES | PackageManager.GET_SERVICES
                     | PackageManagerCompat.MATCH_STATIC_SHARED_AND_SDK_LIBRARIES, userHandle);
         } catch (Throwable e) {
             Log.e(TAG, e.getMessage(), e);
+            return null;
         }
-        mComponents = mPackageInfo != null ? PackageUtils.collectComponentClassNames(mPackageInfo).keySet() : null;
     }
 
     /**
@@ -172,7 +208,8 @@ public final class ComponentsBlocker extends RulesStorageManager {
     }
 
     /**
-     * Apply all rules configured within App Manager. This also includes {@link #SYSTEM_RULES_PATH}.
+     * Apply all rules configured within App Manager. This also includes {@link #SYSTEM_RULES_PATH}. Packages whose rules
+     * are already in effect are skipped, and the rest are applied in parallel.
      *
      * @param context    Application Context
      * @param userHandle The user to apply rules
@@ -183,18 +220,52 @@ public final class ComponentsBlocker extends RulesStorageManager {
         // Apply all rules from conf folder
         File confPath = new File(context.getFilesDir(), "conf");
         String[] packageNamesWithTSVExt = confPath.list((dir, name) -> name.endsWith(".tsv"));
+        if (packageNamesWithTSVExt == null) {
+            return true;
+        }
+        long startTime = System.currentTimeMillis();
+        MultithreadedExecutor executor = MultithreadedExecutor.getNewInstance();
+        List<Future<Boolean>> results = new ArrayList<>(packageNamesWithTSVExt.length);
+        for (String packageNameWithTSVExt : packageNamesWithTSVExt) {
+            results.add(executor.submit(() -> applyRulesIfRequired(Paths.trimPathExtension(packageNameWithTSVExt),
+                    userHandle)));
+        }
+        executor.shutdown();
         boolean isSuccessful = true;
-        if (packageNamesWithTSVExt != null) {
-            // Apply rules
-            for (String packageNameWithTSVExt : packageNamesWithTSVExt) {
-                try (ComponentsBlocker cb = getMutableInstance(Paths.trimPathExtension(packageNameWithTSVExt), userHandle)) {
-                    isSuccessful &= cb.applyRules(true);
-                }
+        for (Future<Boolean> result : results) {
+            try {
+                isSuccessful &= result.get();
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Could not apply rules", e.getCause());
+                isSuccessful = false;
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+                return false;
             }
         }
+        Log.d(TAG, "Applied rules of %d packages in %d ms", packageNamesWithTSVExt.length,
+                System.currentTimeMillis() - startTime);
         return isSuccessful;
     }
 
+    @WorkerThread
+    private static boolean applyRulesIfRequired(@NonNull String packageName, int userHandle) {
+        long startTime = System.currentTimeMillis();
+        try (ComponentsBlocker cb = getMutableInstance(packageName, userHandle)) {
+            if (cb.isUpToDate()) {
+                // Nothing to commit either
+                cb.setReadOnly();
+                Log.d(TAG, "Rules of %s are up-to-date, checked in %d ms", packageName,
+                        System.currentTimeMillis() - startTime);
+                return true;
+            }
+            boolean isSuccessful = cb.applyRules(true);
+            Log.d(TAG, "Applied rules of %s in %d ms", packageName, System.currentTimeMillis() - startTime);
+            return isSuccessful;
+        }
+    }
+
     /**
      * Whether the given component is blocked.
      *
@@ -216,8 +287,7 @@ public final class ComponentsBlocker extends RulesStorageManager {
      */
     @GuardedBy("entries")
     public boolean hasComponentName(String componentName) {
-        for (ComponentRule entry : getAllComponents()) if (entry.name.equals(componentName)) return true;
-        return false;
+        return getComponent(componentName) != null;
     }
 
     /**
@@ -226,17 +296,14 @@ public final class ComponentsBlocker extends RulesStorageManager {
      * @return Number of components
      */
     public int componentCount() {
-        int count = 0;
-        for (ComponentRule entry : getAllComponents()) {
-            if (!entry.toBeRemoved()) ++count;
-        }
-        return count;
+        return activeComponentCount();
     }
 
     @Nullable
     public ComponentRule getComponent(String componentName) {
-        for (ComponentRule rule : getAllComponents()) {
-            if (rule.name.equals(componentName)) return rule;
+        for (RuleType type : COMPONENT_TYPES) {
+            RuleEntry entry = getEntry(componentName, type);
+            if (entry instanceof ComponentRule) return (ComponentRule) entry;
         }
         return null;
     }
@@ -313,53 +380,101 @@ public final class ComponentsBlocker extends RulesStorageManager {
         }
         if (!apply || componentCount() == 0) {
             // No components set, delete if already exists
-            mRulesFile.delete();
+            IntentFirewallTransaction.delete(packageName, mRulesFile);
             return true;
         }
-        StringBuilder activities = new StringBuilder();
-        StringBuilder services = new StringBuilder();
-        StringBuilder receivers = new StringBuilder();
+        byte[] rules;
+        try {
+            rules = generateIfwRules();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to generate rules for package %s", e, packageName);
+            return false;
+        }
+        // Save rules
+        return IntentFirewallTransaction.write(packageName, mRulesFile, rules);
+    }
+
+    /**
+     * Whether the rules are already in effect, i.e. the IFW rules and the states of the components match the rules.
+     * Components whose states do not match are set to be applied again.
+     */
+    @WorkerThread
+    public boolean isUpToDate() {
+        if (invalidateComponents() > 0) {
+            return false;
+        }
+        for (ComponentRule entry : getAllComponents()) {
+            if (!entry.isApplied()) {
+                return false;
+            }
+        }
+        if (!SelfPermissions.canBlockByIFW()) {
+            return true;
+        }
+        if (componentCount() == 0) {
+            return !mRulesFile.exists();
+        }
+        if (!mRulesFile.exists()) {
+            return false;
+        }
+        try {
+            return Arrays.equals(generateIfwRules(), mRulesFile.readFully());
+        } catch (IOException | RemoteException e) {
+            return false;
+        }
+    }
+
+    @NonNull
+    private byte[] generateIfwRules() throws IOException {
+        List<String> activities = new ArrayList<>();
+        List<String> services = new ArrayList<>();
+        List<String> receivers = new ArrayList<>();
         for (ComponentRule component : getAllComponents()) {
             // Ignore components requiring unblocking
             if (!component.isIfw()) continue;
-            String componentFilter = "  <component-filter name=\"" + packageName + "/" + component.name + "\"/>\n";
+            String componentFilter = packageName + "/" + component.name;
             switch (component.type) {
                 case ACTIVITY:
-                    activities.append(componentFilter);
+                    activities.add(componentFilter);
                     break;
                 case RECEIVER:
-                    receivers.append(componentFilter);
+                    receivers.add(componentFilter);
                     break;
                 case SERVICE:
-                    services.append(componentFilter);
+                    services.add(componentFilter);
                     break;
                 case PROVIDER:
             }
         }
+        try (ByteArrayOutputStream os = new ByteArrayOutputStream()) {
+            // IFW can only read text XML
+            TypedXmlSerializer serializer = Xml.newFastSerializer();
+            serializer.setOutput(os, StandardCharsets.UTF_8.name());
+            serializer.startDocument(null, null);
+            serializer.startTag(null, "rules");
+            writeComponentFilters(serializer, "activity", activities);
+            writeComponentFilters(serializer, "service", services);
+            writeComponentFilters(serializer, "broadcast", receivers);
+            serializer.endTag(null, "rules");
+            serializer.endDocument();
+            return os.toByteArray();
+        }
+    }
 
-        String rules = "<rules>\n" +
-                ((activities.length() == 0) ? "" : "<activity block=\"true\" log=\"false\">\n" + activities + "</activity>\n") +
-                ((services.length() == 0) ? "" : "<service block=\"true\" log=\"false\">\n" + services + "</service>\n") +
-                ((receivers.length() == 0) ? "" : "<broadcast block=\"true\" log=\"false\">\n" + receivers + "</broadcast>\n") +
-                "</rules>";
-        // Save rules
-        FileOutputStream rulesStream = null;
-        try {
-            rulesStream = mRulesFile.startWrite();
-            Log.d(TAG, "Rules: %s", rules);
-            rulesStream.write(rules.getBytes());
-            mRulesFile.finishWrite(rulesStream);
-            //noinspection OctalInteger
-            mRulesFile.getBaseFile().setMode(0666);
-            return true;
-        } catch (IOException e) {
-            Log.e(TAG, "Failed to write rules for package %s", e, packageName);
-            mRulesFile.failWrite(rulesStream);
-            return false;
-        } catch (ErrnoException e) {
-            Log.w(TAG, "Failed to alter permission of IFW for package %s", e, packageName);
-            return true;
+    private static void writeComponentFilters(@NonNull TypedXmlSerializer serializer, @NonNull String tag,
+                                              @NonNull List<String> componentFilters) throws IOException {
+        if (componentFilters.isEmpty()) {
+            return;
+        }
+        serializer.startTag(null, tag);
+        serializer.attributeBoolean(null, "block", true);
+        serializer.attributeBoolean(null, "log", false);
+        for (String componentFilter : componentFilters) {
+            serializer.startTag(null, "component-filter");
+            serializer.attribute(null, "name", componentFilter);
+            serializer.endTag(null, "component-filter");
         }
+        serializer.endTag(null, tag);
     }
 
     /**
@@ -408,42 +523,57 @@ public final class ComponentsBlocker extends RulesStorageManager {
         List<ComponentRule> allEntries = getAllComponents();
         Log.d(TAG, "All: %s", allEntries);
         boolean isSuccessful = true;
+        // Component states are set at once in as few transactions as possible
+        Map<ComponentName, Integer> componentStates = new LinkedHashMap<>();
         if (apply) {
             for (ComponentRule entry : allEntries) {
                 if (entry.applyDefaultState()) {
-                    // Need to set component state to default first and do nothing
-                    try {
-                        PackageManagerCompat.setComponentEnabledSetting(entry.getComponentName(),
-                                COMPONENT_ENABLED_STATE_DEFAULT, DONT_KILL_APP, userId);
+                    // Need to set component state to default first
+                    componentStates.put(entry.getComponentName(), COMPONENT_ENABLED_STATE_DEFAULT);
+                }
+                switch (entry.getComponentStatus()) {
+                    case ComponentRule.COMPONENT_TO_BE_DEFAULTED:
+                        componentStates.put(entry.getComponentName(), COMPONENT_ENABLED_STATE_DEFAULT);
+                        break;
+                    case ComponentRule.COMPONENT_TO_BE_ENABLED:
+                        componentStates.put(entry.getComponentName(), COMPONENT_ENABLED_STATE_ENABLED);
+                        break;
+                    case ComponentRule.COMPONENT_TO_BE_BLOCKED_IFW_DISABLE:
+                    case ComponentRule.COMPONENT_TO_BE_DISABLED:
+                        componentStates.put(entry.getComponentName(), COMPONENT_ENABLED_STATE_DISABLED);
+                        break;
+                }
+            }
+            Map<ComponentName, Throwable> failedComponents = PackageManagerCompat.setComponentEnabledSettings(
+                    componentStates, DONT_KILL_APP, userId);
+            for (ComponentRule entry : allEntries) {
+                Throwable failure = failedComponents.get(entry.getComponentName());
+                if (entry.applyDefaultState()) {
+                    // Do nothing else
+                    if (failure == null) {
                         removeEntry(entry);
-                    } catch (Throwable e) {
+                    } else {
                         isSuccessful = false;
-                        Log.e(TAG, "Could not enable component: %s/%s", e, packageName, entry.name);
+                        Log.e(TAG, "Could not enable component: %s/%s", failure, packageName, entry.name);
                     }
                 }
                 switch (entry.getComponentStatus()) {
                     case ComponentRule.COMPONENT_TO_BE_DEFAULTED:
                         // Set component state to default and remove it
-                        try {
-                            PackageManagerCompat.setComponentEnabledSetting(
-                                    entry.getComponentName(), COMPONENT_ENABLED_STATE_DEFAULT,
-                                    DONT_KILL_APP, userId);
+                        if (failure == null) {
                             removeEntry(entry);
-                        } catch (Throwable e) {
+                        } else {
                             isSuccessful = false;
-                            Log.e(TAG, "Could not enable component: %s/%s", e, packageName, entry.name);
+                            Log.e(TAG, "Could not enable component: %s/%s", failure, packageName, entry.name);
                         }
                         break;
                     case ComponentRule.COMPONENT_TO_BE_ENABLED:
                         // Enable components
-                        try {
-                            PackageManagerCompat.setComponentEnabledSetting(
-                                    entry.getComponentName(), COMPONENT_ENABLED_STATE_ENABLED,
-                                    DONT_KILL_APP, userId);
+                        if (failure == null) {
                             setComponent(entry.name, entry.type, ComponentRule.COMPONENT_ENABLED);
-                        } catch (Throwable e) {
+                        } else {
                             isSuccessful = false;
-                            Log.e(TAG, "Could not disable component: %s/%s", e, packageName, entry.name);
+                            Log.e(TAG, "Could not disable component: %s/%s", failure, packageName, entry.name);
                         }
                         break;
                     case ComponentRule.COMPONENT_TO_BE_BLOCKED_IFW:
@@ -452,14 +582,11 @@ public final class ComponentsBlocker extends RulesStorageManager {
                     case ComponentRule.COMPONENT_TO_BE_BLOCKED_IFW_DISABLE:
                     case ComponentRule.COMPONENT_TO_BE_DISABLED:
                         // Disable components
-                        try {
-                            PackageManagerCompat.setComponentEnabledSetting(
-                                    entry.getComponentName(), COMPONENT_ENABLED_STATE_DISABLED,
-                                    DONT_KILL_APP, userId);
+                        if (failure == null) {
                             setComponent(entry.name, entry.type, entry.getCounterpartOfToBe());
-                        } catch (Throwable e) {
+                        } else {
                             isSuccessful = false;
-                            Log.e(TAG, "Could not disable component: %s/%s", e, packageName, entry.name);
+                            Log.e(TAG, "Could not disable component: %s/%s", failure, packageName, entry.name);
                         }
                         break;
                     default:
@@ -471,16 +598,19 @@ public final class ComponentsBlocker extends RulesStorageManager {
             for (ComponentRule entry : allEntries) {
                 // Enable components if they're disabled by other methods.
                 // IFW rules are already removed above.
-                try {
-                    PackageManagerCompat.setComponentEnabledSetting(entry.getComponentName(),
-                            COMPONENT_ENABLED_STATE_DEFAULT, DONT_KILL_APP,
-                            userId);
+                componentStates.put(entry.getComponentName(), COMPONENT_ENABLED_STATE_DEFAULT);
+            }
+            Map<ComponentName, Throwable> failedComponents = PackageManagerCompat.setComponentEnabledSettings(
+                    componentStates, DONT_KILL_APP, userId);
+            for (ComponentRule entry : allEntries) {
+                Throwable failure = failedComponents.get(entry.getComponentName());
+                if (failure == null) {
                     if (entry.toBeRemoved()) {
                         removeEntry(entry);
                     } else setComponent(entry.name, entry.type, entry.getToBe());
-                } catch (Throwable e) {
+                } else {
                     isSuccessful = false;
-                    Log.e(TAG, "Could not enable component: %s/%s", e, packageName, entry.name);
+                    Log.e(TAG, "Could not enable component: %s/%s", failure, packageName, entry.name);
                 }
             }
         }
@@ -0,0 +1,176 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.rules.compontents;
+
+import android.system.ErrnoException;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import io.github.muntashirakon.AppManager.logs.Log;
+import io.github.muntashirakon.io.AtomicExtendedFile;
+
+/**
+ * Stage the Intent Firewall rules of several packages so that they are written in a single burst. The system reloads
+ * the whole IFW directory whenever a file in it changes, but changes made within a short period of time only trigger a
+ * single reload. Without a transaction, the rules are written right away.
+ * <p>
+ * A transaction is bound to the thread that began it. Transactions begun while another one is active on the same
+ * thread join the outer one. A transaction must always be closed, preferably using try-with-resources, so that the
+ * thread is released even if the operation fails midway.
+ */
+public final class IntentFirewallTransaction implements Closeable {
+    public static final String TAG = IntentFirewallTransaction.class.getSimpleName();
+
+    private static final ThreadLocal<Staging> sStaging = new ThreadLocal<>();
+
+    private static final class StagedFile {
+        @NonNull
+        final String packageName;
+        @NonNull
+        final AtomicExtendedFile file;
+        // null = delete the file
+        @Nullable
+        final byte[] contents;
+
+        StagedFile(@NonNull String packageName, @NonNull AtomicExtendedFile file, @Nullable byte[] contents) {
+            this.packageName = packageName;
+            this.file = file;
+            this.contents = contents;
+        }
+    }
+
+    /**
+     * Begin a new transaction, or join the active one.
+     */
+    @NonNull
+    public static IntentFirewallTransaction begin() {
+        Staging staging = sStaging.get();
+        if (staging == null) {
+            staging = new Staging();
+            sStaging.set(staging);
+        }
+        ++staging.depth;
+        return new IntentFirewallTransaction(staging);
+    }
+
+    /**
+     * Write the rules of a package, or stage them if a transaction is active.
+     *
+     * @return {@code false} iff the rules could not be written
+     */
+    @WorkerThread
+    static boolean write(@NonNull String packageName, @NonNull AtomicExtendedFile file, @NonNull byte[] contents) {
+        Staging staging = sStaging.get();
+        if (staging != null) {
+            staging.stage(new StagedFile(packageName, file, contents));
+            return true;
+        }
+        return writeInternal(new StagedFile(packageName, file, contents));
+    }
+
+    /**
+     * Delete the rules of a package, or stage the deletion if a transaction is active.
+     */
+    @WorkerThread
+    static void delete(@NonNull String packageName, @NonNull AtomicExtendedFile file) {
+        Staging staging = sStaging.get();
+        if (staging != null) {
+            staging.stage(new StagedFile(packageName, file, null));
+            return;
+        }
+        file.delete();
+    }
+
+    private static final class Staging {
+        // Only the last change to each file is kept
+        final Map<String, StagedFile> stagedFiles = new LinkedHashMap<>();
+        // Number of open transactions
+        int depth;
+
+        void stage(@NonNull StagedFile stagedFile) {
+            stagedFiles.put(stagedFile.file.getBaseFile().getAbsolutePath(), stagedFile);
+        }
+    }
+
+    @NonNull
+    private final Staging mStaging;
+    private boolean mFinished;
+
+    private IntentFirewallTransaction(@NonNull Staging staging) {
+        mStaging = staging;
+    }
+
+    /**
+     * Write all the staged rules. Does nothing for a joined transaction, since the outermost transaction is responsible
+     * for writing the rules.
+     *
+     * @return The packages whose rules could not be written
+     */
+    @WorkerThread
+    @NonNull
+    public Set<String> commit() {
+        if (mFinished) {
+            // Already committed or closed
+            return Collections.emptySet();
+        }
+        mFinished = true;
+        if (--mStaging.depth > 0) {
+            return Collections.emptySet();
+        }
+        sStaging.remove();
+        Set<String> failedPackages = new HashSet<>();
+        Log.d(TAG, "Writing rules of %d packages", mStaging.stagedFiles.size());
+        for (StagedFile stagedFile : mStaging.stagedFiles.values()) {
+            if (stagedFile.contents == null) {
+                stagedFile.file.delete();
+            } else if (!writeInternal(stagedFile)) {
+                failedPackages.add(stagedFile.packageName);
+            }
+        }
+        mStaging.stagedFiles.clear();
+        return failedPackages;
+    }
+
+    /**
+     * End the transaction if it was not committed, e.g. because the operation failed midway, and release the thread.
+     * The rules staged so far are still written by the outermost transaction, since the packages that staged them
+     * already consider them written. Failures are only logged.
+     */
+    @WorkerThread
+    @Override
+    public void close() {
+        if (!mFinished) {
+            commit();
+        }
+    }
+
+    private static boolean writeInternal(@NonNull StagedFile stagedFile) {
+        FileOutputStream rulesStream = null;
+        try {
+            rulesStream = stagedFile.file.startWrite();
+            rulesStream.write(stagedFile.contents);
+            stagedFile.file.finishWrite(rulesStream);
+            //noinspection OctalInteger
+            stagedFile.file.getBaseFile().setMode(0666);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write rules for package %s", e, stagedFile.packageName);
+            stagedFile.file.failWrite(rulesStream);
+            return false;
+        } catch (ErrnoException e) {
+            Log.w(TAG, "Failed to alter permission of IFW for package %s", e, stagedFile.packageName);
+            return true;
+        }
+    }
+}
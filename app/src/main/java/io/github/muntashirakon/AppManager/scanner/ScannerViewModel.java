@@ -44,6 +44,7 @@ import io.github.muntashirakon.AppManager.settings.FeatureController;
 import io.github.muntashirakon.AppManager.utils.DigestUtils;
 import io.github.muntashirakon.AppManager.utils.ExUtils;
 import io.github.muntashirakon.AppManager.utils.FileUtils;
+import io.github.muntashirakon.AppManager.utils.MultiStringMatcher;
 import io.github.muntashirakon.AppManager.utils.MultithreadedExecutor;
 import io.github.muntashirakon.io.IoUtils;
 import io.github.muntashirakon.io.Path;
@@ -308,19 +309,18 @@ public class ScannerViewModel extends AndroidViewModel implements VirusTotal.Ful
         List<SignatureInfo> trackerInfoList = new ArrayList<>();
         String[] trackerNames = StaticDataset.getTrackerNames();
         String[] trackerSignatures = StaticDataset.getTrackerCodeSignatures();
+        MultiStringMatcher trackerSignatureMatcher = StaticDataset.getTrackerSignatureMatcher();
         int[] signatureCount = new int[trackerSignatures.length];
         // Iterate over all classes
         mTrackerClasses = new ArrayList<>();
         for (String className : mAllClasses) {
             if (className.length() > 8 && className.contains(".")) {
-                // Iterate over all signatures to match the class name
+                // Match the class name against all signatures at once
                 // This is a greedy algorithm, only matches the first item
-                for (int i = 0; i < trackerSignatures.length; i++) {
-                    if (className.contains(trackerSignatures[i])) {
-                        mTrackerClasses.add(className);
-                        signatureCount[i]++;
-                        break;
-                    }
+                int i = trackerSignatureMatcher.findFirst(className);
+                if (i >= 0) {
+                    mTrackerClasses.add(className);
+                    signatureCount[i]++;
                 }
             }
         }
@@ -339,7 +339,8 @@ public class ScannerViewModel extends AndroidViewModel implements VirusTotal.Ful
         List<SignatureInfo> libraryInfoList = new ArrayList<>();
         ArrayList<String> missingLibs = new ArrayList<>();
         String[] libNames = getApplication().getResources().getStringArray(R.array.lib_names);
-        String[] libSignatures = getApplication().getResources().getStringArray(R.array.lib_signatures);
+        String[] libSignatures = StaticDataset.getLibrarySignatures();
+        MultiStringMatcher libSignatureMatcher = StaticDataset.getLibrarySignatureMatcher();
         String[] libTypes = getApplication().getResources().getStringArray(R.array.lib_types);
         // The following array is directly mapped to the arrays above
         int[] signatureCount = new int[libSignatures.length];
@@ -347,18 +348,15 @@ public class ScannerViewModel extends AndroidViewModel implements VirusTotal.Ful
         mLibraryClasses = new ArrayList<>();
         for (String className : mAllClasses) {
             if (className.length() > 8 && className.contains(".")) {
-                boolean matched = false;
-                // Iterate over all signatures to match the class name
+                // Match the class name against all signatures at once
                 // This is a greedy algorithm, only matches the first item
-                for (int i = 0; i < libSignatures.length; i++) {
-                    if (className.contains(libSignatures[i])) {
-                        matched = true;
-                        // Add to found classes
-                        mLibraryClasses.add(className);
-                        // Increment this signature match count
-                        signatureCount[i]++;
-                        break;
-                    }
+                int i = libSignatureMatcher.findFirst(className);
+                boolean matched = i >= 0;
+                if (matched) {
+                    // Add to found classes
+                    mLibraryClasses.add(className);
+                    // Increment this signature match count
+                    signatureCount[i]++;
                 }
                 // Add the class to the missing libs list if it doesn't match the filters
                 if (!matched
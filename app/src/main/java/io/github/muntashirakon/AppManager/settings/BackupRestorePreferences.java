@@ -9,8 +9,11 @@ import android.app.Activity;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
+import android.text.InputType;
 import android.text.SpannableStringBuilder;
+import android.text.TextUtils;
 import android.view.View;
+import android.view.inputmethod.EditorInfo;
 
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
@@ -21,6 +24,7 @@ import androidx.annotation.UiThread;
 import androidx.appcompat.app.AlertDialog;
 import androidx.collection.ArrayMap;
 import androidx.core.content.ContextCompat;
+import androidx.core.view.inputmethod.EditorInfoCompat;
 import androidx.fragment.app.DialogFragment;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.preference.Preference;
@@ -48,10 +52,12 @@ import io.github.muntashirakon.AppManager.settings.crypto.AESCryptoSelectionDial
 import io.github.muntashirakon.AppManager.settings.crypto.ECCCryptoSelectionDialogFragment;
 import io.github.muntashirakon.AppManager.settings.crypto.OpenPgpKeySelectionDialogFragment;
 import io.github.muntashirakon.AppManager.settings.crypto.RSACryptoSelectionDialogFragment;
+import io.github.muntashirakon.AppManager.utils.Utils;
 import io.github.muntashirakon.dialog.DialogTitleBuilder;
 import io.github.muntashirakon.dialog.SearchableItemsDialogBuilder;
 import io.github.muntashirakon.dialog.SearchableMultiChoiceDialogBuilder;
 import io.github.muntashirakon.dialog.SearchableSingleChoiceDialogBuilder;
+import io.github.muntashirakon.dialog.TextInputDialogBuilder;
 import io.github.muntashirakon.io.Paths;
 
 public class BackupRestorePreferences extends PreferenceFragment {
@@ -73,6 +79,7 @@ public class BackupRestorePreferences extends PreferenceFragment {
 
     private SettingsActivity mActivity;
     private String mCurrentCompressionMethod;
+    private int mCompressionWorkers;
     private Uri mBackupVolume;
     @ImportType
     private int mImportType;
@@ -135,6 +142,31 @@ public class BackupRestorePreferences extends PreferenceFragment {
                     .show();
             return true;
         });
+        // Backup compression workers
+        Preference compressionWorkersPref = Objects.requireNonNull(findPreference("backup_compression_workers"));
+        mCompressionWorkers = Prefs.BackupRestore.getCompressionWorkerCount();
+        compressionWorkersPref.setSummary(getResources().getQuantityString(R.plurals.pref_compression_workers_msg,
+                mCompressionWorkers, mCompressionWorkers));
+        compressionWorkersPref.setOnPreferenceClickListener(preference -> {
+            new TextInputDialogBuilder(mActivity, null)
+                    .setTitle(R.string.pref_compression_workers)
+                    .setHelperText(getString(R.string.pref_compression_workers_hint, Utils.getTotalCores()))
+                    .setInputText(String.valueOf(mCompressionWorkers))
+                    .setInputInputType(InputType.TYPE_CLASS_NUMBER)
+                    .setInputImeOptions(EditorInfo.IME_ACTION_DONE | EditorInfoCompat.IME_FLAG_NO_PERSONALIZED_LEARNING)
+                    .setNegativeButton(R.string.cancel, null)
+                    .setPositiveButton(R.string.save, (dialog, which, inputText, isChecked) -> {
+                        if (inputText != null && TextUtils.isDigitsOnly(inputText)) {
+                            int c = Integer.decode(inputText.toString());
+                            Prefs.BackupRestore.setCompressionWorkerCount(c);
+                            mCompressionWorkers = Prefs.BackupRestore.getCompressionWorkerCount();
+                            compressionWorkersPref.setSummary(getResources().getQuantityString(
+                                    R.plurals.pref_compression_workers_msg, mCompressionWorkers, mCompressionWorkers));
+                        }
+                    })
+                    .show();
+            return true;
+        });
         // Backup flags
         BackupFlags flags = BackupFlags.fromPref();
         ((Preference) Objects.requireNonNull(findPreference("backup_flags"))).setOnPreferenceClickListener(preference -> {
@@ -159,6 +191,15 @@ public class BackupRestorePreferences extends PreferenceFragment {
         // Keystore toggle
         SwitchPreferenceCompat backupKeyStore = Objects.requireNonNull(findPreference("backup_android_keystore"));
         backupKeyStore.setChecked(Prefs.BackupRestore.backupAppsWithKeyStore());
+        // Incremental data backup toggle
+        SwitchPreferenceCompat backupDataIncrementally = Objects.requireNonNull(findPreference("backup_incremental_data"));
+        backupDataIncrementally.setChecked(Prefs.BackupRestore.backupDataIncrementally());
+        // APK deduplication toggle
+        SwitchPreferenceCompat deduplicateApks = Objects.requireNonNull(findPreference("backup_deduplicate_apks"));
+        deduplicateApks.setChecked(Prefs.BackupRestore.deduplicateApkFiles());
+        // Single-pass backup toggle
+        SwitchPreferenceCompat backupInSinglePass = Objects.requireNonNull(findPreference("backup_single_pass"));
+        backupInSinglePass.setChecked(Prefs.BackupRestore.backupInSinglePass());
         // Encryption
         ((Preference) Objects.requireNonNull(findPreference("encryption"))).setOnPreferenceClickListener(preference -> {
             CharSequence[] encryptionNamesText = new CharSequence[ENCRYPTION_NAMES.length];
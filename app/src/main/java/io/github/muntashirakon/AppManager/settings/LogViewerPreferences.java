@@ -5,6 +5,7 @@ package io.github.muntashirakon.AppManager.settings;
 import android.app.Activity;
 import android.content.Intent;
 import android.graphics.Typeface;
+import android.os.Build;
 import android.os.Bundle;
 import android.text.InputType;
 import android.util.Log;
@@ -44,6 +45,10 @@ public class LogViewerPreferences extends PreferenceFragment {
     private static final int MIN_LOG_WRITE_PERIOD = 1;
     private static final int MAX_DISPLAY_LIMIT = 100000;
     private static final int MIN_DISPLAY_LIMIT = 1000;
+    private static final int MAX_BATCH_SIZE = 10_000;
+    private static final int MIN_BATCH_SIZE = 1;
+    private static final int MAX_BATCH_INTERVAL = 1000;
+    private static final int MIN_BATCH_INTERVAL = 10;
 
     @Override
     public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
@@ -71,6 +76,14 @@ public class LogViewerPreferences extends PreferenceFragment {
         SwitchPreferenceCompat showPidTidTimestamp = requirePreference("log_viewer_show_pid_tid_timestamp");
         showPidTidTimestamp.setChecked(Prefs.LogViewer.showPidTidTimestamp());
 
+        SwitchPreferenceCompat binaryMode = requirePreference("log_viewer_binary_mode");
+        binaryMode.setVisible(Build.VERSION.SDK_INT >= Build.VERSION_CODES.N);
+        binaryMode.setChecked(Prefs.LogViewer.useBinaryMode());
+        binaryMode.setOnPreferenceChangeListener((preference, newValue) -> {
+            UIUtils.displayLongToast(R.string.restart_log_viewer_to_see_changes);
+            return true;
+        });
+
         SwitchPreferenceCompat omitSensitiveInfo = requirePreference("log_viewer_omit_sensitive_info");
         omitSensitiveInfo.setChecked(Prefs.LogViewer.omitSensitiveInfo());
         omitSensitiveInfo.setOnPreferenceChangeListener((preference, newValue) -> {
@@ -163,6 +176,72 @@ public class LogViewerPreferences extends PreferenceFragment {
             return true;
         });
 
+        Preference batchSize = requirePreference("log_viewer_batch_size");
+        batchSize.setSummary(getString(R.string.pref_log_batch_size_summary, Prefs.LogViewer.getBatchSize()));
+        batchSize.setOnPreferenceClickListener(preference -> {
+            new TextInputDialogBuilder(activity, null)
+                    .setTitle(R.string.pref_log_batch_size_title)
+                    .setHelperText(getString(R.string.pref_display_limit_hint, MIN_BATCH_SIZE, MAX_BATCH_SIZE))
+                    .setInputText(String.valueOf(Prefs.LogViewer.getBatchSize()))
+                    .setInputInputType(InputType.TYPE_CLASS_NUMBER)
+                    .setInputImeOptions(EditorInfo.IME_ACTION_DONE | EditorInfoCompat.IME_FLAG_NO_PERSONALIZED_LEARNING)
+                    .setPositiveButton(R.string.save, (dialog, which, inputText, isChecked) -> {
+                        if (inputText == null) return;
+                        try {
+                            int batchSizeInt = Integer.parseInt(inputText.toString().trim());
+                            if (batchSizeInt >= MIN_BATCH_SIZE && batchSizeInt <= MAX_BATCH_SIZE) {
+                                Prefs.LogViewer.setBatchSize(batchSizeInt);
+                                UIUtils.displayLongToast(R.string.restart_log_viewer_to_see_changes);
+                                batchSize.setSummary(getString(R.string.pref_log_batch_size_summary, batchSizeInt));
+                            }
+                        } catch (NumberFormatException ignore) {
+                        }
+                    })
+                    .setNegativeButton(R.string.cancel, null)
+                    .setNeutralButton(R.string.reset_to_default, (dialog, which, inputText, isChecked) -> {
+                        Prefs.LogViewer.setBatchSize(LogcatHelper.DEFAULT_BATCH_SIZE);
+                        UIUtils.displayLongToast(R.string.restart_log_viewer_to_see_changes);
+                        batchSize.setSummary(getString(R.string.pref_log_batch_size_summary,
+                                Prefs.LogViewer.getBatchSize()));
+                    })
+                    .show();
+            return true;
+        });
+
+        Preference batchInterval = requirePreference("log_viewer_batch_interval");
+        batchInterval.setSummary(getString(R.string.pref_log_batch_interval_summary,
+                Prefs.LogViewer.getBatchInterval()));
+        batchInterval.setOnPreferenceClickListener(preference -> {
+            new TextInputDialogBuilder(activity, null)
+                    .setTitle(R.string.pref_log_batch_interval_title)
+                    .setHelperText(getString(R.string.pref_display_limit_hint, MIN_BATCH_INTERVAL, MAX_BATCH_INTERVAL))
+                    .setInputText(String.valueOf(Prefs.LogViewer.getBatchInterval()))
+                    .setInputInputType(InputType.TYPE_CLASS_NUMBER)
+                    .setInputImeOptions(EditorInfo.IME_ACTION_DONE | EditorInfoCompat.IME_FLAG_NO_PERSONALIZED_LEARNING)
+                    .setPositiveButton(R.string.save, (dialog, which, inputText, isChecked) -> {
+                        if (inputText == null) return;
+                        try {
+                            int batchIntervalInt = Integer.parseInt(inputText.toString().trim());
+                            if (batchIntervalInt >= MIN_BATCH_INTERVAL && batchIntervalInt <= MAX_BATCH_INTERVAL) {
+                                Prefs.LogViewer.setBatchInterval(batchIntervalInt);
+                                UIUtils.displayLongToast(R.string.restart_log_viewer_to_see_changes);
+                                batchInterval.setSummary(getString(R.string.pref_log_batch_interval_summary,
+                                        batchIntervalInt));
+                            }
+                        } catch (NumberFormatException ignore) {
+                        }
+                    })
+                    .setNegativeButton(R.string.cancel, null)
+                    .setNeutralButton(R.string.reset_to_default, (dialog, which, inputText, isChecked) -> {
+                        Prefs.LogViewer.setBatchInterval(LogcatHelper.DEFAULT_BATCH_INTERVAL);
+                        UIUtils.displayLongToast(R.string.restart_log_viewer_to_see_changes);
+                        batchInterval.setSummary(getString(R.string.pref_log_batch_interval_summary,
+                                Prefs.LogViewer.getBatchInterval()));
+                    })
+                    .show();
+            return true;
+        });
+
         Preference logLevel = requirePreference("log_viewer_default_log_level");
         logLevel.setOnPreferenceClickListener(preference -> {
             CharSequence[] logLevelsLocalised = getResources().getStringArray(R.array.log_levels);
@@ -14,6 +14,7 @@ import android.net.Uri;
 import android.os.Build;
 import android.text.TextUtils;
 
+import androidx.annotation.IntRange;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.StyleRes;
@@ -44,6 +45,7 @@ import io.github.muntashirakon.AppManager.utils.ArrayUtils;
 import io.github.muntashirakon.AppManager.utils.ContextUtils;
 import io.github.muntashirakon.AppManager.utils.FreezeUtils;
 import io.github.muntashirakon.AppManager.utils.TarUtils;
+import io.github.muntashirakon.AppManager.utils.Utils;
 import io.github.muntashirakon.io.Path;
 import io.github.muntashirakon.io.Paths;
 
@@ -186,6 +188,16 @@ public final class Prefs {
             AppPref.set(AppPref.PrefKey.PREF_BACKUP_COMPRESSION_METHOD_STR, tarType);
         }
 
+        @IntRange(from = 1)
+        public static int getCompressionWorkerCount() {
+            int workers = AppPref.getInt(AppPref.PrefKey.PREF_BACKUP_COMPRESSION_WORKERS_INT);
+            return Math.max(1, Math.min(workers, Utils.getTotalCores()));
+        }
+
+        public static void setCompressionWorkerCount(@IntRange(from = 1) int workers) {
+            AppPref.set(AppPref.PrefKey.PREF_BACKUP_COMPRESSION_WORKERS_INT, workers);
+        }
+
         @BackupFlags.BackupFlag
         public static int getBackupFlags() {
             return AppPref.getInt(AppPref.PrefKey.PREF_BACKUP_FLAGS_INT);
@@ -195,6 +207,18 @@ public final class Prefs {
             AppPref.set(AppPref.PrefKey.PREF_BACKUP_FLAGS_INT, flags);
         }
 
+        public static boolean deduplicateApkFiles() {
+            return AppPref.getBoolean(AppPref.PrefKey.PREF_BACKUP_DEDUPLICATE_APKS_BOOL);
+        }
+
+        public static boolean backupDataIncrementally() {
+            return AppPref.getBoolean(AppPref.PrefKey.PREF_BACKUP_INCREMENTAL_DATA_BOOL);
+        }
+
+        public static boolean backupInSinglePass() {
+            return AppPref.getBoolean(AppPref.PrefKey.PREF_BACKUP_SINGLE_PASS_BOOL);
+        }
+
         public static boolean backupDirectoryExists() {
             Uri uri = Storage.getVolumePath();
             Path path;
@@ -487,6 +511,26 @@ public final class Prefs {
             AppPref.set(AppPref.PrefKey.PREF_LOG_VIEWER_WRITE_PERIOD_INT, logWritingInterval);
         }
 
+        public static int getBatchInterval() {
+            return AppPref.getInt(AppPref.PrefKey.PREF_LOG_VIEWER_BATCH_INTERVAL_INT);
+        }
+
+        public static void setBatchInterval(int batchInterval) {
+            AppPref.set(AppPref.PrefKey.PREF_LOG_VIEWER_BATCH_INTERVAL_INT, batchInterval);
+        }
+
+        public static int getBatchSize() {
+            return AppPref.getInt(AppPref.PrefKey.PREF_LOG_VIEWER_BATCH_SIZE_INT);
+        }
+
+        public static void setBatchSize(int batchSize) {
+            AppPref.set(AppPref.PrefKey.PREF_LOG_VIEWER_BATCH_SIZE_INT, batchSize);
+        }
+
+        public static boolean useBinaryMode() {
+            return AppPref.getBoolean(AppPref.PrefKey.PREF_LOG_VIEWER_BINARY_MODE_BOOL);
+        }
+
         public static boolean expandByDefault() {
             return AppPref.getBoolean(AppPref.PrefKey.PREF_LOG_VIEWER_EXPAND_BY_DEFAULT_BOOL);
         }
@@ -63,7 +63,11 @@ public class AppPref {
 
         PREF_BACKUP_ANDROID_KEYSTORE_BOOL,
         PREF_BACKUP_COMPRESSION_METHOD_STR,
+        PREF_BACKUP_COMPRESSION_WORKERS_INT,
         PREF_BACKUP_FLAGS_INT,
+        PREF_BACKUP_DEDUPLICATE_APKS_BOOL,
+        PREF_BACKUP_INCREMENTAL_DATA_BOOL,
+        PREF_BACKUP_SINGLE_PASS_BOOL,
         PREF_BACKUP_VOLUME_STR,
 
         PREF_COMPONENTS_SORT_ORDER_INT,
@@ -105,6 +109,9 @@ public class AppPref {
         PREF_LAST_VERSION_CODE_LONG,
         PREF_LAYOUT_ORIENTATION_INT,
 
+        PREF_LOG_VIEWER_BATCH_INTERVAL_INT,
+        PREF_LOG_VIEWER_BATCH_SIZE_INT,
+        PREF_LOG_VIEWER_BINARY_MODE_BOOL,
         PREF_LOG_VIEWER_BUFFER_INT,
         PREF_LOG_VIEWER_DEFAULT_LOG_LEVEL_INT,
         PREF_LOG_VIEWER_DISPLAY_LIMIT_INT,
@@ -122,6 +129,7 @@ public class AppPref {
         PREF_MODE_OF_OPS_STR,
         PREF_OPEN_PGP_PACKAGE_STR,
         PREF_OPEN_PGP_USER_ID_STR,
+        PREF_PACKAGE_CHANGE_JOURNAL_STR,
         PREF_PERMISSIONS_SORT_ORDER_INT,
         PREF_OVERLAYS_SORT_ORDER_INT,
 
@@ -372,6 +380,8 @@ public class AppPref {
                         | BackupFlags.BACKUP_APK_FILES | BackupFlags.BACKUP_EXTRAS;
             case PREF_BACKUP_COMPRESSION_METHOD_STR:
                 return TarUtils.TAR_GZIP;
+            case PREF_BACKUP_COMPRESSION_WORKERS_INT:
+                return 1;
             case PREF_ENABLE_KILL_FOR_SYSTEM_BOOL:
             case PREF_GLOBAL_BLOCKING_ENABLED_BOOL:
             case PREF_INSTALLER_ALWAYS_ON_BACKGROUND_BOOL:
@@ -379,6 +389,8 @@ public class AppPref {
             case PREF_INSTALLER_FORCE_DEX_OPT_BOOL:
             case PREF_INSTALLER_SIGN_APK_BOOL:
             case PREF_BACKUP_ANDROID_KEYSTORE_BOOL:
+            case PREF_BACKUP_DEDUPLICATE_APKS_BOOL:
+            case PREF_BACKUP_INCREMENTAL_DATA_BOOL:
             case PREF_ENABLE_SCREEN_LOCK_BOOL:
             case PREF_MAIN_WINDOW_SORT_REVERSE_BOOL:
             case PREF_LOG_VIEWER_EXPAND_BY_DEFAULT_BOOL:
@@ -390,10 +402,12 @@ public class AppPref {
             case PREF_FM_SORT_REVERSE_BOOL:
             case PREF_ENABLE_PERSISTENT_SESSION_BOOL:
             case PREF_USE_SYSTEM_FONT_BOOL:
+            case PREF_BACKUP_SINGLE_PASS_BOOL:
                 return false;
             case PREF_APP_OP_SHOW_DEFAULT_BOOL:
             case PREF_SHOW_DISCLAIMER_BOOL:
             case PREF_LOG_VIEWER_SHOW_PID_TID_TIMESTAMP_BOOL:
+            case PREF_LOG_VIEWER_BINARY_MODE_BOOL:
             case PREF_INSTALLER_DISPLAY_CHANGES_BOOL:
             case PREF_VIRUS_TOTAL_PROMPT_BEFORE_UPLOADING_BOOL:
             case PREF_ZIP_ALIGN_BOOL:
@@ -452,6 +466,10 @@ public class AppPref {
                 return LogcatHelper.DEFAULT_DISPLAY_LIMIT;
             case PREF_LOG_VIEWER_WRITE_PERIOD_INT:
                 return LogcatHelper.DEFAULT_LOG_WRITE_INTERVAL;
+            case PREF_LOG_VIEWER_BATCH_INTERVAL_INT:
+                return LogcatHelper.DEFAULT_BATCH_INTERVAL;
+            case PREF_LOG_VIEWER_BATCH_SIZE_INT:
+                return LogcatHelper.DEFAULT_BATCH_SIZE;
             case PREF_LOG_VIEWER_DEFAULT_LOG_LEVEL_INT:
                 return Log.VERBOSE;
             case PREF_LOG_VIEWER_BUFFER_INT:
@@ -474,6 +492,7 @@ public class AppPref {
             case PREF_DEBLOATER_FILTER_FLAGS_INT:
                 return DebloaterListOptions.getDefaultFilterFlags();
             case PREF_FM_LAST_PATH_STR:
+            case PREF_PACKAGE_CHANGE_JOURNAL_STR:
                 return "{}";
         }
         throw new IllegalArgumentException("Pref key not found.");
@@ -0,0 +1,130 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+import aosp.libcore.util.HexEncoding;
+import io.github.muntashirakon.io.IoUtils;
+
+/**
+ * Same as {@link java.security.DigestInputStream} but supports all the algorithms in {@link DigestUtils}, including
+ * {@link DigestUtils#CRC32}. If an expected digest is supplied, it is verified as soon as the end of the stream is
+ * reached, and an {@link IOException} is thrown on mismatch.
+ */
+public class DigestInputStream extends FilterInputStream {
+    @DigestUtils.Algorithm
+    private final String mAlgorithm;
+    @Nullable
+    private final String mExpectedHexDigest;
+    private final MessageDigest mMessageDigest;
+    private final CRC32 mCrc32;
+    @Nullable
+    private String mHexDigest;
+
+    public DigestInputStream(@NonNull InputStream in, @DigestUtils.Algorithm String algorithm) throws IOException {
+        this(in, algorithm, null);
+    }
+
+    public DigestInputStream(@NonNull InputStream in, @DigestUtils.Algorithm String algorithm,
+                             @Nullable String expectedHexDigest) throws IOException {
+        super(in);
+        mAlgorithm = algorithm;
+        mExpectedHexDigest = expectedHexDigest;
+        if (DigestUtils.CRC32.equals(algorithm)) {
+            mCrc32 = new CRC32();
+            mMessageDigest = null;
+        } else {
+            mCrc32 = null;
+            try {
+                mMessageDigest = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            onEndOfStream();
+        } else if (mCrc32 != null) {
+            mCrc32.update(b);
+        } else mMessageDigest.update((byte) b);
+        return b;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        int readCount = in.read(b, off, len);
+        if (readCount == -1) {
+            onEndOfStream();
+        } else if (mCrc32 != null) {
+            mCrc32.update(b, off, readCount);
+        } else mMessageDigest.update(b, off, readCount);
+        return readCount;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes have to be digested as well
+        byte[] buffer = new byte[(int) Math.min(n, IoUtils.DEFAULT_BUFFER_SIZE)];
+        long remaining = n;
+        while (remaining > 0) {
+            int readCount = read(buffer, 0, (int) Math.min(remaining, buffer.length));
+            if (readCount == -1) {
+                break;
+            }
+            remaining -= readCount;
+        }
+        return n - remaining;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @DigestUtils.Algorithm
+    public String getAlgorithm() {
+        return mAlgorithm;
+    }
+
+    /**
+     * Return the digest of the bytes read so far. Unless the end of the stream has been reached, it must be called
+     * only once.
+     */
+    @NonNull
+    public String getHexDigest() {
+        if (mHexDigest != null) {
+            return mHexDigest;
+        }
+        byte[] digest;
+        if (mCrc32 != null) {
+            digest = DigestUtils.longToBytes(mCrc32.getValue());
+        } else digest = mMessageDigest.digest();
+        return HexEncoding.encodeToString(digest, false /* lowercase */);
+    }
+
+    private void onEndOfStream() throws IOException {
+        if (mHexDigest != null) {
+            // Already verified
+            return;
+        }
+        mHexDigest = getHexDigest();
+        if (mExpectedHexDigest != null && !mExpectedHexDigest.equals(mHexDigest)) {
+            throw new IOException("Digest mismatch." +
+                    "\nFound: " + mHexDigest +
+                    "\nRequired: " + mExpectedHexDigest);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.utils;
+
+import androidx.annotation.NonNull;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+import aosp.libcore.util.HexEncoding;
+
+/**
+ * Same as {@link java.security.DigestOutputStream} but supports all the algorithms in {@link DigestUtils}, including
+ * {@link DigestUtils#CRC32}. The digest is calculated over the bytes passed to the underlying stream.
+ */
+public class DigestOutputStream extends FilterOutputStream {
+    @DigestUtils.Algorithm
+    private final String mAlgorithm;
+    private final MessageDigest mMessageDigest;
+    private final CRC32 mCrc32;
+
+    public DigestOutputStream(@NonNull OutputStream out, @DigestUtils.Algorithm String algorithm) throws IOException {
+        super(out);
+        mAlgorithm = algorithm;
+        if (DigestUtils.CRC32.equals(algorithm)) {
+            mCrc32 = new CRC32();
+            mMessageDigest = null;
+        } else {
+            mCrc32 = null;
+            try {
+                mMessageDigest = MessageDigest.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        if (mCrc32 != null) {
+            mCrc32.update(b);
+        } else mMessageDigest.update((byte) b);
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        if (mCrc32 != null) {
+            mCrc32.update(b, off, len);
+        } else mMessageDigest.update(b, off, len);
+    }
+
+    @DigestUtils.Algorithm
+    public String getAlgorithm() {
+        return mAlgorithm;
+    }
+
+    /**
+     * Return the digest of the bytes written so far. Must be called only once, preferably after the stream is closed.
+     */
+    @NonNull
+    public String getHexDigest() {
+        byte[] digest;
+        if (mCrc32 != null) {
+            digest = DigestUtils.longToBytes(mCrc32.getValue());
+        } else digest = mMessageDigest.digest();
+        return HexEncoding.encodeToString(digest, false /* lowercase */);
+    }
+}
@@ -196,7 +196,7 @@ public class DigestUtils {
     }
 
     @NonNull
-    private static byte[] longToBytes(long l) {
+    static byte[] longToBytes(long l) {
         byte[] result = new byte[8];
         for (int i = 7; i >= 0; i--) {
             result[i] = (byte) (l & 0xFF);
@@ -0,0 +1,189 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.utils;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Search a text for a fixed set of strings in a single pass using the Aho-Corasick algorithm. This replaces calling
+ * {@link String#contains(CharSequence)} for each string, which is too slow when there are thousands of them, such as
+ * the tracker and library signatures.
+ * <p>
+ * The matcher is immutable and can be shared among threads once built.
+ */
+public final class MultiStringMatcher {
+    // Children of a state are stored contiguously and sorted by their characters
+    private final int[] mChildStart;
+    private final char[] mChildChars;
+    private final int[] mChildTargets;
+    private final int[] mFailures;
+    // Lowest index of the strings that end at a state, including those ending at its failure states, or -1
+    private final int[] mFirstMatches;
+
+    public MultiStringMatcher(@NonNull String[] strings) {
+        int maxStateCount = 1;
+        for (String string : strings) {
+            maxStateCount += string.length();
+        }
+        // Build the trie
+        Map<Long, Integer> edges = new HashMap<>();
+        int[] childCounts = new int[maxStateCount];
+        int[] ownMatches = new int[maxStateCount];
+        for (int i = 0; i < maxStateCount; ++i) {
+            ownMatches[i] = -1;
+        }
+        int stateCount = 1;
+        for (int i = 0; i < strings.length; ++i) {
+            String string = strings[i];
+            int state = 0;
+            for (int j = 0; j < string.length(); ++j) {
+                long key = ((long) state << 16) | string.charAt(j);
+                Integer next = edges.get(key);
+                if (next == null) {
+                    next = stateCount++;
+                    edges.put(key, next);
+                    ++childCounts[state];
+                }
+                state = next;
+            }
+            if (ownMatches[state] < 0) {
+                ownMatches[state] = i;
+            }
+        }
+        // Compact the edges
+        mChildStart = new int[stateCount + 1];
+        for (int i = 0; i < stateCount; ++i) {
+            mChildStart[i + 1] = mChildStart[i] + childCounts[i];
+        }
+        mChildChars = new char[edges.size()];
+        mChildTargets = new int[edges.size()];
+        int[] positions = new int[stateCount];
+        System.arraycopy(mChildStart, 0, positions, 0, stateCount);
+        for (Map.Entry<Long, Integer> edge : edges.entrySet()) {
+            int state = (int) (edge.getKey() >>> 16);
+            int position = positions[state]++;
+            mChildChars[position] = (char) (edge.getKey() & 0xFFFF);
+            mChildTargets[position] = edge.getValue();
+        }
+        for (int i = 0; i < stateCount; ++i) {
+            sortChildren(mChildStart[i], mChildStart[i + 1]);
+        }
+        // Compute the failure states in breadth-first order so that the failure state of a state is always computed
+        // before the state itself
+        mFailures = new int[stateCount];
+        mFirstMatches = new int[stateCount];
+        mFirstMatches[0] = ownMatches[0];
+        int[] queue = new int[stateCount];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = 0;
+        while (head < tail) {
+            int state = queue[head++];
+            for (int i = mChildStart[state]; i < mChildStart[state + 1]; ++i) {
+                char c = mChildChars[i];
+                int child = mChildTargets[i];
+                int failure = 0;
+                if (state != 0) {
+                    int fallback = mFailures[state];
+                    int next;
+                    while ((next = getChild(fallback, c)) < 0 && fallback != 0) {
+                        fallback = mFailures[fallback];
+                    }
+                    failure = Math.max(next, 0);
+                }
+                mFailures[child] = failure;
+                mFirstMatches[child] = min(ownMatches[child], mFirstMatches[failure]);
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the text contains any of the strings
+     */
+    public boolean matches(@NonNull CharSequence text) {
+        if (mFirstMatches[0] >= 0) {
+            return true;
+        }
+        int state = 0;
+        for (int i = 0; i < text.length(); ++i) {
+            state = next(state, text.charAt(i));
+            if (mFirstMatches[state] >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The lowest index of the strings contained in the text, or -1 if it contains none of them
+     */
+    public int findFirst(@NonNull CharSequence text) {
+        int first = mFirstMatches[0];
+        int state = 0;
+        for (int i = 0; i < text.length() && first != 0; ++i) {
+            state = next(state, text.charAt(i));
+            first = min(first, mFirstMatches[state]);
+        }
+        return first;
+    }
+
+    private int next(int state, char c) {
+        while (true) {
+            int next = getChild(state, c);
+            if (next >= 0) {
+                return next;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = mFailures[state];
+        }
+    }
+
+    private int getChild(int state, char c) {
+        int low = mChildStart[state];
+        int high = mChildStart[state + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midChar = mChildChars[mid];
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return mChildTargets[mid];
+            }
+        }
+        return -1;
+    }
+
+    private void sortChildren(int start, int end) {
+        // Most states have a single child
+        for (int i = start + 1; i < end; ++i) {
+            char c = mChildChars[i];
+            int target = mChildTargets[i];
+            int j = i - 1;
+            while (j >= start && mChildChars[j] > c) {
+                mChildChars[j + 1] = mChildChars[j];
+                mChildTargets[j + 1] = mChildTargets[j];
+                --j;
+            }
+            mChildChars[j + 1] = c;
+            mChildTargets[j + 1] = target;
+        }
+    }
+
+    private static int min(int index1, int index2) {
+        if (index1 < 0) {
+            return index2;
+        }
+        if (index2 < 0) {
+            return index1;
+        }
+        return Math.min(index1, index2);
+    }
+}
@@ -250,7 +250,7 @@ public final class PackageUtils {
                     wakeLock.acquire();
                     if (loadBackups) {
                         appDb.loadInstalledOrBackedUpApplications(context);
-                    } else appDb.updateApplications(context);
+                    } else appDb.updateChangedApplications(context);
                 } finally {
                     CpuUtils.releaseWakeLock(wakeLock);
                 }
@@ -398,8 +398,18 @@ public final class PackageUtils {
 
     @NonNull
     public static HashMap<String, RuleType> getFilteredComponents(String packageName, @UserIdInt int userHandle, String[] signatures) {
+        return getFilteredComponents(collectComponentClassNames(packageName, userHandle), signatures);
+    }
+
+    @NonNull
+    public static HashMap<String, RuleType> getFilteredComponents(@Nullable PackageInfo packageInfo, String[] signatures) {
+        return getFilteredComponents(collectComponentClassNames(packageInfo), signatures);
+    }
+
+    @NonNull
+    private static HashMap<String, RuleType> getFilteredComponents(@NonNull HashMap<String, RuleType> components,
+                                                                   String[] signatures) {
         HashMap<String, RuleType> filteredComponents = new HashMap<>();
-        HashMap<String, RuleType> components = collectComponentClassNames(packageName, userHandle);
         for (String componentName : components.keySet()) {
             for (String signature : signatures) {
                 if (componentName.startsWith(signature) || componentName.contains(signature)) {
@@ -0,0 +1,162 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.utils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compress the input in fixed size blocks using multiple workers, and write each block as an independent compressed
+ * stream in the original order (e.g. pigz-style GZip members or pbzip2-style BZip2 streams). The output can be read
+ * by any decompressor that supports concatenated streams.
+ */
+public class ParallelCompressorOutputStream extends OutputStream {
+    public interface CompressorFactory {
+        /**
+         * Create a compressor that writes a complete compressed stream to {@code os} when closed.
+         */
+        @NonNull
+        OutputStream newCompressor(@NonNull OutputStream os) throws IOException;
+    }
+
+    @NonNull
+    private final OutputStream mOut;
+    @NonNull
+    private final CompressorFactory mCompressorFactory;
+    @NonNull
+    private final ExecutorService mExecutor;
+    // Compressed blocks in the order they were submitted
+    private final Queue<Future<byte[]>> mPendingBlocks = new ArrayDeque<>();
+    private final int mMaxPendingBlocks;
+    private final int mBlockSize;
+    private byte[] mBlock;
+    private int mBlockCount;
+    private boolean mHasSubmittedBlock;
+    private boolean mClosed;
+
+    /**
+     * @param out       Stream where the compressed blocks are written
+     * @param blockSize Size of the uncompressed blocks. Larger blocks result in better compression ratio.
+     * @param workers   Number of blocks to compress in parallel
+     */
+    public ParallelCompressorOutputStream(@NonNull OutputStream out, @NonNull CompressorFactory compressorFactory,
+                                          int blockSize, int workers) {
+        mOut = out;
+        mCompressorFactory = compressorFactory;
+        mBlockSize = blockSize;
+        mBlock = new byte[blockSize];
+        mExecutor = Executors.newFixedThreadPool(workers);
+        // Keep the workers busy while the next blocks are being filled, but limit the memory usage
+        mMaxPendingBlocks = workers * 2;
+    }
+
+    @WorkerThread
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @WorkerThread
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int size = Math.min(mBlockSize - mBlockCount, len);
+            System.arraycopy(b, off, mBlock, mBlockCount, size);
+            mBlockCount += size;
+            off += size;
+            len -= size;
+            if (mBlockCount == mBlockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * Write the blocks that have been compressed so far. Unlike other streams, it does not compress the current block
+     * as it would affect the compression ratio.
+     */
+    @WorkerThread
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        while (!mPendingBlocks.isEmpty() && mPendingBlocks.peek().isDone()) {
+            writeNextBlock();
+        }
+        mOut.flush();
+    }
+
+    @WorkerThread
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            if (mBlockCount > 0 || !mHasSubmittedBlock) {
+                // The last block, or an empty stream so that the output is still a valid compressed stream
+                submitBlock();
+            }
+            while (!mPendingBlocks.isEmpty()) {
+                writeNextBlock();
+            }
+        } finally {
+            mExecutor.shutdownNow();
+            mOut.close();
+        }
+    }
+
+    @WorkerThread
+    private void submitBlock() throws IOException {
+        byte[] block = mBlockCount == mBlockSize ? mBlock : Arrays.copyOf(mBlock, mBlockCount);
+        mPendingBlocks.add(mExecutor.submit(() -> {
+            ByteArrayOutputStream compressedBlock = new ByteArrayOutputStream(block.length / 2);
+            try (OutputStream compressor = mCompressorFactory.newCompressor(compressedBlock)) {
+                compressor.write(block);
+            }
+            return compressedBlock.toByteArray();
+        }));
+        mHasSubmittedBlock = true;
+        // The submitted block is now owned by the worker
+        mBlock = new byte[mBlockSize];
+        mBlockCount = 0;
+        while (mPendingBlocks.size() >= mMaxPendingBlocks) {
+            writeNextBlock();
+        }
+    }
+
+    @WorkerThread
+    private void writeNextBlock() throws IOException {
+        Future<byte[]> future = mPendingBlocks.remove();
+        try {
+            mOut.write(future.get());
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (mClosed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
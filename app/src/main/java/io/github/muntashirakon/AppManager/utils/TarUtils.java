@@ -31,6 +31,7 @@ import java.lang.annotation.RetentionPolicy;
 import java.util.List;
 import java.util.regex.Pattern;
 
+import io.github.muntashirakon.AppManager.logs.Log;
 import io.github.muntashirakon.io.IoUtils;
 import io.github.muntashirakon.io.Path;
 import io.github.muntashirakon.io.Paths;
@@ -38,7 +39,13 @@ import io.github.muntashirakon.io.SplitInputStream;
 import io.github.muntashirakon.io.SplitOutputStream;
 
 public final class TarUtils {
+    public static final String TAG = TarUtils.class.getSimpleName();
+
     public static final long DEFAULT_SPLIT_SIZE = 1024 * 1024 * 1024;
+    // Each block is compressed without the context of the previous blocks, larger blocks are therefore preferred
+    private static final int PARALLEL_GZIP_BLOCK_SIZE = 1024 * 1024;
+    // Close to the largest block size of BZip2 (-9)
+    private static final int PARALLEL_BZIP2_BLOCK_SIZE = 900 * 1000;
 
     @StringDef(value = {
             TAR_GZIP,
@@ -73,30 +80,78 @@ public final class TarUtils {
                                     @NonNull String destFilePrefix, @Nullable String[] filters,
                                     @Nullable Long splitSize, @Nullable String[] exclude, boolean followLinks)
             throws IOException {
-        try (SplitOutputStream sos = new SplitOutputStream(dest, destFilePrefix, splitSize == null ? DEFAULT_SPLIT_SIZE : splitSize);
+        return create(type, source, dest, destFilePrefix, filters, splitSize, exclude, followLinks, 1);
+    }
+
+    /**
+     * Same as {@link #create(String, Path, Path, String, String[], Long, String[], boolean)} except that the archive
+     * is compressed using multiple workers.
+     *
+     * @param compressionWorkers Number of workers to use for compression, must be at least 1
+     * @return List of added files
+     * @see #getCompressorOutputStream(String, OutputStream, int)
+     */
+    @WorkerThread
+    @NonNull
+    public static List<Path> create(@NonNull @TarType String type, @NonNull Path source, @NonNull Path dest,
+                                    @NonNull String destFilePrefix, @Nullable String[] filters,
+                                    @Nullable Long splitSize, @Nullable String[] exclude, boolean followLinks,
+                                    int compressionWorkers)
+            throws IOException {
+        return create(type, source, dest, destFilePrefix, filters, splitSize, exclude, followLinks,
+                compressionWorkers, null, null);
+    }
+
+    /**
+     * Same as {@link #create(String, Path, Path, String, String[], Long, String[], boolean, int)} except that each
+     * split can be further processed (e.g. encrypted and hashed) while it is being written, so that the data is written
+     * only once.
+     *
+     * @param partSuffix        Suffix to be added after the index of each split (e.g. {@code .aes})
+     * @param partStreamWrapper Wrapper for the output stream of each split
+     * @return List of added files
+     * @see SplitOutputStream#SplitOutputStream(Path, String, long, String, SplitOutputStream.PartStreamWrapper)
+     */
+    @WorkerThread
+    @NonNull
+    public static List<Path> create(@NonNull @TarType String type, @NonNull Path source, @NonNull Path dest,
+                                    @NonNull String destFilePrefix, @Nullable String[] filters,
+                                    @Nullable Long splitSize, @Nullable String[] exclude, boolean followLinks,
+                                    int compressionWorkers, @Nullable String partSuffix,
+                                    @Nullable SplitOutputStream.PartStreamWrapper partStreamWrapper)
+            throws IOException {
+        Path basePath = source.isDirectory() ? source : source.getParent();
+        if (basePath == null) {
+            basePath = Paths.get("/");
+        }
+        List<Path> files = Paths.getAll(basePath, source, filters, exclude, followLinks);
+        return create(type, basePath, files, dest, destFilePrefix, splitSize, followLinks, compressionWorkers,
+                partSuffix, partStreamWrapper);
+    }
+
+    /**
+     * Same as {@link #create(String, Path, Path, String, String[], Long, String[], boolean, int, String, SplitOutputStream.PartStreamWrapper)}
+     * except that only the given files are archived, e.g. the files that have changed since the last backup. The files
+     * are archived in the given order, and therefore, a directory must precede its children.
+     *
+     * @param basePath Path in respect to which the files are archived
+     * @param files    Files and directories inside {@code basePath} to be archived
+     * @return List of added files
+     */
+    @WorkerThread
+    @NonNull
+    public static List<Path> create(@NonNull @TarType String type, @NonNull Path basePath, @NonNull List<Path> files,
+                                    @NonNull Path dest, @NonNull String destFilePrefix, @Nullable Long splitSize,
+                                    boolean followLinks, int compressionWorkers, @Nullable String partSuffix,
+                                    @Nullable SplitOutputStream.PartStreamWrapper partStreamWrapper)
+            throws IOException {
+        try (SplitOutputStream sos = new SplitOutputStream(dest, destFilePrefix,
+                splitSize == null ? DEFAULT_SPLIT_SIZE : splitSize, partSuffix, partStreamWrapper);
              BufferedOutputStream bos = new BufferedOutputStream(sos)) {
-            OutputStream os;
-            switch (type) {
-                case TAR_GZIP:
-                    os = new GzipCompressorOutputStream(bos);
-                    break;
-                case TAR_BZIP2:
-                    os = new BZip2CompressorOutputStream(bos);
-                    break;
-                case TAR_ZSTD:
-                    os = new ZstdOutputStream(bos);
-                    break;
-                default:
-                    throw new IllegalArgumentException("Invalid compression type: " + type);
-            }
+            OutputStream os = getCompressorOutputStream(type, bos, compressionWorkers);
             try (TarArchiveOutputStream tos = new TarArchiveOutputStream(os)) {
                 tos.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
                 tos.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
-                Path basePath = source.isDirectory() ? source : source.getParent();
-                if (basePath == null) {
-                    basePath = Paths.get("/");
-                }
-                List<Path> files = Paths.getAll(basePath, source, filters, exclude, followLinks);
                 for (Path file : files) {
                     String relativePath = Paths.relativePath(file, basePath);
                     if (relativePath.isEmpty() || relativePath.equals("/")) continue;
@@ -126,6 +181,45 @@ public final class TarUtils {
         }
     }
 
+    /**
+     * Create a compressor for the given type. If more than one worker is requested, GZip and BZip2 archives are
+     * compressed in blocks, each of which is written as an independent member (similar to pigz and pbzip2), and Zstd
+     * uses its native multithreaded mode. In all cases, the output can be read by {@link #extract}.
+     */
+    @VisibleForTesting
+    @NonNull
+    static OutputStream getCompressorOutputStream(@NonNull @TarType String type, @NonNull OutputStream os,
+                                                  int workers) throws IOException {
+        switch (type) {
+            case TAR_GZIP:
+                if (workers > 1) {
+                    return new ParallelCompressorOutputStream(os, GzipCompressorOutputStream::new,
+                            PARALLEL_GZIP_BLOCK_SIZE, workers);
+                }
+                return new GzipCompressorOutputStream(os);
+            case TAR_BZIP2:
+                if (workers > 1) {
+                    return new ParallelCompressorOutputStream(os, BZip2CompressorOutputStream::new,
+                            PARALLEL_BZIP2_BLOCK_SIZE, workers);
+                }
+                return new BZip2CompressorOutputStream(os);
+            case TAR_ZSTD: {
+                ZstdOutputStream zos = new ZstdOutputStream(os);
+                if (workers > 1) {
+                    try {
+                        zos.setWorkers(workers);
+                    } catch (IOException e) {
+                        // The native library may not support multithreading, continue with a single thread
+                        Log.w(TAG, "Could not use %d workers for zstd", e, workers);
+                    }
+                }
+                return zos;
+            }
+            default:
+                throw new IllegalArgumentException("Invalid compression type: " + type);
+        }
+    }
+
     /**
      * Create a tar file using the given compression method and split it into multiple files based
      * on the supplied split size.
@@ -141,6 +235,23 @@ public final class TarUtils {
                                @Nullable String[] filters, @Nullable String[] exclusions,
                                @Nullable String realDataAppPath)
             throws IOException {
+        extract(type, sources, dest, filters, exclusions, realDataAppPath, null);
+    }
+
+    /**
+     * Same as {@link #extract(String, Path[], Path, String[], String[], String)} except that each source can be
+     * processed (e.g. verified and decrypted) while it is being read, so that the data is read only once. All the
+     * sources are read until the end even if the archive ends earlier so that the wrapper can finalise each of them.
+     *
+     * @param partStreamWrapper Wrapper for the input stream of each source
+     * @see SplitInputStream#SplitInputStream(Path[], SplitInputStream.PartStreamWrapper)
+     */
+    @WorkerThread
+    public static void extract(@NonNull @TarType String type, @NonNull Path[] sources, @NonNull Path dest,
+                               @Nullable String[] filters, @Nullable String[] exclusions,
+                               @Nullable String realDataAppPath,
+                               @Nullable SplitInputStream.PartStreamWrapper partStreamWrapper)
+            throws IOException {
         // Convert filters into patterns to reduce overheads
         Pattern[] filterPatterns;
         if (filters != null) {
@@ -157,7 +268,7 @@ public final class TarUtils {
             }
         } else exclusionPatterns = null;
         // Run extraction
-        try (SplitInputStream sis = new SplitInputStream(sources);
+        try (SplitInputStream sis = new SplitInputStream(sources, partStreamWrapper);
              BufferedInputStream bis = new BufferedInputStream(sis)) {
             InputStream is;
             switch (type) {
@@ -237,6 +348,13 @@ public final class TarUtils {
                         file.setLastModified(entry.getModTime().getTime());
                     }
                 }
+                if (partStreamWrapper != null) {
+                    // The archive may end before the sources do (e.g. padding, trailing frames)
+                    byte[] buffer = new byte[IoUtils.DEFAULT_BUFFER_SIZE];
+                    //noinspection StatementWithEmptyBody
+                    while (bis.read(buffer) != -1) {
+                    }
+                }
             } finally {
                 is.close();
             }
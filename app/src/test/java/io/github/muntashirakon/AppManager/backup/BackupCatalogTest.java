@@ -0,0 +1,183 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.backup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.github.muntashirakon.AppManager.utils.TarUtils;
+import io.github.muntashirakon.io.Path;
+import io.github.muntashirakon.io.Paths;
+
+@RunWith(RobolectricTestRunner.class)
+public class BackupCatalogTest {
+    private static final String UUID = "c5c7f2a8-3a6b-4a37-a2c3-5d8a3fd4d6b0";
+
+    private final File mTestDir = new File("/tmp/backup_catalog_test");
+    private Path mBaseDirectory;
+
+    @Before
+    public void setUp() {
+        Paths.get(mTestDir).delete();
+        assertTrue(mTestDir.mkdirs());
+        mBaseDirectory = Paths.get(mTestDir);
+    }
+
+    @After
+    public void tearDown() {
+        Paths.get(mTestDir).delete();
+    }
+
+    @Test
+    public void testKeys() {
+        Path baseDirectory = Paths.get("/tmp/AppManager");
+        assertEquals("com.example.package/0_backup", BackupCatalog.getKey(baseDirectory,
+                Paths.get("/tmp/AppManager/com.example.package/0_backup")));
+        assertEquals(UUID, BackupCatalog.getKey(baseDirectory, Paths.get("/tmp/AppManager/" + UUID)));
+    }
+
+    @Test
+    public void testPackageBackup() throws Exception {
+        Path backupPath = mBaseDirectory.findOrCreateDirectory("com.example.package").findOrCreateDirectory("0_backup");
+        MetadataManager.Metadata metadata = getMetadata("Example");
+        metadata.backupName = "0_backup";
+        writeMetadata(backupPath, metadata);
+        // A new backup is recorded by its package name and backup name
+        BackupCatalog.put(mBaseDirectory, metadata);
+        assertCatalogHit(backupPath, "Example");
+    }
+
+    @Test
+    public void testUuidBackup() throws Exception {
+        Path backupPath = mBaseDirectory.findOrCreateDirectory(UUID);
+        writeMetadata(backupPath, getMetadata("Example"));
+        List<MetadataManager.Metadata> metadataList = BackupCatalog.getAllMetadata(mBaseDirectory,
+                Collections.singletonList(backupPath));
+        assertEquals(1, metadataList.size());
+        assertEquals("Example", metadataList.get(0).label);
+        assertCatalogHit(backupPath, "Example");
+        // Deleting the backup
+        BackupCatalog.remove(mBaseDirectory, metadataList.get(0));
+        String catalog = mBaseDirectory.findFile(BackupCatalog.CATALOG_FILE).getContentAsString();
+        assertTrue(catalog.endsWith("-\t" + UUID + "\n"));
+    }
+
+    @Test
+    public void testModifiedBackup() throws Exception {
+        Path backupPath = mBaseDirectory.findOrCreateDirectory(UUID);
+        writeMetadata(backupPath, getMetadata("Example"));
+        BackupCatalog.getAllMetadata(mBaseDirectory, Collections.singletonList(backupPath));
+        // Replaced outside the app by a backup with a different size
+        writeMetadata(backupPath, getMetadata("Example 2"));
+        // The listing matches the catalog, so the backups are not accessed
+        List<MetadataManager.Metadata> metadataList = BackupCatalog.getAllMetadata(mBaseDirectory,
+                Collections.singletonList(backupPath));
+        assertEquals("Example", metadataList.get(0).label);
+        // A new backup changes the listing, and the backups are validated
+        Path newBackupPath = mBaseDirectory.findOrCreateDirectory("com.example.package").findOrCreateDirectory("0");
+        writeMetadata(newBackupPath, getMetadata("Example 3"));
+        metadataList = BackupCatalog.getAllMetadata(mBaseDirectory, Arrays.asList(backupPath, newBackupPath));
+        assertEquals(2, metadataList.size());
+        assertEquals("Example 2", metadataList.get(0).label);
+        assertEquals("Example 3", metadataList.get(1).label);
+    }
+
+    @Test
+    public void testTrustedCatalog() throws Exception {
+        Path backupPath = mBaseDirectory.findOrCreateDirectory(UUID);
+        writeMetadata(backupPath, getMetadata("Example"));
+        // Not a backup
+        Path otherPath = mBaseDirectory.findOrCreateDirectory("com.example.package").findOrCreateDirectory("other");
+        List<Path> backupPaths = Arrays.asList(backupPath, otherPath);
+        assertEquals(1, BackupCatalog.getAllMetadata(mBaseDirectory, backupPaths).size());
+        // The metadata file is not even looked up
+        assertTrue(backupPath.findFile(MetadataManager.META_FILE).delete());
+        List<MetadataManager.Metadata> metadataList = BackupCatalog.getAllMetadata(mBaseDirectory, backupPaths);
+        assertEquals(1, metadataList.size());
+        assertEquals("Example", metadataList.get(0).label);
+        // A backup deleted outside the app is dropped once the listing changes
+        assertEquals(0, BackupCatalog.getAllMetadata(mBaseDirectory, Collections.singletonList(backupPath)).size());
+    }
+
+    @Test
+    public void testMetadataRoundTrip() throws Exception {
+        MetadataManager.Metadata metadata = getMetadata("Example");
+        metadata.deltaCount = 2;
+        metadata.apkDeduplicated = true;
+        // Catalog entries are stored in a single line
+        String json = MetadataManager.toJson(metadata).toString();
+        assertEquals(-1, json.indexOf('\n'));
+        assertEquals(-1, json.indexOf('\t'));
+        Path backupPath = Paths.get("/tmp/AppManager/com.example.package/0_backup");
+        MetadataManager.Metadata readMetadata = MetadataManager.fromJson(new JSONObject(json),
+                new BackupFiles.BackupFile(backupPath, false));
+        assertEquals("0_backup", readMetadata.backupName);
+        assertEquals(metadata.packageName, readMetadata.packageName);
+        assertEquals(metadata.versionCode, readMetadata.versionCode);
+        assertArrayEquals(metadata.dataDirs, readMetadata.dataDirs);
+        assertEquals(metadata.backupTime, readMetadata.backupTime);
+        assertEquals(metadata.flags.getFlags(), readMetadata.flags.getFlags());
+        assertEquals(metadata.installer, readMetadata.installer);
+        assertEquals(metadata.deltaCount, readMetadata.deltaCount);
+        assertEquals(metadata.apkDeduplicated, readMetadata.apkDeduplicated);
+    }
+
+    /**
+     * Assert that the backup is loaded from the catalog rather than from its metadata file
+     */
+    private void assertCatalogHit(@NonNull Path backupPath, @NonNull String label) throws Exception {
+        Path metadataFile = backupPath.findFile(MetadataManager.META_FILE);
+        long lastModified = metadataFile.lastModified();
+        // Same size and modification time, but different content
+        writeMetadata(backupPath, getMetadata(label.replace('e', 'a')));
+        assertTrue(metadataFile.setLastModified(lastModified));
+        List<MetadataManager.Metadata> metadataList = BackupCatalog.getAllMetadata(mBaseDirectory,
+                Collections.singletonList(backupPath));
+        assertEquals(1, metadataList.size());
+        assertEquals(label, metadataList.get(0).label);
+        assertEquals(backupPath.getName(), metadataList.get(0).backupName);
+    }
+
+    private static void writeMetadata(@NonNull Path backupPath, @NonNull MetadataManager.Metadata metadata)
+            throws Exception {
+        Path metadataFile = backupPath.findOrCreateFile(MetadataManager.META_FILE, null);
+        try (OutputStream os = metadataFile.openOutputStream()) {
+            os.write(MetadataManager.toJson(metadata).toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @NonNull
+    private static MetadataManager.Metadata getMetadata(@NonNull String label) {
+        MetadataManager.Metadata metadata = new MetadataManager.Metadata();
+        metadata.label = label;
+        metadata.packageName = "com.example.package";
+        metadata.versionName = "1.0";
+        metadata.versionCode = 1;
+        metadata.dataDirs = new String[]{"/data/user/0/com.example.package"};
+        metadata.splitConfigs = new String[0];
+        metadata.backupTime = 1_600_000_000_000L;
+        metadata.crypto = CryptoUtils.MODE_NO_ENCRYPTION;
+        metadata.apkName = "base.apk";
+        metadata.flags = new BackupFlags(BackupFlags.BACKUP_APK_FILES | BackupFlags.BACKUP_INT_DATA);
+        metadata.tarType = TarUtils.TAR_GZIP;
+        metadata.installer = "com.android.vending";
+        return metadata;
+    }
+}
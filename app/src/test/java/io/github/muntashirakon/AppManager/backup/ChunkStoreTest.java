@@ -0,0 +1,186 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.backup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import io.github.muntashirakon.io.Path;
+import io.github.muntashirakon.io.Paths;
+
+@RunWith(RobolectricTestRunner.class)
+public class ChunkStoreTest {
+    private static final int FILE_SIZE = 4 * 1024 * 1024;
+
+    private File mTestDir;
+    private Path mTestPath;
+    private ChunkStore mChunkStore;
+    private byte[] mData;
+
+    @Before
+    public void setUp() throws IOException {
+        mTestDir = new File("/tmp/chunk_store_test");
+        Paths.get(mTestDir).delete();
+        assertTrue(new File(mTestDir, "store").mkdirs());
+        mTestPath = Paths.get(mTestDir);
+        mChunkStore = new ChunkStore(mTestPath.findFile("store"));
+        mData = new byte[FILE_SIZE];
+        new Random(42).nextBytes(mData);
+    }
+
+    @After
+    public void tearDown() {
+        Paths.get(mTestDir).delete();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        ChunkStore.FileEntry entry = mChunkStore.put("base.apk", writeFile("base.apk", mData));
+        assertEquals(FILE_SIZE, entry.size);
+        assertTrue(entry.chunks.size() > 1);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        mChunkStore.get(entry, os);
+        assertArrayEquals(mData, os.toByteArray());
+        mChunkStore.verify(entry);
+    }
+
+    @Test
+    public void testEmptyFile() throws IOException {
+        ChunkStore.FileEntry entry = mChunkStore.put("empty.apk", writeFile("empty.apk", new byte[0]));
+        assertEquals(0, entry.size);
+        assertEquals(Collections.emptyList(), entry.chunks);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        mChunkStore.get(entry, os);
+        assertEquals(0, os.size());
+    }
+
+    @Test
+    public void testChunkSizes() {
+        int offset = 0;
+        while (offset < mData.length) {
+            byte[] remaining = Arrays.copyOfRange(mData, offset, Math.min(offset + ChunkStore.MAX_CHUNK_SIZE,
+                    mData.length));
+            int chunkSize = ChunkStore.findChunkBoundary(remaining, remaining.length);
+            assertTrue(chunkSize <= ChunkStore.MAX_CHUNK_SIZE);
+            if (offset + chunkSize < mData.length) {
+                assertTrue(chunkSize > ChunkStore.MIN_CHUNK_SIZE);
+            }
+            offset += chunkSize;
+        }
+    }
+
+    @Test
+    public void testDeduplication() throws IOException {
+        ChunkStore.FileEntry entry1 = mChunkStore.put("base.apk", writeFile("base1.apk", mData));
+        long storedSize = Paths.size(mTestPath.findFile("store"));
+        ChunkStore.FileEntry entry2 = mChunkStore.put("base.apk", writeFile("base2.apk", mData));
+        // Identical files share all the chunks
+        assertEquals(entry1.chunks, entry2.chunks);
+        assertEquals(storedSize, Paths.size(mTestPath.findFile("store")));
+        // Inserting a few bytes only affects the chunks around them
+        byte[] modifiedData = new byte[FILE_SIZE + 3];
+        System.arraycopy(mData, 0, modifiedData, 0, FILE_SIZE / 2);
+        System.arraycopy(mData, FILE_SIZE / 2, modifiedData, FILE_SIZE / 2 + 3, FILE_SIZE / 2);
+        ChunkStore.FileEntry entry3 = mChunkStore.put("base.apk", writeFile("base3.apk", modifiedData));
+        Set<String> newChunks = new HashSet<>(entry3.chunks);
+        newChunks.removeAll(entry1.chunks);
+        assertTrue(newChunks.size() <= 2);
+    }
+
+    @Test
+    public void testGarbageCollection() throws IOException {
+        ChunkStore.FileEntry entry1 = mChunkStore.put("base.apk", writeFile("base1.apk", mData));
+        byte[] otherData = new byte[FILE_SIZE];
+        new Random(24).nextBytes(otherData);
+        ChunkStore.FileEntry entry2 = mChunkStore.put("base.apk", writeFile("base2.apk", otherData));
+        Path backup1 = writeBackup("backup1", entry1);
+        Path backup2 = writeBackup("backup2", entry2);
+        ChunkStore.Stats stats = mChunkStore.collectGarbage(Arrays.asList(backup1, backup2));
+        assertNotNull(stats);
+        assertEquals(0, stats.removedChunkCount);
+        assertEquals(entry1.chunks.size() + entry2.chunks.size(), stats.chunkCount);
+        assertEquals(2L * FILE_SIZE, stats.referencedSize);
+        assertEquals(1.0, stats.getDeduplicationRatio(), 0.001);
+        // Delete the second backup
+        backup2.delete();
+        stats = mChunkStore.collectGarbage(Collections.singletonList(backup1));
+        assertNotNull(stats);
+        assertEquals(entry2.chunks.size(), stats.removedChunkCount);
+        assertEquals(FILE_SIZE, stats.storedSize);
+        mChunkStore.verify(entry1);
+    }
+
+    @Test
+    public void testDirty() throws IOException {
+        ChunkStore.FileEntry entry = mChunkStore.put("base.apk", writeFile("base.apk", mData));
+        Path backup = writeBackup("backup", entry);
+        assertFalse(mChunkStore.isDirty());
+        mChunkStore.setDirty();
+        assertTrue(mChunkStore.isDirty());
+        ChunkStore.Stats stats = mChunkStore.collectGarbage(Collections.singletonList(backup));
+        assertNotNull(stats);
+        // The marker is not mistaken for a chunk
+        assertEquals(0, stats.removedChunkCount);
+        assertEquals(entry.chunks.size(), stats.chunkCount);
+        assertFalse(mChunkStore.isDirty());
+    }
+
+    @Test
+    public void testChunkListRoundTrip() throws IOException {
+        List<ChunkStore.FileEntry> entries = new ArrayList<>();
+        entries.add(mChunkStore.put("base.apk", writeFile("base.apk", mData)));
+        entries.add(mChunkStore.put("split_config.en.apk", writeFile("split.apk", new byte[100])));
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ChunkStore.writeChunkList(os, entries);
+        List<ChunkStore.FileEntry> readEntries = ChunkStore.readChunkList(new ByteArrayInputStream(os.toByteArray()));
+        assertEquals(entries.size(), readEntries.size());
+        for (int i = 0; i < entries.size(); ++i) {
+            assertEquals(entries.get(i).name, readEntries.get(i).name);
+            assertEquals(entries.get(i).size, readEntries.get(i).size);
+            assertEquals(entries.get(i).chunks, readEntries.get(i).chunks);
+        }
+    }
+
+    @NonNull
+    private Path writeFile(@NonNull String name, @NonNull byte[] data) throws IOException {
+        File file = new File(mTestDir, name);
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(data);
+        }
+        return Paths.get(file);
+    }
+
+    @NonNull
+    private Path writeBackup(@NonNull String name, @NonNull ChunkStore.FileEntry entry) throws IOException {
+        Path backupPath = mTestPath.findOrCreateDirectory(name);
+        try (OutputStream os = backupPath.createNewFile(BackupFiles.SOURCE_CHUNKS_TSV, null).openOutputStream()) {
+            ChunkStore.writeChunkList(os, Collections.singletonList(entry));
+        }
+        return backupPath;
+    }
+}
@@ -0,0 +1,147 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.backup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.github.muntashirakon.io.Path;
+import io.github.muntashirakon.io.Paths;
+
+@RunWith(RobolectricTestRunner.class)
+public class DataManifestTest {
+    private static final long MTIME = 1_600_000_000_000L;
+
+    private File mDataDir;
+    private Path mDataPath;
+
+    @Before
+    public void setUp() throws IOException {
+        mDataDir = new File("/tmp/data_manifest_test");
+        Paths.get(mDataDir).delete();
+        assertTrue(new File(mDataDir, "files/dir").mkdirs());
+        assertTrue(new File(mDataDir, "shared_prefs").mkdirs());
+        writeFile("files/a.txt", "a");
+        writeFile("files/dir/b.txt", "b");
+        writeFile("shared_prefs/prefs.xml", "<map />");
+        mDataPath = Paths.get(mDataDir);
+    }
+
+    @After
+    public void tearDown() {
+        Paths.get(mDataDir).delete();
+    }
+
+    @Test
+    public void testFullBackup() {
+        DataManifest.Delta delta = DataManifest.diff(null, mDataPath, getAll());
+        assertEquals(getAll().size(), delta.changedFiles.size());
+        assertEquals(Collections.emptyList(), delta.deletedPaths);
+        assertTrue(delta.manifest.getEntries().containsKey("files/dir/"));
+        assertEquals(DataManifest.TYPE_FILE, delta.manifest.getEntries().get("files/a.txt").type);
+    }
+
+    @Test
+    public void testUnchangedFiles() {
+        DataManifest previous = DataManifest.diff(null, mDataPath, getAll()).manifest;
+        DataManifest.Delta delta = DataManifest.diff(previous, mDataPath, getAll());
+        assertEquals(Collections.singletonList(mDataPath.getFilePath()), getChangedPaths(delta));
+        assertEquals(Collections.emptyList(), delta.deletedPaths);
+    }
+
+    @Test
+    public void testModifiedAddedAndDeletedFiles() throws IOException {
+        DataManifest previous = DataManifest.diff(null, mDataPath, getAll()).manifest;
+        writeFile("files/a.txt", "aa");
+        writeFile("files/c.txt", "c");
+        Paths.get(new File(mDataDir, "files/dir")).delete();
+        DataManifest.Delta delta = DataManifest.diff(previous, mDataPath, getAll());
+        List<String> changedPaths = getChangedPaths(delta);
+        assertEquals(3, changedPaths.size());
+        assertTrue(changedPaths.contains(new File(mDataDir, "files/a.txt").getAbsolutePath()));
+        assertTrue(changedPaths.contains(new File(mDataDir, "files/c.txt").getAbsolutePath()));
+        // Children of a deleted directory are deleted along with it
+        assertEquals(Collections.singletonList("files/dir/"), delta.deletedPaths);
+    }
+
+    @Test
+    public void testTouchedFileIsNotChanged() throws IOException {
+        DataManifest previous = DataManifest.diff(null, mDataPath, getAll()).manifest;
+        // Modified files are hashed so that they can be compared once touched
+        writeFile("files/a.txt", "bb");
+        previous = DataManifest.diff(previous, mDataPath, getAll()).manifest;
+        assertTrue(new File(mDataDir, "files/a.txt").setLastModified(MTIME + 1000));
+        DataManifest.Delta delta = DataManifest.diff(previous, mDataPath, getAll());
+        assertEquals(Collections.singletonList(mDataPath.getFilePath()), getChangedPaths(delta));
+    }
+
+    @Test
+    public void testManifestRoundTrip() throws IOException {
+        DataManifest manifest = DataManifest.diff(null, mDataPath, getAll()).manifest;
+        writeFile("files/a.txt", "aa");
+        manifest = DataManifest.diff(manifest, mDataPath, getAll()).manifest;
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        manifest.write(os);
+        DataManifest readManifest = DataManifest.read(new ByteArrayInputStream(os.toByteArray()));
+        assertEquals(manifest.getEntries(), readManifest.getEntries());
+        assertEquals(new ArrayList<>(manifest.getEntries().keySet()),
+                new ArrayList<>(readManifest.getEntries().keySet()));
+    }
+
+    @Test
+    public void testDeletionsRoundTrip() throws IOException {
+        List<List<String>> deletions = Arrays.asList(Collections.emptyList(),
+                Arrays.asList("files/a.txt", "files/dir/"), Collections.emptyList(),
+                Collections.singletonList("shared_prefs/prefs.xml"));
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        DataManifest.writeDeletions(os, deletions);
+        assertEquals(deletions, DataManifest.readDeletions(new ByteArrayInputStream(os.toByteArray()), 3));
+    }
+
+    @Test(expected = IOException.class)
+    public void testDeletionsOutOfRange() throws IOException {
+        byte[] deletions = "2\tfiles/a.txt\n".getBytes(StandardCharsets.UTF_8);
+        DataManifest.readDeletions(new ByteArrayInputStream(deletions), 1);
+    }
+
+    @NonNull
+    private List<Path> getAll() {
+        return Paths.getAll(mDataPath, mDataPath, null, null, false);
+    }
+
+    @NonNull
+    private static List<String> getChangedPaths(@NonNull DataManifest.Delta delta) {
+        List<String> paths = new ArrayList<>(delta.changedFiles.size());
+        for (Path file : delta.changedFiles) {
+            paths.add(file.getFilePath());
+        }
+        return paths;
+    }
+
+    private void writeFile(@NonNull String name, @NonNull String contents) throws IOException {
+        File file = new File(mDataDir, name);
+        try (FileOutputStream os = new FileOutputStream(file)) {
+            os.write(contents.getBytes(StandardCharsets.UTF_8));
+        }
+        assertTrue(file.setLastModified(MTIME));
+    }
+}
@@ -0,0 +1,112 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.backup;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import io.github.muntashirakon.AppManager.utils.TarUtils;
+import io.github.muntashirakon.io.Paths;
+
+@RunWith(RobolectricTestRunner.class)
+public class MetadataManagerTest {
+    private static final byte[] IV_0 = new byte[]{0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+    private static final byte[] IV_1 = new byte[]{1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1};
+    private static final byte[] IV_2 = new byte[]{2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2};
+
+    @Test
+    public void testDeltaCryptoRoundTrip() throws Exception {
+        MetadataManager.Metadata metadata = getIncrementalMetadata(CryptoUtils.MODE_RSA);
+        MetadataManager.Metadata readMetadata = roundTrip(metadata);
+        assertEquals(2, readMetadata.deltaIvs.length);
+        assertArrayEquals(IV_0, readMetadata.deltaIvs[0]);
+        assertArrayEquals(IV_1, readMetadata.deltaIvs[1]);
+        assertArrayEquals(IV_2, readMetadata.iv);
+        assertEquals(2, readMetadata.deltaAes.length);
+        assertArrayEquals(new byte[]{10}, readMetadata.deltaAes[0]);
+        assertArrayEquals(new byte[]{11}, readMetadata.deltaAes[1]);
+        assertArrayEquals(new byte[]{12}, readMetadata.aes);
+    }
+
+    @Test
+    public void testDataCryptoMetadata() {
+        MetadataManager.Metadata metadata = getIncrementalMetadata(CryptoUtils.MODE_ECC);
+        // Full data backup and the first incremental backup are carried over
+        assertArrayEquals(IV_0, metadata.getDataCryptoMetadata(0).iv);
+        assertArrayEquals(new byte[]{10}, metadata.getDataCryptoMetadata(0).aes);
+        assertArrayEquals(IV_1, metadata.getDataCryptoMetadata(1).iv);
+        assertArrayEquals(new byte[]{11}, metadata.getDataCryptoMetadata(1).aes);
+        // The last incremental backup was created along with the metadata
+        assertSame(metadata, metadata.getDataCryptoMetadata(2));
+        // Not incremental
+        metadata.deltaCount = -1;
+        metadata.deltaIvs = null;
+        metadata.deltaAes = null;
+        assertSame(metadata, metadata.getDataCryptoMetadata(0));
+    }
+
+    @Test
+    public void testUnsupportedVersion() throws Exception {
+        MetadataManager.Metadata metadata = getIncrementalMetadata(CryptoUtils.MODE_AES);
+        metadata.version = MetadataManager.METADATA_VERSION + 1;
+        assertThrows(JSONException.class, () -> roundTrip(metadata));
+        // Incremental backups did not exist before version 5
+        metadata.version = 4;
+        assertThrows(JSONException.class, () -> roundTrip(metadata));
+        metadata.deltaCount = 0;
+        metadata.deltaIvs = null;
+        assertEquals(4, roundTrip(metadata).version);
+    }
+
+    @Test
+    public void testFullBackupVersion() throws Exception {
+        MetadataManager.Metadata metadata = getIncrementalMetadata(CryptoUtils.MODE_AES);
+        metadata.version = new MetadataManager.Metadata().version;
+        metadata.deltaCount = 0;
+        metadata.deltaIvs = null;
+        // Readable by the versions of the app that do not know about incremental backups
+        assertEquals(MetadataManager.METADATA_VERSION_FULL, roundTrip(metadata).version);
+        // Incremental backups must not be mistaken for full backups
+        metadata.deltaCount = 1;
+        metadata.deltaIvs = new byte[][]{IV_0};
+        assertThrows(JSONException.class, () -> roundTrip(metadata));
+    }
+
+    private static MetadataManager.Metadata roundTrip(MetadataManager.Metadata metadata) throws JSONException {
+        JSONObject jsonObject = new JSONObject(MetadataManager.toJson(metadata).toString());
+        return MetadataManager.fromJson(jsonObject, new BackupFiles.BackupFile(
+                Paths.get("/tmp/AppManager/com.example.package/0_backup"), false));
+    }
+
+    private static MetadataManager.Metadata getIncrementalMetadata(@CryptoUtils.Mode String crypto) {
+        MetadataManager.Metadata metadata = new MetadataManager.Metadata();
+        metadata.label = "Example";
+        metadata.packageName = "com.example.package";
+        metadata.versionName = "1.0";
+        metadata.versionCode = 1;
+        metadata.dataDirs = new String[]{"/data/user/0/com.example.package"};
+        metadata.splitConfigs = new String[0];
+        metadata.crypto = crypto;
+        metadata.apkName = "base.apk";
+        metadata.flags = new BackupFlags(BackupFlags.BACKUP_APK_FILES | BackupFlags.BACKUP_INT_DATA);
+        metadata.tarType = TarUtils.TAR_GZIP;
+        metadata.installer = "com.android.vending";
+        metadata.version = MetadataManager.METADATA_VERSION;
+        metadata.deltaCount = 2;
+        metadata.iv = IV_2;
+        metadata.deltaIvs = new byte[][]{IV_0, IV_1};
+        if (!CryptoUtils.MODE_AES.equals(crypto)) {
+            metadata.aes = new byte[]{12};
+            metadata.deltaAes = new byte[][]{new byte[]{10}, new byte[]{11}};
+        }
+        return metadata;
+    }
+}
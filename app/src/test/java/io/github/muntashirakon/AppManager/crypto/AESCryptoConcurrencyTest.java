@@ -0,0 +1,142 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import io.github.muntashirakon.io.IoUtils;
+
+/**
+ * Each app of a batch backup is en/decrypted by its own crypto in parallel, which must not affect the result.
+ * <p>
+ * The benchmark compares the throughput of the encryption stage of a batch backup for different number of threads with
+ * and without a global lock around encryption. It takes a while and has nothing to assert, so it is only run manually.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AESCryptoConcurrencyTest {
+    private static final int THREAD_COUNT = 8;
+    private static final int APP_COUNT = 16;
+    private static final int APP_DATA_SIZE = 256 * 1024;
+    private static final int[] BENCHMARK_THREAD_COUNTS = new int[]{1, 2, 4, 8};
+    private static final int BENCHMARK_APP_DATA_SIZE = 4 * 1024 * 1024;
+    private static final Object GLOBAL_LOCK = new Object();
+
+    private final byte[] mData = new byte[APP_DATA_SIZE];
+
+    @Ignore("Benchmark, run manually")
+    @Test
+    public void benchmarkConcurrentEncryption() throws Exception {
+        byte[] data = new byte[BENCHMARK_APP_DATA_SIZE];
+        new SecureRandom().nextBytes(data);
+        // Warm up
+        runBatch(data, 1, false);
+        for (int threadCount : BENCHMARK_THREAD_COUNTS) {
+            long lockedNanos = runBatch(data, threadCount, true);
+            long unlockedNanos = runBatch(data, threadCount, false);
+            System.out.printf(Locale.ROOT, "%d thread(s): global lock %.1f MB/s, per-operation crypto %.1f MB/s%n",
+                    threadCount, getThroughput(data, lockedNanos), getThroughput(data, unlockedNanos));
+        }
+    }
+
+    @Test
+    public void concurrentRoundTrip() throws Exception {
+        new SecureRandom().nextBytes(mData);
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>(APP_COUNT);
+            for (int i = 0; i < APP_COUNT; ++i) {
+                results.add(executor.submit(() -> {
+                    try (AESCrypto crypto = newCrypto()) {
+                        ByteArrayOutputStream encrypted = new ByteArrayOutputStream(APP_DATA_SIZE + 16);
+                        try (OutputStream os = crypto.getEncryptingStream(encrypted)) {
+                            os.write(mData);
+                        }
+                        ByteArrayOutputStream decrypted = new ByteArrayOutputStream(APP_DATA_SIZE);
+                        try (InputStream is = crypto.getDecryptingStream(new ByteArrayInputStream(encrypted.toByteArray()))) {
+                            IoUtils.copy(is, decrypted);
+                        }
+                        return decrypted.toByteArray();
+                    }
+                }));
+            }
+            for (Future<byte[]> result : results) {
+                assertArrayEquals(mData, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static long runBatch(@NonNull byte[] data, int threadCount, boolean globalLock) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<?>> results = new ArrayList<>(APP_COUNT);
+            long start = System.nanoTime();
+            for (int i = 0; i < APP_COUNT; ++i) {
+                results.add(executor.submit(() -> {
+                    if (globalLock) {
+                        synchronized (GLOBAL_LOCK) {
+                            encrypt(data);
+                        }
+                    } else encrypt(data);
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+            return System.nanoTime() - start;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void encrypt(@NonNull byte[] data) throws IOException, CryptoException {
+        try (AESCrypto crypto = newCrypto();
+             OutputStream os = crypto.getEncryptingStream(new NullOutputStream())) {
+            os.write(data);
+        }
+    }
+
+    private static double getThroughput(@NonNull byte[] data, long nanos) {
+        return ((double) APP_COUNT * data.length / (1024 * 1024)) / (nanos / 1e9);
+    }
+
+    @NonNull
+    private static AESCrypto newCrypto() throws CryptoException {
+        byte[] iv = new byte[AESCrypto.GCM_IV_SIZE_BYTES];
+        new SecureRandom().nextBytes(iv);
+        // Hybrid mode generates its own AES key, which avoids the need for a KeyStore
+        return new RSACrypto(iv, null);
+    }
+
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) {
+        }
+    }
+}
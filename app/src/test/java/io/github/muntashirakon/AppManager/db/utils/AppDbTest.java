@@ -0,0 +1,356 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.db.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.util.SparseIntArray;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.github.muntashirakon.AppManager.db.dao.AppDao;
+import io.github.muntashirakon.AppManager.db.entity.App;
+import io.github.muntashirakon.AppManager.db.entity.Backup;
+import io.github.muntashirakon.AppManager.types.UserPackagePair;
+import io.github.muntashirakon.AppManager.usage.PackageUsageInfo;
+import io.github.muntashirakon.AppManager.utils.AppPref;
+
+@RunWith(RobolectricTestRunner.class)
+public class AppDbTest {
+    private final Context mContext = RuntimeEnvironment.getApplication();
+
+    @Test
+    public void testIndexApps() {
+        List<App> apps = createApps(10, 2);
+        Map<UserPackagePair, App> appMap = AppDb.indexApps(apps);
+        assertEquals(apps.size(), appMap.size());
+        // Original order is retained
+        assertEquals(apps, new ArrayList<>(appMap.values()));
+        assertSame(apps.get(3), appMap.get(new UserPackagePair(apps.get(3).packageName, apps.get(3).userId)));
+        assertNull(appMap.get(new UserPackagePair(apps.get(3).packageName, 20)));
+    }
+
+    @Test
+    public void testIndexUsage() {
+        List<PackageUsageInfo> usageInfoList = new ArrayList<>();
+        usageInfoList.add(new PackageUsageInfo(mContext, "com.example.package", 0, null));
+        usageInfoList.add(new PackageUsageInfo(mContext, "com.example.package", 10, null));
+        usageInfoList.add(new PackageUsageInfo(mContext, "com.example.package", 0, null));
+        Map<UserPackagePair, PackageUsageInfo> usageInfoMap = AppDb.indexUsage(usageInfoList);
+        assertEquals(2, usageInfoMap.size());
+        // The first one is retained
+        assertSame(usageInfoList.get(0), usageInfoMap.get(new UserPackagePair("com.example.package", 0)));
+        assertSame(usageInfoList.get(1), usageInfoMap.get(new UserPackagePair("com.example.package", 10)));
+    }
+
+    @Test
+    public void testReconciliation() {
+        List<App> oldApps = new ArrayList<>();
+        oldApps.add(createInstalledApp("com.example.uptodate", 0, 1));
+        oldApps.add(createInstalledApp("com.example.updated", 0, 1));
+        oldApps.add(createInstalledApp("com.example.uninstalled", 0, 1));
+        App backedUpApp = createInstalledApp("com.example.backup", 0, 5);
+        backedUpApp.isInstalled = false;
+        oldApps.add(backedUpApp);
+        Map<String, Backup> backups = new HashMap<>();
+        backups.put("com.example.backup", createBackup("com.example.backup", 5));
+        // Backups of the installed packages are ignored
+        backups.put("com.example.uptodate", createBackup("com.example.uptodate", 2));
+
+        AppDb.Reconciliation reconciliation = new AppDb.Reconciliation(AppDb.indexApps(oldApps), backups);
+        reconciliation.addInstalledPackage(mContext, createPackageInfo("com.example.uptodate", 0, 1));
+        reconciliation.addInstalledPackage(mContext, createPackageInfo("com.example.updated", 0, 2));
+        reconciliation.addInstalledPackage(mContext, createPackageInfo("com.example.new", 0, 1));
+        // Same package in another user
+        reconciliation.addInstalledPackage(mContext, createPackageInfo("com.example.uptodate", 10, 1));
+        reconciliation.addRemainingBackups();
+
+        assertEquals(new HashSet<>(Arrays.asList("com.example.uptodate", "com.example.backup")),
+                reconciliation.updatedApps);
+        assertEquals(new HashSet<>(Arrays.asList("com.example.updated", "com.example.new", "com.example.uptodate")),
+                reconciliation.newApps);
+        List<App> modifiedApps = reconciliation.modifiedApps;
+        assertEquals(5, modifiedApps.size());
+        // Up-to-date apps are reused as is
+        assertSame(oldApps.get(0), modifiedApps.get(0));
+        assertEquals(2, modifiedApps.get(1).lastUpdateTime);
+        assertEquals("com.example.new", modifiedApps.get(2).packageName);
+        assertEquals(10, modifiedApps.get(3).userId);
+        assertSame(backedUpApp, modifiedApps.get(4));
+        assertEquals(Collections.singletonList(oldApps.get(2)), reconciliation.getRemovedApps());
+    }
+
+    @Test
+    public void testReconciliationScalesLinearly() {
+        // Count the map operations instead of measuring the time so that the result does not depend on the machine
+        long operations = countReconciliationOperations(5000);
+        // Each package is looked up a constant number of times
+        assertTrue(operations <= 3 * 5000);
+        assertEquals(2 * operations, countReconciliationOperations(10_000));
+    }
+
+    private long countReconciliationOperations(int packageCount) {
+        // Half of the packages are installed, the other half are only backed up
+        CountingMap<UserPackagePair, App> oldApps = new CountingMap<>();
+        CountingMap<String, Backup> backups = new CountingMap<>();
+        List<PackageInfo> packageInfoList = new ArrayList<>(packageCount / 2);
+        for (int i = 0; i < packageCount; ++i) {
+            String packageName = "com.example.package" + i;
+            App app = createInstalledApp(packageName, 0, 5);
+            if (i % 2 == 0) {
+                packageInfoList.add(createPackageInfo(packageName, 0, 5));
+            } else {
+                app.isInstalled = false;
+                backups.put(packageName, createBackup(packageName, 5));
+            }
+            oldApps.put(new UserPackagePair(packageName, 0), app);
+        }
+        oldApps.operations = backups.operations = 0;
+
+        AppDb.Reconciliation reconciliation = new AppDb.Reconciliation(oldApps, backups);
+        for (PackageInfo packageInfo : packageInfoList) {
+            reconciliation.addInstalledPackage(mContext, packageInfo);
+        }
+        reconciliation.addRemainingBackups();
+
+        assertEquals(packageCount, reconciliation.updatedApps.size());
+        assertTrue(reconciliation.newApps.isEmpty());
+        assertTrue(reconciliation.getRemovedApps().isEmpty());
+        return oldApps.operations + backups.operations;
+    }
+
+    @Test
+    public void testChangedApplicationsAreNotStoredIfInterrupted() {
+        String savedJournal = PackageChangeJournal.writeJournal(3, new SparseIntArray());
+        AppPref.set(AppPref.PrefKey.PREF_PACKAGE_CHANGE_JOURNAL_STR, savedJournal);
+        PackageChangeJournal journal = new PackageChangeJournal(mContext);
+        FakeAppDao appDao = new FakeAppDao();
+        List<App> apps = createApps(2, 1);
+        // Interrupted while the apps were being updated
+        Thread.currentThread().interrupt();
+        try {
+            assertFalse(AppDb.storeChangedApplications(appDao, journal, apps));
+        } finally {
+            Thread.interrupted();
+        }
+        assertTrue(appDao.apps.isEmpty());
+        // The journal is not advanced, the packages are updated again next time
+        assertEquals(savedJournal, AppPref.getString(AppPref.PrefKey.PREF_PACKAGE_CHANGE_JOURNAL_STR));
+
+        assertTrue(AppDb.storeChangedApplications(appDao, journal, apps));
+        assertEquals(apps, appDao.apps);
+        assertNotEquals(savedJournal, AppPref.getString(AppPref.PrefKey.PREF_PACKAGE_CHANGE_JOURNAL_STR));
+    }
+
+    @NonNull
+    private static App createInstalledApp(@NonNull String packageName, int userId, long lastUpdateTime) {
+        App app = new App();
+        app.packageName = packageName;
+        app.userId = userId;
+        app.isInstalled = true;
+        app.flags = ApplicationInfo.FLAG_INSTALLED;
+        app.lastUpdateTime = lastUpdateTime;
+        return app;
+    }
+
+    @NonNull
+    private static PackageInfo createPackageInfo(@NonNull String packageName, int userId, long lastUpdateTime) {
+        PackageInfo packageInfo = new PackageInfo();
+        packageInfo.packageName = packageName;
+        packageInfo.lastUpdateTime = lastUpdateTime;
+        packageInfo.applicationInfo = new ApplicationInfo();
+        packageInfo.applicationInfo.packageName = packageName;
+        packageInfo.applicationInfo.uid = userId * 100_000 + 10_100;
+        packageInfo.applicationInfo.flags = ApplicationInfo.FLAG_INSTALLED;
+        return packageInfo;
+    }
+
+    @NonNull
+    private static Backup createBackup(@NonNull String packageName, long backupTime) {
+        Backup backup = new Backup();
+        backup.packageName = packageName;
+        backup.backupName = "0";
+        backup.label = packageName;
+        backup.backupTime = backupTime;
+        return backup;
+    }
+
+    @NonNull
+    private static List<App> createApps(int packageCount, int userCount) {
+        List<App> apps = new ArrayList<>(packageCount * userCount);
+        for (int userId = 0; userId < userCount; ++userId) {
+            for (int i = 0; i < packageCount; ++i) {
+                App app = new App();
+                app.packageName = "com.example.package" + i;
+                app.userId = userId * 10;
+                app.isInstalled = true;
+                apps.add(app);
+            }
+        }
+        return apps;
+    }
+
+    private static class FakeAppDao implements AppDao {
+        final List<App> apps = new ArrayList<>();
+
+        @Override
+        public List<App> getAll() {
+            return apps;
+        }
+
+        @Override
+        public List<App> getAllInstalled() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<App> getAll(String packageName) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<App> getAll(String packageName, int userId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void insert(List<App> apps) {
+            this.apps.addAll(apps);
+        }
+
+        @Override
+        public void insert(App app) {
+            apps.add(app);
+        }
+
+        @Override
+        public void update(App app) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void deleteAll() {
+            apps.clear();
+        }
+
+        @Override
+        public void delete(App app) {
+            apps.remove(app);
+        }
+
+        @Override
+        public void delete(List<App> apps) {
+            this.apps.removeAll(apps);
+        }
+
+        @Override
+        public void delete(String packageName, int userId) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Counts the lookups, the removals and the iterated elements
+     */
+    private static class CountingMap<K, V> extends LinkedHashMap<K, V> {
+        long operations;
+
+        @Override
+        public V get(Object key) {
+            ++operations;
+            return super.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            ++operations;
+            return super.containsKey(key);
+        }
+
+        @Override
+        public V remove(Object key) {
+            ++operations;
+            return super.remove(key);
+        }
+
+        @NonNull
+        @Override
+        public Set<K> keySet() {
+            return new CountingSet<>(super.keySet());
+        }
+
+        @NonNull
+        @Override
+        public Collection<V> values() {
+            return new CountingSet<>(super.values());
+        }
+
+        @NonNull
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            return new CountingSet<>(super.entrySet());
+        }
+
+        private class CountingSet<E> extends AbstractSet<E> {
+            private final Collection<E> mCollection;
+
+            CountingSet(Collection<E> collection) {
+                mCollection = collection;
+            }
+
+            @NonNull
+            @Override
+            public Iterator<E> iterator() {
+                Iterator<E> iterator = mCollection.iterator();
+                return new Iterator<E>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public E next() {
+                        ++operations;
+                        return iterator.next();
+                    }
+
+                    @Override
+                    public void remove() {
+                        iterator.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return mCollection.size();
+            }
+        }
+    }
+}
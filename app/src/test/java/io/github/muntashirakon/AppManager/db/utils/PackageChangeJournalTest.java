@@ -0,0 +1,45 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.db.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.util.SparseIntArray;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+@RunWith(RobolectricTestRunner.class)
+public class PackageChangeJournalTest {
+    @Test
+    public void testJournalRoundTrip() {
+        SparseIntArray sequences = new SparseIntArray();
+        sequences.put(0, 42);
+        sequences.put(10, 7);
+        String journal = PackageChangeJournal.writeJournal(3, sequences);
+        SparseIntArray readSequences = new SparseIntArray();
+        assertTrue(PackageChangeJournal.readJournal(journal, 3, readSequences));
+        assertEquals(2, readSequences.size());
+        assertEquals(42, readSequences.get(0));
+        assertEquals(7, readSequences.get(10));
+    }
+
+    @Test
+    public void testJournalIsInvalidAfterReboot() {
+        SparseIntArray sequences = new SparseIntArray();
+        sequences.put(0, 42);
+        String journal = PackageChangeJournal.writeJournal(3, sequences);
+        assertFalse(PackageChangeJournal.readJournal(journal, 4, new SparseIntArray()));
+        // Boot count is unavailable
+        assertFalse(PackageChangeJournal.readJournal(journal, -1, new SparseIntArray()));
+    }
+
+    @Test
+    public void testEmptyJournal() {
+        assertFalse(PackageChangeJournal.readJournal("{}", 3, new SparseIntArray()));
+        assertFalse(PackageChangeJournal.readJournal("", 3, new SparseIntArray()));
+    }
+}
@@ -0,0 +1,206 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.github.muntashirakon.AppManager.filters.options.FilterOption;
+
+@RunWith(RobolectricTestRunner.class)
+public class FilterExpressionTest {
+    private final Map<Integer, FilterOption> mOptions = new HashMap<>();
+    private final List<Integer> mTested = new ArrayList<>();
+    private FilterableAppInfo mInfo;
+
+    @Before
+    public void setUp() {
+        PackageInfo packageInfo = new PackageInfo();
+        packageInfo.packageName = "com.example";
+        packageInfo.applicationInfo = new ApplicationInfo();
+        packageInfo.applicationInfo.packageName = "com.example";
+        mInfo = new FilterableAppInfo(packageInfo, null);
+        mOptions.put(1, new FakeOption(1, true, FilterOption.COST_EXPENSIVE));
+        mOptions.put(2, new FakeOption(2, false, FilterOption.COST_CHEAP));
+        mOptions.put(3, new FakeOption(3, true, FilterOption.COST_MODERATE));
+        mOptions.put(4, new FakeOption(4, false, FilterOption.COST_EXPENSIVE));
+        mOptions.put(6, new FakeOption(6, true, FilterOption.COST_MODERATE, true));
+    }
+
+    @Test
+    public void testEvaluate() {
+        assertTrue(evaluate("true"));
+        assertFalse(evaluate("false"));
+        assertTrue(evaluate("fake_1"));
+        assertFalse(evaluate("fake_2"));
+        assertFalse(evaluate("fake_1 & fake_2"));
+        assertTrue(evaluate("fake_1 | fake_2"));
+        assertTrue(evaluate("(fake_2|fake_3)&fake_1"));
+        assertFalse(evaluate(" ( fake_2 | fake_4 ) & fake_1 "));
+    }
+
+    @Test
+    public void testPrecedence() {
+        // & binds tighter than |
+        assertTrue(evaluate("fake_1 | fake_2 & fake_4"));
+        assertFalse(evaluate("(fake_1 | fake_2) & fake_4"));
+        assertTrue(evaluate("fake_2 & fake_4 | fake_3"));
+    }
+
+    @Test
+    public void testCheapOptionsFirst() {
+        assertFalse(evaluate("fake_1 & fake_3 & fake_2"));
+        // The cheapest option fails, no need to test the others
+        assertEquals(Collections.singletonList(2), mTested);
+
+        mTested.clear();
+        assertTrue(evaluate("fake_4 | fake_1 | fake_3"));
+        assertEquals(Collections.singletonList(3), mTested);
+
+        mTested.clear();
+        assertFalse(evaluate("fake_4 & fake_1"));
+        // Options of the same cost are tested in the given order
+        assertEquals(Collections.singletonList(4), mTested);
+    }
+
+    @Test
+    public void testMatchDetailsInOrder() {
+        // Match details are collected even though a cheaper option would match
+        assertTrue(evaluate("fake_6 | fake_2"));
+        assertEquals(Collections.singletonList(6), mTested);
+
+        mTested.clear();
+        assertTrue(evaluate("fake_1 | fake_3 | fake_6 | fake_2"));
+        // Options before the one with match details are still reordered
+        assertEquals(Collections.singletonList(3), mTested);
+
+        mTested.clear();
+        assertFalse(evaluate("fake_1 & fake_6 & fake_2"));
+        assertEquals(Arrays.asList(1, 6, 2), mTested);
+
+        mTested.clear();
+        assertFalse(evaluate("(fake_2 | fake_6) & fake_4"));
+        assertEquals(Arrays.asList(2, 6, 4), mTested);
+        assertTrue(compile("fake_3 & (fake_2 | fake_6)", true).hasMatchDetails());
+        assertFalse(compile("fake_3 & (fake_2 | fake_1)", true).hasMatchDetails());
+    }
+
+    @Test
+    public void testCost() {
+        assertEquals(FilterOption.COST_CHEAP, compile("true & fake_2", true).getCost());
+        assertEquals(FilterOption.COST_MODERATE, compile("fake_2 | fake_3", true).getCost());
+        assertEquals(FilterOption.COST_EXPENSIVE, compile("fake_2 & (fake_3 | fake_1)", true).getCost());
+        assertEquals(FilterOption.COST_MODERATE, compile("fake_6 | fake_2", true).getCost());
+    }
+
+    @Test
+    public void testCollectOptions() {
+        List<FilterOption> options = new ArrayList<>();
+        compile("fake_1 & (fake_3 | true)", true).collectOptions(options);
+        assertEquals(2, options.size());
+        assertTrue(options.contains(mOptions.get(1)));
+        assertTrue(options.contains(mOptions.get(3)));
+    }
+
+    @Test
+    public void testDrainTestTimes() {
+        FilterExpression expr = compile("fake_2 | fake_1", true);
+        expr.evaluate(mInfo, new FilterOption.TestResult());
+        Map<Integer, Long> testTimes = new HashMap<>();
+        expr.drainTestTimes(testTimes);
+        assertEquals(2, testTimes.size());
+        assertTrue(testTimes.get(1) >= 0);
+        assertTrue(testTimes.get(2) >= 0);
+    }
+
+    @Test
+    public void testInvalidExpression() {
+        assertThrows(IllegalArgumentException.class, () -> compile("", true));
+        assertThrows(IllegalArgumentException.class, () -> compile("fake_1 &", true));
+        assertThrows(IllegalArgumentException.class, () -> compile("fake_1 | | fake_2", true));
+        assertThrows(IllegalArgumentException.class, () -> compile("(fake_1 | fake_2", true));
+        assertThrows(IllegalArgumentException.class, () -> compile("fake_1 | fake_2)", true));
+        assertThrows(IllegalArgumentException.class, () -> compile("fake_1 fake_2", true));
+    }
+
+    @Test
+    public void testUnknownOption() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> compile("fake_1 & fake_5", true));
+        assertEquals("Unknown filter option fake_5 at position 9 in fake_1 & fake_5", e.getMessage());
+        // Type must match the ID
+        assertThrows(IllegalArgumentException.class, () -> compile("other_1", true));
+        assertThrows(IllegalArgumentException.class, () -> compile("fake", true));
+        // Unknown options never match when not strict
+        assertFalse(compile("fake_5", false).evaluate(mInfo, new FilterOption.TestResult()));
+        assertTrue(compile("fake_5 | fake_1", false).evaluate(mInfo, new FilterOption.TestResult()));
+        assertFalse(compile("fake", false).evaluate(mInfo, new FilterOption.TestResult()));
+    }
+
+    private boolean evaluate(String expr) {
+        return compile(expr, true).evaluate(mInfo, new FilterOption.TestResult());
+    }
+
+    private FilterExpression compile(String expr, boolean strict) {
+        return FilterExpression.compile(expr, mOptions, strict);
+    }
+
+    private class FakeOption extends FilterOption {
+        private final boolean mMatches;
+        private final int mCost;
+        private final boolean mHasMatchDetails;
+
+        FakeOption(int id, boolean matches, int cost) {
+            this(id, matches, cost, false);
+        }
+
+        FakeOption(int id, boolean matches, int cost, boolean hasMatchDetails) {
+            super("fake");
+            this.id = id;
+            mMatches = matches;
+            mCost = cost;
+            mHasMatchDetails = hasMatchDetails;
+        }
+
+        @NonNull
+        @Override
+        public Map<String, Integer> getKeysWithType() {
+            return Collections.singletonMap(KEY_ALL, TYPE_NONE);
+        }
+
+        @Override
+        public TestResult test(@NonNull FilterableAppInfo info, @NonNull TestResult result) {
+            mTested.add(id);
+            return result.setMatched(mMatches);
+        }
+
+        @Override
+        public int getTestCost() {
+            return mCost;
+        }
+
+        @Override
+        public boolean hasMatchDetails() {
+            return mHasMatchDetails;
+        }
+    }
+}
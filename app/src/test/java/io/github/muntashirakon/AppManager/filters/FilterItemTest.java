@@ -0,0 +1,146 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.filters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import io.github.muntashirakon.AppManager.filters.options.FilterOption;
+
+@RunWith(RobolectricTestRunner.class)
+public class FilterItemTest {
+    // Enough apps for four threads
+    private static final int APP_COUNT = 200;
+    private static final int THREAD_COUNT = 4;
+
+    private final List<FilterableAppInfo> mApps = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < APP_COUNT; ++i) {
+            PackageInfo packageInfo = new PackageInfo();
+            packageInfo.packageName = "com.example.package" + i;
+            packageInfo.applicationInfo = new ApplicationInfo();
+            packageInfo.applicationInfo.packageName = packageInfo.packageName;
+            mApps.add(new FilterableAppInfo(packageInfo, null));
+        }
+    }
+
+    @Test
+    public void testOrderIsPreserved() {
+        FilterItem filterItem = new FilterItem();
+        filterItem.addFilterOption(new FakeOption(info -> {
+            int i = getIndex(info);
+            if (i % 10 == 0) {
+                // Let the other threads overtake this one
+                sleep(5);
+            }
+            return i % 3 != 0;
+        }));
+        List<String> expectedPackages = new ArrayList<>();
+        for (int i = 0; i < APP_COUNT; ++i) {
+            if (i % 3 != 0) {
+                expectedPackages.add(mApps.get(i).getPackageName());
+            }
+        }
+        List<String> packages = new ArrayList<>();
+        for (FilterItem.FilteredItemInfo item : filterItem.getFilteredList(mApps, THREAD_COUNT)) {
+            packages.add(item.info.getPackageName());
+        }
+        assertEquals(expectedPackages, packages);
+        // The same as testing them in this thread
+        List<String> sequentialPackages = new ArrayList<>();
+        for (FilterItem.FilteredItemInfo item : filterItem.getFilteredList(mApps, 1)) {
+            sequentialPackages.add(item.info.getPackageName());
+        }
+        assertEquals(expectedPackages, sequentialPackages);
+    }
+
+    @Test
+    public void testFailureIsRethrown() {
+        FilterItem filterItem = new FilterItem();
+        filterItem.addFilterOption(new FakeOption(info -> {
+            if (getIndex(info) == APP_COUNT / 2) {
+                throw new IllegalStateException("Could not test " + info.getPackageName());
+            }
+            return true;
+        }));
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> filterItem.getFilteredList(mApps, THREAD_COUNT));
+        assertEquals("Could not test com.example.package" + APP_COUNT / 2, e.getMessage());
+    }
+
+    @Test
+    public void testCancelReturnsNothing() {
+        Thread callerThread = Thread.currentThread();
+        FilterItem filterItem = new FilterItem();
+        filterItem.addFilterOption(new FakeOption(info -> {
+            if (getIndex(info) == APP_COUNT / 4) {
+                // Cancelled while the apps are being tested
+                callerThread.interrupt();
+            }
+            sleep(1);
+            return true;
+        }));
+        List<FilterItem.FilteredItemInfo> filteredList;
+        try {
+            filteredList = filterItem.getFilteredList(mApps, THREAD_COUNT);
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+        assertEquals(Collections.emptyList(), filteredList);
+        assertEquals(-1, filterItem.getLastTestTime(filterItem.getFilterOptionAt(0).id));
+    }
+
+    private static int getIndex(@NonNull FilterableAppInfo info) {
+        return Integer.parseInt(info.getPackageName().substring("com.example.package".length()));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private interface Matcher {
+        boolean matches(@NonNull FilterableAppInfo info);
+    }
+
+    private static class FakeOption extends FilterOption {
+        private final Matcher mMatcher;
+
+        FakeOption(@NonNull Matcher matcher) {
+            super("fake");
+            mMatcher = matcher;
+        }
+
+        @NonNull
+        @Override
+        public Map<String, Integer> getKeysWithType() {
+            return Collections.singletonMap(KEY_ALL, TYPE_NONE);
+        }
+
+        @Override
+        public TestResult test(@NonNull FilterableAppInfo info, @NonNull TestResult result) {
+            return result.setMatched(mMatcher.matches(info));
+        }
+    }
+}
@@ -0,0 +1,172 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.reader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.fail;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+
+import io.github.muntashirakon.AppManager.logcat.struct.LogLine;
+
+@RunWith(RobolectricTestRunner.class)
+public class BinaryLogcatReaderTest {
+    // struct logger_entry v4 (hdr_size = 28) from the system buffer: pid 1420, tid 1437, 2023-11-14 22:13:20.123456789,
+    // uid 1000, I/ActivityManager: Start proc 4321:com.example/u0a123 for service
+    private static final String ENTRY_SYSTEM = "40001c008c0500009d05000000f1536515cd5b0703000000e8030000"
+            + "0441637469766974794d616e616765720053746172742070726f6320343332313a636f6d2e6578616d706c652f"
+            + "75306131323320666f72207365727669636500";
+    // struct logger_entry v4 from the main buffer: pid 4321, tid 4321, 2023-11-14 22:13:21.005, uid 10123,
+    // E/AndroidRuntime: FATAL EXCEPTION: main\nProcess: com.example, PID: 4321\n
+    private static final String ENTRY_MULTI_LINE = "47001c00e1100000e110000001f15365404b4c00000000008b270000"
+            + "06416e64726f696452756e74696d6500464154414c20455843455054494f4e3a206d61696e0a50726f636573733a"
+            + "20636f6d2e6578616d706c652c205049443a20343332310a00";
+    // struct logger_entry v4 from the events buffer, whose payload is binary
+    private static final String ENTRY_EVENTS = "05001c008c0500009d05000000f1536515cd5b0702000000e8030000"
+            + "7b00000000";
+    // hdr_size = 4
+    private static final String ENTRY_INVALID = "05000400" + "0000000000";
+
+    @Test
+    public void testDecodeEntry() throws IOException {
+        BinaryLogcatReader reader = newReader(ENTRY_SYSTEM, null);
+        LogLine logLine = reader.readLogLine();
+        assertNotNull(logLine);
+        assertEquals(1420, logLine.getPid());
+        assertEquals(1437, logLine.getTid());
+        assertEquals(1000, logLine.getUid());
+        assertEquals(Log.INFO, logLine.getLogLevel());
+        assertEquals("ActivityManager", logLine.getTagName());
+        assertEquals("Start proc 4321:com.example/u0a123 for service", logLine.getLogOutput());
+        assertNull(reader.readLogLine());
+    }
+
+    @Test
+    public void testMultiLineEntry() throws IOException {
+        BinaryLogcatReader reader = newReader(ENTRY_SYSTEM + ENTRY_MULTI_LINE, null);
+        LogLine first = reader.readLogLine();
+        LogLine logLine1 = reader.readLogLine();
+        LogLine logLine2 = reader.readLogLine();
+        assertNotNull(first);
+        assertNotNull(logLine1);
+        assertNotNull(logLine2);
+        assertEquals(Log.ERROR, logLine1.getLogLevel());
+        assertEquals("FATAL EXCEPTION: main", logLine1.getLogOutput());
+        assertEquals("Process: com.example, PID: 4321", logLine2.getLogOutput());
+        assertEquals(10123, logLine2.getUid());
+        // Same entry
+        assertEquals(logLine1.getTimestamp(), logLine2.getTimestamp());
+        // Tags are pooled
+        assertSame(logLine1.getTagName(), logLine2.getTagName());
+        // The trailing new line does not produce an empty line
+        assertNull(reader.readLogLine());
+    }
+
+    @Test
+    public void testSkipBinaryPayload() throws IOException {
+        BinaryLogcatReader reader = newReader(ENTRY_EVENTS + ENTRY_SYSTEM, null);
+        LogLine logLine = reader.readLogLine();
+        assertNotNull(logLine);
+        assertEquals("ActivityManager", logLine.getTagName());
+        assertNull(reader.readLogLine());
+    }
+
+    @Test
+    public void testFallBackToTextMode() throws IOException {
+        LogLine textLine = LogLine.newLogLine(
+                "11-14 22:13:20.123  1420  1437 I ActivityManager: Start proc 4321:com.example/u0a123", false, null);
+        BinaryLogcatReader reader = newReader(ENTRY_INVALID, new FakeTextReader(textLine));
+        assertSame(textLine, reader.readLogLine());
+        assertNull(reader.readLogLine());
+    }
+
+    @Test
+    public void testInvalidEntryAfterValidEntries() throws IOException {
+        BinaryLogcatReader reader = newReader(ENTRY_SYSTEM + ENTRY_INVALID, null);
+        assertNotNull(reader.readLogLine());
+        // The stream is corrupted, no fallback
+        IOException e = assertThrows(IOException.class, reader::readLogLine);
+        assertEquals("Invalid header size 4", e.getMessage());
+    }
+
+    @Test
+    public void testEquality() throws IOException {
+        LogLine logLine1 = newReader(ENTRY_SYSTEM, null).readLogLine();
+        LogLine logLine2 = newReader(ENTRY_SYSTEM, null).readLogLine();
+        assertNotNull(logLine1);
+        assertEquals(logLine1, logLine2);
+        assertEquals(logLine1.hashCode(), logLine2.hashCode());
+    }
+
+    @NonNull
+    private static BinaryLogcatReader newReader(@NonNull String hex, @Nullable LogcatReader fallbackReader) {
+        return new BinaryLogcatReader(new ByteArrayInputStream(decodeHex(hex)), () -> {
+            if (fallbackReader == null) {
+                fail("Unexpected fallback to text mode");
+            }
+            return fallbackReader;
+        });
+    }
+
+    @NonNull
+    private static byte[] decodeHex(@NonNull String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static class FakeTextReader implements LogcatReader {
+        private final Queue<LogLine> mLogLines;
+
+        FakeTextReader(LogLine... logLines) {
+            mLogLines = new ArrayDeque<>(Arrays.asList(logLines));
+        }
+
+        @Override
+        public String readLine() {
+            LogLine logLine = mLogLines.poll();
+            return logLine != null ? logLine.getOriginalLine() : null;
+        }
+
+        @Nullable
+        @Override
+        public LogLine readLogLine() {
+            return mLogLines.poll();
+        }
+
+        @Override
+        public void killQuietly() {
+        }
+
+        @Override
+        public boolean readyToRecord() {
+            return false;
+        }
+
+        @Override
+        public List<Process> getProcesses() {
+            return Collections.emptyList();
+        }
+    }
+}
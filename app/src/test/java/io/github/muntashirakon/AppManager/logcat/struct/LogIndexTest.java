@@ -0,0 +1,127 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.struct;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+@RunWith(RobolectricTestRunner.class)
+public class LogIndexTest {
+    @Test
+    public void testReadWrite() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        LogIndex.writeHeader(os);
+        LogIndex.Segment segment = new LogIndex.Segment();
+        segment.addLine(parse("01-18 12:34:56.789  1234  5678 I ActivityManager: Start proc"), 100);
+        segment.addLine(parse("01-18 12:34:57.789  4321  5678 W PackageManager: Package changed"), 50);
+        LogIndex.writeSegment(os, segment);
+        segment = segment.next();
+        segment.addLine(parse("01-18 12:35:00.000    42    43 E my tag : message: with colon"), 30);
+        LogIndex.writeSegment(os, segment);
+
+        LogIndex logIndex = Objects.requireNonNull(LogIndex.read(new ByteArrayInputStream(os.toByteArray()), 180));
+        assertEquals(2, logIndex.getSegments().size());
+        assertEquals(180, logIndex.getIndexedLength());
+        LogIndex.Segment first = logIndex.getSegments().get(0);
+        assertEquals(0, first.getOffset());
+        assertEquals(150, first.getLength());
+        assertEquals(2, first.getLineCount());
+        assertEquals(118123456789L, first.getFirstTimestamp());
+        assertTrue(first.mayContainTag("ActivityManager"));
+        assertTrue(first.mayContainTag("PackageManager"));
+        assertTrue(first.mayContainPid(1234));
+        assertTrue(first.mayContainPid(4321));
+        assertFalse(first.mayContainPid(42));
+        LogIndex.Segment second = logIndex.getSegments().get(1);
+        assertEquals(150, second.getOffset());
+        assertTrue(second.mayContainTag("my tag"));
+        assertTrue(second.mayContainPid(42));
+        assertFalse(second.mayContainPid(1234));
+    }
+
+    @Test
+    public void testSegmentsBeyondLog() throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        LogIndex.writeHeader(os);
+        LogIndex.Segment segment = new LogIndex.Segment();
+        segment.addLine(parse("01-18 12:34:56.789  1234  5678 I Tag: one"), 100);
+        LogIndex.writeSegment(os, segment);
+        segment = segment.next();
+        segment.addLine(parse("01-18 12:34:57.789  1234  5678 I Tag: two"), 100);
+        LogIndex.writeSegment(os, segment);
+        byte[] bytes = os.toByteArray();
+
+        // The log is shorter than the indexed length
+        LogIndex logIndex = Objects.requireNonNull(LogIndex.read(new ByteArrayInputStream(bytes), 150));
+        assertEquals(1, logIndex.getSegments().size());
+        // The last segment is incomplete
+        logIndex = Objects.requireNonNull(LogIndex.read(new ByteArrayInputStream(Arrays.copyOf(bytes,
+                bytes.length - 1)), 200));
+        assertEquals(1, logIndex.getSegments().size());
+        // Not an index
+        assertNull(LogIndex.read(new ByteArrayInputStream("01-18 12:34:56.789".getBytes()), 200));
+    }
+
+    @Test
+    public void testSkipRate() {
+        // A busy segment: system services, and the tags of a few apps
+        List<String> tags = new ArrayList<>(Arrays.asList("ActivityManager", "PackageManager", "WindowManager",
+                "InputDispatcher", "chatty", "SurfaceFlinger", "audioserver", "AudioFlinger", "wificond",
+                "WifiService", "ConnectivityService", "NetworkMonitor", "BluetoothAdapter", "GnssLocationProvider",
+                "LocationManagerService", "AlarmManager", "JobScheduler", "SyncManager", "ContentResolver",
+                "ActivityTaskManager", "ViewRootImpl", "Choreographer", "OpenGLRenderer", "Adreno", "libc", "linker",
+                "art", "System.err", "System.out", "Zygote", "ziparchive", "netd", "vold", "lowmemorykiller",
+                "ThermalEngine", "PowerManagerService", "BatteryService", "KeyguardUpdateMonitor", "StatusBar",
+                "NotificationService"));
+        for (int i = 0; i < 110; ++i) {
+            tags.add("com.example.app" + i % 7 + ".Tag" + i);
+        }
+        LogIndex.Segment segment = new LogIndex.Segment();
+        for (int i = 0; i < LogIndex.SEGMENT_LINES; ++i) {
+            int pid = 1000 + i % 100;
+            segment.addLine(parse(String.format(Locale.ROOT, "01-18 12:34:56.789 %5d %5d I %s: message %d", pid,
+                    pid, tags.get(i % tags.size()), i)), 100);
+        }
+        for (String tag : tags) {
+            assertTrue(segment.mayContainTag(tag));
+        }
+        for (int pid = 1000; pid < 1100; ++pid) {
+            assertTrue(segment.mayContainPid(pid));
+        }
+        // Most of the segments that do not contain a tag or a PID are skipped
+        int skippedTags = 0;
+        int skippedPids = 0;
+        for (int i = 0; i < 10_000; ++i) {
+            if (!segment.mayContainTag("MissingTag" + i)) {
+                ++skippedTags;
+            }
+            if (!segment.mayContainPid(2000 + i)) {
+                ++skippedPids;
+            }
+        }
+        assertTrue("Skipped " + skippedTags + " tags", skippedTags >= 9500);
+        assertTrue("Skipped " + skippedPids + " PIDs", skippedPids >= 9500);
+    }
+
+    private static LogLine parse(String line) {
+        LogLine logLine = LogLine.newLogLine(line, false, null);
+        assertNotNull(logLine);
+        return logLine;
+    }
+}
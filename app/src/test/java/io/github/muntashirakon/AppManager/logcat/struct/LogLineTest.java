@@ -0,0 +1,85 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.struct;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+@RunWith(RobolectricTestRunner.class)
+public class LogLineTest {
+    @Test
+    public void testThreadTime() {
+        LogLine logLine = Objects.requireNonNull(LogLine.newLogLine(
+                "01-18 12:34:56.789  1234  5678 I ActivityManager: Start proc 4321:com.example/u0a123",
+                false, null));
+        assertEquals("01-18 12:34:56.789", logLine.getTimestamp());
+        assertEquals(1234, logLine.getPid());
+        assertEquals(5678, logLine.getTid());
+        assertEquals(-1, logLine.getUid());
+        assertEquals(Log.INFO, logLine.getLogLevel());
+        assertEquals("ActivityManager", logLine.getTagName());
+        assertEquals("Start proc 4321:com.example/u0a123", logLine.getLogOutput());
+    }
+
+    @Test
+    public void testTagWithSpacesAndColons() {
+        LogLine logLine = Objects.requireNonNull(LogLine.newLogLine(
+                "01-18 12:34:56.789    12    13 W my tag:x   : message: with colon", false, null));
+        assertEquals(Log.WARN, logLine.getLogLevel());
+        assertEquals("my tag:x", logLine.getTagName());
+        assertEquals("message: with colon", logLine.getLogOutput());
+        // Empty message
+        logLine = Objects.requireNonNull(LogLine.newLogLine("01-18 12:34:56.789 12 13 F Tag: ", false, null));
+        assertEquals(LogLine.LOG_FATAL, logLine.getLogLevel());
+        assertEquals("Tag", logLine.getTagName());
+        assertEquals("", logLine.getLogOutput());
+    }
+
+    @Test
+    public void testTagsAreShared() {
+        LogLine logLine1 = Objects.requireNonNull(LogLine.newLogLine(
+                "01-18 12:34:56.789  1234  5678 D SharedTag: one", false, null));
+        LogLine logLine2 = Objects.requireNonNull(LogLine.newLogLine(
+                "01-18 12:34:57.789  1234  5678 D SharedTag: two", false, null));
+        assertSame(logLine1.getTagName(), logLine2.getTagName());
+    }
+
+    @Test
+    public void testLegacy() {
+        LogLine logLine = Objects.requireNonNull(LogLine.newLogLine(
+                "01-18 12:34:56.789 E/SomeTag( 1234): Something failed", false, null));
+        assertEquals(Log.ERROR, logLine.getLogLevel());
+        assertEquals("SomeTag", logLine.getTagName());
+        assertEquals(1234, logLine.getPid());
+        assertEquals("Something failed", logLine.getLogOutput());
+    }
+
+    @Test
+    public void testFilterPattern() {
+        Pattern filterPattern = Pattern.compile("Ignored.*");
+        assertNull(LogLine.newLogLine("01-18 12:34:56.789  1234  5678 V IgnoredTag: hidden", false,
+                filterPattern));
+        assertNotNull(LogLine.newLogLine("01-18 12:34:56.789  1234  5678 V ShownTag: shown", false,
+                filterPattern));
+    }
+
+    @Test
+    public void testMalformed() {
+        assertNull(LogLine.newLogLine("--------- beginning of main", false, null));
+        LogLine logLine = Objects.requireNonNull(LogLine.newLogLine("01-18 12:34:56.789 not a log line", false,
+                null));
+        assertEquals(-1, logLine.getLogLevel());
+        assertEquals("01-18 12:34:56.789 not a log line", logLine.getLogOutput());
+    }
+}
@@ -0,0 +1,68 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.logcat.struct;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class RingBufferTest {
+    @Test
+    public void testAddAndEvict() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(3);
+        assertNull(buffer.addLast(0));
+        assertNull(buffer.addLast(1));
+        assertNull(buffer.addLast(2));
+        assertTrue(buffer.isFull());
+        assertEquals(Integer.valueOf(0), buffer.addLast(3));
+        assertEquals(Integer.valueOf(1), buffer.addLast(4));
+        assertEquals(Arrays.asList(2, 3, 4), new ArrayList<>(buffer));
+        assertEquals(Arrays.asList(2, 3, 4), buffer);
+        assertEquals(Integer.valueOf(2), buffer.peekFirst());
+        assertEquals(Integer.valueOf(4), buffer.peekLast());
+    }
+
+    @Test
+    public void testAbsoluteIndices() {
+        RingBuffer<String> buffer = new RingBuffer<>(2);
+        buffer.add("a");
+        buffer.add("b");
+        buffer.add("c");
+        assertEquals(1, buffer.getFirstIndex());
+        assertEquals(2, buffer.getAbsoluteIndex(1));
+        assertNull(buffer.getByAbsoluteIndex(0));
+        assertEquals("b", buffer.getByAbsoluteIndex(1));
+        assertEquals("c", buffer.getByAbsoluteIndex(2));
+        assertNull(buffer.getByAbsoluteIndex(3));
+        // Indices are not reused after clearing
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        assertEquals(3, buffer.getFirstIndex());
+        buffer.add("d");
+        assertEquals("d", buffer.getByAbsoluteIndex(3));
+    }
+
+    @Test
+    public void testRemoveFirst() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(4);
+        for (int i = 0; i < 6; ++i) {
+            buffer.add(i);
+        }
+        assertEquals(Integer.valueOf(2), buffer.removeFirst());
+        buffer.removeFirst(2);
+        assertEquals(Collections.singletonList(5), buffer);
+        buffer.removeFirst(10);
+        assertTrue(buffer.isEmpty());
+        assertEquals(6, buffer.getFirstIndex());
+        for (int i = 6; i < 10; ++i) {
+            buffer.add(i);
+        }
+        assertEquals(Arrays.asList(6, 7, 8, 9), buffer);
+    }
+}
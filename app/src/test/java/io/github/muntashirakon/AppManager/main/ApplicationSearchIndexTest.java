@@ -0,0 +1,88 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.github.muntashirakon.AppManager.misc.AdvancedSearchView;
+
+@RunWith(RobolectricTestRunner.class)
+public class ApplicationSearchIndexTest {
+    private final List<ApplicationItem> mItems = new ArrayList<>();
+    private ApplicationSearchIndex mSearchIndex;
+
+    @Before
+    public void setUp() {
+        mItems.add(newItem("com.android.settings", "Settings"));
+        mItems.add(newItem("org.mozilla.firefox", "Firefox"));
+        mItems.add(newItem("io.github.muntashirakon.AppManager", "App Manager"));
+        mItems.add(newItem("com.google.android.apps.maps", "Maps"));
+        mItems.add(newItem("net.files.filemanager", "FileManager"));
+        mSearchIndex = new ApplicationSearchIndex(mItems, 0);
+    }
+
+    @Test
+    public void testContains() {
+        assertEquals(Arrays.asList(mItems.get(0), mItems.get(3)), search("android", AdvancedSearchView.SEARCH_TYPE_CONTAINS));
+        assertEquals(Arrays.asList(mItems.get(2), mItems.get(3), mItems.get(4)), search("ma", AdvancedSearchView.SEARCH_TYPE_CONTAINS));
+        assertEquals(Collections.singletonList(mItems.get(1)), search("x", AdvancedSearchView.SEARCH_TYPE_CONTAINS));
+        assertTrue(search("xyz", AdvancedSearchView.SEARCH_TYPE_CONTAINS).isEmpty());
+    }
+
+    @Test
+    public void testInitials() {
+        // App Manager
+        assertEquals(Collections.singletonList(mItems.get(2)), search("am", AdvancedSearchView.SEARCH_TYPE_CONTAINS));
+        // FileManager is split at the camel case
+        assertEquals(Collections.singletonList(mItems.get(4)), search("fm", AdvancedSearchView.SEARCH_TYPE_CONTAINS));
+        // Initials are only used when looking for a substring
+        assertTrue(search("am", AdvancedSearchView.SEARCH_TYPE_PREFIX).isEmpty());
+    }
+
+    @Test
+    public void testPrefixAndSuffix() {
+        assertEquals(Arrays.asList(mItems.get(0), mItems.get(3)), search("com.", AdvancedSearchView.SEARCH_TYPE_PREFIX));
+        assertEquals(Collections.singletonList(mItems.get(1)), search("fire", AdvancedSearchView.SEARCH_TYPE_PREFIX));
+        assertEquals(Arrays.asList(mItems.get(2), mItems.get(4)), search("manager", AdvancedSearchView.SEARCH_TYPE_SUFFIX));
+    }
+
+    @Test
+    public void testNarrowerQuery() {
+        assertEquals(mItems, search("m", AdvancedSearchView.SEARCH_TYPE_CONTAINS));
+        assertEquals(Arrays.asList(mItems.get(2), mItems.get(3), mItems.get(4)), search("ma", AdvancedSearchView.SEARCH_TYPE_CONTAINS));
+        assertEquals(Collections.singletonList(mItems.get(3)), search("map", AdvancedSearchView.SEARCH_TYPE_CONTAINS));
+        // Broader query after a narrower one
+        assertEquals(Arrays.asList(mItems.get(2), mItems.get(3), mItems.get(4)), search("ma", AdvancedSearchView.SEARCH_TYPE_CONTAINS));
+        // Same query but different type
+        assertEquals(Collections.singletonList(mItems.get(3)), search("ma", AdvancedSearchView.SEARCH_TYPE_PREFIX));
+        assertEquals(Arrays.asList(mItems.get(2), mItems.get(3), mItems.get(4)), search("ma", AdvancedSearchView.SEARCH_TYPE_CONTAINS));
+    }
+
+    @Test
+    public void testRegex() {
+        assertEquals(Arrays.asList(mItems.get(0), mItems.get(3)), search("android", AdvancedSearchView.SEARCH_TYPE_REGEX));
+        assertEquals(Collections.singletonList(mItems.get(1)), search("^F.*x$", AdvancedSearchView.SEARCH_TYPE_REGEX));
+    }
+
+    private List<ApplicationItem> search(String query, @AdvancedSearchView.SearchType int searchType) {
+        return mSearchIndex.search(query, searchType);
+    }
+
+    private static ApplicationItem newItem(String packageName, String label) {
+        ApplicationItem item = new ApplicationItem();
+        item.packageName = packageName;
+        item.label = label;
+        return item;
+    }
+}
@@ -0,0 +1,139 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.profiles;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.app.AppOpsManager;
+import android.os.RemoteException;
+import android.util.SparseIntArray;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.github.muntashirakon.AppManager.compat.AppOpsManagerCompat;
+import io.github.muntashirakon.AppManager.profiles.struct.AppsProfile;
+import io.github.muntashirakon.AppManager.rules.PseudoRules;
+import io.github.muntashirakon.AppManager.rules.struct.AppOpRule;
+
+@RunWith(RobolectricTestRunner.class)
+public class ProfilePlanTest {
+    private static final String PACKAGE_NAME = "sample.package";
+
+    @Test
+    public void testEmptyProfile() {
+        assertTrue(ProfilePlan.compile(new TestProfile(), AppsProfile.STATE_ON).isEmpty());
+    }
+
+    @Test
+    public void testComponents() {
+        TestProfile profile = new TestProfile();
+        profile.components = new String[]{"com.example.ads."};
+        profile.blockTrackers = true;
+        assertEquals("[BLOCK_COMPONENTS, BLOCK_TRACKERS, APPLY_RULES]",
+                ProfilePlan.compile(profile, AppsProfile.STATE_ON).toString());
+        assertEquals("[UNBLOCK_COMPONENTS, UNBLOCK_TRACKERS, APPLY_RULES]",
+                ProfilePlan.compile(profile, AppsProfile.STATE_OFF).toString());
+    }
+
+    @Test
+    public void testAppOps() {
+        TestProfile profile = new TestProfile();
+        profile.appOps = new int[]{AppOpsManagerCompat.OP_RUN_IN_BACKGROUND};
+        // App ops are set right away, no rules to apply
+        assertEquals("[SET_APP_OPS]", ProfilePlan.compile(profile, AppsProfile.STATE_ON).toString());
+        profile.blockTrackers = true;
+        assertEquals("[SET_APP_OPS, BLOCK_TRACKERS, APPLY_RULES]",
+                ProfilePlan.compile(profile, AppsProfile.STATE_ON).toString());
+    }
+
+    @Test
+    public void testOrder() {
+        TestProfile profile = new TestProfile();
+        profile.clearData = true;
+        profile.clearCache = true;
+        profile.forceStop = true;
+        profile.freeze = true;
+        profile.permissions = new String[]{"android.permission.READ_CONTACTS"};
+        profile.components = new String[]{"com.example.ads."};
+        // Rules are applied before the rest of the actions
+        assertEquals("[BLOCK_COMPONENTS, APPLY_RULES, REVOKE_PERMISSIONS, FREEZE, FORCE_STOP, CLEAR_CACHE, "
+                + "CLEAR_DATA]", ProfilePlan.compile(profile, AppsProfile.STATE_ON).toString());
+        assertEquals("[UNBLOCK_COMPONENTS, APPLY_RULES, GRANT_PERMISSIONS, UNFREEZE, FORCE_STOP, CLEAR_CACHE, "
+                + "CLEAR_DATA]", ProfilePlan.compile(profile, AppsProfile.STATE_OFF).toString());
+    }
+
+    @Test
+    public void testAppOpsAlreadyInDefaultMode() throws RemoteException {
+        FakeAppOps appOps = new FakeAppOps();
+        // Default mode is never returned by checkOperation()
+        appOps.modes.put(AppOpsManagerCompat.OP_RUN_IN_BACKGROUND, AppOpsManager.MODE_ALLOWED);
+        PseudoRules rules = new PseudoRules(PACKAGE_NAME, 0);
+        List<Integer> ops = Collections.singletonList(AppOpsManagerCompat.OP_RUN_IN_BACKGROUND);
+        // The app op is skipped, but the rule is still saved
+        assertTrue(ProfilePlan.setAppOps(appOps, ops, AppOpsManager.MODE_DEFAULT, rules));
+        assertEquals(0, appOps.setModeCount);
+        assertEquals(Collections.singletonList(new AppOpRule(PACKAGE_NAME, AppOpsManagerCompat.OP_RUN_IN_BACKGROUND,
+                AppOpsManager.MODE_DEFAULT)), rules.getAll(AppOpRule.class));
+        // Nothing left to do
+        assertFalse(ProfilePlan.setAppOps(appOps, ops, AppOpsManager.MODE_DEFAULT, rules));
+        assertEquals(0, appOps.setModeCount);
+    }
+
+    @Test
+    public void testAppOpsIgnored() throws RemoteException {
+        FakeAppOps appOps = new FakeAppOps();
+        appOps.modes.put(AppOpsManagerCompat.OP_RUN_IN_BACKGROUND, AppOpsManager.MODE_ALLOWED);
+        // Ignored by other means
+        appOps.modes.put(AppOpsManagerCompat.OP_RUN_ANY_IN_BACKGROUND, AppOpsManager.MODE_IGNORED);
+        PseudoRules rules = new PseudoRules(PACKAGE_NAME, 0);
+        List<Integer> ops = Arrays.asList(AppOpsManagerCompat.OP_RUN_IN_BACKGROUND,
+                AppOpsManagerCompat.OP_RUN_ANY_IN_BACKGROUND);
+        assertTrue(ProfilePlan.setAppOps(appOps, ops, AppOpsManager.MODE_IGNORED, rules));
+        // Only the app op that is not ignored is set
+        assertEquals(1, appOps.setModeCount);
+        assertEquals(AppOpsManager.MODE_IGNORED, appOps.checkOperation(AppOpsManagerCompat.OP_RUN_IN_BACKGROUND));
+        // Both are saved to the rules
+        assertEquals(Arrays.asList(
+                new AppOpRule(PACKAGE_NAME, AppOpsManagerCompat.OP_RUN_IN_BACKGROUND, AppOpsManager.MODE_IGNORED),
+                new AppOpRule(PACKAGE_NAME, AppOpsManagerCompat.OP_RUN_ANY_IN_BACKGROUND, AppOpsManager.MODE_IGNORED)),
+                rules.getAll(AppOpRule.class));
+        assertFalse(ProfilePlan.setAppOps(appOps, ops, AppOpsManager.MODE_IGNORED, rules));
+        assertEquals(1, appOps.setModeCount);
+    }
+
+    private static class TestProfile extends AppsProfile {
+        TestProfile() {
+            super("test_profile", "Test profile");
+        }
+    }
+
+    private static class FakeAppOps implements ProfilePlan.PackageAppOps {
+        final SparseIntArray modes = new SparseIntArray();
+        int setModeCount;
+
+        @Override
+        public int checkOperation(int op) {
+            int mode = modes.get(op, AppOpsManager.MODE_DEFAULT);
+            return mode == AppOpsManager.MODE_DEFAULT ? getDefaultMode(op) : mode;
+        }
+
+        @Override
+        public void setMode(int op, int mode) {
+            modes.put(op, mode);
+            ++setModeCount;
+        }
+
+        @Override
+        public int getDefaultMode(int op) {
+            return AppOpsManager.MODE_ALLOWED;
+        }
+    }
+}
@@ -26,6 +26,7 @@ import io.github.muntashirakon.AppManager.utils.FreezeUtils;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
 
 @RunWith(RobolectricTestRunner.class)
 public class PseudoRulesTest {
@@ -231,6 +232,53 @@ public class PseudoRulesTest {
         assertEquals(new FreezeRule(PACKAGE_NAME, FreezeUtils.FREEZE_DISABLE), ruleEntries.get(11));
     }
 
+    @Test
+    public void entryCountTest() {
+        rules.setComponent(".activity", RuleType.ACTIVITY, ComponentRule.COMPONENT_BLOCKED_IFW_DISABLE);
+        rules.setComponent(".service", RuleType.SERVICE, ComponentRule.COMPONENT_TO_BE_DEFAULTED);
+        rules.setAppOp(55, 3);
+        rules.setAppOp(56, 3);
+        assertEquals(1, rules.entryCount(RuleType.ACTIVITY));
+        assertEquals(1, rules.entryCount(RuleType.SERVICE));
+        assertEquals(2, rules.entryCount(RuleType.APP_OP));
+        assertEquals(1, rules.activeComponentCount());
+        // Replaced entries are not counted twice
+        rules.setComponent(".service", RuleType.SERVICE, ComponentRule.COMPONENT_BLOCKED_IFW_DISABLE);
+        assertEquals(1, rules.entryCount(RuleType.SERVICE));
+        assertEquals(2, rules.activeComponentCount());
+        rules.removeEntries(".activity", RuleType.ACTIVITY);
+        assertEquals(0, rules.entryCount(RuleType.ACTIVITY));
+        assertEquals(1, rules.activeComponentCount());
+        assertEquals(3, rules.entryCount());
+    }
+
+    @Test
+    public void entryLookupTest() {
+        rules.setComponent(".activity", RuleType.ACTIVITY, ComponentRule.COMPONENT_BLOCKED_IFW_DISABLE);
+        assertEquals(new ComponentRule(PACKAGE_NAME, ".activity", RuleType.ACTIVITY,
+                ComponentRule.COMPONENT_BLOCKED_IFW_DISABLE), rules.getEntry(".activity", RuleType.ACTIVITY));
+        assertNull(rules.getEntry(".activity", RuleType.SERVICE));
+        // Only the exact entry is removed
+        rules.removeEntry(new ComponentRule(PACKAGE_NAME, ".activity", RuleType.ACTIVITY,
+                ComponentRule.COMPONENT_TO_BE_DEFAULTED));
+        assertEquals(1, rules.entryCount());
+        rules.removeEntry(new ComponentRule(PACKAGE_NAME, ".activity", RuleType.ACTIVITY,
+                ComponentRule.COMPONENT_BLOCKED_IFW_DISABLE));
+        assertEquals(0, rules.entryCount());
+        assertNull(rules.getEntry(".activity", RuleType.ACTIVITY));
+    }
+
+    @Test
+    public void replacedEntryTest() {
+        rules.setAppOp(55, 3);
+        rules.setPermission(".perm", true, 32);
+        // The replaced entry is moved to the end
+        rules.setAppOp(55, 0);
+        List<RuleEntry> ruleEntries = rules.getAll();
+        assertEquals(new PermissionRule(PACKAGE_NAME, ".perm", true, 32), ruleEntries.get(0));
+        assertEquals(new AppOpRule(PACKAGE_NAME, 55, 0), ruleEntries.get(1));
+    }
+
     @After
     public void tearDown() {
         rules.setReadOnly();
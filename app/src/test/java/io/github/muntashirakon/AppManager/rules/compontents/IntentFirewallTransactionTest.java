@@ -0,0 +1,97 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.rules.compontents;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+import io.github.muntashirakon.io.AtomicExtendedFile;
+import io.github.muntashirakon.io.Paths;
+
+@RunWith(RobolectricTestRunner.class)
+public class IntentFirewallTransactionTest {
+    private final File mIfwDir = new File("/tmp/ifw_transaction_test");
+
+    @Before
+    public void setUp() {
+        Paths.get(mIfwDir).delete();
+        assertTrue(mIfwDir.mkdirs());
+    }
+
+    @After
+    public void tearDown() {
+        Paths.get(mIfwDir).delete();
+    }
+
+    @Test
+    public void testCommit() {
+        try (IntentFirewallTransaction transaction = IntentFirewallTransaction.begin()) {
+            assertTrue(write("package.one"));
+            assertTrue(write("package.two"));
+            // Staged until committed
+            assertFalse(getRulesFile("package.one").exists());
+            assertTrue(transaction.commit().isEmpty());
+        }
+        assertTrue(getRulesFile("package.one").exists());
+        assertTrue(getRulesFile("package.two").exists());
+    }
+
+    @Test
+    public void testJoinedTransaction() {
+        try (IntentFirewallTransaction transaction = IntentFirewallTransaction.begin()) {
+            try (IntentFirewallTransaction joined = IntentFirewallTransaction.begin()) {
+                assertTrue(write("package.one"));
+                joined.commit();
+            }
+            // The outer transaction is still active
+            assertTrue(write("package.two"));
+            assertFalse(getRulesFile("package.one").exists());
+            transaction.commit();
+        }
+        assertTrue(getRulesFile("package.one").exists());
+        assertTrue(getRulesFile("package.two").exists());
+    }
+
+    @Test
+    public void testThrowMidBatch() {
+        assertThrows(IllegalStateException.class, () -> {
+            try (IntentFirewallTransaction transaction = IntentFirewallTransaction.begin()) {
+                assertTrue(write("package.one"));
+                blockComponents("package.two");
+                transaction.commit();
+            }
+        });
+        // Rules staged before the failure are written
+        assertTrue(getRulesFile("package.one").exists());
+        assertFalse(getRulesFile("package.two").exists());
+        // The thread is released, the rules are written right away
+        assertTrue(write("package.three"));
+        assertTrue(getRulesFile("package.three").exists());
+    }
+
+    private void blockComponents(String packageName) {
+        throw new IllegalStateException("Could not block components of " + packageName);
+    }
+
+    private boolean write(String packageName) {
+        AtomicExtendedFile file = new AtomicExtendedFile(Objects.requireNonNull(Paths.get(getRulesFile(packageName))
+                .getFile()));
+        return IntentFirewallTransaction.write(packageName, file, ("<rules>" + packageName + "</rules>")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    private File getRulesFile(String packageName) {
+        return new File(mIfwDir, packageName + ".xml");
+    }
+}
@@ -0,0 +1,45 @@
+// SPDX-License-Identifier: GPL-3.0-or-later
+
+package io.github.muntashirakon.AppManager.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MultiStringMatcherTest {
+    @Test
+    public void testFindFirst() {
+        MultiStringMatcher matcher = new MultiStringMatcher(new String[]{"com.google.ads.", "ads.", "com.facebook.",
+                "facebook.ads"});
+        assertEquals(0, matcher.findFirst("com.google.ads.AdActivity"));
+        assertEquals(1, matcher.findFirst("com.example.ads.Banner"));
+        assertEquals(1, matcher.findFirst("com.facebook.ads.AudienceNetworkActivity"));
+        assertEquals(2, matcher.findFirst("com.facebook.katana.LoginActivity"));
+        assertEquals(3, matcher.findFirst("net.facebook.ads"));
+        assertEquals(-1, matcher.findFirst("com.example.MainActivity"));
+        assertEquals(-1, matcher.findFirst(""));
+    }
+
+    @Test
+    public void testOverlappingStrings() {
+        // Matches ending at the failure states must be reported too
+        MultiStringMatcher matcher = new MultiStringMatcher(new String[]{"abcd", "bc", "c"});
+        assertEquals(1, matcher.findFirst("xabcx"));
+        assertEquals(0, matcher.findFirst("abcd"));
+        matcher = new MultiStringMatcher(new String[]{"abcd", "bcx"});
+        assertEquals(1, matcher.findFirst("abcx"));
+    }
+
+    @Test
+    public void testMatches() {
+        MultiStringMatcher matcher = new MultiStringMatcher(new String[]{"he", "she", "his", "hers"});
+        assertTrue(matcher.matches("ushers"));
+        assertTrue(matcher.matches("this"));
+        assertFalse(matcher.matches("sh"));
+        assertFalse(new MultiStringMatcher(new String[0]).matches("anything"));
+        // Empty string matches everything like String#contains()
+        assertTrue(new MultiStringMatcher(new String[]{""}).matches("anything"));
+    }
+}
@@ -12,6 +12,7 @@ import androidx.annotation.VisibleForTesting;
 
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
 import org.junit.After;
 import org.junit.Before;
@@ -20,13 +21,18 @@ import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 import io.github.muntashirakon.io.IoUtils;
 import io.github.muntashirakon.io.Path;
@@ -372,6 +378,40 @@ public class TarUtilsTest {
         }
     }
 
+    @Test
+    public void testCreateTarGZipInParallel() throws Throwable {
+        List<Path> files = TarUtils.create(TarUtils.TAR_GZIP, testRoot, tmpRoot, "am.tar.gz", null, null, null,
+                false, 4);
+        List<String> actualPaths = getFileNamesGZip(files);
+        Collections.sort(actualPaths);
+        assertEquals(Arrays.asList("plain.txt", "prefixed/", "prefixed/prefixed_exclude.txt",
+                "prefixed/prefixed_include.txt", "raw/", "raw/exclude.txt", "raw/include.txt"), actualPaths);
+    }
+
+    @Test
+    public void testParallelCompressionRoundTrip() throws Throwable {
+        // Large enough to be split into multiple blocks for both GZip and BZip2
+        byte[] data = new byte[3 * 1024 * 1024 + 17];
+        Random random = new Random(0);
+        for (int i = 0; i < data.length; ++i) {
+            // Compressible, but not trivially
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        for (String type : new String[]{TarUtils.TAR_GZIP, TarUtils.TAR_BZIP2}) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream os = TarUtils.getCompressorOutputStream(type, compressed, 4)) {
+                os.write(data);
+            }
+            ByteArrayInputStream bis = new ByteArrayInputStream(compressed.toByteArray());
+            try (InputStream is = TarUtils.TAR_GZIP.equals(type) ? new GzipCompressorInputStream(bis, true)
+                    : new BZip2CompressorInputStream(bis, true)) {
+                ByteArrayOutputStream decompressed = new ByteArrayOutputStream(data.length);
+                IoUtils.copy(is, decompressed);
+                assertArrayEquals(type, data, decompressed.toByteArray());
+            }
+        }
+    }
+
     @NonNull
     public static List<String> getFileNamesGZip(@NonNull List<Path> tarFiles) throws IOException {
         List<String> fileNames = new ArrayList<>();
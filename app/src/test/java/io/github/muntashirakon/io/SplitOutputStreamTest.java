@@ -15,11 +15,13 @@ import org.robolectric.RobolectricTestRunner;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
+import io.github.muntashirakon.AppManager.utils.DigestOutputStream;
 import io.github.muntashirakon.AppManager.utils.DigestUtils;
 
 @RunWith(RobolectricTestRunner.class)
@@ -55,6 +57,32 @@ public class SplitOutputStreamTest {
         assertEquals(expectedHashes, actualHashes);
     }
 
+    @Test
+    public void writeWithPartStreamWrapper() throws IOException {
+        List<String> partHashes = new ArrayList<>();
+        List<Path> parts;
+        try (SplitOutputStream sos = new SplitOutputStream(Paths.get("/tmp"), "AppManager_v2.5.22.apks", 1024000,
+                ".part", (part, os) -> {
+            DigestOutputStream dos = new DigestOutputStream(os, DigestUtils.SHA_256);
+            return new FilterOutputStream(dos) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    partHashes.add(dos.getHexDigest());
+                }
+            };
+        })) {
+            IoUtils.copy(inputStream, sos);
+            parts = sos.getFiles();
+        }
+        for (int i = 0; i < parts.size(); ++i) {
+            File file = new File("/tmp/AppManager_v2.5.22.apks." + i + ".part");
+            assertEquals(file.getAbsolutePath(), parts.get(i).getFilePath());
+            junkFiles.add(file);
+        }
+        assertEquals(getExpectedHashes(), partHashes);
+    }
+
     @NonNull
     private List<String> getExpectedHashes() {
         List<String> expectedHashes = new ArrayList<>();
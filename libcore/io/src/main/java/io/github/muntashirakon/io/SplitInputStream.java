@@ -13,9 +13,26 @@ import java.util.Arrays;
 import java.util.List;
 
 public class SplitInputStream extends InputStream {
+    /**
+     * Wraps the stream of each part before anything is read from it. This allows a part to be transformed (e.g.
+     * decrypted) and inspected (e.g. verified) in the same pass in which it is read.
+     */
+    public interface PartStreamWrapper {
+        /**
+         * @param part The file backing this part
+         * @param is   Input stream of the file
+         * @return The stream from which the part should be read. Closing it must close {@code is}.
+         */
+        @WorkerThread
+        @NonNull
+        InputStream wrap(@NonNull Path part, @NonNull InputStream is) throws IOException;
+    }
+
     private final List<InputStream> mInputStreams;
     private int mCurrentIndex = -1;
     private final List<Path> mFiles;
+    @Nullable
+    private final PartStreamWrapper mPartStreamWrapper;
 
     private final byte[] mBuf;
 
@@ -42,13 +59,25 @@ public class SplitInputStream extends InputStream {
     // 0 <= markBufCount <= markLimit
 
     public SplitInputStream(@NonNull List<Path> files) {
+        this(files, null);
+    }
+
+    public SplitInputStream(@NonNull Path[] files) {
+        this(Arrays.asList(files));
+    }
+
+    /**
+     * @param partStreamWrapper Wrapper applied to each part. The parts are concatenated after being wrapped.
+     */
+    public SplitInputStream(@NonNull List<Path> files, @Nullable PartStreamWrapper partStreamWrapper) {
         mFiles = files;
+        mPartStreamWrapper = partStreamWrapper;
         mInputStreams = new ArrayList<>(files.size());
         mBuf = new byte[1024 * 4];
     }
 
-    public SplitInputStream(@NonNull Path[] files) {
-        this(Arrays.asList(files));
+    public SplitInputStream(@NonNull Path[] files, @Nullable PartStreamWrapper partStreamWrapper) {
+        this(Arrays.asList(files), partStreamWrapper);
     }
 
     @Override
@@ -206,7 +235,7 @@ public class SplitInputStream extends InputStream {
                 return -1;
             } else if (mCurrentIndex == -1) {
                 // Initialize a new stream
-                mInputStreams.add(mFiles.get(0).openInputStream());
+                mInputStreams.add(openPart(0));
                 ++mCurrentIndex;
             }
             do {
@@ -214,7 +243,7 @@ public class SplitInputStream extends InputStream {
                 if (readCount <= 0) {
                     // This stream has been read completely, initialize new stream if available
                     if (mCurrentIndex + 1 != mFiles.size()) {
-                        mInputStreams.add(mFiles.get(mCurrentIndex + 1).openInputStream());
+                        mInputStreams.add(openPart(mCurrentIndex + 1));
                         ++mCurrentIndex;
                     } else {
                         // Last stream reached
@@ -238,4 +267,15 @@ public class SplitInputStream extends InputStream {
             throw new IOException(th);
         }
     }
+
+    @WorkerThread
+    @NonNull
+    private InputStream openPart(int index) throws IOException {
+        Path part = mFiles.get(index);
+        InputStream is = part.openInputStream();
+        if (mPartStreamWrapper != null) {
+            return mPartStreamWrapper.wrap(part, is);
+        }
+        return is;
+    }
 }
@@ -3,6 +3,7 @@
 package io.github.muntashirakon.io;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import java.io.IOException;
@@ -11,25 +12,57 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class SplitOutputStream extends OutputStream {
+    /**
+     * Wraps the stream of each part before anything is written to it. This allows a part to be transformed (e.g.
+     * encrypted) and inspected (e.g. hashed) in the same pass in which it is written.
+     */
+    public interface PartStreamWrapper {
+        /**
+         * @param part The file backing this part
+         * @param os   Output stream of the file
+         * @return The stream to which the part should be written. Closing it must close {@code os}.
+         */
+        @WorkerThread
+        @NonNull
+        OutputStream wrap(@NonNull Path part, @NonNull OutputStream os) throws IOException;
+    }
+
     private static final long MAX_BYTES_WRITTEN = 1024 * 1024 * 1024;  // 1GB
 
     private final List<OutputStream> mOutputStreams = new ArrayList<>(1);
     private final List<Path> mFiles = new ArrayList<>(1);
     private int mCurrentIndex = -1;
     private long mBytesWritten;
+    private boolean mClosed;
     private final long mMaxBytesPerFile;
     private final String mBaseName;
     private final Path mBasePath;
+    @NonNull
+    private final String mPartSuffix;
+    @Nullable
+    private final PartStreamWrapper mPartStreamWrapper;
 
     public SplitOutputStream(@NonNull Path basePath, @NonNull String baseName) {
         this(basePath, baseName, MAX_BYTES_WRITTEN);
     }
 
     public SplitOutputStream(@NonNull Path basePath, @NonNull String baseName, long maxBytesPerFile) {
+        this(basePath, baseName, maxBytesPerFile, null, null);
+    }
+
+    /**
+     * @param partSuffix        Suffix appended to each part after its index (e.g. {@code .aes})
+     * @param partStreamWrapper Wrapper applied to each part. The split size is calculated based on the bytes written
+     *                          to the wrapped stream.
+     */
+    public SplitOutputStream(@NonNull Path basePath, @NonNull String baseName, long maxBytesPerFile,
+                             @Nullable String partSuffix, @Nullable PartStreamWrapper partStreamWrapper) {
         mBasePath = basePath;
         mBaseName = baseName;
         mMaxBytesPerFile = maxBytesPerFile;
         mBytesWritten = maxBytesPerFile;
+        mPartSuffix = partSuffix != null ? partSuffix : "";
+        mPartStreamWrapper = partStreamWrapper;
     }
 
     public List<Path> getFiles() {
@@ -71,6 +104,11 @@ public class SplitOutputStream extends OutputStream {
     @WorkerThread
     @Override
     public void close() throws IOException {
+        // Parts may finalise their content when closed (e.g. cipher streams), so they must not be closed twice
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
         for (OutputStream stream : mOutputStreams) {
             stream.close();
         }
@@ -82,7 +120,11 @@ public class SplitOutputStream extends OutputStream {
             // Need to create a new stream
             Path newFile = getNextFile();
             mFiles.add(newFile);
-            mOutputStreams.add(newFile.openOutputStream());
+            OutputStream os = newFile.openOutputStream();
+            if (mPartStreamWrapper != null) {
+                os = mPartStreamWrapper.wrap(newFile, os);
+            }
+            mOutputStreams.add(os);
             ++mCurrentIndex;
             mBytesWritten = 0;
         }
@@ -90,6 +132,6 @@ public class SplitOutputStream extends OutputStream {
 
     @NonNull
     private Path getNextFile() throws IOException {
-        return mBasePath.createNewFile(mBaseName + "." + (mCurrentIndex + 1), null);
+        return mBasePath.createNewFile(mBaseName + "." + (mCurrentIndex + 1) + mPartSuffix, null);
     }
 }